@@ -53,7 +53,7 @@ object Serializer {
   /**
    * lzma properties with:
    * encoder.SetEndMarkerMode(true)     // must set true
-   * encoder.SetDictionarySize(1 << 20) // 1048576
+   * encoder.SetDictionarySize(1 << 20) // 1048576, at most, see SevenZip.LzmaCodec
    */
   val lzmaProps = Array[Byte](93, 0, 0, 16, 0)
   
@@ -142,38 +142,21 @@ object Serializer {
     body
   }
 
+  /**
+   * Uses the LzmaCodec of current thread, which keeps its encoder/decoder
+   * tables and windows across messages instead of allocating them per message.
+   * The encoder preset is chosen by message size, see
+   * SevenZip.Compression.LZMA.Encoder.Preset.ForSize, all presets decode with
+   * lzmaProps.
+   */
   @throws(classOf[IOException])
   def lzma(input: Array[Byte]): Array[Byte] = {
-    val in = new ByteArrayInputStream(input)
-    val out = new ByteArrayOutputStream
-
-    val encoder = new SevenZip.Compression.LZMA.Encoder
-    encoder.SetEndMarkerMode(true)     // must set true
-    encoder.SetDictionarySize(1 << 20) // 1048576
-
-    encoder.Code(in, out, -1, -1, null)
-
-    val body = out.toByteArray
-
-    in.close
-    out.close
-    body
+    SevenZip.LzmaCodec.Get.Compress(input)
   }
 
   @throws(classOf[IOException])
   def unlzma(input: Array[Byte]): Array[Byte] = {
-    val in = new ByteArrayInputStream(input)
-    val out = new ByteArrayOutputStream
-
-    val decoder = new SevenZip.Compression.LZMA.Decoder
-    decoder.SetDecoderProperties(lzmaProps)
-    decoder.Code(in, out, -1)
-
-    val body = out.toByteArray
-
-    in.close
-    out.close
-    body
+    SevenZip.LzmaCodec.Get.Decompress(input)
   }
 
 }
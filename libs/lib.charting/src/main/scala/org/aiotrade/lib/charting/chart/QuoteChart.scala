@@ -84,6 +84,8 @@ class QuoteChart extends AbstractChart {
 
   private var posColor: Color = _
   private var negColor: Color = _
+  /** when set, it's used instead of the view's, e.g. on a datumPlane without view */
+  var quoteChartType: Type = _
     
 
   protected def createModel: Model = new Model
@@ -102,7 +104,7 @@ class QuoteChart extends AbstractChart {
     val color = posColor
     setForeground(color)
         
-    val tpe = datumPlane.view.asInstanceOf[WithQuoteChart].quoteChartType
+    val tpe = if (quoteChartType != null) quoteChartType else datumPlane.view.asInstanceOf[WithQuoteChart].quoteChartType
     tpe match {
       case Type.Candle | Type.Ohlc =>
         plotCandleOrOhlcChart(tpe)
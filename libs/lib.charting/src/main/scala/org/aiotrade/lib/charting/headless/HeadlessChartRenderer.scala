@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.charting.headless
+
+import java.awt.Graphics2D
+import java.awt.RenderingHints
+import java.awt.image.BufferedImage
+import java.io.File
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.ThreadFactory
+import javax.imageio.ImageIO
+import org.aiotrade.lib.charting.chart.Chart
+import org.aiotrade.lib.charting.chart.ChartFactory
+import org.aiotrade.lib.charting.chart.GradientChart
+import org.aiotrade.lib.charting.chart.QuoteChart
+import org.aiotrade.lib.charting.chart.StickChart
+import org.aiotrade.lib.charting.chart.VolumeChart
+import org.aiotrade.lib.charting.laf.LookFeel
+import org.aiotrade.lib.charting.view.pane.Pane
+import org.aiotrade.lib.math.indicator.Plot
+import org.aiotrade.lib.math.timeseries.Null
+import org.aiotrade.lib.math.timeseries.TSer
+import org.aiotrade.lib.math.timeseries.TVar
+import org.aiotrade.lib.securities.QuoteSer
+import scala.collection.mutable.ArrayBuffer
+
+/**
+ * Renders quote, volume and indicator charts of a QuoteSer straight onto
+ * off-screen images, without any ChartView, JFrame or EDT: each pane is a
+ * HeadlessDatumPlane of the requested geometry, on which the charts are
+ * plotted and rendered as ChartPane does.
+ *
+ * Jobs submitted run in parallel on a fixed thread pool, each worker renders
+ * into its own image buffer, which is reused as long as the size of jobs keeps
+ * the same, and writes it to file before taking next job.
+ *
+ * Sers are read while plotting, they should not be computing meanwhile.
+ *
+ * @author Caoyuan Deng
+ */
+class HeadlessChartRenderer(nThreads: Int = Runtime.getRuntime.availableProcessors) {
+  import HeadlessChartRenderer._
+
+  private val executor: ExecutorService = Executors.newFixedThreadPool(nThreads, new ThreadFactory {
+      def newThread(r: Runnable) = {
+        val t = new Thread(r, "HeadlessChartRenderer")
+        t.setDaemon(true)
+        t
+      }
+    })
+
+  /** image buffer of each worker thread */
+  private val threadImage = new ThreadLocal[BufferedImage]
+
+  private def imageOf(width: Int, height: Int): BufferedImage = {
+    val image = threadImage.get
+    if (image != null && image.getWidth == width && image.getHeight == height) {
+      image
+    } else {
+      val newImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB)
+      threadImage.set(newImage)
+      newImage
+    }
+  }
+
+  /**
+   * Renders job into a new image, on calling thread.
+   */
+  def render(job: Job): BufferedImage = {
+    val image = new BufferedImage(job.width, job.height, BufferedImage.TYPE_INT_RGB)
+    render(job, image)
+    image
+  }
+
+  /**
+   * Renders job into the upper-left job.width x job.height of image, on
+   * calling thread.
+   */
+  def render(job: Job, image: BufferedImage) {
+    val g = image.createGraphics
+    try {
+      renderJob(job, g)
+    } finally {
+      g.dispose
+    }
+  }
+
+  /**
+   * Renders job on the pool and writes it into file, format by extension of
+   * file, png if there's none.
+   * @return future of file
+   */
+  def submit(job: Job, file: File): Future[File] = {
+    executor.submit(new Callable[File] {
+        def call = {
+          val image = imageOf(job.width, job.height)
+          render(job, image)
+          if (!ImageIO.write(image, formatOf(file), file)) {
+            throw new IllegalArgumentException("No image writer for " + file)
+          }
+          file
+        }
+      })
+  }
+
+  def submitAll(jobs: Seq[(Job, File)]): Seq[Future[File]] = {
+    jobs map {case (job, file) => submit(job, file)}
+  }
+
+  def shutdown {
+    executor.shutdown
+  }
+
+  private def renderJob(job: Job, g: Graphics2D) {
+    val quoteSer = job.quoteSer
+    val endRow = math.min(quoteSer.rowOfTime(job.toTime), quoteSer.size - 1)
+    val begRow = math.max(quoteSer.rowOfTime(job.fromTime), 0)
+    val nBars = math.max(endRow - begRow + 1, 1)
+    val wBar = job.width.toDouble / nBars
+    val times = Array.tabulate(nBars)(i => quoteSer.timeOfRow(endRow - nBars + 1 + i))
+
+    val laf = LookFeel()
+    g.setColor(laf.backgroundColor)
+    g.fillRect(0, 0, job.width, job.height)
+    if (laf.isAntiAlias) {
+      g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON)
+    }
+
+    /** main pane has weight of 3, volume and each indicator pane 1 */
+    val panes = new ArrayBuffer[PaneSpec]
+    val quoteChart = new QuoteChart
+    quoteChart.model.set(quoteSer.open, quoteSer.high, quoteSer.low, quoteSer.close)
+    quoteChart.quoteChartType = job.quoteChartType
+    quoteChart.depth = Pane.DEPTH_DEFAULT
+    val (minQuote, maxQuote) = quoteRange(quoteSer, times)
+    val title = if (job.title != null) job.title else quoteSer.displayName
+    panes += PaneSpec(3, title, minQuote, maxQuote, (quoteSer, quoteChart) :: (job.overlappingSers flatMap (chartsOf(_, quoteSer.high, quoteSer.low))).toList)
+
+    if (job.withVolume) {
+      val volumeChart = new VolumeChart
+      volumeChart.depth = Pane.DEPTH_DEFAULT
+      panes += PaneSpec(1, "Vol", 0, maxVolume(quoteSer, times), List((quoteSer, volumeChart)))
+    }
+
+    for (ser <- job.indicatorSers) {
+      val (min, max) = indicatorRange(ser, times)
+      panes += PaneSpec(1, ser.displayName, min, max, chartsOf(ser))
+    }
+
+    val sumWeight = panes.map(_.weight).sum
+    var y = 0
+    var i = 0
+    while (i < panes.length) {
+      val pane = panes(i)
+      val h = if (i == panes.length - 1) job.height - y else job.height * pane.weight / sumWeight
+      val plane = new HeadlessDatumPlane(quoteSer, endRow, nBars, wBar, job.width, h, pane.min, pane.max, TitleHeight)
+      renderPane(g, y, job.width, h, plane, pane)
+      y += h
+      i += 1
+    }
+  }
+
+  private def renderPane(g: Graphics2D, y: Int, width: Int, height: Int, plane: HeadlessDatumPlane, pane: PaneSpec) {
+    val backupTransform = g.getTransform
+    val backupClip = g.getClip
+    g.translate(0, y)
+    g.clipRect(0, 0, width, height)
+    try {
+      for ((ser, chart) <- pane.charts sortWith (_._2.depth < _._2.depth)) {
+        chart.set(plane, ser)
+        chart.plot
+        chart.render(g)
+      }
+
+      val laf = LookFeel()
+      g.setFont(laf.axisFont)
+      val ascent = g.getFontMetrics.getAscent
+      g.setColor(laf.nameColor)
+      g.drawString(pane.title, 2, ascent)
+      g.setColor(laf.axisColor)
+      val maxStr = formatValue(pane.max)
+      val minStr = formatValue(pane.min)
+      g.drawString(maxStr, width - g.getFontMetrics.stringWidth(maxStr) - 2, plane.yChartUpper + ascent)
+      g.drawString(minStr, width - g.getFontMetrics.stringWidth(minStr) - 2, plane.yChartLower - 2)
+      g.setColor(laf.borderColor)
+      g.drawLine(0, height - 1, width, height - 1)
+    } finally {
+      g.setClip(backupClip)
+      g.setTransform(backupTransform)
+    }
+  }
+}
+
+object HeadlessChartRenderer {
+  private val TitleHeight = 12
+
+  /**
+   * @param overlappingSers sers drawn on quote pane, such as MA
+   * @param indicatorSers sers drawn each on its own pane below
+   * @param title of quote pane, displayName of quoteSer if null
+   */
+  case class Job(quoteSer: QuoteSer, fromTime: Long, toTime: Long, width: Int, height: Int,
+                 overlappingSers: Seq[TSer] = Nil, indicatorSers: Seq[TSer] = Nil,
+                 withVolume: Boolean = true, quoteChartType: QuoteChart.Type = QuoteChart.Type.Candle,
+                 title: String = null)
+
+  private case class PaneSpec(weight: Int, title: String, min: Double, max: Double, charts: List[(TSer, Chart)])
+
+  /**
+   * Charts of ser's vars, with depths as IndicatorChartView puts them. Profile
+   * plots are skipped, they follow the cursor of a view.
+   * @param signalVars high and low vars that signals are placed on, if any
+   */
+  private def chartsOf(ser: TSer, signalVars: TVar[_]*): List[(TSer, Chart)] = {
+    var depth = Pane.DEPTH_CHART_BEGIN
+    var depthGradient = Pane.DEPTH_GRADIENT_BEGIN
+    val charts = new ArrayBuffer[(TSer, Chart)]
+    for (v <- ser.vars if v.plot != Plot.None && v.plot != Plot.Profile;
+         chart = (if (v.plot == Plot.Signal) ChartFactory.createVarChart(v, signalVars: _*) else ChartFactory.createVarChart(v))
+         if chart != null
+    ) {
+      chart match {
+        case _: GradientChart => chart.depth = depthGradient; depthGradient -= 1
+        case _: StickChart => chart.depth = -8
+        case _ => chart.depth = depth; depth += 1
+      }
+      charts += ((ser, chart))
+    }
+    charts.toList
+  }
+
+  private def quoteRange(ser: QuoteSer, times: Array[Long]): (Double, Double) = {
+    var min = Double.MaxValue
+    var max = Double.MinValue
+    for (time <- times if ser.exists(time) && ser.close(time) != 0) {
+      max = math.max(max, ser.high(time))
+      min = math.min(min, ser.low(time))
+    }
+    adjustRange(min, max)
+  }
+
+  private def maxVolume(ser: QuoteSer, times: Array[Long]): Double = {
+    var max = 0.0
+    for (time <- times if ser.exists(time)) {
+      max = math.max(max, ser.volume(time))
+    }
+    if (max == 0) 1 else max
+  }
+
+  /** as IndicatorChartView.computeMaxMin */
+  private def indicatorRange(ser: TSer, times: Array[Long]): (Double, Double) = {
+    var min = Double.MaxValue
+    var max = Double.MinValue
+    var shouldMinBeZero = false
+    for (time <- times if ser.exists(time);
+         v <- ser.vars if v.plot != Plot.None;
+         value = v.double(time) if Null.not(value)
+    ) {
+      if (v.plot == Plot.Volume) {
+        shouldMinBeZero = true
+      }
+      max = math.max(max, value)
+      min = math.min(min, value)
+    }
+    if (shouldMinBeZero) min = 0
+    adjustRange(min, max)
+  }
+
+  private def adjustRange(min: Double, max: Double): (Double, Double) = {
+    if (min > max) (0, 1) // nothing in range
+    else if (max == min) (min, max + 1)
+    else (min, max)
+  }
+
+  private def formatValue(v: Double): String = {
+    if (math.abs(v) >= 1000000) "%.3e".format(v)
+    else if (math.abs(v) >= 100) "%.0f".format(v)
+    else "%.2f".format(v)
+  }
+
+  private def formatOf(file: File): String = {
+    val name = file.getName
+    name.lastIndexOf('.') match {
+      case dot if dot >= 0 && dot < name.length - 1 => name.substring(dot + 1).toLowerCase
+      case _ => "png"
+    }
+  }
+}
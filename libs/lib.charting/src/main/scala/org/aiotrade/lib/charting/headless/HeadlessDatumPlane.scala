@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.charting.headless
+
+import org.aiotrade.lib.charting.util.GeomUtil
+import org.aiotrade.lib.charting.view.ChartView
+import org.aiotrade.lib.charting.view.pane.DatumPlane
+import org.aiotrade.lib.charting.view.scalar.LinearScalar
+import org.aiotrade.lib.charting.view.scalar.Scalar
+import org.aiotrade.lib.math.timeseries.BaseTSer
+
+/**
+ * A DatumPlane of fixed geometry that is not a component: the x-y coordinate
+ * of AbstractDatumPlane, but with bars, wBar and value range given instead of
+ * fetched from a view and controller. It has no view, so charts plotted on it
+ * shouldn't ask for one (set QuoteChart.quoteChartType).
+ *
+ * @param rightSideRow row of baseSer at the last bar
+ * @param hSpaceUpper pixels left at upper side, e.g. for title
+ *
+ * @author Caoyuan Deng
+ */
+class HeadlessDatumPlane(val baseSer: BaseTSer, rightSideRow: Int, val nBars: Int, val wBar: Double,
+                         width: Int, height: Int, val minValue: Double, val maxValue: Double,
+                         hSpaceUpper: Int = 0
+) extends DatumPlane {
+
+  private var _valueScalar: Scalar = new LinearScalar
+  private var _yChartScale = 1.0
+  private var _hChartScrolled = 0
+
+  private var _hCanvas: Int = _
+  private var _hChart: Int = _
+  private var _yCanvasLower: Int = _
+  private var _yChartLower: Int = _
+  private var _hOne: Double = _
+  private var _maxScaledValue: Double = _
+  private var _minScaledValue: Double = _
+
+  computeGeometry
+
+  def getWidth = width
+  def getHeight = height
+
+  def isMouseEntered = false
+  def yMouse = 0
+  def referCursorValue = 0.0
+  def isAutoReferCursorValue = false
+
+  def view: ChartView = null
+
+  def computeGeometry {
+    val hSpaceLower = 1
+    _maxScaledValue = _valueScalar.doScale(maxValue)
+    _minScaledValue = _valueScalar.doScale(minValue)
+    _hCanvas = height - hSpaceLower - hSpaceUpper
+    _hChart = (_hCanvas * _yChartScale).toInt
+    val hChartOffsetToCanvas = _hChartScrolled + ((_hCanvas - _hChart) * 0.5).toInt
+    _yCanvasLower = hSpaceUpper + _hCanvas
+    _yChartLower = _yCanvasLower - hChartOffsetToCanvas
+    _hOne = math.max(_hChart.toDouble / (_maxScaledValue - _minScaledValue), 0.0000000001)
+  }
+
+  def isGeometryValid = true
+
+  def hOne = _hOne
+
+  final def xb(barIndex: Int): Double = wBar * (barIndex - 1)
+  final def bx(x: Double): Int = math.round(x / wBar + 1).toInt
+
+  final def xr(row: Int): Double = xb(br(row))
+  final def rx(x: Double): Int = rb(bx(x))
+
+  final def yv(value: Double): Double = {
+    GeomUtil.yv(_valueScalar.doScale(value), _hOne, _minScaledValue, _yChartLower)
+  }
+  final def vy(y: Double): Double = {
+    _valueScalar.unScale(GeomUtil.vy(y, _hOne, _minScaledValue, _yChartLower))
+  }
+
+  final def rb(barIndex: Int): Int = rightSideRow - nBars + barIndex
+  final def br(row: Int): Int = row - rightSideRow + nBars
+
+  final def tb(barIndex: Int): Long = baseSer.timeOfRow(rb(barIndex))
+  final def bt(time: Long): Int = br(baseSer.rowOfTime(time))
+
+  final def tx(x: Double): Long = tb(bx(x))
+
+  def hCanvas = _hCanvas
+  def yCanvasLower = _yCanvasLower
+  def yCanvasUpper = hSpaceUpper
+
+  def hChart = _hChart
+  def yChartLower = _yChartLower
+  def yChartUpper = _yChartLower - _hChart
+
+  def valueScalar = _valueScalar
+  def valueScalar_=(valueScalar: Scalar) {
+    _valueScalar = valueScalar
+    computeGeometry
+  }
+
+  def yChartScale = _yChartScale
+  def yChartScale_=(yChartScale: Double) {
+    _yChartScale = yChartScale
+    computeGeometry
+  }
+
+  def growYChartScale(increment: Double) {
+    yChartScale = _yChartScale + increment
+  }
+
+  def yChartScaleByCanvasValueRange_=(canvasValueRange: Double) {
+    val oldCanvasValueRange = vy(yCanvasUpper) - vy(yCanvasLower)
+    yChartScale = _yChartScale * oldCanvasValueRange / canvasValueRange
+  }
+
+  def scrollChartsVerticallyByPixel(increment: Int) {
+    _hChartScrolled += increment
+    computeGeometry
+  }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.charting.view
+
+import java.awt.EventQueue
+import java.awt.Rectangle
+import java.awt.image.BufferedImage
+import java.awt.image.ColorModel
+import java.awt.image.Raster
+import java.awt.image.RenderedImage
+import java.awt.image.SampleModel
+import java.awt.image.WritableRaster
+import java.io.File
+import java.lang.reflect.InvocationTargetException
+import java.util.concurrent.CancellationException
+import java.util.logging.Logger
+import javax.imageio.ImageIO
+
+/**
+ * Called on the exporting thread after each band is painted
+ */
+trait ImageExportListener {
+  def progress(nBandsDone: Int, nBands: Int)
+}
+
+/**
+ * Exports a viewContainer, laid out to show the bars from begTime to endTime at
+ * current wBar and in height, into an image file of any width with bounded
+ * memory.
+ *
+ * The image is handed to ImageIO as a RenderedImage of horizontal bands (full
+ * width, bandHeight rows), each band is painted when the writer asks for its
+ * rows, into one reused band buffer. Image writers that pull rows in order,
+ * as the png one, keep only that band in memory.
+ *
+ * export is supposed to run on a worker thread: each band is painted on the
+ * EDT in one go (lay out, paint, restore the container), so the UI stays
+ * responsive between bands and never shows the container in export layout,
+ * while encoding and writing happen on the worker thread.
+ *
+ * @author Caoyuan Deng
+ */
+class ChartImageExporter(container: ChartViewContainer, begTime: Long, endTime: Long, val height: Int) {
+  import ChartImageExporter._
+
+  private val controller = container.controller
+  private val begRow = controller.baseSer.rowOfTime(begTime)
+  private val endRow = controller.baseSer.rowOfTime(endTime)
+  val width = math.max(1, ((endRow - begRow) * controller.wBar).toInt)
+  val bandHeight = math.max(1, math.min(height, MaxBandPixels / width))
+  val nBands = (height + bandHeight - 1) / bandHeight
+
+  @volatile private var _isCancelled = false
+
+  def isCancelled = _isCancelled
+
+  /** Stops export before the next band, export then throws CancellationException */
+  def cancel {
+    _isCancelled = true
+  }
+
+  /**
+   * Blocks until the image is written. A partially written file is deleted
+   * on failure or cancel.
+   */
+  @throws(classOf[Exception])
+  def export(file: File, fileFormat: String, listener: ImageExportListener) {
+    val image = new BandedImage(listener)
+    var done = false
+    try {
+      if (!ImageIO.write(image, fileFormat, file)) {
+        throw new IllegalArgumentException("No image writer for " + fileFormat)
+      }
+      done = true
+    } finally {
+      if (!done && file.exists && !file.delete) {
+        log.warning("Could not delete partial image " + file)
+      }
+    }
+  }
+
+  /**
+   * Paints rows from y of the container in export layout into band.
+   */
+  private def paintBand(band: BufferedImage, y: Int) {
+    val masterView = container.masterView
+
+    /** backup: */
+    val backupRect = container.getBounds()
+    val backupRightCursorPos = controller.rightSideRow
+    val backupReferCursorPos = controller.referCursorRow
+
+    if (masterView.xControlPane != null) masterView.xControlPane.setVisible(false)
+    if (masterView.yControlPane != null) masterView.yControlPane.setVisible(false)
+    controller.setCursorByRow(backupReferCursorPos, endRow, true)
+    container.setBounds(0, 0, width, height)
+    container.validate
+
+    val g = band.createGraphics
+    try {
+      g.translate(0, -y)
+      g.setClip(0, y, width, band.getHeight)
+      container.paint(g)
+    } finally {
+      g.dispose
+
+      /** restore: */
+      controller.setCursorByRow(backupReferCursorPos, backupRightCursorPos, true)
+      container.setBounds(backupRect)
+      container.validate
+      if (masterView.xControlPane != null) masterView.xControlPane.setVisible(true)
+      if (masterView.yControlPane != null) masterView.yControlPane.setVisible(true)
+    }
+  }
+
+  private def onEdt(body: => Unit) {
+    if (EventQueue.isDispatchThread) {
+      body
+    } else {
+      try {
+        EventQueue.invokeAndWait(new Runnable {def run {body}})
+      } catch {case ex: InvocationTargetException => throw ex.getCause}
+    }
+  }
+
+  private class BandedImage(listener: ImageExportListener) extends RenderedImage {
+    private val band = new BufferedImage(width, bandHeight, BufferedImage.TYPE_INT_RGB)
+    private var bandIdx = -1
+
+    /** makes band hold band bandIdx */
+    private def loadBand(idx: Int) {
+      if (idx == bandIdx) return
+      if (_isCancelled) throw new CancellationException("Image export cancelled")
+
+      onEdt {paintBand(band, idx * bandHeight)}
+      bandIdx = idx
+      if (listener != null) listener.progress(idx + 1, nBands)
+    }
+
+    def getWidth = width
+    def getHeight = height
+    def getMinX = 0
+    def getMinY = 0
+    def getNumXTiles = 1
+    def getNumYTiles = nBands
+    def getMinTileX = 0
+    def getMinTileY = 0
+    def getTileWidth = width
+    def getTileHeight = bandHeight
+    def getTileGridXOffset = 0
+    def getTileGridYOffset = 0
+    def getColorModel: ColorModel = band.getColorModel
+    def getSampleModel: SampleModel = band.getSampleModel
+    def getSources: java.util.Vector[RenderedImage] = null
+    def getProperty(name: String): AnyRef = java.awt.Image.UndefinedProperty
+    def getPropertyNames: Array[String] = null
+
+    def getTile(tileX: Int, tileY: Int): Raster = {
+      getData(new Rectangle(0, tileY * bandHeight, width, math.min(bandHeight, height - tileY * bandHeight)))
+    }
+
+    def getData: Raster = getData(new Rectangle(0, 0, width, height))
+
+    def getData(rect: Rectangle): Raster = {
+      copyData(band.getRaster.createCompatibleWritableRaster(rect.x, rect.y, rect.width, rect.height))
+    }
+
+    def copyData(raster: WritableRaster): WritableRaster = {
+      val bounds = raster.getBounds.intersection(new Rectangle(0, 0, width, height))
+      if (bounds.isEmpty) return raster
+
+      var idx = bounds.y / bandHeight
+      val lastIdx = (bounds.y + bounds.height - 1) / bandHeight
+      while (idx <= lastIdx) {
+        loadBand(idx)
+        val bandY = idx * bandHeight
+        val r = bounds.intersection(new Rectangle(0, bandY, width, bandHeight))
+        raster.setRect(band.getRaster.createChild(r.x, r.y - bandY, r.width, r.height, r.x, r.y, null))
+        idx += 1
+      }
+      raster
+    }
+  }
+}
+
+object ChartImageExporter {
+  private val log = Logger.getLogger(this.getClass.getName)
+
+  /** Pixels of a band, 32M bytes of TYPE_INT_RGB */
+  val MaxBandPixels = 8 * 1024 * 1024
+}
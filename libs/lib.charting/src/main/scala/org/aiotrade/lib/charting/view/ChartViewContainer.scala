@@ -275,23 +275,13 @@ abstract class ChartViewContainer extends JPanel {
     validate
   }
 
+  /**
+   * Paints in bands of bounded memory, see ChartImageExporter, which can also
+   * export off the EDT with progress.
+   */
   @throws(classOf[Exception])
   def saveToCustomSizeImage(file: File, fileFormat: String, begTime: Long, endTime: Long, height: Int) {
-    val begPos = _controller.baseSer.rowOfTime(begTime)
-    val endPos = _controller.baseSer.rowOfTime(endTime)
-    val nBars = endPos - begPos
-    val width = (nBars * _controller.wBar).toInt
-
-    /** backup: */
-    val backupRightCursorPos = _controller.rightSideRow
-    val backupReferCursorPos = _controller.referCursorRow
-
-    _controller.setCursorByRow(backupReferCursorPos, endPos, true)
-
-    saveToCustomSizeImage(file, fileFormat, width, height)
-
-    /** restore: */
-    _controller.setCursorByRow(backupReferCursorPos, backupRightCursorPos, true)
+    new ChartImageExporter(this, begTime, endTime, height).export(file, fileFormat, null)
   }
 
   @throws(classOf[Exception])
@@ -0,0 +1,503 @@
+
+package com.ib.client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A pool of EClientSocket connections to the same TWS, each one with its own
+ * clientId, reader thread and pacing limits.
+ *
+ * Market data, market depth and historical data requests are sharded to
+ * connections by tickerId, so all msgs of one tickerId come from the same
+ * connection in order. Callbacks of all connections are merged into the one
+ * EWrapper given to the pool, one callback at a time. Other requests, such as
+ * orders and account updates, go through the primary connection().
+ *
+ * A connection that is lost is reconnected periodically, and the market data
+ * and depth subscriptions of its shard are requested again once it is back.
+ * The wrapper only gets connectionClosed after eDisconnect of the pool.
+ */
+public class EClientPool {
+
+    public static final long DEFAULT_RECONNECT_INTERVAL = 5000;
+
+    private final EWrapper      m_eWrapper;
+    private final Member[]      m_members;
+    private final long          m_reconnectInterval;
+    private final Object        m_callbackLock = new Object();
+
+    private String  m_host;
+    private int     m_port;
+    private int     m_baseClientId;
+    private volatile boolean m_connected;
+    private Timer   m_reconnectTimer;
+
+    // active subscriptions to be restored after reconnecting, guarded by this
+    private final Map<Integer, Contract> m_mktDataReqs = new HashMap<Integer, Contract>();
+    private final Map<Integer, Contract> m_mktDepthReqs = new HashMap<Integer, Contract>();
+    private final Map<Integer, Integer>  m_mktDepthRows = new HashMap<Integer, Integer>();
+
+    public EClientPool( EWrapper eWrapper, int numConnections) {
+        this( eWrapper, numConnections, DEFAULT_RECONNECT_INTERVAL);
+    }
+
+    public EClientPool( EWrapper eWrapper, int numConnections, long reconnectInterval) {
+        if( numConnections < 1) {
+            throw new IllegalArgumentException( "numConnections should be positive");
+        }
+        m_eWrapper = eWrapper;
+        m_reconnectInterval = reconnectInterval;
+        m_members = new Member[numConnections];
+        for( int i = 0; i < numConnections; i++) {
+            m_members[i] = new Member( i);
+        }
+    }
+
+    public int size() {
+        return m_members.length;
+    }
+
+    /** the primary connection, used for everything that is not sharded */
+    public EClientSocket connection() {
+        return m_members[0].m_client;
+    }
+
+    public EClientSocket connection( int idx) {
+        return m_members[idx].m_client;
+    }
+
+    /** the connection that tickerId is sharded to */
+    public EClientSocket connectionOf( int tickerId) {
+        return memberOf( tickerId).m_client;
+    }
+
+    private Member memberOf( int tickerId) {
+        return m_members[(tickerId & Integer.MAX_VALUE) % m_members.length];
+    }
+
+    ///////////////////////////////////////////////////////////////////////
+    // Health
+    ///////////////////////////////////////////////////////////////////////
+
+    public boolean isConnected() {
+        return m_connected;
+    }
+
+    public boolean isConnected( int idx) {
+        return m_members[idx].m_client.isConnected();
+    }
+
+    public int connectedCount() {
+        int count = 0;
+        for( int i = 0; i < m_members.length; i++) {
+            if( m_members[i].m_client.isConnected()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /** times that connection idx has been lost since pool connected */
+    public int disconnectCount( int idx) {
+        return m_members[idx].m_disconnects;
+    }
+
+    /** times that connection idx has been reconnected since pool connected */
+    public int reconnectCount( int idx) {
+        return m_members[idx].m_reconnects;
+    }
+
+    ///////////////////////////////////////////////////////////////////////
+    // Connecting
+    ///////////////////////////////////////////////////////////////////////
+
+    /**
+     * Connects all members, member i gets clientId baseClientId + i.
+     *
+     * Members connect outside the lock of pool, since a connect blocks and its
+     * failure is reported to callbacks that take m_callbackLock, which reader
+     * threads hold while the wrapper calls back into the pool.
+     */
+    public void eConnect( String host, int port, int baseClientId) {
+        synchronized( this) {
+            if( m_connected) {
+                return;
+            }
+            m_host = host;
+            m_port = port;
+            m_baseClientId = baseClientId;
+            m_connected = true;
+        }
+
+        for( int i = 0; i < m_members.length; i++) {
+            if( !m_connected) {
+                // disconnected meanwhile, eDisconnect may have missed members connected since
+                for( int j = 0; j < i; j++) {
+                    m_members[j].m_client.eDisconnect();
+                }
+                return;
+            }
+            m_members[i].connect();
+        }
+
+        synchronized( this) {
+            if( m_connected && m_reconnectInterval > 0 && m_reconnectTimer == null) {
+                m_reconnectTimer = new Timer( "EClientPool-reconnect", true);
+                m_reconnectTimer.schedule( new TimerTask() {
+                    public void run() {
+                        reconnectLost();
+                    }
+                }, m_reconnectInterval, m_reconnectInterval);
+            }
+        }
+    }
+
+    public void eDisconnect() {
+        synchronized( this) {
+            if( !m_connected) {
+                return;
+            }
+            m_connected = false;
+            if( m_reconnectTimer != null) {
+                m_reconnectTimer.cancel();
+                m_reconnectTimer = null;
+            }
+            m_mktDataReqs.clear();
+            m_mktDepthReqs.clear();
+            m_mktDepthRows.clear();
+        }
+
+        for( int i = 0; i < m_members.length; i++) {
+            m_members[i].m_client.eDisconnect();
+        }
+        synchronized( m_callbackLock) {
+            m_eWrapper.connectionClosed();
+        }
+    }
+
+    /**
+     * Connects and resubscribes outside the lock of pool as eConnect does, only
+     * the subscriptions of the shard are copied under it.
+     */
+    private void reconnectLost() {
+        for( int i = 0; i < m_members.length; i++) {
+            Member member = m_members[i];
+            if( member.m_client.isConnected() || !m_connected) {
+                continue;
+            }
+
+            member.connect();
+            if( !member.m_client.isConnected()) {
+                continue;
+            }
+            member.m_reconnects++;
+
+            // restore subscriptions of this shard
+            Map<Integer, Contract> mktDataReqs = new HashMap<Integer, Contract>();
+            Map<Integer, Contract> mktDepthReqs = new HashMap<Integer, Contract>();
+            Map<Integer, Integer> mktDepthRows = new HashMap<Integer, Integer>();
+            synchronized( this) {
+                if( !m_connected) {
+                    return;
+                }
+                for( Map.Entry<Integer, Contract> entry : m_mktDataReqs.entrySet()) {
+                    if( memberOf( entry.getKey().intValue()) == member) {
+                        mktDataReqs.put( entry.getKey(), entry.getValue());
+                    }
+                }
+                for( Map.Entry<Integer, Contract> entry : m_mktDepthReqs.entrySet()) {
+                    if( memberOf( entry.getKey().intValue()) == member) {
+                        mktDepthReqs.put( entry.getKey(), entry.getValue());
+                        mktDepthRows.put( entry.getKey(), m_mktDepthRows.get( entry.getKey()));
+                    }
+                }
+            }
+
+            for( Map.Entry<Integer, Contract> entry : mktDataReqs.entrySet()) {
+                member.m_client.reqMktData( entry.getKey().intValue(), entry.getValue());
+            }
+            for( Map.Entry<Integer, Contract> entry : mktDepthReqs.entrySet()) {
+                member.m_client.reqMktDepth( entry.getKey().intValue(), entry.getValue(), mktDepthRows.get( entry.getKey()).intValue());
+            }
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////
+    // Sharded requests
+    ///////////////////////////////////////////////////////////////////////
+
+    public void reqMktData( int tickerId, Contract contract) {
+        synchronized( this) {
+            m_mktDataReqs.put( Integer.valueOf( tickerId), contract);
+        }
+        connectionOf( tickerId).reqMktData( tickerId, contract);
+    }
+
+    /**
+     * Groups a batch of subscriptions by connection and sends each group as
+     * one bulk request.
+     */
+    public void reqMktData( int[] tickerIds, List<Contract> contracts) {
+        int n = m_members.length;
+        List<List<Contract>> shardContracts = new ArrayList<List<Contract>>( n);
+        int[][] shardIds = new int[n][];
+        int[] shardSizes = new int[n];
+        for( int i = 0; i < n; i++) {
+            shardContracts.add( new ArrayList<Contract>());
+            shardIds[i] = new int[tickerIds.length];
+        }
+
+        synchronized( this) {
+            for( int i = 0; i < tickerIds.length; i++) {
+                int tickerId = tickerIds[i];
+                int shard = (tickerId & Integer.MAX_VALUE) % n;
+                shardIds[shard][shardSizes[shard]++] = tickerId;
+                shardContracts.get( shard).add( contracts.get( i));
+                m_mktDataReqs.put( Integer.valueOf( tickerId), contracts.get( i));
+            }
+        }
+
+        for( int shard = 0; shard < n; shard++) {
+            if( shardSizes[shard] > 0) {
+                int[] ids = new int[shardSizes[shard]];
+                System.arraycopy( shardIds[shard], 0, ids, 0, ids.length);
+                m_members[shard].m_client.reqMktData( ids, shardContracts.get( shard));
+            }
+        }
+    }
+
+    public void cancelMktData( int tickerId) {
+        synchronized( this) {
+            m_mktDataReqs.remove( Integer.valueOf( tickerId));
+        }
+        connectionOf( tickerId).cancelMktData( tickerId);
+    }
+
+    public void reqMktDepth( int tickerId, Contract contract, int numRows) {
+        synchronized( this) {
+            m_mktDepthReqs.put( Integer.valueOf( tickerId), contract);
+            m_mktDepthRows.put( Integer.valueOf( tickerId), Integer.valueOf( numRows));
+        }
+        connectionOf( tickerId).reqMktDepth( tickerId, contract, numRows);
+    }
+
+    public void cancelMktDepth( int tickerId) {
+        synchronized( this) {
+            m_mktDepthReqs.remove( Integer.valueOf( tickerId));
+            m_mktDepthRows.remove( Integer.valueOf( tickerId));
+        }
+        connectionOf( tickerId).cancelMktDepth( tickerId);
+    }
+
+    public void reqHistoricalData( int tickerId, Contract contract,
+                                   String endDateTime, String durationStr,
+                                   int barSizeSetting, String whatToShow,
+                                   int useRTH, int formatDate) {
+        connectionOf( tickerId).reqHistoricalData( tickerId, contract, endDateTime, durationStr,
+                                                   barSizeSetting, whatToShow, useRTH, formatDate);
+    }
+
+    public void cancelHistoricalData( int tickerId) {
+        connectionOf( tickerId).cancelHistoricalData( tickerId);
+    }
+
+    ///////////////////////////////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////////////////////////////
+
+    /**
+     * One connection of the pool, it is also the EWrapper of its EClientSocket
+     * and merges the callbacks into the pool's wrapper.
+     */
+    private class Member implements EWrapper, HistoricalDataHandler {
+        final int           m_idx;
+        final EClientSocket m_client;
+        volatile int        m_disconnects;
+        volatile int        m_reconnects;
+        // set once the current connection is reported lost, reset on connect
+        final AtomicBoolean m_lost = new AtomicBoolean();
+
+        Member( int idx) {
+            m_idx = idx;
+            m_client = new EClientSocket( this);
+        }
+
+        void connect() {
+            m_lost.set( false);
+            m_client.eConnect( m_host, m_port, m_baseClientId + m_idx);
+        }
+
+        public void connectionClosed() {
+            // EReader and EClientSocket.close, by eDisconnect below, both report
+            // the same loss, count it once
+            if( !m_lost.compareAndSet( false, true)) {
+                return;
+            }
+            if( m_client.isConnected()) {
+                m_client.eDisconnect();
+            }
+            if( !m_connected) {
+                return;
+            }
+            m_disconnects++;
+            synchronized( m_callbackLock) {
+                m_eWrapper.error( "Connection " + m_idx + " of pool lost, reconnecting.");
+            }
+        }
+
+        public void tickPrice( int tickerId, int field, double price, int canAutoExecute) {
+            synchronized( m_callbackLock) {
+                m_eWrapper.tickPrice( tickerId, field, price, canAutoExecute);
+            }
+        }
+
+        public void tickSize( int tickerId, int field, int size) {
+            synchronized( m_callbackLock) {
+                m_eWrapper.tickSize( tickerId, field, size);
+            }
+        }
+
+        public void tickOptionComputation( int tickerId, int field, double impliedVolatility, double delta) {
+            synchronized( m_callbackLock) {
+                m_eWrapper.tickOptionComputation( tickerId, field, impliedVolatility, delta);
+            }
+        }
+
+        public void orderStatus( int orderId, String status, int filled, int remaining,
+                double avgFillPrice, int permId, int parentId, double lastFillPrice,
+                int clientId) {
+            synchronized( m_callbackLock) {
+                m_eWrapper.orderStatus( orderId, status, filled, remaining, avgFillPrice, permId, parentId, lastFillPrice, clientId);
+            }
+        }
+
+        public void openOrder( int orderId, Contract contract, Order order) {
+            synchronized( m_callbackLock) {
+                m_eWrapper.openOrder( orderId, contract, order);
+            }
+        }
+
+        public void error( String str) {
+            synchronized( m_callbackLock) {
+                m_eWrapper.error( str);
+            }
+        }
+
+        public void updateAccountValue( String key, String value, String currency, String accountName) {
+            synchronized( m_callbackLock) {
+                m_eWrapper.updateAccountValue( key, value, currency, accountName);
+            }
+        }
+
+        public void updatePortfolio( Contract contract, int position, double marketPrice, double marketValue,
+                double averageCost, double unrealizedPNL, double realizedPNL, String accountName) {
+            synchronized( m_callbackLock) {
+                m_eWrapper.updatePortfolio( contract, position, marketPrice, marketValue, averageCost, unrealizedPNL, realizedPNL, accountName);
+            }
+        }
+
+        public void updateAccountTime( String timeStamp) {
+            synchronized( m_callbackLock) {
+                m_eWrapper.updateAccountTime( timeStamp);
+            }
+        }
+
+        public void nextValidId( int orderId) {
+            // order ids are only meaningful on the primary connection
+            if( m_idx == 0) {
+                synchronized( m_callbackLock) {
+                    m_eWrapper.nextValidId( orderId);
+                }
+            }
+        }
+
+        public void contractDetails( ContractDetails contractDetails) {
+            synchronized( m_callbackLock) {
+                m_eWrapper.contractDetails( contractDetails);
+            }
+        }
+
+        public void bondContractDetails( ContractDetails contractDetails) {
+            synchronized( m_callbackLock) {
+                m_eWrapper.bondContractDetails( contractDetails);
+            }
+        }
+
+        public void execDetails( int orderId, Contract contract, Execution execution) {
+            synchronized( m_callbackLock) {
+                m_eWrapper.execDetails( orderId, contract, execution);
+            }
+        }
+
+        public void error( int id, int errorCode, String errorMsg) {
+            synchronized( m_callbackLock) {
+                m_eWrapper.error( id, errorCode, errorMsg);
+            }
+        }
+
+        public void updateMktDepth( int tickerId, int position, int operation, int side, double price, int size) {
+            synchronized( m_callbackLock) {
+                m_eWrapper.updateMktDepth( tickerId, position, operation, side, price, size);
+            }
+        }
+
+        public void updateMktDepthL2( int tickerId, int position, String marketMaker, int operation, int side, double price, int size) {
+            synchronized( m_callbackLock) {
+                m_eWrapper.updateMktDepthL2( tickerId, position, marketMaker, operation, side, price, size);
+            }
+        }
+
+        public void updateNewsBulletin( int msgId, int msgType, String message, String origExchange) {
+            synchronized( m_callbackLock) {
+                m_eWrapper.updateNewsBulletin( msgId, msgType, message, origExchange);
+            }
+        }
+
+        public void managedAccounts( String accountsList) {
+            synchronized( m_callbackLock) {
+                m_eWrapper.managedAccounts( accountsList);
+            }
+        }
+
+        public void receiveFA( int faDataType, String xml) {
+            synchronized( m_callbackLock) {
+                m_eWrapper.receiveFA( faDataType, xml);
+            }
+        }
+
+        public void historicalData( int reqId, String date, double open, double high, double low, double close, double prevClose,
+                int volume, double WAP, boolean hasGaps) {
+            synchronized( m_callbackLock) {
+                m_eWrapper.historicalData( reqId, date, open, high, low, close, prevClose, volume, WAP, hasGaps);
+            }
+        }
+
+        public boolean acceptsBars() {
+            return HistoricalBars.acceptedBy( m_eWrapper);
+        }
+
+        public void historicalData( int reqId, HistoricalBars bars) {
+            synchronized( m_callbackLock) {
+                ((HistoricalDataHandler)m_eWrapper).historicalData( reqId, bars);
+            }
+        }
+
+        public void scannerParameters( String xml) {
+            synchronized( m_callbackLock) {
+                m_eWrapper.scannerParameters( xml);
+            }
+        }
+
+        public void scannerData( int reqId, int rank, ContractDetails contractDetails, String distance, String benchmark, String projection) {
+            synchronized( m_callbackLock) {
+                m_eWrapper.scannerData( reqId, rank, contractDetails, distance, benchmark, projection);
+            }
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.ib.client;
 
 import java.io.*;
 import java.net.*;
+import java.util.List;
 
 public class EClientSocket {
 
@@ -38,7 +39,7 @@ public class EClientSocket {
 
     private static final int CLIENT_VERSION = 27;
     private static final int SERVER_VERSION = 1;
-    private static final byte[] EOL = {0};
+    private static final int BULK_FLUSH_SIZE = 64 * 1024;
     private static final String BAG_SEC_TYPE = "BAG";
 
     // FA msg data types
@@ -88,10 +89,12 @@ public class EClientSocket {
     private EWrapper 			m_eWrapper;	// msg handler
     private Socket 			    m_socket;   // the socket
     private DataOutputStream 	m_dos;      // the socket output stream
+    private EEncoder 			m_encoder = new EEncoder(); // fields of the request being sent
     private boolean 			m_connected;// true if we are connected
     private EReader 			m_reader;   // thread which reads msgs from socket
     private int 			    m_serverVersion =1;
     private String              m_TwsTime;
+    private OutputStream        m_capture;  // records inbound stream if not null
 
     public int serverVersion()          { return m_serverVersion;   }
     public String TwsConnectionTime()   { return m_TwsTime; }
@@ -101,6 +104,14 @@ public class EClientSocket {
         m_eWrapper = eWrapper;
     }
 
+    /**
+     * Records the raw inbound byte stream of next connection to capture, see
+     * EWireCapture. Should be called before eConnect, null to stop recording.
+     */
+    public synchronized void setCapture( OutputStream capture) {
+        m_capture = capture;
+    }
+
     public boolean isConnected() {
         return m_connected;
     }
@@ -121,11 +132,17 @@ public class EClientSocket {
             m_socket = new Socket( host, port);
 
             // create io streams
-            DataInputStream dis = new DataInputStream( m_socket.getInputStream() );
+            InputStream in = m_socket.getInputStream();
+            if( m_capture != null) {
+                in = EWireCapture.record( in, m_capture);
+            }
+            DataInputStream dis = new DataInputStream( in);
             m_dos = new DataOutputStream( m_socket.getOutputStream() );
 
             // set client version
+            m_encoder.reset();
             send( CLIENT_VERSION);
+            flush();
 
             // start reader thread
             m_reader = new EReader( this, dis);
@@ -145,6 +162,7 @@ public class EClientSocket {
             // Send the client id
             if ( m_serverVersion >= 3 ){
                 send( clientId);
+                flush();
             }
 
             m_reader.start();
@@ -201,6 +219,7 @@ public class EClientSocket {
             send( CANCEL_SCANNER_SUBSCRIPTION);
             send( VERSION);
             send( tickerId);
+            flush();
         }
         catch( Exception e) {
             error( tickerId, EClientErrors.FAIL_SEND_CANSCANNER, "" + e);
@@ -226,6 +245,7 @@ public class EClientSocket {
         try {
             send(REQ_SCANNER_PARAMETERS);
             send(VERSION);
+            flush();
         }
         catch( Exception e) {
             error( EClientErrors.NO_VALID_ID,
@@ -279,6 +299,7 @@ public class EClientSocket {
             if (m_serverVersion >= 27) {
                 send(subscription.stockTypeFilter());
             }
+            flush();
         }
         catch( Exception e) {
             error( tickerId, EClientErrors.FAIL_SEND_REQSCANNER, "" + e);
@@ -293,54 +314,88 @@ public class EClientSocket {
             return;
         }
 
-        final int VERSION = 5;
-
         try {
             // send req mkt data msg
-            send(REQ_MKT_DATA);
-            send(VERSION);
-            send(tickerId);
+            encodeReqMktData(tickerId, contract);
+            flush();
+        }
+        catch( Exception e) {
+            error( tickerId, EClientErrors.FAIL_SEND_REQMKT, "" + e);
+            close();
+        }
+    }
 
-            send(contract.m_symbol);
-            send(contract.m_secType);
-            send(contract.m_expiry);
-            send(contract.m_strike);
-            send(contract.m_right);
-            if (m_serverVersion >= 15) {
-                send(contract.m_multiplier);
-            }
-            send(contract.m_exchange);
-            if (m_serverVersion >= 14) {
-                send(contract.m_primaryExch);
-            }
-            send(contract.m_currency);
-            if(m_serverVersion >= 2) {
-                send( contract.m_localSymbol);
-            }
-            if(m_serverVersion >= 8 && BAG_SEC_TYPE.equalsIgnoreCase(contract.m_secType)) {
-                if ( contract.m_comboLegs == null ) {
-                    send( 0);
-                }
-                else {
-                    send( contract.m_comboLegs.size());
+    /**
+     * Subscribes market data for a batch of contracts, tickerIds[i] is used for
+     * contracts.get(i). The requests are encoded back to back and go out to
+     * the socket in as few writes as possible.
+     */
+    public synchronized void reqMktData(int[] tickerIds, List<Contract> contracts) {
+        // not connected?
+        if (!m_connected) {
+            error(EClientErrors.NO_VALID_ID, EClientErrors.NOT_CONNECTED, "");
+            return;
+        }
 
-                    ComboLeg comboLeg;
-                    for (int i=0; i < contract.m_comboLegs.size(); i ++) {
-                        comboLeg = (ComboLeg)contract.m_comboLegs.get(i);
-                        send( comboLeg.m_conId);
-                        send( comboLeg.m_ratio);
-                        send( comboLeg.m_action);
-                        send( comboLeg.m_exchange);
-                    }
+        int i = 0;
+        try {
+            for (; i < tickerIds.length; i++) {
+                encodeReqMktData(tickerIds[i], contracts.get(i));
+                if (m_encoder.size() >= BULK_FLUSH_SIZE) {
+                    flush();
                 }
             }
+            flush();
         }
         catch( Exception e) {
+            int tickerId = i < tickerIds.length ? tickerIds[i] : EClientErrors.NO_VALID_ID;
             error( tickerId, EClientErrors.FAIL_SEND_REQMKT, "" + e);
             close();
         }
     }
 
+    private void encodeReqMktData(int tickerId, Contract contract) throws IOException {
+        final int VERSION = 5;
+
+        send(REQ_MKT_DATA);
+        send(VERSION);
+        send(tickerId);
+
+        send(contract.m_symbol);
+        send(contract.m_secType);
+        send(contract.m_expiry);
+        send(contract.m_strike);
+        send(contract.m_right);
+        if (m_serverVersion >= 15) {
+            send(contract.m_multiplier);
+        }
+        send(contract.m_exchange);
+        if (m_serverVersion >= 14) {
+            send(contract.m_primaryExch);
+        }
+        send(contract.m_currency);
+        if(m_serverVersion >= 2) {
+            send( contract.m_localSymbol);
+        }
+        if(m_serverVersion >= 8 && BAG_SEC_TYPE.equalsIgnoreCase(contract.m_secType)) {
+            if ( contract.m_comboLegs == null ) {
+                send( 0);
+            }
+            else {
+                send( contract.m_comboLegs.size());
+
+                ComboLeg comboLeg;
+                for (int i=0; i < contract.m_comboLegs.size(); i ++) {
+                    comboLeg = (ComboLeg)contract.m_comboLegs.get(i);
+                    send( comboLeg.m_conId);
+                    send( comboLeg.m_ratio);
+                    send( comboLeg.m_action);
+                    send( comboLeg.m_exchange);
+                }
+            }
+        }
+    }
+
     public synchronized void cancelHistoricalData( int tickerId ) {
         // not connected?
         if( !m_connected) {
@@ -361,6 +416,7 @@ public class EClientSocket {
             send( CANCEL_HISTORICAL_DATA);
             send( VERSION);
             send( tickerId);
+            flush();
         }
         catch( Exception e) {
             error( tickerId, EClientErrors.FAIL_SEND_CANSCANNER, "" + e);
@@ -427,6 +483,7 @@ public class EClientSocket {
                   }
               }
           }
+          flush();
         }
         catch (Exception e) {
           error(tickerId, EClientErrors.FAIL_SEND_REQMKT, "" + e);
@@ -467,6 +524,7 @@ public class EClientSocket {
             send( contract.m_exchange);
             send( contract.m_currency);
             send( contract.m_localSymbol);
+            flush();
         }
         catch( Exception e) {
             error( EClientErrors.NO_VALID_ID, EClientErrors.FAIL_SEND_REQCONTRACT, "" + e);
@@ -511,6 +569,7 @@ public class EClientSocket {
             if (m_serverVersion >= 19) {
                 send( numRows);
             }
+            flush();
         }
         catch( Exception e) {
             error( tickerId, EClientErrors.FAIL_SEND_REQMKTDEPTH, "" + e);
@@ -532,6 +591,7 @@ public class EClientSocket {
             send( CANCEL_MKT_DATA);
             send( VERSION);
             send( tickerId);
+            flush();
         }
         catch( Exception e) {
             error( tickerId, EClientErrors.FAIL_SEND_CANMKT, "" + e);
@@ -560,6 +620,7 @@ public class EClientSocket {
             send( CANCEL_MKT_DEPTH);
             send( VERSION);
             send( tickerId);
+            flush();
         }
         catch( Exception e) {
             error( tickerId, EClientErrors.FAIL_SEND_CANMKTDEPTH, "" + e);
@@ -601,6 +662,7 @@ public class EClientSocket {
           send(exerciseQuantity);
           send(account);
           send(override);
+          flush();
       }
       catch (Exception e) {
         error(tickerId, EClientErrors.FAIL_SEND_REQMKT, "" + e);
@@ -766,6 +828,7 @@ public class EClientSocket {
                }
                sendMax( order.m_referencePriceType);
            }
+           flush();
         }
         catch( Exception e) {
             error( id, EClientErrors.FAIL_SEND_ORDER, "" + e);
@@ -792,6 +855,7 @@ public class EClientSocket {
             if ( m_serverVersion >= 9 ) {
                 send( acctCode);
             }
+            flush();
         }
         catch( Exception e) {
             error( EClientErrors.NO_VALID_ID, EClientErrors.FAIL_SEND_ACCT, "" + e);
@@ -825,6 +889,7 @@ public class EClientSocket {
                 send( filter.m_exchange);
                 send( filter.m_side);
             }
+            flush();
         }
         catch( Exception e) {
             error( EClientErrors.NO_VALID_ID, EClientErrors.FAIL_SEND_EXEC, "" + e);
@@ -846,6 +911,7 @@ public class EClientSocket {
             send( CANCEL_ORDER);
             send( VERSION);
             send( id);
+            flush();
         }
         catch( Exception e) {
             error( id, EClientErrors.FAIL_SEND_CORDER, "" + e);
@@ -866,6 +932,7 @@ public class EClientSocket {
         try {
             send( REQ_OPEN_ORDERS);
             send( VERSION);
+            flush();
         }
         catch( Exception e) {
             error(EClientErrors.NO_VALID_ID, EClientErrors.FAIL_SEND_OORDER, "" + e);
@@ -886,6 +953,7 @@ public class EClientSocket {
             send( REQ_IDS);
             send( VERSION);
             send( numIds);
+            flush();
         }
         catch( Exception e) {
             error( EClientErrors.NO_VALID_ID, EClientErrors.FAIL_SEND_CORDER, "" + e);
@@ -906,6 +974,7 @@ public class EClientSocket {
             send( REQ_NEWS_BULLETINS);
             send( VERSION);
             send( allMsgs);
+            flush();
         }
         catch( Exception e) {
             error( EClientErrors.NO_VALID_ID, EClientErrors.FAIL_SEND_CORDER, "" + e);
@@ -926,6 +995,7 @@ public class EClientSocket {
         try {
             send( CANCEL_NEWS_BULLETINS);
             send( VERSION);
+            flush();
         }
         catch( Exception e) {
             error( EClientErrors.NO_VALID_ID, EClientErrors.FAIL_SEND_CORDER, "" + e);
@@ -947,6 +1017,7 @@ public class EClientSocket {
                         send( SET_SERVER_LOGLEVEL);
                         send( VERSION);
                         send( logLevel);
+                        flush();
                 }
         catch( Exception e) {
             error( EClientErrors.NO_VALID_ID, EClientErrors.FAIL_SEND_SERVER_LOG_LEVEL, "" + e);
@@ -969,6 +1040,7 @@ public class EClientSocket {
             send( REQ_AUTO_OPEN_ORDERS);
             send( VERSION);
             send( bAutoBind);
+            flush();
         }
         catch( Exception e) {
             error(EClientErrors.NO_VALID_ID, EClientErrors.FAIL_SEND_OORDER, "" + e);
@@ -989,6 +1061,7 @@ public class EClientSocket {
         try {
             send( REQ_ALL_OPEN_ORDERS);
             send( VERSION);
+            flush();
         }
         catch( Exception e) {
             error(EClientErrors.NO_VALID_ID, EClientErrors.FAIL_SEND_OORDER, "" + e);
@@ -1009,6 +1082,7 @@ public class EClientSocket {
         try {
             send( REQ_MANAGED_ACCTS);
             send( VERSION);
+            flush();
         }
         catch( Exception e) {
             error(EClientErrors.NO_VALID_ID, EClientErrors.FAIL_SEND_OORDER, "" + e);
@@ -1036,6 +1110,7 @@ public class EClientSocket {
             send( REQ_FA );
             send( VERSION);
             send( faDataType);
+            flush();
         }
         catch( Exception e) {
             error( faDataType, EClientErrors.FAIL_SEND_FA_REQUEST, "" + e);
@@ -1064,6 +1139,7 @@ public class EClientSocket {
             send( VERSION);
             send( faDataType);
             send( xml);
+            flush();
         }
         catch( Exception e) {
             error( faDataType, EClientErrors.FAIL_SEND_FA_REPLACE, "" + e);
@@ -1098,55 +1174,44 @@ public class EClientSocket {
         error(id, pair.code(), pair.msg() + tail);
     }
 
+    private void flush() throws IOException {
+        // one socket write per request, or per batch of requests
+        m_encoder.flush( m_dos);
+    }
+
     private void send( String str) throws IOException {
-        // write string to data buffer; writer thread will
-        // write it to socket
-        if( str != null) {
-            m_dos.write( str.getBytes() );
-        }
-        sendEOL();
+        m_encoder.write( str);
     }
 
     private void sendEOL() throws IOException {
-        m_dos.write( EOL);
+        m_encoder.writeEOL();
     }
 
     private void send( int val) throws IOException {
-        send( String.valueOf( val) );
+        m_encoder.write( val);
     }
 
     private void send( char val) throws IOException {
-        m_dos.write( val);
-        sendEOL();
+        m_encoder.write( val);
     }
 
     private void send( double val) throws IOException {
-        send( String.valueOf( val) );
+        m_encoder.write( val);
     }
 
     private void send( long val) throws IOException {
-        send( String.valueOf( val) );
+        m_encoder.write( val);
     }
 
     private void sendMax( double val) throws IOException {
-        if (val == Double.MAX_VALUE) {
-            sendEOL();
-        }
-        else {
-            send(String.valueOf(val));
-        }
+        m_encoder.writeMax( val);
     }
 
     private void sendMax( int val) throws IOException {
-        if (val == Integer.MAX_VALUE) {
-            sendEOL();
-        }
-        else {
-            send(String.valueOf(val));
-        }
+        m_encoder.writeMax( val);
     }
 
     private void send( boolean val) throws IOException {
-        send( val ? 1 : 0);
+        m_encoder.write( val);
     }
 }
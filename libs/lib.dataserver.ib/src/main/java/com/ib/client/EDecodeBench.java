@@ -0,0 +1,174 @@
+package com.ib.client;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Throughput benchmark of the inbound decode path.
+ *
+ * Decodes a capture file or a synthetic stream with EReader into an EWrapper
+ * that only counts msgs, and reports msgs/sec and allocated bytes per msg.
+ * With -socket the stream is served by EFakeTws and goes through
+ * EClientSocket.eConnect, the socket and the reader thread too. Each round
+ * has to decode as many msgs as a first decode of the stream in memory, or the
+ * bench fails.
+ *
+ * Usage: EDecodeBench [-capture file] [-msgs n] [-tickers n] [-rounds n] [-bulk] [-socket]
+ */
+public class EDecodeBench {
+
+    public static void main( String[] args) throws Exception {
+        String captureFile = null;
+        int numMsgs = 1000000;
+        int numTickers = 500;
+        int rounds = 10;
+        boolean bulk = false;
+        boolean socket = false;
+        for( int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if( arg.equals( "-capture")) {
+                captureFile = args[++i];
+            }
+            else if( arg.equals( "-msgs")) {
+                numMsgs = Integer.parseInt( args[++i]);
+            }
+            else if( arg.equals( "-tickers")) {
+                numTickers = Integer.parseInt( args[++i]);
+            }
+            else if( arg.equals( "-rounds")) {
+                rounds = Integer.parseInt( args[++i]);
+            }
+            else if( arg.equals( "-bulk")) {
+                bulk = true;
+            }
+            else if( arg.equals( "-socket")) {
+                socket = true;
+            }
+            else {
+                System.out.println( "Usage: EDecodeBench [-capture file] [-msgs n] [-tickers n] [-rounds n] [-bulk] [-socket]");
+                return;
+            }
+        }
+
+        byte[] bytes = captureFile != null
+            ? EWireCapture.readAll( captureFile)
+            : new ESyntheticFeed( numTickers, 1).generate( numMsgs);
+        System.out.println( "Stream: " + bytes.length + " bytes" + (captureFile != null ? " from " + captureFile : " synthetic"));
+
+        Counter expected = bulk ? new BulkCounter() : new Counter();
+        runInMemory( bytes, expected);
+
+        for( int round = 1; round <= rounds; round++) {
+            Counter counter = bulk ? new BulkCounter() : new Counter();
+            long alloc0 = allocatedBytes();
+            long t0 = System.nanoTime();
+            if( socket) {
+                runOverSocket( bytes, counter);
+            }
+            else {
+                runInMemory( bytes, counter);
+            }
+            long nanos = System.nanoTime() - t0;
+            long alloc = allocatedBytes() - alloc0;
+
+            long msgs = counter.m_count;
+            if( msgs != expected.m_count) {
+                throw new IllegalStateException( "Round " + round + " received " + msgs + " of " + expected.m_count + " msgs sent"
+                    + (socket ? " over socket" : ""));
+            }
+            System.out.println( "Round " + round + ": " + msgs + " msgs in " + (nanos / 1000000) + " ms, "
+                + (long)(msgs * 1e9 / nanos) + " msgs/sec"
+                + (alloc >= 0 && !socket ? ", " + (msgs == 0 ? 0 : alloc / msgs) + " bytes allocated/msg" : ""));
+        }
+    }
+
+    private static void runInMemory( byte[] bytes, Counter counter) throws IOException {
+        EClientSocket client = new EClientSocket( counter);
+        EReader reader = new EReader( client, new DataInputStream( new ByteArrayInputStream( bytes)));
+        // skip the handshake as eConnect does
+        int serverVersion = reader.readInt();
+        if( serverVersion >= 20) {
+            reader.readStr();
+        }
+        reader.processMsgs();
+    }
+
+    private static void runOverSocket( byte[] bytes, Counter counter) throws Exception {
+        EFakeTws tws = new EFakeTws( 0, bytes);
+        tws.start();
+        try {
+            EClientSocket client = new EClientSocket( counter);
+            synchronized( counter) {
+                client.eConnect( "127.0.0.1", tws.getLocalPort(), 0);
+                while( !counter.m_closed) {
+                    counter.wait();
+                }
+            }
+            client.eDisconnect();
+        }
+        finally {
+            tws.stop();
+        }
+    }
+
+    /**
+     * @return bytes allocated by current thread so far, or -1 if the JVM can't tell
+     */
+    private static long allocatedBytes() {
+        try {
+            java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if( bean instanceof com.sun.management.ThreadMXBean) {
+                return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes( Thread.currentThread().getId());
+            }
+        }
+        catch( Throwable t) {
+        }
+        return -1;
+    }
+
+    private static class Counter implements EWrapper {
+        long    m_count;
+        boolean m_closed;
+
+        public void tickPrice( int tickerId, int field, double price, int canAutoExecute) { m_count++; }
+        public void tickSize( int tickerId, int field, int size) { m_count++; }
+        public void tickOptionComputation( int tickerId, int field, double impliedVolatility, double delta) { m_count++; }
+        public void orderStatus( int orderId, String status, int filled, int remaining,
+                double avgFillPrice, int permId, int parentId, double lastFillPrice,
+                int clientId) { m_count++; }
+        public void openOrder( int orderId, Contract contract, Order order) { m_count++; }
+        public void error( String str) {}
+        public synchronized void connectionClosed() {
+            m_closed = true;
+            notifyAll();
+        }
+        public void updateAccountValue( String key, String value, String currency, String accountName) { m_count++; }
+        public void updatePortfolio( Contract contract, int position, double marketPrice, double marketValue,
+                double averageCost, double unrealizedPNL, double realizedPNL, String accountName) { m_count++; }
+        public void updateAccountTime( String timeStamp) { m_count++; }
+        public void nextValidId( int orderId) { m_count++; }
+        public void contractDetails( ContractDetails contractDetails) { m_count++; }
+        public void bondContractDetails( ContractDetails contractDetails) { m_count++; }
+        public void execDetails( int orderId, Contract contract, Execution execution) { m_count++; }
+        public void error( int id, int errorCode, String errorMsg) {}
+        public void updateMktDepth( int tickerId, int position, int operation, int side, double price, int size) { m_count++; }
+        public void updateMktDepthL2( int tickerId, int position, String marketMaker, int operation, int side, double price, int size) { m_count++; }
+        public void updateNewsBulletin( int msgId, int msgType, String message, String origExchange) { m_count++; }
+        public void managedAccounts( String accountsList) { m_count++; }
+        public void receiveFA( int faDataType, String xml) { m_count++; }
+        public void historicalData( int reqId, String date, double open, double high, double low, double close, double prevClose,
+                int volume, double WAP, boolean hasGaps) { m_count++; }
+        public void scannerParameters( String xml) { m_count++; }
+        public void scannerData( int reqId, int rank, ContractDetails contractDetails, String distance, String benchmark, String projection) { m_count++; }
+    }
+
+    private static class BulkCounter extends Counter implements HistoricalDataHandler {
+        public boolean acceptsBars() {
+            return true;
+        }
+
+        public void historicalData( int reqId, HistoricalBars bars) {
+            m_count += bars.m_count + 1;
+        }
+    }
+}
@@ -0,0 +1,305 @@
+
+package com.ib.client;
+
+import java.io.*;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+/**
+ * Decodes the NUL terminated fields of the TWS wire protocol straight from a
+ * reusable byte buffer. Ints and doubles are parsed in place, so only genuine
+ * string fields allocate.
+ */
+class EDecoder {
+
+    private static final int DEFAULT_BUF_SIZE = 8192;
+
+    /** exact powers of ten, the largest one that a double can hold exactly is 1e22 */
+    private static final double[] POW10 = {
+        1e0,  1e1,  1e2,  1e3,  1e4,  1e5,  1e6,  1e7,  1e8,  1e9,  1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    /** mantissas below 2^53 are exactly representable as double */
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private InputStream m_in;
+    private byte[]      m_buf;
+    private int         m_pos;      // start of next unread byte
+    private int         m_limit;    // end of valid bytes in m_buf
+
+    // span of the last field read by nextField(), terminator excluded
+    private int         m_fieldStart;
+    private int         m_fieldEnd;
+
+    EDecoder( InputStream in) {
+        this( in, DEFAULT_BUF_SIZE);
+    }
+
+    EDecoder( InputStream in, int bufSize) {
+        m_in = in;
+        m_buf = new byte[bufSize];
+    }
+
+    /**
+     * Locates the next field in buffer, refilling from the stream when needed.
+     * @return length of the field
+     */
+    private int nextField() throws IOException {
+        int scan = m_pos;
+        while( true) {
+            while( scan < m_limit) {
+                if( m_buf[scan] == 0) {
+                    m_fieldStart = m_pos;
+                    m_fieldEnd = scan;
+                    m_pos = scan + 1;
+                    return m_fieldEnd - m_fieldStart;
+                }
+                scan++;
+            }
+            scan -= fill();
+        }
+    }
+
+    /**
+     * Reads more bytes from stream, compacting or growing the buffer first if
+     * it is full.
+     * @return the offset the unread bytes have been shifted to the left by
+     */
+    private int fill() throws IOException {
+        int shift = 0;
+        if( m_limit == m_buf.length) {
+            shift = m_pos;
+            int remaining = m_limit - m_pos;
+            if( shift == 0) {
+                // a single field is larger than the buffer
+                byte[] newBuf = new byte[m_buf.length * 2];
+                System.arraycopy( m_buf, 0, newBuf, 0, remaining);
+                m_buf = newBuf;
+            }
+            else {
+                System.arraycopy( m_buf, m_pos, m_buf, 0, remaining);
+            }
+            m_pos = 0;
+            m_limit = remaining;
+        }
+
+        int n = m_in.read( m_buf, m_limit, m_buf.length - m_limit);
+        if( n < 0) {
+            throw new EOFException();
+        }
+        m_limit += n;
+        return shift;
+    }
+
+    String readStr() throws IOException {
+        int len = nextField();
+        return len == 0 ? null : new String( m_buf, m_fieldStart, len, "ISO-8859-1");
+    }
+
+    boolean readBoolFromInt() throws IOException {
+        return readInt() != 0;
+    }
+
+    int readInt() throws IOException {
+        int len = nextField();
+        if( len == 0) {
+            return 0;
+        }
+
+        int i = m_fieldStart;
+        boolean negative = false;
+        byte c = m_buf[i];
+        if( c == '-' || c == '+') {
+            negative = c == '-';
+            i++;
+        }
+        // 9 digits always fit in an int, leave anything longer to Integer.parseInt
+        if( i == m_fieldEnd || m_fieldEnd - i > 9) {
+            return Integer.parseInt( fieldToString());
+        }
+
+        int val = 0;
+        for( ; i < m_fieldEnd; i++) {
+            int digit = m_buf[i] - '0';
+            if( digit < 0 || digit > 9) {
+                return Integer.parseInt( fieldToString());
+            }
+            val = val * 10 + digit;
+        }
+        return negative ? -val : val;
+    }
+
+    double readDouble() throws IOException {
+        int len = nextField();
+        if( len == 0) {
+            return 0;
+        }
+
+        int i = m_fieldStart;
+        boolean negative = false;
+        byte c = m_buf[i];
+        if( c == '-' || c == '+') {
+            negative = c == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int fractionDigits = 0;
+        int digits = 0;
+        boolean seenDot = false;
+        for( ; i < m_fieldEnd; i++) {
+            c = m_buf[i];
+            if( c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+                if( seenDot) {
+                    fractionDigits++;
+                }
+                if( ++digits > 15) {
+                    break;
+                }
+            }
+            else if( c == '.' && !seenDot) {
+                seenDot = true;
+            }
+            else {
+                break;
+            }
+        }
+
+        // Only the plain decimal form whose mantissa and scale are both exact
+        // doubles can be divided here with a correctly rounded result, which is
+        // what Double.parseDouble would have returned.
+        if( i != m_fieldEnd || digits == 0 || mantissa >= MAX_EXACT_MANTISSA
+                || fractionDigits >= POW10.length) {
+            return Double.parseDouble( fieldToString());
+        }
+
+        double val = fractionDigits == 0 ? mantissa : mantissa / POW10[fractionDigits];
+        return negative ? -val : val;
+    }
+
+    /**
+     * Reads a boolean sent as text, true only for "true" ignoring case, which
+     * is what Boolean.valueOf does.
+     */
+    boolean readBoolFromStr() throws IOException {
+        int len = nextField();
+        if( len != 4) {
+            return false;
+        }
+        int i = m_fieldStart;
+        return (m_buf[i] | 0x20) == 't' && (m_buf[i + 1] | 0x20) == 'r'
+            && (m_buf[i + 2] | 0x20) == 'u' && (m_buf[i + 3] | 0x20) == 'e';
+    }
+
+    /**
+     * Reads a bar time of historical data as epoch milliseconds. TWS sends it
+     * either as seconds since 1970 (formatDate = 2), or as "yyyyMMdd" or
+     * "yyyyMMdd  HH:mm:ss" in local time of tz (formatDate = 1).
+     *
+     * @return HistoricalBars.INVALID_TIME if the time can't be parsed, so that
+     *         the bar is skipped instead of the connection being dropped
+     */
+    long readTime( TimeZone tz) throws IOException {
+        int len = nextField();
+        if( len == 0) {
+            return 0;
+        }
+
+        int end = m_fieldEnd;
+        int i = m_fieldStart;
+        int digits = 0;
+        while( i < end && isDigit( m_buf[i])) {
+            i++;
+            digits++;
+        }
+
+        if( i == end && digits != 8) {
+            // epoch seconds
+            long secs = 0;
+            for( i = m_fieldStart; i < end; i++) {
+                secs = secs * 10 + (m_buf[i] - '0');
+            }
+            return secs * 1000;
+        }
+
+        if( digits == 8) {
+            int start = m_fieldStart;
+            int year = parseDigits( start, 4);
+            int month = parseDigits( start + 4, 2);
+            int day = parseDigits( start + 6, 2);
+            int hour = 0;
+            int minute = 0;
+            int second = 0;
+
+            // skip the one or two spaces between date and time
+            while( i < end && m_buf[i] == ' ') {
+                i++;
+            }
+            boolean ok = true;
+            if( i < end) {
+                ok = end - i == 8 && m_buf[i + 2] == ':' && m_buf[i + 5] == ':'
+                    && allDigits( i, 2) && allDigits( i + 3, 2) && allDigits( i + 6, 2);
+                if( ok) {
+                    hour = parseDigits( i, 2);
+                    minute = parseDigits( i + 3, 2);
+                    second = parseDigits( i + 6, 2);
+                }
+            }
+            if( ok) {
+                long localMillis = ((daysFromCivil( year, month, day) * 24 + hour) * 60 + minute) * 60000L + second * 1000L;
+                // the offset at local time is approximated by the one at localMillis - rawOffset,
+                // which is only off in the DST transition hour
+                return localMillis - tz.getOffset( localMillis - tz.getRawOffset());
+            }
+        }
+
+        // unknown format, use the slow path
+        SimpleDateFormat format = new SimpleDateFormat( "yyyyMMdd  HH:mm:ss");
+        format.setTimeZone( tz);
+        try {
+            return format.parse( fieldToString()).getTime();
+        }
+        catch( ParseException e) {
+            return HistoricalBars.INVALID_TIME;
+        }
+    }
+
+    private static boolean isDigit( byte c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private boolean allDigits( int from, int n) {
+        for( int i = from; i < from + n; i++) {
+            if( !isDigit( m_buf[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int parseDigits( int from, int n) {
+        int val = 0;
+        for( int i = from; i < from + n; i++) {
+            val = val * 10 + (m_buf[i] - '0');
+        }
+        return val;
+    }
+
+    /**
+     * Days since 1970-01-01 of a proleptic Gregorian date.
+     */
+    static long daysFromCivil( int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yoe = y - era * 400;
+        int doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097L + doe - 719468;
+    }
+
+    private String fieldToString() throws IOException {
+        return new String( m_buf, m_fieldStart, m_fieldEnd - m_fieldStart, "ISO-8859-1");
+    }
+}
@@ -0,0 +1,768 @@
+
+package com.ib.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An EWrapper that decouples the EReader thread from callback execution.
+ *
+ * Pass it to EClientSocket in place of the real wrapper: the reader thread then
+ * only copies each decoded message into a preallocated slot of a bounded ring
+ * buffer, and a configurable number of dispatcher threads invoke the real
+ * wrapper. Messages are sharded to dispatchers by tickerId/reqId/orderId, so
+ * updates of the same id, including errors of it, are delivered in order.
+ * Messages without an id all go through the first dispatcher and keep their
+ * relative order too.
+ *
+ * When a ring is full the producer waits for room (backpressure). With
+ * dropTicksWhenFull set, tickPrice/tickSize/tickOptionComputation are dropped
+ * instead, so that a slow consumer never stalls the socket on market data.
+ */
+public class EDispatcher implements EWrapper, HistoricalDataHandler {
+
+    public static final int DEFAULT_NUM_THREADS = 2;
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    // msg types held in ring slots
+    private static final int TICK_PRICE                 = 1;
+    private static final int TICK_SIZE                  = 2;
+    private static final int TICK_OPTION_COMPUTATION    = 3;
+    private static final int ORDER_STATUS               = 4;
+    private static final int OPEN_ORDER                 = 5;
+    private static final int ERR_STR                    = 6;
+    private static final int ERR_MSG                    = 7;
+    private static final int CONNECTION_CLOSED          = 8;
+    private static final int ACCT_VALUE                 = 9;
+    private static final int PORTFOLIO_VALUE            = 10;
+    private static final int ACCT_UPDATE_TIME           = 11;
+    private static final int NEXT_VALID_ID              = 12;
+    private static final int CONTRACT_DATA              = 13;
+    private static final int BOND_CONTRACT_DATA         = 14;
+    private static final int EXECUTION_DATA             = 15;
+    private static final int MARKET_DEPTH               = 16;
+    private static final int MARKET_DEPTH_L2            = 17;
+    private static final int NEWS_BULLETINS             = 18;
+    private static final int MANAGED_ACCTS              = 19;
+    private static final int RECEIVE_FA                 = 20;
+    private static final int HISTORICAL_DATA            = 21;
+    private static final int SCANNER_PARAMETERS         = 22;
+    private static final int SCANNER_DATA               = 23;
+    private static final int HISTORICAL_BARS            = 24;
+
+    private final EWrapper  m_eWrapper;
+    private final Lane[]    m_lanes;
+    private final boolean   m_dropTicksWhenFull;
+
+    private final AtomicLong m_dispatched = new AtomicLong();
+    private final AtomicLong m_dropped = new AtomicLong();
+    private final AtomicLong m_blocked = new AtomicLong();
+
+    private volatile boolean m_running;
+
+    public EDispatcher( EWrapper eWrapper) {
+        this( eWrapper, DEFAULT_NUM_THREADS, DEFAULT_CAPACITY, false);
+    }
+
+    /**
+     * @param numThreads number of dispatcher threads
+     * @param capacity ring buffer capacity of each dispatcher thread
+     * @param dropTicksWhenFull drop tick msgs instead of blocking the reader when a ring is full
+     */
+    public EDispatcher( EWrapper eWrapper, int numThreads, int capacity, boolean dropTicksWhenFull) {
+        if( numThreads < 1 || capacity < 1) {
+            throw new IllegalArgumentException( "numThreads and capacity should be positive");
+        }
+        m_eWrapper = eWrapper;
+        m_dropTicksWhenFull = dropTicksWhenFull;
+        m_lanes = new Lane[numThreads];
+        for( int i = 0; i < numThreads; i++) {
+            m_lanes[i] = new Lane( i, capacity);
+        }
+        start();
+    }
+
+    public synchronized void start() {
+        if( m_running) {
+            return;
+        }
+        m_running = true;
+        for( int i = 0; i < m_lanes.length; i++) {
+            m_lanes[i].start();
+        }
+    }
+
+    /**
+     * Stops dispatcher threads and waits for them to exit, unless called from
+     * one of them, msgs still pending in rings are discarded.
+     */
+    public synchronized void stop() {
+        if( !m_running) {
+            return;
+        }
+        m_running = false;
+        for( int i = 0; i < m_lanes.length; i++) {
+            m_lanes[i].stop();
+        }
+    }
+
+    public boolean isRunning() {
+        return m_running;
+    }
+
+    public EWrapper eWrapper() {
+        return m_eWrapper;
+    }
+
+    ///////////////////////////////////////////////////////////////////////
+    // Metrics
+    ///////////////////////////////////////////////////////////////////////
+
+    /** msgs currently waiting in all rings */
+    public int queueDepth() {
+        int depth = 0;
+        for( int i = 0; i < m_lanes.length; i++) {
+            depth += m_lanes[i].depth();
+        }
+        return depth;
+    }
+
+    /** the highest depth that any ring has ever reached */
+    public int maxQueueDepth() {
+        int max = 0;
+        for( int i = 0; i < m_lanes.length; i++) {
+            max = Math.max( max, m_lanes[i].maxDepth());
+        }
+        return max;
+    }
+
+    public int capacity() {
+        return m_lanes.length * m_lanes[0].m_ring.length;
+    }
+
+    /** msgs delivered to the wrapper */
+    public long dispatchedCount() {
+        return m_dispatched.get();
+    }
+
+    /** msgs dropped because their ring was full */
+    public long droppedCount() {
+        return m_dropped.get();
+    }
+
+    /** times that a producer had to wait for room in a full ring */
+    public long blockedCount() {
+        return m_blocked.get();
+    }
+
+    ///////////////////////////////////////////////////////////////////////
+    // EWrapper, called from EReader/EClientSocket threads
+    ///////////////////////////////////////////////////////////////////////
+
+    public void tickPrice( int tickerId, int field, double price, int canAutoExecute) {
+        Lane lane = laneOf( tickerId);
+        Slot slot = lane.claim( m_dropTicksWhenFull);
+        if( slot == null) {
+            return;
+        }
+        slot.m_type = TICK_PRICE;
+        slot.m_i1 = tickerId;
+        slot.m_i2 = field;
+        slot.m_d1 = price;
+        slot.m_i3 = canAutoExecute;
+        lane.publish();
+    }
+
+    public void tickSize( int tickerId, int field, int size) {
+        Lane lane = laneOf( tickerId);
+        Slot slot = lane.claim( m_dropTicksWhenFull);
+        if( slot == null) {
+            return;
+        }
+        slot.m_type = TICK_SIZE;
+        slot.m_i1 = tickerId;
+        slot.m_i2 = field;
+        slot.m_i3 = size;
+        lane.publish();
+    }
+
+    public void tickOptionComputation( int tickerId, int field, double impliedVolatility, double delta) {
+        Lane lane = laneOf( tickerId);
+        Slot slot = lane.claim( m_dropTicksWhenFull);
+        if( slot == null) {
+            return;
+        }
+        slot.m_type = TICK_OPTION_COMPUTATION;
+        slot.m_i1 = tickerId;
+        slot.m_i2 = field;
+        slot.m_d1 = impliedVolatility;
+        slot.m_d2 = delta;
+        lane.publish();
+    }
+
+    public void orderStatus( int orderId, String status, int filled, int remaining,
+            double avgFillPrice, int permId, int parentId, double lastFillPrice,
+            int clientId) {
+        Lane lane = laneOf( orderId);
+        Slot slot = lane.claim( false);
+        if( slot == null) {
+            return;
+        }
+        slot.m_type = ORDER_STATUS;
+        slot.m_i1 = orderId;
+        slot.m_o1 = status;
+        slot.m_i2 = filled;
+        slot.m_i3 = remaining;
+        slot.m_d1 = avgFillPrice;
+        slot.m_i4 = permId;
+        slot.m_i5 = parentId;
+        slot.m_d2 = lastFillPrice;
+        slot.m_i6 = clientId;
+        lane.publish();
+    }
+
+    public void openOrder( int orderId, Contract contract, Order order) {
+        Lane lane = laneOf( orderId);
+        Slot slot = lane.claim( false);
+        if( slot == null) {
+            return;
+        }
+        slot.m_type = OPEN_ORDER;
+        slot.m_i1 = orderId;
+        slot.m_o1 = contract;
+        slot.m_o2 = order;
+        lane.publish();
+    }
+
+    public void error( String str) {
+        Lane lane = m_lanes[0];
+        Slot slot = lane.claim( false);
+        if( slot == null) {
+            return;
+        }
+        slot.m_type = ERR_STR;
+        slot.m_o1 = str;
+        lane.publish();
+    }
+
+    public void connectionClosed() {
+        Lane lane = m_lanes[0];
+        Slot slot = lane.claim( false);
+        if( slot == null) {
+            return;
+        }
+        slot.m_type = CONNECTION_CLOSED;
+        lane.publish();
+    }
+
+    public void updateAccountValue( String key, String value, String currency, String accountName) {
+        Lane lane = m_lanes[0];
+        Slot slot = lane.claim( false);
+        if( slot == null) {
+            return;
+        }
+        slot.m_type = ACCT_VALUE;
+        slot.m_o1 = key;
+        slot.m_o2 = value;
+        slot.m_o3 = currency;
+        slot.m_o4 = accountName;
+        lane.publish();
+    }
+
+    public void updatePortfolio( Contract contract, int position, double marketPrice, double marketValue,
+            double averageCost, double unrealizedPNL, double realizedPNL, String accountName) {
+        Lane lane = m_lanes[0];
+        Slot slot = lane.claim( false);
+        if( slot == null) {
+            return;
+        }
+        slot.m_type = PORTFOLIO_VALUE;
+        slot.m_o1 = contract;
+        slot.m_i1 = position;
+        slot.m_d1 = marketPrice;
+        slot.m_d2 = marketValue;
+        slot.m_d3 = averageCost;
+        slot.m_d4 = unrealizedPNL;
+        slot.m_d5 = realizedPNL;
+        slot.m_o2 = accountName;
+        lane.publish();
+    }
+
+    public void updateAccountTime( String timeStamp) {
+        Lane lane = m_lanes[0];
+        Slot slot = lane.claim( false);
+        if( slot == null) {
+            return;
+        }
+        slot.m_type = ACCT_UPDATE_TIME;
+        slot.m_o1 = timeStamp;
+        lane.publish();
+    }
+
+    public void nextValidId( int orderId) {
+        Lane lane = m_lanes[0];
+        Slot slot = lane.claim( false);
+        if( slot == null) {
+            return;
+        }
+        slot.m_type = NEXT_VALID_ID;
+        slot.m_i1 = orderId;
+        lane.publish();
+    }
+
+    public void contractDetails( ContractDetails contractDetails) {
+        Lane lane = m_lanes[0];
+        Slot slot = lane.claim( false);
+        if( slot == null) {
+            return;
+        }
+        slot.m_type = CONTRACT_DATA;
+        slot.m_o1 = contractDetails;
+        lane.publish();
+    }
+
+    public void bondContractDetails( ContractDetails contractDetails) {
+        Lane lane = m_lanes[0];
+        Slot slot = lane.claim( false);
+        if( slot == null) {
+            return;
+        }
+        slot.m_type = BOND_CONTRACT_DATA;
+        slot.m_o1 = contractDetails;
+        lane.publish();
+    }
+
+    public void execDetails( int orderId, Contract contract, Execution execution) {
+        Lane lane = laneOf( orderId);
+        Slot slot = lane.claim( false);
+        if( slot == null) {
+            return;
+        }
+        slot.m_type = EXECUTION_DATA;
+        slot.m_i1 = orderId;
+        slot.m_o1 = contract;
+        slot.m_o2 = execution;
+        lane.publish();
+    }
+
+    public void error( int id, int errorCode, String errorMsg) {
+        // errors of a request or an order go along with the other msgs of same id
+        Lane lane = id < 0 ? m_lanes[0] : laneOf( id);
+        Slot slot = lane.claim( false);
+        if( slot == null) {
+            return;
+        }
+        slot.m_type = ERR_MSG;
+        slot.m_i1 = id;
+        slot.m_i2 = errorCode;
+        slot.m_o1 = errorMsg;
+        lane.publish();
+    }
+
+    public void updateMktDepth( int tickerId, int position, int operation, int side, double price, int size) {
+        Lane lane = laneOf( tickerId);
+        Slot slot = lane.claim( false);
+        if( slot == null) {
+            return;
+        }
+        slot.m_type = MARKET_DEPTH;
+        slot.m_i1 = tickerId;
+        slot.m_i2 = position;
+        slot.m_i3 = operation;
+        slot.m_i4 = side;
+        slot.m_d1 = price;
+        slot.m_i5 = size;
+        lane.publish();
+    }
+
+    public void updateMktDepthL2( int tickerId, int position, String marketMaker, int operation, int side, double price, int size) {
+        Lane lane = laneOf( tickerId);
+        Slot slot = lane.claim( false);
+        if( slot == null) {
+            return;
+        }
+        slot.m_type = MARKET_DEPTH_L2;
+        slot.m_i1 = tickerId;
+        slot.m_i2 = position;
+        slot.m_o1 = marketMaker;
+        slot.m_i3 = operation;
+        slot.m_i4 = side;
+        slot.m_d1 = price;
+        slot.m_i5 = size;
+        lane.publish();
+    }
+
+    public void updateNewsBulletin( int msgId, int msgType, String message, String origExchange) {
+        Lane lane = m_lanes[0];
+        Slot slot = lane.claim( false);
+        if( slot == null) {
+            return;
+        }
+        slot.m_type = NEWS_BULLETINS;
+        slot.m_i1 = msgId;
+        slot.m_i2 = msgType;
+        slot.m_o1 = message;
+        slot.m_o2 = origExchange;
+        lane.publish();
+    }
+
+    public void managedAccounts( String accountsList) {
+        Lane lane = m_lanes[0];
+        Slot slot = lane.claim( false);
+        if( slot == null) {
+            return;
+        }
+        slot.m_type = MANAGED_ACCTS;
+        slot.m_o1 = accountsList;
+        lane.publish();
+    }
+
+    public void receiveFA( int faDataType, String xml) {
+        Lane lane = m_lanes[0];
+        Slot slot = lane.claim( false);
+        if( slot == null) {
+            return;
+        }
+        slot.m_type = RECEIVE_FA;
+        slot.m_i1 = faDataType;
+        slot.m_o1 = xml;
+        lane.publish();
+    }
+
+    public void historicalData( int reqId, String date, double open, double high, double low, double close, double prevClose,
+            int volume, double WAP, boolean hasGaps) {
+        Lane lane = laneOf( reqId);
+        Slot slot = lane.claim( false);
+        if( slot == null) {
+            return;
+        }
+        slot.m_type = HISTORICAL_DATA;
+        slot.m_i1 = reqId;
+        slot.m_o1 = date;
+        slot.m_d1 = open;
+        slot.m_d2 = high;
+        slot.m_d3 = low;
+        slot.m_d4 = close;
+        slot.m_d5 = prevClose;
+        slot.m_i2 = volume;
+        slot.m_d6 = WAP;
+        slot.m_b1 = hasGaps;
+        lane.publish();
+    }
+
+    public boolean acceptsBars() {
+        return HistoricalBars.acceptedBy( m_eWrapper);
+    }
+
+    public void historicalData( int reqId, HistoricalBars bars) {
+        Lane lane = laneOf( reqId);
+        // the bars are reused by EReader once this returns
+        HistoricalBars copy = bars.copy();
+        Slot slot = lane.claim( false);
+        if( slot == null) {
+            return;
+        }
+        slot.m_type = HISTORICAL_BARS;
+        slot.m_i1 = reqId;
+        slot.m_o1 = copy;
+        lane.publish();
+    }
+
+    public void scannerParameters( String xml) {
+        Lane lane = m_lanes[0];
+        Slot slot = lane.claim( false);
+        if( slot == null) {
+            return;
+        }
+        slot.m_type = SCANNER_PARAMETERS;
+        slot.m_o1 = xml;
+        lane.publish();
+    }
+
+    public void scannerData( int reqId, int rank, ContractDetails contractDetails, String distance, String benchmark, String projection) {
+        Lane lane = laneOf( reqId);
+        Slot slot = lane.claim( false);
+        if( slot == null) {
+            return;
+        }
+        slot.m_type = SCANNER_DATA;
+        slot.m_i1 = reqId;
+        slot.m_i2 = rank;
+        slot.m_o1 = contractDetails;
+        slot.m_o2 = distance;
+        slot.m_o3 = benchmark;
+        slot.m_o4 = projection;
+        lane.publish();
+    }
+
+    private Lane laneOf( int id) {
+        return m_lanes[(id & Integer.MAX_VALUE) % m_lanes.length];
+    }
+
+    ///////////////////////////////////////////////////////////////////////
+    // Dispatching, called from dispatcher threads
+    ///////////////////////////////////////////////////////////////////////
+
+    private void dispatch( Slot s) {
+        switch( s.m_type) {
+            case TICK_PRICE:
+                m_eWrapper.tickPrice( s.m_i1, s.m_i2, s.m_d1, s.m_i3);
+                break;
+            case TICK_SIZE:
+                m_eWrapper.tickSize( s.m_i1, s.m_i2, s.m_i3);
+                break;
+            case TICK_OPTION_COMPUTATION:
+                m_eWrapper.tickOptionComputation( s.m_i1, s.m_i2, s.m_d1, s.m_d2);
+                break;
+            case ORDER_STATUS:
+                m_eWrapper.orderStatus( s.m_i1, (String)s.m_o1, s.m_i2, s.m_i3, s.m_d1, s.m_i4, s.m_i5, s.m_d2, s.m_i6);
+                break;
+            case OPEN_ORDER:
+                m_eWrapper.openOrder( s.m_i1, (Contract)s.m_o1, (Order)s.m_o2);
+                break;
+            case ERR_STR:
+                m_eWrapper.error( (String)s.m_o1);
+                break;
+            case ERR_MSG:
+                m_eWrapper.error( s.m_i1, s.m_i2, (String)s.m_o1);
+                break;
+            case CONNECTION_CLOSED:
+                m_eWrapper.connectionClosed();
+                break;
+            case ACCT_VALUE:
+                m_eWrapper.updateAccountValue( (String)s.m_o1, (String)s.m_o2, (String)s.m_o3, (String)s.m_o4);
+                break;
+            case PORTFOLIO_VALUE:
+                m_eWrapper.updatePortfolio( (Contract)s.m_o1, s.m_i1, s.m_d1, s.m_d2, s.m_d3, s.m_d4, s.m_d5, (String)s.m_o2);
+                break;
+            case ACCT_UPDATE_TIME:
+                m_eWrapper.updateAccountTime( (String)s.m_o1);
+                break;
+            case NEXT_VALID_ID:
+                m_eWrapper.nextValidId( s.m_i1);
+                break;
+            case CONTRACT_DATA:
+                m_eWrapper.contractDetails( (ContractDetails)s.m_o1);
+                break;
+            case BOND_CONTRACT_DATA:
+                m_eWrapper.bondContractDetails( (ContractDetails)s.m_o1);
+                break;
+            case EXECUTION_DATA:
+                m_eWrapper.execDetails( s.m_i1, (Contract)s.m_o1, (Execution)s.m_o2);
+                break;
+            case MARKET_DEPTH:
+                m_eWrapper.updateMktDepth( s.m_i1, s.m_i2, s.m_i3, s.m_i4, s.m_d1, s.m_i5);
+                break;
+            case MARKET_DEPTH_L2:
+                m_eWrapper.updateMktDepthL2( s.m_i1, s.m_i2, (String)s.m_o1, s.m_i3, s.m_i4, s.m_d1, s.m_i5);
+                break;
+            case NEWS_BULLETINS:
+                m_eWrapper.updateNewsBulletin( s.m_i1, s.m_i2, (String)s.m_o1, (String)s.m_o2);
+                break;
+            case MANAGED_ACCTS:
+                m_eWrapper.managedAccounts( (String)s.m_o1);
+                break;
+            case RECEIVE_FA:
+                m_eWrapper.receiveFA( s.m_i1, (String)s.m_o1);
+                break;
+            case HISTORICAL_DATA:
+                m_eWrapper.historicalData( s.m_i1, (String)s.m_o1, s.m_d1, s.m_d2, s.m_d3, s.m_d4, s.m_d5, s.m_i2, s.m_d6, s.m_b1);
+                break;
+            case HISTORICAL_BARS:
+                ((HistoricalDataHandler)m_eWrapper).historicalData( s.m_i1, (HistoricalBars)s.m_o1);
+                break;
+            case SCANNER_PARAMETERS:
+                m_eWrapper.scannerParameters( (String)s.m_o1);
+                break;
+            case SCANNER_DATA:
+                m_eWrapper.scannerData( s.m_i1, s.m_i2, (ContractDetails)s.m_o1, (String)s.m_o2, (String)s.m_o3, (String)s.m_o4);
+                break;
+        }
+    }
+
+    /**
+     * A preallocated msg holder, fields are reused by all msg types.
+     */
+    private static final class Slot {
+        int     m_type;
+        int     m_i1, m_i2, m_i3, m_i4, m_i5, m_i6;
+        double  m_d1, m_d2, m_d3, m_d4, m_d5, m_d6;
+        Object  m_o1, m_o2, m_o3, m_o4;
+        boolean m_b1;
+
+        void clearRefs() {
+            m_o1 = null;
+            m_o2 = null;
+            m_o3 = null;
+            m_o4 = null;
+        }
+    }
+
+    /**
+     * A bounded ring of slots consumed by one dispatcher thread.
+     *
+     * A producer claims the tail slot under the lock and fills it, publish()
+     * makes it visible and releases the lock. The consumer reads the head slot
+     * outside of the lock, which is safe since producers never touch it again
+     * until the consumer has released it.
+     */
+    private final class Lane implements Runnable {
+        private final Slot[]        m_ring;
+        private final ReentrantLock m_lock = new ReentrantLock();
+        private final Condition     m_notEmpty = m_lock.newCondition();
+        private final Condition     m_notFull = m_lock.newCondition();
+        private final String        m_name;
+        private int                 m_head;
+        private int                 m_tail;
+        private int                 m_count;
+        private volatile int        m_maxDepth;
+        private volatile Thread     m_thread;
+
+        Lane( int idx, int capacity) {
+            m_name = "EDispatcher-" + idx;
+            m_ring = new Slot[capacity];
+            for( int i = 0; i < capacity; i++) {
+                m_ring[i] = new Slot();
+            }
+        }
+
+        void start() {
+            m_thread = new Thread( this, m_name);
+            m_thread.setDaemon( true);
+            m_thread.start();
+        }
+
+        /**
+         * Releases the thread, which exits before it takes another slot, so a
+         * following start() never leaves two consumers on this ring.
+         */
+        void stop() {
+            Thread thread = m_thread;
+            if( thread == null) {
+                return;
+            }
+            m_thread = null;
+            thread.interrupt();
+            if( thread != Thread.currentThread()) {
+                boolean interrupted = false;
+                while( thread.isAlive()) {
+                    try {
+                        thread.join();
+                    }
+                    catch( InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if( interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        int depth() {
+            m_lock.lock();
+            try {
+                return m_count;
+            }
+            finally {
+                m_lock.unlock();
+            }
+        }
+
+        int maxDepth() {
+            return m_maxDepth;
+        }
+
+        /**
+         * Acquires the lock and returns the tail slot to be filled, the caller
+         * must then call publish().
+         *
+         * @return null if the msg has to be dropped, the lock is not held then.
+         *         That happens when the ring is full and dropping is allowed, or
+         *         when the producer is interrupted or the dispatcher is stopped
+         *         while waiting for room.
+         */
+        Slot claim( boolean dropWhenFull) {
+            m_lock.lock();
+            if( m_count == m_ring.length) {
+                if( !dropWhenFull) {
+                    m_blocked.incrementAndGet();
+                    try {
+                        while( m_count == m_ring.length && m_running) {
+                            m_notFull.await( 100, TimeUnit.MILLISECONDS);
+                        }
+                    }
+                    catch( InterruptedException e) {
+                        // let the caller, i.e. the EReader, see the interruption
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                if( m_count == m_ring.length) {
+                    m_lock.unlock();
+                    m_dropped.incrementAndGet();
+                    return null;
+                }
+            }
+            return m_ring[m_tail];
+        }
+
+        void publish() {
+            try {
+                m_tail = (m_tail + 1) % m_ring.length;
+                m_count++;
+                if( m_count > m_maxDepth) {
+                    m_maxDepth = m_count;
+                }
+                m_notEmpty.signal();
+            }
+            finally {
+                m_lock.unlock();
+            }
+        }
+
+        public void run() {
+            Thread self = Thread.currentThread();
+            while( m_thread == self) {
+                Slot slot;
+                m_lock.lock();
+                try {
+                    while( m_count == 0) {
+                        m_notEmpty.await();
+                    }
+                    if( m_thread != self) {
+                        return;
+                    }
+                    slot = m_ring[m_head];
+                }
+                catch( InterruptedException e) {
+                    return;
+                }
+                finally {
+                    m_lock.unlock();
+                }
+
+                try {
+                    dispatch( slot);
+                    m_dispatched.incrementAndGet();
+                }
+                catch( Throwable t) {
+                    // a failing callback should not kill the dispatcher
+                    t.printStackTrace();
+                }
+                slot.clearRefs();
+
+                m_lock.lock();
+                try {
+                    m_head = (m_head + 1) % m_ring.length;
+                    m_count--;
+                    m_notFull.signal();
+                }
+                finally {
+                    m_lock.unlock();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+
+package com.ib.client;
+
+import java.io.*;
+
+/**
+ * Encodes the NUL terminated fields of outgoing requests into a reusable byte
+ * buffer, so that a whole request goes out to the socket in a single write.
+ */
+class EEncoder {
+
+    private static final int DEFAULT_BUF_SIZE = 1024;
+
+    private byte[] m_buf;
+    private int    m_count;
+
+    // scratch for writing int/long digits backwards
+    private final byte[] m_digits = new byte[20];
+
+    EEncoder() {
+        this( DEFAULT_BUF_SIZE);
+    }
+
+    EEncoder( int bufSize) {
+        m_buf = new byte[bufSize];
+    }
+
+    /** number of encoded bytes not flushed yet */
+    int size() {
+        return m_count;
+    }
+
+    /** a copy of the encoded bytes not flushed yet */
+    byte[] toByteArray() {
+        byte[] bytes = new byte[m_count];
+        System.arraycopy( m_buf, 0, bytes, 0, m_count);
+        return bytes;
+    }
+
+    void reset() {
+        m_count = 0;
+    }
+
+    /**
+     * Writes all encoded bytes to out with one write call and resets the buffer.
+     */
+    void flush( OutputStream out) throws IOException {
+        if( m_count == 0) {
+            return;
+        }
+        try {
+            out.write( m_buf, 0, m_count);
+            out.flush();
+        }
+        finally {
+            m_count = 0;
+        }
+    }
+
+    private void ensureCapacity( int extra) {
+        int required = m_count + extra;
+        if( required > m_buf.length) {
+            byte[] newBuf = new byte[Math.max( required, m_buf.length * 2)];
+            System.arraycopy( m_buf, 0, newBuf, 0, m_count);
+            m_buf = newBuf;
+        }
+    }
+
+    void writeEOL() {
+        ensureCapacity( 1);
+        m_buf[m_count++] = 0;
+    }
+
+    void write( String str) {
+        if( str != null) {
+            int len = str.length();
+            ensureCapacity( len);
+            int i = 0;
+            for( ; i < len; i++) {
+                char c = str.charAt( i);
+                if( c >= 0x80) {
+                    break;
+                }
+                m_buf[m_count + i] = (byte)c;
+            }
+            if( i == len) {
+                m_count += len;
+            }
+            else {
+                // not plain ascii, let the platform charset encode it as before
+                writeBytes( str.getBytes());
+            }
+        }
+        writeEOL();
+    }
+
+    private void writeBytes( byte[] bytes) {
+        ensureCapacity( bytes.length);
+        System.arraycopy( bytes, 0, m_buf, m_count, bytes.length);
+        m_count += bytes.length;
+    }
+
+    void write( char val) {
+        ensureCapacity( 2);
+        m_buf[m_count++] = (byte)val;
+        m_buf[m_count++] = 0;
+    }
+
+    void write( int val) {
+        write( (long)val);
+    }
+
+    void write( long val) {
+        writeDigits( val);
+        writeEOL();
+    }
+
+    void write( double val) {
+        long lval = (long)val;
+        // integral values below 10^7 are what Double.toString formats as "<n>.0",
+        // everything else keeps going through it to preserve the exact wire format
+        if( lval == val && lval > -10000000L && lval < 10000000L
+                && (lval != 0 || Double.doubleToRawLongBits( val) == 0)) {
+            writeDigits( lval);
+            ensureCapacity( 2);
+            m_buf[m_count++] = '.';
+            m_buf[m_count++] = '0';
+            writeEOL();
+        }
+        else {
+            write( String.valueOf( val));
+        }
+    }
+
+    void write( boolean val) {
+        write( val ? 1 : 0);
+    }
+
+    void writeMax( int val) {
+        if( val == Integer.MAX_VALUE) {
+            writeEOL();
+        }
+        else {
+            write( val);
+        }
+    }
+
+    void writeMax( double val) {
+        if( val == Double.MAX_VALUE) {
+            writeEOL();
+        }
+        else {
+            write( val);
+        }
+    }
+
+    private void writeDigits( long val) {
+        if( val == Long.MIN_VALUE) {
+            writeBytes( String.valueOf( val).getBytes());
+            return;
+        }
+
+        ensureCapacity( 20);
+        if( val < 0) {
+            m_buf[m_count++] = '-';
+            val = -val;
+        }
+        int n = 0;
+        do {
+            m_digits[n++] = (byte)('0' + (int)(val % 10));
+            val /= 10;
+        } while( val != 0);
+        while( n > 0) {
+            m_buf[m_count++] = m_digits[--n];
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.ib.client;
+
+import java.io.*;
+import java.net.*;
+
+/**
+ * A local socket server that plays the TWS side of a session, so that
+ * EClientSocket.eConnect can be pointed to it for benchmarks and regression
+ * tests without a live TWS.
+ *
+ * It serves either a capture recorded by EWireCapture, replayed with its
+ * original timing scaled by speed, or a synthetic stream, e.g. from
+ * ESyntheticFeed. Each accepted connection gets the whole stream, whatever the
+ * client sends is read and discarded. After the stream, the output is shut
+ * down and the connection is closed once the client has closed its side.
+ */
+public class EFakeTws implements Runnable {
+
+    private final String        m_captureFile;
+    private final byte[]        m_bytes;
+    private final double        m_speed;
+    private final ServerSocket  m_serverSocket;
+    private Thread              m_thread;
+
+    /**
+     * Replays a capture file.
+     * @param speed 1 replays with the recorded timing, 2 twice as fast etc,
+     *        0 or less as fast as possible
+     */
+    public EFakeTws( int port, String captureFile, double speed) throws IOException {
+        this( port, captureFile, null, speed);
+    }
+
+    /**
+     * Serves a raw inbound byte stream as fast as possible.
+     */
+    public EFakeTws( int port, byte[] bytes) throws IOException {
+        this( port, null, bytes, 0);
+    }
+
+    private EFakeTws( int port, String captureFile, byte[] bytes, double speed) throws IOException {
+        m_captureFile = captureFile;
+        m_bytes = bytes;
+        m_speed = speed;
+        m_serverSocket = new ServerSocket( port, 50, InetAddress.getByName( "127.0.0.1"));
+    }
+
+    /** the actual port, useful when constructed with port 0 */
+    public int getLocalPort() {
+        return m_serverSocket.getLocalPort();
+    }
+
+    public synchronized void start() {
+        if( m_thread == null) {
+            m_thread = new Thread( this, "EFakeTws");
+            m_thread.setDaemon( true);
+            m_thread.start();
+        }
+    }
+
+    public synchronized void stop() {
+        try {
+            m_serverSocket.close();
+        }
+        catch( IOException e) {
+        }
+        m_thread = null;
+    }
+
+    public void run() {
+        while( !m_serverSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = m_serverSocket.accept();
+            }
+            catch( IOException e) {
+                return;
+            }
+            Thread session = new Thread( "EFakeTws-session") {
+                public void run() {
+                    serve( socket);
+                }
+            };
+            session.setDaemon( true);
+            session.start();
+        }
+    }
+
+    private void serve( final Socket socket) {
+        try {
+            final InputStream in = socket.getInputStream();
+            // wait for the client version before talking, as TWS does
+            int c;
+            while( (c = in.read()) > 0) {
+            }
+            if( c < 0) {
+                return;
+            }
+            // drain client requests
+            Thread drainer = new Thread( "EFakeTws-drainer") {
+                public void run() {
+                    byte[] buf = new byte[4096];
+                    try {
+                        while( in.read( buf) >= 0) {
+                        }
+                    }
+                    catch( IOException e) {
+                    }
+                }
+            };
+            drainer.setDaemon( true);
+            drainer.start();
+
+            OutputStream out = new BufferedOutputStream( socket.getOutputStream(), 65536);
+            if( m_captureFile != null) {
+                replay( out);
+            }
+            else {
+                out.write( m_bytes);
+            }
+            out.flush();
+
+            // closing with what the client sent still unread would reset the
+            // connection and drop the tail of the stream, so half close and
+            // wait until the client closes too
+            socket.shutdownOutput();
+            drainer.join();
+        }
+        catch( IOException e) {
+            // client has gone
+        }
+        catch( InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            try {
+                socket.close();
+            }
+            catch( IOException e) {
+            }
+        }
+    }
+
+    private void replay( OutputStream out) throws IOException {
+        DataInputStream capture = new DataInputStream( new BufferedInputStream( new FileInputStream( m_captureFile)));
+        try {
+            long startNanos = System.nanoTime();
+            EWireCapture.Chunk chunk;
+            while( (chunk = EWireCapture.readChunk( capture)) != null) {
+                if( m_speed > 0) {
+                    long dueNanos = startNanos + (long)(chunk.m_nanos / m_speed);
+                    long waitNanos = dueNanos - System.nanoTime();
+                    if( waitNanos > 0) {
+                        out.flush();
+                        try {
+                            Thread.sleep( waitNanos / 1000000, (int)(waitNanos % 1000000));
+                        }
+                        catch( InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+                out.write( chunk.m_bytes);
+            }
+        }
+        finally {
+            capture.close();
+        }
+    }
+}
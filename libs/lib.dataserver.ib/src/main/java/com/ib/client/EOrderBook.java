@@ -0,0 +1,344 @@
+
+package com.ib.client;
+
+/**
+ * The order book of one ticker, maintained from updateMktDepth and
+ * updateMktDepthL2 rows.
+ *
+ * Levels are kept in preallocated primitive arrays per side, so applying a row
+ * never allocates: update is O(1) at its position, insert and delete shift
+ * the levels behind the position by one (a System.arraycopy over at most
+ * numRows levels). Rows beyond the capacity are ignored, as TWS never sends
+ * more than the numRows asked for.
+ *
+ * Methods are synchronized, the reader thread applies rows while other threads
+ * take snapshots.
+ */
+public class EOrderBook {
+
+    public static final int OPERATION_INSERT = 0;
+    public static final int OPERATION_UPDATE = 1;
+    public static final int OPERATION_DELETE = 2;
+
+    public static final int SIDE_ASK = 0;
+    public static final int SIDE_BID = 1;
+
+    private final int  m_tickerId;
+    private final Side m_bids;
+    private final Side m_asks;
+
+    private long m_updateCount;
+    private long m_lastUpdateTime;
+    private long m_publishedCount;  // m_updateCount at the latest snapshot
+
+    public EOrderBook( int tickerId, int capacity) {
+        m_tickerId = tickerId;
+        m_bids = new Side( capacity);
+        m_asks = new Side( capacity);
+    }
+
+    public int tickerId() {
+        return m_tickerId;
+    }
+
+    public synchronized long updateCount() {
+        return m_updateCount;
+    }
+
+    /**
+     * Applies one depth row.
+     * @param marketMaker null for updateMktDepth rows
+     */
+    public synchronized void apply( int position, String marketMaker, int operation, int side, double price, int size) {
+        Side s = side == SIDE_BID ? m_bids : m_asks;
+        switch( operation) {
+            case OPERATION_INSERT:
+                s.insert( position, marketMaker, price, size);
+                break;
+            case OPERATION_UPDATE:
+                s.update( position, marketMaker, price, size);
+                break;
+            case OPERATION_DELETE:
+                s.delete( position);
+                break;
+            default:
+                return;
+        }
+        m_updateCount++;
+        m_lastUpdateTime = System.currentTimeMillis();
+    }
+
+    /** clears both sides, e.g. on MKT_DEPTH_DATA_RESET */
+    public synchronized void reset() {
+        m_bids.clear();
+        m_asks.clear();
+        m_updateCount++;
+        m_lastUpdateTime = System.currentTimeMillis();
+    }
+
+    /** whether there are rows applied since the latest snapshot */
+    public synchronized boolean isChanged() {
+        return m_updateCount != m_publishedCount;
+    }
+
+    /**
+     * Copies the current state into a new immutable snapshot.
+     */
+    public synchronized Snapshot snapshot() {
+        m_publishedCount = m_updateCount;
+        return new Snapshot( m_tickerId, m_updateCount, m_lastUpdateTime, m_bids.copy(), m_asks.copy());
+    }
+
+    public synchronized int numBids() {
+        return m_bids.m_count;
+    }
+
+    public synchronized int numAsks() {
+        return m_asks.m_count;
+    }
+
+    public synchronized double bidPrice( int level) {
+        return m_bids.price( level);
+    }
+
+    public synchronized int bidSize( int level) {
+        return m_bids.size( level);
+    }
+
+    public synchronized double askPrice( int level) {
+        return m_asks.price( level);
+    }
+
+    public synchronized int askSize( int level) {
+        return m_asks.size( level);
+    }
+
+    public synchronized long cumBidSize( int levels) {
+        return m_bids.cumSize( levels);
+    }
+
+    public synchronized long cumAskSize( int levels) {
+        return m_asks.cumSize( levels);
+    }
+
+    public synchronized double imbalance( int levels) {
+        return imbalance( m_bids.cumSize( levels), m_asks.cumSize( levels));
+    }
+
+    /**
+     * Fills bidAsks in the layout of MarketDepth (bid price, bid size, ask
+     * price, ask size per level) for top bidAsks.length / 4 levels, missing
+     * levels are 0.
+     */
+    public synchronized void toBidAsks( double[] bidAsks) {
+        toBidAsks( m_bids, m_asks, bidAsks);
+    }
+
+    private static void toBidAsks( Side bids, Side asks, double[] bidAsks) {
+        int levels = bidAsks.length / 4;
+        for( int i = 0; i < levels; i++) {
+            int j = i * 4;
+            bidAsks[j]     = bids.price( i);
+            bidAsks[j + 1] = bids.size( i);
+            bidAsks[j + 2] = asks.price( i);
+            bidAsks[j + 3] = asks.size( i);
+        }
+    }
+
+    /**
+     * (bidSize - askSize) / (bidSize + askSize), in [-1, 1], 0 when both are 0
+     */
+    private static double imbalance( long bidSize, long askSize) {
+        long total = bidSize + askSize;
+        return total == 0 ? 0 : (double)(bidSize - askSize) / total;
+    }
+
+    /**
+     * Levels of one side, best first.
+     */
+    private static final class Side {
+        final double[] m_prices;
+        final int[]    m_sizes;
+        final String[] m_makers;
+        int            m_count;
+
+        Side( int capacity) {
+            m_prices = new double[capacity];
+            m_sizes  = new int[capacity];
+            m_makers = new String[capacity];
+        }
+
+        void insert( int pos, String maker, double price, int size) {
+            int capacity = m_prices.length;
+            if( pos < 0 || pos >= capacity) {
+                return;
+            }
+            if( pos > m_count) {
+                pos = m_count;
+            }
+            // the last level falls off when full
+            int n = Math.min( m_count, capacity - 1) - pos;
+            if( n > 0) {
+                System.arraycopy( m_prices, pos, m_prices, pos + 1, n);
+                System.arraycopy( m_sizes,  pos, m_sizes,  pos + 1, n);
+                System.arraycopy( m_makers, pos, m_makers, pos + 1, n);
+            }
+            m_prices[pos] = price;
+            m_sizes[pos]  = size;
+            m_makers[pos] = maker;
+            if( m_count < capacity) {
+                m_count++;
+            }
+        }
+
+        void update( int pos, String maker, double price, int size) {
+            if( pos < 0 || pos >= m_prices.length) {
+                return;
+            }
+            if( pos >= m_count) {
+                // an update on a level never inserted, treat as insert at tail
+                insert( pos, maker, price, size);
+                return;
+            }
+            m_prices[pos] = price;
+            m_sizes[pos]  = size;
+            m_makers[pos] = maker;
+        }
+
+        void delete( int pos) {
+            if( pos < 0 || pos >= m_count) {
+                return;
+            }
+            int n = m_count - pos - 1;
+            if( n > 0) {
+                System.arraycopy( m_prices, pos + 1, m_prices, pos, n);
+                System.arraycopy( m_sizes,  pos + 1, m_sizes,  pos, n);
+                System.arraycopy( m_makers, pos + 1, m_makers, pos, n);
+            }
+            m_count--;
+            m_makers[m_count] = null;
+        }
+
+        void clear() {
+            for( int i = 0; i < m_count; i++) {
+                m_makers[i] = null;
+            }
+            m_count = 0;
+        }
+
+        double price( int level) {
+            return level >= 0 && level < m_count ? m_prices[level] : 0;
+        }
+
+        int size( int level) {
+            return level >= 0 && level < m_count ? m_sizes[level] : 0;
+        }
+
+        String maker( int level) {
+            return level >= 0 && level < m_count ? m_makers[level] : null;
+        }
+
+        long cumSize( int levels) {
+            int n = Math.min( levels, m_count);
+            long sum = 0;
+            for( int i = 0; i < n; i++) {
+                sum += m_sizes[i];
+            }
+            return sum;
+        }
+
+        /** size weighted average price of top levels, 0 when they are empty */
+        double vwap( int levels) {
+            int n = Math.min( levels, m_count);
+            double amount = 0;
+            long sum = 0;
+            for( int i = 0; i < n; i++) {
+                amount += m_prices[i] * m_sizes[i];
+                sum += m_sizes[i];
+            }
+            return sum == 0 ? 0 : amount / sum;
+        }
+
+        /** a copy trimmed to m_count levels */
+        Side copy() {
+            Side side = new Side( m_count);
+            System.arraycopy( m_prices, 0, side.m_prices, 0, m_count);
+            System.arraycopy( m_sizes,  0, side.m_sizes,  0, m_count);
+            System.arraycopy( m_makers, 0, side.m_makers, 0, m_count);
+            side.m_count = m_count;
+            return side;
+        }
+    }
+
+    /**
+     * An immutable copy of an order book at some moment, with the aggregated
+     * views of it.
+     */
+    public static final class Snapshot {
+        private final int  m_tickerId;
+        private final long m_updateCount;
+        private final long m_time;
+        private final Side m_bids;
+        private final Side m_asks;
+
+        private Snapshot( int tickerId, long updateCount, long time, Side bids, Side asks) {
+            m_tickerId = tickerId;
+            m_updateCount = updateCount;
+            m_time = time;
+            m_bids = bids;
+            m_asks = asks;
+        }
+
+        public int tickerId()        { return m_tickerId; }
+        /** number of rows applied to the book up to this snapshot */
+        public long updateCount()    { return m_updateCount; }
+        /** time in ms of the latest row applied */
+        public long time()           { return m_time; }
+
+        public int numBids()         { return m_bids.m_count; }
+        public int numAsks()         { return m_asks.m_count; }
+
+        public double bidPrice( int level)   { return m_bids.price( level); }
+        public int    bidSize( int level)    { return m_bids.size( level); }
+        public String bidMaker( int level)   { return m_bids.maker( level); }
+        public double askPrice( int level)   { return m_asks.price( level); }
+        public int    askSize( int level)    { return m_asks.size( level); }
+        public String askMaker( int level)   { return m_asks.maker( level); }
+
+        /** best ask - best bid, 0 if either side is empty */
+        public double spread() {
+            return m_bids.m_count == 0 || m_asks.m_count == 0 ? 0 : m_asks.m_prices[0] - m_bids.m_prices[0];
+        }
+
+        /** (best bid + best ask) / 2, 0 if either side is empty */
+        public double midPrice() {
+            return m_bids.m_count == 0 || m_asks.m_count == 0 ? 0 : (m_asks.m_prices[0] + m_bids.m_prices[0]) / 2;
+        }
+
+        /** total size of top levels of bid side */
+        public long cumBidSize( int levels)  { return m_bids.cumSize( levels); }
+        /** total size of top levels of ask side */
+        public long cumAskSize( int levels)  { return m_asks.cumSize( levels); }
+
+        public double bidVwap( int levels)   { return m_bids.vwap( levels); }
+        public double askVwap( int levels)   { return m_asks.vwap( levels); }
+
+        /**
+         * Size imbalance of top levels, (bid - ask) / (bid + ask), positive
+         * when bids outweigh asks.
+         */
+        public double imbalance( int levels) {
+            return EOrderBook.imbalance( m_bids.cumSize( levels), m_asks.cumSize( levels));
+        }
+
+        /**
+         * Top levels in the layout of MarketDepth, bid price, bid size, ask
+         * price, ask size per level, missing levels are 0.
+         */
+        public double[] toBidAsks( int levels) {
+            double[] bidAsks = new double[levels * 4];
+            EOrderBook.toBidAsks( m_bids, m_asks, bidAsks);
+            return bidAsks;
+        }
+    }
+}
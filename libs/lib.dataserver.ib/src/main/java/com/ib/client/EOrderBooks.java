@@ -0,0 +1,278 @@
+
+package com.ib.client;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * An EWrapper that maintains an EOrderBook per tickerId from the market depth
+ * rows, instead of passing each row on to the real wrapper.
+ *
+ * Changed books are published as immutable EOrderBook.Snapshot to the listener
+ * at most once per interval, which is the only allocation. The latest
+ * published snapshot of a tickerId is also available from snapshot(). With
+ * passDepth set, rows are passed on to the wrapper too. All other msgs are
+ * passed through unchanged.
+ */
+public class EOrderBooks implements EWrapper, HistoricalDataHandler {
+
+    /** see MktDepthDlg */
+    public static final int MKT_DEPTH_DATA_RESET = 317;
+
+    public interface Listener {
+        void orderBookUpdated( EOrderBook.Snapshot snapshot);
+    }
+
+    private final EWrapper m_eWrapper;
+    private final Listener m_listener;
+    private final int      m_numRows;
+    private final long     m_intervalMillis;
+    private final boolean  m_passDepth;
+    private Timer          m_timer;
+
+    // books and latest snapshots by slot of tickerId, guarded by this
+    private final ETickerSlots    m_slots     = new ETickerSlots();
+    private EOrderBook[]          m_books     = new EOrderBook[16];
+    private EOrderBook.Snapshot[] m_snapshots = new EOrderBook.Snapshot[16];
+
+    private long m_received;
+    private long m_published;
+
+    /**
+     * @param numRows capacity of each side of a book, i.e. numRows of reqMktDepth
+     * @param intervalMillis publish interval, 0 means books are only published
+     *        by calling publish()
+     */
+    public EOrderBooks( EWrapper eWrapper, Listener listener, int numRows, long intervalMillis, boolean passDepth) {
+        m_eWrapper = eWrapper;
+        m_listener = listener;
+        m_numRows = numRows;
+        m_intervalMillis = intervalMillis;
+        m_passDepth = passDepth;
+        start();
+    }
+
+    public synchronized void start() {
+        if( m_timer != null || m_intervalMillis <= 0) {
+            return;
+        }
+        m_timer = new Timer( "EOrderBooks", true);
+        m_timer.scheduleAtFixedRate( new TimerTask() {
+            public void run() {
+                publish();
+            }
+        }, m_intervalMillis, m_intervalMillis);
+    }
+
+    /**
+     * Stops the publish timer, then publishes what has changed.
+     */
+    public void stop() {
+        synchronized( this) {
+            if( m_timer != null) {
+                m_timer.cancel();
+                m_timer = null;
+            }
+        }
+        publish();
+    }
+
+    /** the live book of tickerId, null if no row has been received for it */
+    public synchronized EOrderBook book( int tickerId) {
+        int slot = m_slots.slotOf( tickerId);
+        return slot >= 0 ? m_books[slot] : null;
+    }
+
+    /** the latest published snapshot of tickerId, or null */
+    public synchronized EOrderBook.Snapshot snapshot( int tickerId) {
+        int slot = m_slots.slotOf( tickerId);
+        return slot >= 0 ? m_snapshots[slot] : null;
+    }
+
+    /** depth rows received from the reader */
+    public synchronized long receivedCount() {
+        return m_received;
+    }
+
+    /** snapshots published */
+    public synchronized long publishedCount() {
+        return m_published;
+    }
+
+    /**
+     * Takes a snapshot of each book changed since the latest publish and hands
+     * it to the listener.
+     */
+    public void publish() {
+        int numBooks;
+        EOrderBook[] books;
+        synchronized( this) {
+            numBooks = m_slots.size();
+            books = m_books;
+        }
+        // books are only ever added, into the next slot, so the array seen above stays valid
+        for( int i = 0; i < numBooks; i++) {
+            EOrderBook book = books[i];
+            if( !book.isChanged()) {
+                continue;
+            }
+            EOrderBook.Snapshot snapshot = book.snapshot();
+            synchronized( this) {
+                m_snapshots[i] = snapshot;
+                m_published++;
+            }
+            if( m_listener != null) {
+                try {
+                    m_listener.orderBookUpdated( snapshot);
+                }
+                catch( RuntimeException e) {
+                    // don't lose the rest of this round for one failing callback
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private synchronized EOrderBook bookOf( int tickerId) {
+        int slot = m_slots.slotOf( tickerId);
+        if( slot < 0) {
+            slot = m_slots.add( tickerId);
+            if( slot == m_books.length) {
+                int n = m_books.length * 2;
+                EOrderBook[] books = new EOrderBook[n];
+                System.arraycopy( m_books, 0, books, 0, m_books.length);
+                m_books = books;
+                EOrderBook.Snapshot[] snapshots = new EOrderBook.Snapshot[n];
+                System.arraycopy( m_snapshots, 0, snapshots, 0, m_snapshots.length);
+                m_snapshots = snapshots;
+            }
+            m_books[slot] = new EOrderBook( tickerId, m_numRows);
+        }
+        m_received++;
+        return m_books[slot];
+    }
+
+    public void updateMktDepth( int tickerId, int position, int operation, int side, double price, int size) {
+        if( tickerId >= 0) {
+            bookOf( tickerId).apply( position, null, operation, side, price, size);
+        }
+        if( m_passDepth) {
+            m_eWrapper.updateMktDepth( tickerId, position, operation, side, price, size);
+        }
+    }
+
+    public void updateMktDepthL2( int tickerId, int position, String marketMaker, int operation, int side, double price, int size) {
+        if( tickerId >= 0) {
+            bookOf( tickerId).apply( position, marketMaker, operation, side, price, size);
+        }
+        if( m_passDepth) {
+            m_eWrapper.updateMktDepthL2( tickerId, position, marketMaker, operation, side, price, size);
+        }
+    }
+
+    public void error( int id, int errorCode, String errorMsg) {
+        if( errorCode == MKT_DEPTH_DATA_RESET) {
+            EOrderBook book = book( id);
+            if( book != null) {
+                book.reset();
+            }
+        }
+        m_eWrapper.error( id, errorCode, errorMsg);
+    }
+
+    ///////////////////////////////////////////////////////////////////////
+    // Passed through
+    ///////////////////////////////////////////////////////////////////////
+
+    public void tickPrice( int tickerId, int field, double price, int canAutoExecute) {
+        m_eWrapper.tickPrice( tickerId, field, price, canAutoExecute);
+    }
+
+    public void tickSize( int tickerId, int field, int size) {
+        m_eWrapper.tickSize( tickerId, field, size);
+    }
+
+    public void tickOptionComputation( int tickerId, int field, double impliedVolatility, double delta) {
+        m_eWrapper.tickOptionComputation( tickerId, field, impliedVolatility, delta);
+    }
+
+    public void orderStatus( int orderId, String status, int filled, int remaining,
+            double avgFillPrice, int permId, int parentId, double lastFillPrice,
+            int clientId) {
+        m_eWrapper.orderStatus( orderId, status, filled, remaining, avgFillPrice, permId, parentId, lastFillPrice, clientId);
+    }
+
+    public void openOrder( int orderId, Contract contract, Order order) {
+        m_eWrapper.openOrder( orderId, contract, order);
+    }
+
+    public void error( String str) {
+        m_eWrapper.error( str);
+    }
+
+    public void connectionClosed() {
+        m_eWrapper.connectionClosed();
+    }
+
+    public void updateAccountValue( String key, String value, String currency, String accountName) {
+        m_eWrapper.updateAccountValue( key, value, currency, accountName);
+    }
+
+    public void updatePortfolio( Contract contract, int position, double marketPrice, double marketValue,
+            double averageCost, double unrealizedPNL, double realizedPNL, String accountName) {
+        m_eWrapper.updatePortfolio( contract, position, marketPrice, marketValue, averageCost, unrealizedPNL, realizedPNL, accountName);
+    }
+
+    public void updateAccountTime( String timeStamp) {
+        m_eWrapper.updateAccountTime( timeStamp);
+    }
+
+    public void nextValidId( int orderId) {
+        m_eWrapper.nextValidId( orderId);
+    }
+
+    public void contractDetails( ContractDetails contractDetails) {
+        m_eWrapper.contractDetails( contractDetails);
+    }
+
+    public void bondContractDetails( ContractDetails contractDetails) {
+        m_eWrapper.bondContractDetails( contractDetails);
+    }
+
+    public void execDetails( int orderId, Contract contract, Execution execution) {
+        m_eWrapper.execDetails( orderId, contract, execution);
+    }
+
+    public void updateNewsBulletin( int msgId, int msgType, String message, String origExchange) {
+        m_eWrapper.updateNewsBulletin( msgId, msgType, message, origExchange);
+    }
+
+    public void managedAccounts( String accountsList) {
+        m_eWrapper.managedAccounts( accountsList);
+    }
+
+    public void receiveFA( int faDataType, String xml) {
+        m_eWrapper.receiveFA( faDataType, xml);
+    }
+
+    public void historicalData( int reqId, String date, double open, double high, double low, double close, double prevClose,
+            int volume, double WAP, boolean hasGaps) {
+        m_eWrapper.historicalData( reqId, date, open, high, low, close, prevClose, volume, WAP, hasGaps);
+    }
+
+    public boolean acceptsBars() {
+        return HistoricalBars.acceptedBy( m_eWrapper);
+    }
+
+    public void historicalData( int reqId, HistoricalBars bars) {
+        ((HistoricalDataHandler)m_eWrapper).historicalData( reqId, bars);
+    }
+
+    public void scannerParameters( String xml) {
+        m_eWrapper.scannerParameters( xml);
+    }
+
+    public void scannerData( int reqId, int rank, ContractDetails contractDetails, String distance, String benchmark, String projection) {
+        m_eWrapper.scannerData( reqId, rank, contractDetails, distance, benchmark, projection);
+    }
+}
@@ -3,6 +3,7 @@ package com.ib.client;
 
 import java.io.*;
 import java.net.*;
+import java.util.TimeZone;
 
 class EReader extends Thread {
 
@@ -30,13 +31,15 @@ class EReader extends Thread {
     static final int TICK_OPTION_COMPUTATION   = 21;
 
     private EClientSocket 	m_parent;
-    private DataInputStream m_dis;
+    private EDecoder 		m_decoder;
     private EWrapper 		m_eWrapper;
+    private HistoricalBars  m_bars = new HistoricalBars(); // reused by bulk historical data
+    private TimeZone        m_timeZone = TimeZone.getDefault(); // of TWS formatted bar times
     
     EReader( EClientSocket parent, DataInputStream dis) {
         setName( "EReader");
         m_parent = parent;
-        m_dis = dis;
+        m_decoder = new EDecoder( dis);
         m_eWrapper = parent.eWrapper();
     }
 
@@ -513,8 +516,8 @@ class EReader extends Thread {
                     case HISTORICAL_DATA: {
                       int version = readInt();
                       int reqId = readInt();
-                	  String startDateStr;
-                	  String endDateStr;
+                	  String startDateStr = null;
+                	  String endDateStr = null;
                 	  String completedIndicator = "finished";
                       if (version >= 2) {
                     	  startDateStr = readStr();
@@ -522,6 +525,24 @@ class EReader extends Thread {
                     	  completedIndicator += "-" + startDateStr + "-" + endDateStr;
                       }
                       int itemCount = readInt();
+                      if (HistoricalBars.acceptedBy(m_eWrapper)) {
+                        // decode the whole response into columns and deliver it at once
+                        m_bars.reset(itemCount);
+                        m_bars.m_startDate = startDateStr;
+                        m_bars.m_endDate = endDateStr;
+                        for (int ctr = 0; ctr < itemCount; ctr++) {
+                          m_bars.m_times[ctr] = m_decoder.readTime(m_timeZone);
+                          m_bars.m_open[ctr] = readDouble();
+                          m_bars.m_high[ctr] = readDouble();
+                          m_bars.m_low[ctr] = readDouble();
+                          m_bars.m_close[ctr] = readDouble();
+                          m_bars.m_volume[ctr] = readInt();
+                          m_bars.m_WAP[ctr] = readDouble();
+                          m_bars.m_hasGaps[ctr] = m_decoder.readBoolFromStr();
+                        }
+                        ((HistoricalDataHandler)m_eWrapper).historicalData(reqId, m_bars);
+                        break;
+                      }
                       for (int ctr = 0; ctr < itemCount; ctr++) {
                         String date = readStr();
                         double open = readDouble();
@@ -559,32 +580,18 @@ class EReader extends Thread {
     }
 
     String readStr() throws IOException {
-        StringBuffer buf = new StringBuffer();
-        while( true) {
-            byte c = m_dis.readByte();
-            if( c == 0) {
-                break;
-            }
-            buf.append( (char)c);
-        }
-
-        String str = buf.toString();
-        return str.length() == 0 ? null : str;
+        return m_decoder.readStr();
     }
 
-
     boolean readBoolFromInt() throws IOException {
-        String str = readStr();
-        return str == null ? false : (Integer.parseInt( str) != 0);
+        return m_decoder.readBoolFromInt();
     }
 
     int readInt() throws IOException {
-        String str = readStr();
-        return str == null ? 0 : Integer.parseInt( str);
+        return m_decoder.readInt();
     }
 
     double readDouble() throws IOException {
-        String str = readStr();
-        return str == null ? 0 : Double.parseDouble( str);
+        return m_decoder.readDouble();
     }
 }
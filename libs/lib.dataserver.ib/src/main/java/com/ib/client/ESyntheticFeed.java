@@ -0,0 +1,95 @@
+package com.ib.client;
+
+import java.util.Random;
+
+/**
+ * Generates a synthetic inbound TWS byte stream: the connect handshake
+ * followed by a mix of TICK_PRICE, TICK_SIZE, MARKET_DEPTH and HISTORICAL_DATA
+ * msgs, encoded the same way that TWS does.
+ */
+public class ESyntheticFeed {
+
+    public static final int SERVER_VERSION = 27;
+
+    private final int    m_numTickers;
+    private final Random m_random;
+
+    public ESyntheticFeed( int numTickers, long seed) {
+        m_numTickers = numTickers;
+        m_random = new Random( seed);
+    }
+
+    /**
+     * @param numMsgs number of msgs after the handshake
+     */
+    public byte[] generate( int numMsgs) {
+        EEncoder enc = new EEncoder( numMsgs * 32 + 64);
+        enc.write( SERVER_VERSION);
+        enc.write( "20120101 09:30:00 EST");
+
+        double[] prices = new double[m_numTickers];
+        for( int i = 0; i < m_numTickers; i++) {
+            prices[i] = 10 + m_random.nextInt( 990);
+        }
+
+        for( int i = 0; i < numMsgs; i++) {
+            int tickerId = m_random.nextInt( m_numTickers);
+            // walk price in cents
+            double price = Math.max( 0.01, prices[tickerId] + (m_random.nextInt( 5) - 2) / 100.0);
+            price = Math.round( price * 100) / 100.0;
+            prices[tickerId] = price;
+
+            int kind = m_random.nextInt( 100);
+            if( kind < 50) {
+                enc.write( EReader.TICK_PRICE);
+                enc.write( 3); // version
+                enc.write( tickerId);
+                enc.write( TickType.BID + m_random.nextInt( 2)); // BID or ASK
+                enc.write( price);
+                enc.write( 100 * (1 + m_random.nextInt( 50)));
+                enc.write( 0);
+            }
+            else if( kind < 85) {
+                enc.write( EReader.TICK_SIZE);
+                enc.write( 1);
+                enc.write( tickerId);
+                enc.write( TickType.VOLUME);
+                enc.write( m_random.nextInt( 1000000));
+            }
+            else if( kind < 99) {
+                enc.write( EReader.MARKET_DEPTH);
+                enc.write( 1);
+                enc.write( tickerId);
+                enc.write( m_random.nextInt( 10));  // position
+                enc.write( m_random.nextInt( 3));   // operation
+                enc.write( m_random.nextInt( 2));   // side
+                enc.write( price);
+                enc.write( 100 * (1 + m_random.nextInt( 50)));
+            }
+            else {
+                int numBars = 100;
+                enc.write( EReader.HISTORICAL_DATA);
+                enc.write( 2);
+                enc.write( tickerId);
+                enc.write( "20120101  09:30:00");
+                enc.write( "20120101  16:00:00");
+                enc.write( numBars);
+                long time = 1325428200L;
+                double high = Math.round( (price + 0.05) * 100) / 100.0;
+                double low = Math.round( (price - 0.05) * 100) / 100.0;
+                for( int j = 0; j < numBars; j++) {
+                    enc.write( time + j * 60);
+                    enc.write( price);
+                    enc.write( high);
+                    enc.write( low);
+                    enc.write( price);
+                    enc.write( m_random.nextInt( 10000));
+                    enc.write( price);
+                    enc.write( "false");
+                }
+            }
+        }
+
+        return enc.toByteArray();
+    }
+}
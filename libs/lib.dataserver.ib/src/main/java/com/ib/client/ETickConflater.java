@@ -0,0 +1,421 @@
+
+package com.ib.client;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * An EWrapper that conflates tickPrice/tickSize bursts before they reach the
+ * real wrapper.
+ *
+ * Pending price and size updates are merged per (tickerId, tickType), only the
+ * latest value of each survives, and are delivered at a fixed interval or when
+ * flush() is called. Trade ticks (LAST/LAST_SIZE) are never merged: they first
+ * flush whatever is pending for the same tickerId and are then delivered right
+ * away, so the order of a ticker's updates is kept. All other msgs are passed
+ * through unchanged.
+ *
+ * Pending values live in primitive arrays indexed by the slot of tickerId, see
+ * ETickerSlots, so no allocation happens per tick and the arrays are sized by
+ * the number of tickerIds rather than by the largest one. Negative tickerIds
+ * bypass the conflation.
+ */
+public class ETickConflater implements EWrapper, HistoricalDataHandler {
+
+    /** tick types 0 until NUM_FIELDS are conflated, see TickType */
+    private static final int NUM_FIELDS = 16;
+    private static final byte PRICE_PENDING = 1;
+    private static final byte SIZE_PENDING  = 2;
+
+    private final EWrapper m_eWrapper;
+    private final long     m_intervalMillis;
+    private Timer          m_timer;
+
+    // pending table, guarded by this, index = slot * NUM_FIELDS + field
+    private final ETickerSlots m_slots = new ETickerSlots();
+    private byte[]   m_pending   = new byte[0];
+    private double[] m_prices    = new double[0];
+    private int[]    m_autoExecs = new int[0];
+    private int[]    m_sizes     = new int[0];
+    // slots that have pending updates
+    private int[]     m_dirtySlots = new int[64];
+    private int       m_numDirty;
+    private boolean[] m_dirty      = new boolean[0];
+
+    // what is being delivered, guarded by m_flushLock
+    private final Object m_flushLock = new Object();
+    private int[]    m_outIds    = new int[64];
+    private byte[]   m_outFields = new byte[64];
+    private byte[]   m_outFlags  = new byte[64];
+    private double[] m_outPrices = new double[64];
+    private int[]    m_outAutoExecs = new int[64];
+    private int[]    m_outSizes  = new int[64];
+    private int      m_numOut;
+
+    private long m_received;
+    private long m_delivered;
+
+    /**
+     * @param intervalMillis flush interval, 0 means pending updates are only
+     *        delivered by calling flush()
+     */
+    public ETickConflater( EWrapper eWrapper, long intervalMillis) {
+        m_eWrapper = eWrapper;
+        m_intervalMillis = intervalMillis;
+        start();
+    }
+
+    public synchronized void start() {
+        if( m_timer != null || m_intervalMillis <= 0) {
+            return;
+        }
+        m_timer = new Timer( "ETickConflater", true);
+        m_timer.scheduleAtFixedRate( new TimerTask() {
+            public void run() {
+                flush();
+            }
+        }, m_intervalMillis, m_intervalMillis);
+    }
+
+    /**
+     * Stops the flush timer, then delivers what is still pending.
+     */
+    public void stop() {
+        synchronized( this) {
+            if( m_timer != null) {
+                m_timer.cancel();
+                m_timer = null;
+            }
+        }
+        flush();
+    }
+
+    public long intervalMillis() {
+        return m_intervalMillis;
+    }
+
+    /** tickPrice/tickSize updates received from the reader */
+    public synchronized long receivedCount() {
+        return m_received;
+    }
+
+    /** tickPrice/tickSize updates delivered to the wrapper */
+    public long deliveredCount() {
+        synchronized( m_flushLock) {
+            return m_delivered;
+        }
+    }
+
+    /** updates merged away since the latest value of their field superseded them */
+    public long conflatedCount() {
+        long delivered = deliveredCount();
+        synchronized( this) {
+            return m_received - delivered - pendingCount();
+        }
+    }
+
+    private int pendingCount() {
+        int count = 0;
+        for( int i = 0; i < m_numDirty; i++) {
+            int base = m_dirtySlots[i] * NUM_FIELDS;
+            for( int field = 0; field < NUM_FIELDS; field++) {
+                byte flags = m_pending[base + field];
+                if( (flags & PRICE_PENDING) != 0) {
+                    count++;
+                }
+                if( (flags & SIZE_PENDING) != 0) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Delivers all pending updates now.
+     */
+    public void flush() {
+        synchronized( m_flushLock) {
+            synchronized( this) {
+                for( int i = 0; i < m_numDirty; i++) {
+                    drainSlot( m_dirtySlots[i]);
+                }
+                m_numDirty = 0;
+            }
+            deliver();
+        }
+    }
+
+    private static boolean isTrade( int field) {
+        return field == TickType.LAST || field == TickType.LAST_SIZE;
+    }
+
+    private static boolean isConflatable( int tickerId, int field) {
+        return tickerId >= 0 && field >= 0 && field < NUM_FIELDS;
+    }
+
+    public void tickPrice( int tickerId, int field, double price, int canAutoExecute) {
+        if( !isConflatable( tickerId, field) || isTrade( field)) {
+            synchronized( m_flushLock) {
+                flushTicker( tickerId);
+                m_eWrapper.tickPrice( tickerId, field, price, canAutoExecute);
+            }
+            return;
+        }
+
+        synchronized( this) {
+            int idx = markDirty( tickerId) + field;
+            m_pending[idx] |= PRICE_PENDING;
+            m_prices[idx] = price;
+            m_autoExecs[idx] = canAutoExecute;
+            m_received++;
+        }
+    }
+
+    public void tickSize( int tickerId, int field, int size) {
+        if( !isConflatable( tickerId, field) || isTrade( field)) {
+            synchronized( m_flushLock) {
+                flushTicker( tickerId);
+                m_eWrapper.tickSize( tickerId, field, size);
+            }
+            return;
+        }
+
+        synchronized( this) {
+            int idx = markDirty( tickerId) + field;
+            m_pending[idx] |= SIZE_PENDING;
+            m_sizes[idx] = size;
+            m_received++;
+        }
+    }
+
+    /**
+     * Ensures table capacity for tickerId and records it as dirty.
+     * @return base index of tickerId in pending table
+     */
+    private int markDirty( int tickerId) {
+        int slot = m_slots.add( tickerId);
+        if( slot >= m_dirty.length) {
+            int n = Math.max( 16, m_dirty.length * 2);
+            m_dirty = copyOf( m_dirty, n);
+            m_pending = copyOf( m_pending, n * NUM_FIELDS);
+            m_prices = copyOf( m_prices, n * NUM_FIELDS);
+            m_autoExecs = copyOf( m_autoExecs, n * NUM_FIELDS);
+            m_sizes = copyOf( m_sizes, n * NUM_FIELDS);
+        }
+        if( !m_dirty[slot]) {
+            m_dirty[slot] = true;
+            if( m_numDirty == m_dirtySlots.length) {
+                m_dirtySlots = copyOf( m_dirtySlots, m_numDirty * 2);
+            }
+            m_dirtySlots[m_numDirty++] = slot;
+        }
+        return slot * NUM_FIELDS;
+    }
+
+    /**
+     * Delivers pending updates of one tickerId, the caller holds m_flushLock.
+     */
+    private void flushTicker( int tickerId) {
+        synchronized( this) {
+            int slot = m_slots.slotOf( tickerId);
+            if( slot < 0 || !m_dirty[slot]) {
+                return;
+            }
+            drainSlot( slot);
+            for( int i = 0; i < m_numDirty; i++) {
+                if( m_dirtySlots[i] == slot) {
+                    m_dirtySlots[i] = m_dirtySlots[--m_numDirty];
+                    break;
+                }
+            }
+        }
+        deliver();
+    }
+
+    /**
+     * Moves pending updates of a slot to the out buffer, the caller holds
+     * both m_flushLock and this, and removes it from m_dirtySlots itself.
+     */
+    private void drainSlot( int slot) {
+        m_dirty[slot] = false;
+        int tickerId = m_slots.tickerId( slot);
+        int base = slot * NUM_FIELDS;
+        for( int field = 0; field < NUM_FIELDS; field++) {
+            int idx = base + field;
+            byte flags = m_pending[idx];
+            if( flags == 0) {
+                continue;
+            }
+            if( m_numOut == m_outIds.length) {
+                int n = m_numOut * 2;
+                m_outIds = copyOf( m_outIds, n);
+                m_outFields = copyOf( m_outFields, n);
+                m_outFlags = copyOf( m_outFlags, n);
+                m_outPrices = copyOf( m_outPrices, n);
+                m_outAutoExecs = copyOf( m_outAutoExecs, n);
+                m_outSizes = copyOf( m_outSizes, n);
+            }
+            m_outIds[m_numOut] = tickerId;
+            m_outFields[m_numOut] = (byte)field;
+            m_outFlags[m_numOut] = flags;
+            m_outPrices[m_numOut] = m_prices[idx];
+            m_outAutoExecs[m_numOut] = m_autoExecs[idx];
+            m_outSizes[m_numOut] = m_sizes[idx];
+            m_numOut++;
+            m_pending[idx] = 0;
+        }
+    }
+
+    /**
+     * Invokes the wrapper for drained updates, the caller holds m_flushLock
+     * but not this, so that the reader can keep on going meanwhile.
+     */
+    private void deliver() {
+        for( int i = 0; i < m_numOut; i++) {
+            int tickerId = m_outIds[i];
+            int field = m_outFields[i];
+            byte flags = m_outFlags[i];
+            try {
+                if( (flags & PRICE_PENDING) != 0) {
+                    m_delivered++;
+                    m_eWrapper.tickPrice( tickerId, field, m_outPrices[i], m_outAutoExecs[i]);
+                }
+                if( (flags & SIZE_PENDING) != 0) {
+                    m_delivered++;
+                    m_eWrapper.tickSize( tickerId, field, m_outSizes[i]);
+                }
+            }
+            catch( RuntimeException e) {
+                // don't lose the rest of this round for one failing callback
+                e.printStackTrace();
+            }
+        }
+        m_numOut = 0;
+    }
+
+    private static byte[] copyOf( byte[] src, int n) {
+        byte[] dst = new byte[n];
+        System.arraycopy( src, 0, dst, 0, Math.min( src.length, n));
+        return dst;
+    }
+
+    private static boolean[] copyOf( boolean[] src, int n) {
+        boolean[] dst = new boolean[n];
+        System.arraycopy( src, 0, dst, 0, Math.min( src.length, n));
+        return dst;
+    }
+
+    private static int[] copyOf( int[] src, int n) {
+        int[] dst = new int[n];
+        System.arraycopy( src, 0, dst, 0, Math.min( src.length, n));
+        return dst;
+    }
+
+    private static double[] copyOf( double[] src, int n) {
+        double[] dst = new double[n];
+        System.arraycopy( src, 0, dst, 0, Math.min( src.length, n));
+        return dst;
+    }
+
+    ///////////////////////////////////////////////////////////////////////
+    // Passed through
+    ///////////////////////////////////////////////////////////////////////
+
+    public void tickOptionComputation( int tickerId, int field, double impliedVolatility, double delta) {
+        m_eWrapper.tickOptionComputation( tickerId, field, impliedVolatility, delta);
+    }
+
+    public void orderStatus( int orderId, String status, int filled, int remaining,
+            double avgFillPrice, int permId, int parentId, double lastFillPrice,
+            int clientId) {
+        m_eWrapper.orderStatus( orderId, status, filled, remaining, avgFillPrice, permId, parentId, lastFillPrice, clientId);
+    }
+
+    public void openOrder( int orderId, Contract contract, Order order) {
+        m_eWrapper.openOrder( orderId, contract, order);
+    }
+
+    public void error( String str) {
+        m_eWrapper.error( str);
+    }
+
+    public void connectionClosed() {
+        flush();
+        m_eWrapper.connectionClosed();
+    }
+
+    public void updateAccountValue( String key, String value, String currency, String accountName) {
+        m_eWrapper.updateAccountValue( key, value, currency, accountName);
+    }
+
+    public void updatePortfolio( Contract contract, int position, double marketPrice, double marketValue,
+            double averageCost, double unrealizedPNL, double realizedPNL, String accountName) {
+        m_eWrapper.updatePortfolio( contract, position, marketPrice, marketValue, averageCost, unrealizedPNL, realizedPNL, accountName);
+    }
+
+    public void updateAccountTime( String timeStamp) {
+        m_eWrapper.updateAccountTime( timeStamp);
+    }
+
+    public void nextValidId( int orderId) {
+        m_eWrapper.nextValidId( orderId);
+    }
+
+    public void contractDetails( ContractDetails contractDetails) {
+        m_eWrapper.contractDetails( contractDetails);
+    }
+
+    public void bondContractDetails( ContractDetails contractDetails) {
+        m_eWrapper.bondContractDetails( contractDetails);
+    }
+
+    public void execDetails( int orderId, Contract contract, Execution execution) {
+        m_eWrapper.execDetails( orderId, contract, execution);
+    }
+
+    public void error( int id, int errorCode, String errorMsg) {
+        m_eWrapper.error( id, errorCode, errorMsg);
+    }
+
+    public void updateMktDepth( int tickerId, int position, int operation, int side, double price, int size) {
+        m_eWrapper.updateMktDepth( tickerId, position, operation, side, price, size);
+    }
+
+    public void updateMktDepthL2( int tickerId, int position, String marketMaker, int operation, int side, double price, int size) {
+        m_eWrapper.updateMktDepthL2( tickerId, position, marketMaker, operation, side, price, size);
+    }
+
+    public void updateNewsBulletin( int msgId, int msgType, String message, String origExchange) {
+        m_eWrapper.updateNewsBulletin( msgId, msgType, message, origExchange);
+    }
+
+    public void managedAccounts( String accountsList) {
+        m_eWrapper.managedAccounts( accountsList);
+    }
+
+    public void receiveFA( int faDataType, String xml) {
+        m_eWrapper.receiveFA( faDataType, xml);
+    }
+
+    public void historicalData( int reqId, String date, double open, double high, double low, double close, double prevClose,
+            int volume, double WAP, boolean hasGaps) {
+        m_eWrapper.historicalData( reqId, date, open, high, low, close, prevClose, volume, WAP, hasGaps);
+    }
+
+    public boolean acceptsBars() {
+        return HistoricalBars.acceptedBy( m_eWrapper);
+    }
+
+    public void historicalData( int reqId, HistoricalBars bars) {
+        ((HistoricalDataHandler)m_eWrapper).historicalData( reqId, bars);
+    }
+
+    public void scannerParameters( String xml) {
+        m_eWrapper.scannerParameters( xml);
+    }
+
+    public void scannerData( int reqId, int rank, ContractDetails contractDetails, String distance, String benchmark, String projection) {
+        m_eWrapper.scannerData( reqId, rank, contractDetails, distance, benchmark, projection);
+    }
+}
@@ -0,0 +1,81 @@
+package com.ib.client;
+
+/**
+ * Dense slots 0, 1, 2... of non-negative tickerIds, in the order they are
+ * added, so that tables of per ticker state are sized by the number of
+ * tickerIds seen instead of by the largest one, which may be sparse.
+ *
+ * An open addressing hash of ints, nothing is allocated per lookup. Slots are
+ * never removed. Not thread safe, the owner guards it.
+ */
+final class ETickerSlots {
+
+    // slot + 1 by hash of tickerId, 0 means empty
+    private int[] m_table = new int[16];
+    // tickerId by slot
+    private int[] m_ids   = new int[8];
+    private int   m_size;
+
+    /** number of slots */
+    int size() {
+        return m_size;
+    }
+
+    int tickerId( int slot) {
+        return m_ids[slot];
+    }
+
+    /** @return slot of tickerId, or -1 if it has none */
+    int slotOf( int tickerId) {
+        int mask = m_table.length - 1;
+        for( int i = hash( tickerId) & mask; ; i = (i + 1) & mask) {
+            int slot = m_table[i] - 1;
+            if( slot < 0) {
+                return -1;
+            }
+            if( m_ids[slot] == tickerId) {
+                return slot;
+            }
+        }
+    }
+
+    /** @return slot of tickerId, the next one is assigned if it has none */
+    int add( int tickerId) {
+        int slot = slotOf( tickerId);
+        if( slot >= 0) {
+            return slot;
+        }
+        if( m_size == m_ids.length) {
+            int[] ids = new int[m_size * 2];
+            System.arraycopy( m_ids, 0, ids, 0, m_size);
+            m_ids = ids;
+        }
+        slot = m_size++;
+        m_ids[slot] = tickerId;
+        // keep the table at most half full
+        if( m_size * 2 > m_table.length) {
+            m_table = new int[m_table.length * 2];
+            for( int i = 0; i < m_size; i++) {
+                insert( i);
+            }
+        }
+        else {
+            insert( slot);
+        }
+        return slot;
+    }
+
+    private void insert( int slot) {
+        int mask = m_table.length - 1;
+        int i = hash( m_ids[slot]) & mask;
+        while( m_table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        m_table[i] = slot + 1;
+    }
+
+    private static int hash( int tickerId) {
+        int h = tickerId * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,124 @@
+package com.ib.client;
+
+import java.io.*;
+
+/**
+ * Capture file of the raw inbound byte stream of a TWS session.
+ *
+ * A capture is a sequence of chunks as read from the socket, each one written
+ * as [long nanos since the first chunk][int length][bytes], so that it can be
+ * replayed with the original timing by EFakeTws.
+ */
+public class EWireCapture {
+
+    /**
+     * Returns an InputStream that reads from in and records everything read to
+     * capture.
+     */
+    public static InputStream record( InputStream in, OutputStream capture) {
+        return new Recorder( in, capture);
+    }
+
+    /**
+     * Reads the next chunk of a capture.
+     * @return the chunk, or null at the end of capture
+     */
+    public static Chunk readChunk( DataInputStream capture) throws IOException {
+        long nanos;
+        try {
+            nanos = capture.readLong();
+        }
+        catch( EOFException e) {
+            return null;
+        }
+        int len = capture.readInt();
+        byte[] bytes = new byte[len];
+        capture.readFully( bytes);
+        return new Chunk( nanos, bytes);
+    }
+
+    /**
+     * Concatenates all chunks of a capture file, timing dropped.
+     */
+    public static byte[] readAll( String fileName) throws IOException {
+        DataInputStream capture = new DataInputStream( new BufferedInputStream( new FileInputStream( fileName)));
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Chunk chunk;
+            while( (chunk = readChunk( capture)) != null) {
+                out.write( chunk.m_bytes);
+            }
+            return out.toByteArray();
+        }
+        finally {
+            capture.close();
+        }
+    }
+
+    public static class Chunk {
+        public final long   m_nanos;
+        public final byte[] m_bytes;
+
+        Chunk( long nanos, byte[] bytes) {
+            m_nanos = nanos;
+            m_bytes = bytes;
+        }
+    }
+
+    private static class Recorder extends FilterInputStream {
+        private final DataOutputStream m_capture;
+        private long m_startNanos = -1;
+
+        Recorder( InputStream in, OutputStream capture) {
+            super( in);
+            m_capture = new DataOutputStream( new BufferedOutputStream( capture));
+        }
+
+        public int read() throws IOException {
+            int c = super.read();
+            if( c >= 0) {
+                record( new byte[] {(byte)c}, 0, 1);
+            }
+            return c;
+        }
+
+        public int read( byte[] b, int off, int len) throws IOException {
+            int n = super.read( b, off, len);
+            if( n > 0) {
+                record( b, off, n);
+            }
+            return n;
+        }
+
+        public long skip( long n) throws IOException {
+            // skipped bytes would be lost from capture, read them instead
+            byte[] buf = new byte[(int)Math.min( n, 8192)];
+            int read = read( buf, 0, buf.length);
+            return read < 0 ? 0 : read;
+        }
+
+        public void close() throws IOException {
+            try {
+                super.close();
+            }
+            finally {
+                synchronized( m_capture) {
+                    m_capture.close();
+                }
+            }
+        }
+
+        private void record( byte[] b, int off, int len) throws IOException {
+            long now = System.nanoTime();
+            synchronized( m_capture) {
+                if( m_startNanos < 0) {
+                    m_startNanos = now;
+                }
+                m_capture.writeLong( now - m_startNanos);
+                m_capture.writeInt( len);
+                m_capture.write( b, off, len);
+                m_capture.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.ib.client;
+
+/**
+ * A whole HISTORICAL_DATA response in columnar primitive arrays.
+ *
+ * The arrays are owned by the EReader and reused for the next response, they
+ * may be longer than m_count and are only valid during the callback.
+ */
+public class HistoricalBars {
+    /** time of a bar of which the time sent can't be parsed, such a bar should be skipped */
+    public static final long INVALID_TIME = Long.MIN_VALUE;
+
+    public int          m_count;
+    public String       m_startDate;
+    public String       m_endDate;
+    /** epoch milliseconds, or INVALID_TIME */
+    public long[]       m_times     = new long[0];
+    public double[]     m_open      = new double[0];
+    public double[]     m_high      = new double[0];
+    public double[]     m_low       = new double[0];
+    public double[]     m_close     = new double[0];
+    public int[]        m_volume    = new int[0];
+    public double[]     m_WAP       = new double[0];
+    public boolean[]    m_hasGaps   = new boolean[0];
+
+    /**
+     * @return a copy holding the first m_count bars, which stays valid after the
+     *         callback, such as for delivering it on another thread
+     */
+    public HistoricalBars copy() {
+        HistoricalBars bars = new HistoricalBars();
+        bars.m_count = m_count;
+        bars.m_startDate = m_startDate;
+        bars.m_endDate = m_endDate;
+        bars.m_times = new long[m_count];
+        bars.m_open = new double[m_count];
+        bars.m_high = new double[m_count];
+        bars.m_low = new double[m_count];
+        bars.m_close = new double[m_count];
+        bars.m_volume = new int[m_count];
+        bars.m_WAP = new double[m_count];
+        bars.m_hasGaps = new boolean[m_count];
+        System.arraycopy( m_times, 0, bars.m_times, 0, m_count);
+        System.arraycopy( m_open, 0, bars.m_open, 0, m_count);
+        System.arraycopy( m_high, 0, bars.m_high, 0, m_count);
+        System.arraycopy( m_low, 0, bars.m_low, 0, m_count);
+        System.arraycopy( m_close, 0, bars.m_close, 0, m_count);
+        System.arraycopy( m_volume, 0, bars.m_volume, 0, m_count);
+        System.arraycopy( m_WAP, 0, bars.m_WAP, 0, m_count);
+        System.arraycopy( m_hasGaps, 0, bars.m_hasGaps, 0, m_count);
+        return bars;
+    }
+
+    /**
+     * @return if eWrapper wants HISTORICAL_DATA responses in bulk
+     */
+    static boolean acceptedBy( EWrapper eWrapper) {
+        return eWrapper instanceof HistoricalDataHandler && ((HistoricalDataHandler)eWrapper).acceptsBars();
+    }
+
+    void reset( int count) {
+        m_count = count;
+        m_startDate = null;
+        m_endDate = null;
+        if( m_times.length < count) {
+            m_times = new long[count];
+            m_open = new double[count];
+            m_high = new double[count];
+            m_low = new double[count];
+            m_close = new double[count];
+            m_volume = new int[count];
+            m_WAP = new double[count];
+            m_hasGaps = new boolean[count];
+        }
+    }
+}
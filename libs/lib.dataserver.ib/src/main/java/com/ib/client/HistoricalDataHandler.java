@@ -0,0 +1,19 @@
+package com.ib.client;
+
+/**
+ * Implemented by an EWrapper that wants HISTORICAL_DATA responses in bulk.
+ *
+ * When the wrapper passed to EClientSocket implements it and accepts bars,
+ * EReader decodes each response straight into columnar arrays and calls
+ * historicalData once per response instead of EWrapper.historicalData once per
+ * bar plus the "finished" marker.
+ */
+public interface HistoricalDataHandler {
+    /**
+     * @return false to get the per bar EWrapper.historicalData callbacks, such
+     *         as for a decorating EWrapper whose wrapped one is not a handler
+     */
+    boolean acceptsBars();
+
+    void historicalData( int reqId, HistoricalBars bars);
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.dataserver.ib
+
+import java.util.Comparator
+import java.util.PriorityQueue
+import java.util.logging.Logger
+import scala.collection.mutable.HashMap
+
+/**
+ * Schedules historical data requests under the TWS pacing rules:
+ *   o no more than 60 requests within any 10 minutes
+ *   o no identical requests within 15 seconds
+ *
+ * Requests wait in a priority queue (lower value first, then FIFO), and are
+ * sent when the token bucket has a token and the in-flight window has room.
+ * The bucket holds at most burst tokens and refills at
+ * (maxRequests - burst) / period, so that no window of period ever sees more
+ * than maxRequests requests. A request leaves the window when done or
+ * cancelled. A request that TWS rejects for pacing is re-queued, and no
+ * request is sent until a backoff, which doubles on consecutive violations,
+ * has passed.
+ *
+ * @author Caoyuan Deng
+ */
+class HisDataScheduler(maxRequests: Int = HisDataScheduler.MaxRequestsPerPeriod,
+                       period: Long = HisDataScheduler.PacingPeriod,
+                       burst: Int = HisDataScheduler.MaxRequestsPerPeriod / 2,
+                       maxInFlight: Int = HisDataScheduler.DefaultMaxInFlight
+) extends Runnable {
+  import HisDataScheduler._
+
+  private val log = Logger.getLogger(this.getClass.getName)
+
+  private val refillRate = (maxRequests - burst).toDouble / period // tokens per ms
+
+  private val queue = new PriorityQueue[Job](64, new Comparator[Job] {
+      def compare(a: Job, b: Job) = {
+        if (a.priority != b.priority) {
+          if (a.priority < b.priority) -1 else 1
+        } else {
+          if (a.seq < b.seq) -1 else if (a.seq > b.seq) 1 else 0
+        }
+      }
+    })
+  private val inFlight = new HashMap[Int, Job]
+  private val keyToLastSentTime = new HashMap[String, Long]
+
+  private var tokens = burst.toDouble
+  private var lastRefillTime = System.currentTimeMillis
+  private var violations = 0
+  private var backoffUntil = 0L
+  private var nextSeq = 0L
+  private var thread: Thread = _
+
+  // metrics
+  private val startTime = System.currentTimeMillis
+  private var _sentCount = 0L
+  private var _doneCount = 0L
+  private var sumQueueLatency = 0L
+  private var _maxQueueLatency = 0L
+
+  /**
+   * @param reqId the request id
+   * @param key identifies identical requests, e.g. contract, end time, duration and bar size
+   * @param priority lower value is sent first
+   * @param send sends the request to TWS, called from the scheduler thread
+   */
+  def submit(reqId: Int, key: String, priority: Int)(send: => Unit): Unit = synchronized {
+    queue.add(Job(reqId, key, priority, nextSeq, System.currentTimeMillis, 0, () => send))
+    nextSeq += 1
+    if (thread == null) {
+      thread = new Thread(this, "HisDataScheduler")
+      thread.setDaemon(true)
+      thread.start
+    }
+    notifyAll
+  }
+
+  /** Response of reqId has been finished or failed, which frees its in-flight slot */
+  def done(reqId: Int): Unit = synchronized {
+    if (inFlight.remove(reqId).isDefined) {
+      _doneCount += 1
+      violations = 0
+      notifyAll
+    }
+  }
+
+  /**
+   * Puts reqId, which TWS has rejected for pacing, back to queue ahead of the
+   * requests submitted after it, it will be sent again after the backoff.
+   *
+   * @return false if reqId is not in flight or has been retried MaxRetries
+   *         times, it's then removed from the window and should be given up
+   */
+  def retry(reqId: Int): Boolean = synchronized {
+    inFlight.remove(reqId) match {
+      case Some(job) if job.retries < MaxRetries =>
+        queue.add(job.copy(retries = job.retries + 1))
+        notifyAll
+        true
+      case Some(job) =>
+        log.warning("Historical data request " + reqId + " gave up after " + job.retries + " retries")
+        notifyAll
+        false
+      case None => false
+    }
+  }
+
+  /** if reqId is waiting in queue, i.e. not sent yet */
+  def isQueued(reqId: Int): Boolean = synchronized {
+    val it = queue.iterator
+    while (it.hasNext) {
+      if (it.next.reqId == reqId) return true
+    }
+    false
+  }
+
+  /** Removes reqId whether it is still queued or in flight */
+  def cancel(reqId: Int): Unit = synchronized {
+    val it = queue.iterator
+    while (it.hasNext) {
+      if (it.next.reqId == reqId) it.remove
+    }
+    if (inFlight.remove(reqId).isDefined) {
+      notifyAll
+    }
+  }
+
+  /**
+   * TWS complained about pacing anyway (for instance other clients share the
+   * same limits), drain the bucket so that the next request waits for refill,
+   * and hold back all requests for the backoff.
+   */
+  def pacingViolated: Unit = synchronized {
+    val now = System.currentTimeMillis
+    tokens = 0
+    lastRefillTime = now
+    val backoff = math.min(MinBackoff << math.min(violations, 16), MaxBackoff)
+    backoffUntil = math.max(backoffUntil, now + backoff)
+    violations += 1
+    log.warning("Historical data pacing violation, backing off " + backoff + " ms")
+  }
+
+  def queueSize: Int = synchronized {queue.size}
+  def inFlightCount: Int = synchronized {inFlight.size}
+  def sentCount: Long = synchronized {_sentCount}
+  def doneCount: Long = synchronized {_doneCount}
+
+  /** finished requests per second since the scheduler was created */
+  def throughput: Double = synchronized {
+    val elapsed = System.currentTimeMillis - startTime
+    if (elapsed > 0) _doneCount * 1000.0 / elapsed else 0
+  }
+
+  /** average time in ms that sent requests waited in queue */
+  def avgQueueLatency: Double = synchronized {
+    if (_sentCount > 0) sumQueueLatency.toDouble / _sentCount else 0
+  }
+
+  def maxQueueLatency: Long = synchronized {_maxQueueLatency}
+
+  def run {
+    while (true) {
+      val job = try {
+        nextJob
+      } catch {
+        case ex: InterruptedException => return
+      }
+
+      try {
+        job.send()
+      } catch {
+        case ex: Throwable => log.warning("Failed to send historical data request " + job.reqId + ": " + ex.getMessage)
+      }
+    }
+  }
+
+  /**
+   * Waits until a job can be sent under the pacing rules and takes it.
+   */
+  @throws(classOf[InterruptedException])
+  private def nextJob: Job = synchronized {
+    while (true) {
+      val now = System.currentTimeMillis
+      tokens = math.min(burst.toDouble, tokens + (now - lastRefillTime) * refillRate)
+      lastRefillTime = now
+
+      val job = queue.peek
+      if (job == null || inFlight.size >= maxInFlight) {
+        wait
+      } else if (now < backoffUntil) {
+        wait(backoffUntil - now)
+      } else if (tokens < 1) {
+        wait(math.max(1, ((1 - tokens) / refillRate).toLong))
+      } else {
+        val sinceIdentical = keyToLastSentTime.get(job.key) match {
+          case Some(time) => now - time
+          case None => Long.MaxValue
+        }
+        if (sinceIdentical < IdenticalRequestInterval) {
+          wait(IdenticalRequestInterval - sinceIdentical)
+        } else {
+          queue.poll
+          tokens -= 1
+          inFlight(job.reqId) = job
+          keyToLastSentTime(job.key) = now
+          removeExpiredKeys(now)
+
+          val latency = now - job.submitTime
+          _sentCount += 1
+          sumQueueLatency += latency
+          _maxQueueLatency = math.max(_maxQueueLatency, latency)
+          return job
+        }
+      }
+    }
+    null
+  }
+
+  private def removeExpiredKeys(now: Long) {
+    if (keyToLastSentTime.size > 1024) {
+      for ((key, time) <- keyToLastSentTime.toList if now - time >= IdenticalRequestInterval) {
+        keyToLastSentTime -= key
+      }
+    }
+  }
+}
+
+object HisDataScheduler {
+  /** TWS allows no more than 60 historical data requests within any 10 minutes */
+  val MaxRequestsPerPeriod = 60
+  val PacingPeriod = 10 * 60 * 1000L
+  /** identical requests within 15 seconds are pacing violations too */
+  val IdenticalRequestInterval = 15 * 1000L
+  val DefaultMaxInFlight = 5
+  /** backoff after the first pacing violation, doubled on each consecutive one */
+  val MinBackoff = IdenticalRequestInterval
+  val MaxBackoff = 5 * 60 * 1000L
+  /** times that a request rejected for pacing is re-queued */
+  val MaxRetries = 3
+
+  private case class Job(reqId: Int, key: String, priority: Int, seq: Long, submitTime: Long, retries: Int, send: () => Unit)
+
+  /**
+   * The longest duration in seconds that one request of barSizeSetting may ask for,
+   * @see IBQuoteServer
+   */
+  def maxDurationInSeconds(barSizeSetting: Int): Long = barSizeSetting match {
+    case 1 => 2000                    // 1 sec
+    case 2 => 10000                   // 5 secs
+    case 3 => 30000                   // 15 secs
+    case 4 | 5 | 6 | 7 | 16 => 86400  // 30 secs .. 5 mins
+    case 8 => 20 * 86400L             // 15 mins
+    case 9 | 10 => 34 * 86400L        // 30 mins, 1 hour
+    case 11 => 364 * 86400L           // 1 day
+    case _ => 365 * 86400L            // 1 week and longer
+  }
+
+  /**
+   * Splits [fromTime, toTime] (in ms) into the chunks that each fits in one
+   * compliant request, the latest chunk first.
+   *
+   * @return Seq of (endTime in ms, durationStr)
+   */
+  def chunk(fromTime: Long, toTime: Long, barSizeSetting: Int): Seq[(Long, String)] = {
+    val maxSecs = maxDurationInSeconds(barSizeSetting)
+    val chunks = new scala.collection.mutable.ArrayBuffer[(Long, String)]
+    var endTime = toTime
+    var remainingSecs = math.max(1, (toTime - fromTime + 999) / 1000)
+    while (remainingSecs > 0) {
+      var secs = math.min(remainingSecs, maxSecs)
+      if (secs > 86400) {
+        // durations beyond one day are in whole days
+        secs -= secs % 86400
+      }
+      chunks += ((endTime, durationStr(secs)))
+      endTime -= secs * 1000
+      remainingSecs -= secs
+    }
+    chunks
+  }
+
+  /**
+   * TWS duration is "<n> S" up to one day, "<n> D" beyond, rounded up to whole days.
+   */
+  def durationStr(secs: Long): String = {
+    if (secs <= 86400) {
+      secs + " S"
+    } else {
+      ((secs + 86399) / 86400) + " D"
+    }
+  }
+}
@@ -48,6 +48,7 @@ import org.aiotrade.lib.securities.model.Exchange
 import org.aiotrade.lib.securities.model.Quote
 import org.aiotrade.lib.securities.model.Sec
 import org.aiotrade.lib.util.Singleton
+import scala.collection.mutable.HashMap
 
 /**
  * TWS demo user/password
@@ -67,10 +68,10 @@ object IBQuoteServer extends QuoteServer with Singleton {
 
   private val ibWrapper = IBWrapper
 
-  private val maxDurationInSeconds = 86400 // 24 hours
-  private val maxDurationInDays    = 365
-  private val maxDurationInWeeks   = 54
-  private val maxDurationInYears   = 1
+  /** requests that are not read yet, contract -> storage and reqIds of its chunks */
+  private val pendingRequests = new HashMap[QuoteContract, PendingRequest]
+
+  private case class PendingRequest(storage: ArrayList[Quote], reqIds: Array[Int])
     
   protected def connect: Boolean = {
     if (!ibWrapper.isConnected) {
@@ -88,8 +89,6 @@ object IBQuoteServer extends QuoteServer with Singleton {
         
     var bTime = contract.fromTime
     var eTime = contract.toTime
-    if (contract.fromTime <= ANCIENT_TIME /* @todo */) {
-    }
         
     var m_rc = false
     var m_backfillEndTime: String = null
@@ -131,46 +130,12 @@ object IBQuoteServer extends QuoteServer with Singleton {
       m_order.m_goodAfterTime = ""
       m_order.m_goodTillDate = ""
             
-      /** set historical data fields: */
-      cal.setTimeInMillis(eTime)
-      m_backfillEndTime = ibWrapper.getTwsDateFormart.format(cal.getTime)
-            
       val freq = contract.freq
-            
-      /**
-       * An integer followed by a space, followed by one of these units:
-       * S (seconds), D (days), W (weeks), and Y (years)
-       */
-      var durationInt = 300
-      var durationStr = "D"
-      freq.unit match {
-        case TUnit.Second =>
-          durationInt = math.min(durationInt, maxDurationInSeconds)
-          durationStr = "S"
-        case TUnit.Minute =>
-          durationInt *= 60
-          durationInt = math.min(durationInt, maxDurationInSeconds)
-          durationStr = "S"
-        case TUnit.Hour =>
-          durationInt *= 60 * 24
-          durationInt = math.min(durationInt, maxDurationInSeconds)
-          durationStr = "S"
-        case TUnit.Day =>
-          durationInt = math.min(durationInt, maxDurationInDays)
-          durationStr = "D"
-        case TUnit.Week =>
-          durationInt = math.min(durationInt, maxDurationInWeeks)
-          durationStr = "W"
-        case TUnit.Month =>
-          durationInt *= 30
-          durationInt = math.min(durationInt, maxDurationInDays)
-          durationStr = "D"
-        case TUnit.Year =>
-          durationInt = math.min(durationInt, maxDurationInYears)
-          durationStr = "Y"
-        case _ =>
+
+      /** without a from time, back-fill 300 bars as before */
+      if (bTime <= ANCIENT_TIME) {
+        bTime = eTime - freq.interval * 300
       }
-      m_backfillDuration = new StringBuilder(7).append(durationInt).append(" ").append(durationStr).toString
             
       m_barSizeSetting = IBWrapper.getBarSize(freq)
             
@@ -194,19 +159,37 @@ object IBQuoteServer extends QuoteServer with Singleton {
     }
     
     m_rc = true
-        
-    val reqId = ibWrapper.reqHistoricalData(
-      this,
-      storage,
-      m_contract,
-      m_backfillEndTime,
-      m_backfillDuration,
-      m_barSizeSetting,
-      m_whatToShow,
-      m_useRTH,
-      m_formatDate
-    )
-    contract.reqId = reqId
+
+    /**
+     * Long periods are split into chunks that each fits in one compliant
+     * request, they share the storage and are paced by hisDataScheduler.
+     */
+    val chunks = HisDataScheduler.chunk(bTime, eTime, m_barSizeSetting)
+    val reqIds = new Array[Int](chunks.size)
+    var i = 0
+    for ((chunkEndTime, chunkDuration) <- chunks) {
+      cal.setTimeInMillis(chunkEndTime)
+      m_backfillEndTime = ibWrapper.getTwsDateFormart.format(cal.getTime)
+      m_backfillDuration = chunkDuration
+
+      reqIds(i) = ibWrapper.reqHistoricalData(
+        this,
+        storage,
+        m_contract,
+        m_backfillEndTime,
+        m_backfillDuration,
+        m_barSizeSetting,
+        m_whatToShow,
+        m_useRTH,
+        m_formatDate
+      )
+      i += 1
+    }
+    contract.reqId = reqIds(0)
+
+    pendingRequests synchronized {
+      pendingRequests(contract) = PendingRequest(storage, reqIds)
+    }
   }
 
   @throws(classOf[Exception])
@@ -216,33 +199,57 @@ object IBQuoteServer extends QuoteServer with Singleton {
      * instead. Otherwise, the ibWrapper can not process storage during the
      * storage waiting period which will be whthin the synchronized block.
      */
+    val pending = pendingRequests synchronized {
+      pendingRequests.remove(contract)
+    } match {
+      case Some(x) => x
+      case None => return EmptyValues
+    }
+
     this synchronized {
-      var timeout = false
-      while (ibWrapper.isHisDataReqPending(contract.reqId) && !timeout) {
+      /**
+       * Give up when no chunk has finished within one minute, not counting the
+       * time that chunks wait in scheduler, and cancel the unfinished chunks so
+       * that they don't hold scheduler slots any more.
+       */
+      var lastProgressTime = System.currentTimeMillis
+      var nPending = pending.reqIds count ibWrapper.isHisDataReqPending
+      while (nPending > 0 && System.currentTimeMillis - lastProgressTime < TUnit.Minute.interval) {
         try {
-          //System.out.println("dataserver is waiting: " + getSer(contract).getFreq());
           wait(TUnit.Minute.interval * 1)
-          //System.out.println("dataserver is woke up: " + getSer(contract).getFreq());
-          timeout = true // whatever
         } catch {case ex: InterruptedException =>
-            if (ibWrapper.isHisDataReqPending(contract.reqId)) {
-              ibWrapper.cancelHisDataRequest(contract.reqId)
-            }
+            pending.reqIds filter ibWrapper.isHisDataReqPending foreach ibWrapper.cancelHisDataRequest
             return EmptyValues
         }
+        val n = pending.reqIds count ibWrapper.isHisDataReqPending
+        if (n < nPending || (pending.reqIds exists ibWrapper.hisDataScheduler.isQueued)) {
+          nPending = n
+          lastProgressTime = System.currentTimeMillis
+        }
+      }
+
+      if (nPending > 0) {
+        log.warning("Timeout in reading " + contract.srcSymbol + ", cancel " + nPending + " unfinished chunks")
+        pending.reqIds filter ibWrapper.isHisDataReqPending foreach ibWrapper.cancelHisDataRequest
       }
     }
         
-    val storage = ibWrapper.quoteStorageOf(contract.reqId)
+    val storage = pending.storage
     storage synchronized {
       val res = storage.toArray
       storage.clear
-      res
+      /** chunks may arrive in any order */
+      res.sortWith(_.time < _.time)
     }
   }
     
   override protected def cancelRequest(contract: QuoteContract) {
-    ibWrapper.cancelHisDataRequest(contract.reqId)
+    pendingRequests synchronized {
+      pendingRequests.remove(contract)
+    } match {
+      case Some(pending) => pending.reqIds foreach ibWrapper.cancelHisDataRequest
+      case None => ibWrapper.cancelHisDataRequest(contract.reqId)
+    }
   }
     
   protected def requestData(contracts: Iterable[QuoteContract]) {
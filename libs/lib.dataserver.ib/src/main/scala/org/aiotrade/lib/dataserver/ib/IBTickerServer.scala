@@ -34,10 +34,12 @@ import com.ib.client.Contract
 import java.util.TimeZone
 import java.util.logging.Level
 import java.util.logging.Logger
+import org.aiotrade.lib.collection.ArrayList
 import org.aiotrade.lib.securities.dataserver.TickerContract
 import org.aiotrade.lib.securities.dataserver.TickerServer
 import org.aiotrade.lib.securities.model.Exchange
 import org.aiotrade.lib.securities.model.Sec
+import org.aiotrade.lib.securities.model.Ticker
 import org.aiotrade.lib.util.Singleton
 
 /**
@@ -65,13 +67,12 @@ object IBTickerServer extends TickerServer with Singleton {
   }
 
   private def request(contracts: Iterable[TickerContract]) {
+    val toRequest = new ArrayList[TickerContract]
+    val ibContracts = new ArrayList[(Contract, Ticker)]
     for (contract <- contracts if !ibWrapper.isMktDataRequested(contract.reqId)) {
       /** request seems lost, re-request */
-      var m_rc = false
-      var m_marketDepthRows = 0
       val m_contract = new Contract
 
-      m_rc = false
       try {
         // set contract fields
         m_contract.m_symbol = contract.srcSymbol
@@ -87,16 +88,20 @@ object IBTickerServer extends TickerServer with Singleton {
         m_contract.m_currency = "USD"
         m_contract.m_localSymbol = ""
 
-        // set market depth rows
-        m_marketDepthRows = 20
+        val snapTicker = snapTickerOf(contract.srcSymbol)
+        toRequest += contract
+        ibContracts += ((m_contract, snapTicker))
       } catch {
-        case ex: Exception => ex.printStackTrace; return
+        case ex: Exception => ex.printStackTrace
       }
-      m_rc = true
+    }
 
-      val snapTicker = snapTickerOf(contract.srcSymbol)
-      val reqId = ibWrapper.reqMktData(this, m_contract, snapTicker)
-      contract.reqId = reqId
+    /** subscribe all of them in one bulk request */
+    val reqIds = ibWrapper.reqMktData(this, ibContracts)
+    var i = 0
+    while (i < reqIds.length) {
+      toRequest(i).reqId = reqIds(i)
+      i += 1
     }
   }
 
@@ -32,6 +32,8 @@ package org.aiotrade.lib.dataserver.ib
 
 import com.ib.client.Contract;
 import com.ib.client.EClientSocket;
+import com.ib.client.HistoricalBars;
+import com.ib.client.HistoricalDataHandler;
 import com.ib.client.TickType;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -51,11 +53,10 @@ import scala.collection.immutable.TreeMap
  */
 class IBWrapper extends EWrapperAdapter
 
-object IBWrapper extends IBWrapper {
+object IBWrapper extends IBWrapper with HistoricalDataHandler {
 
   private val TWS_DATE_FORMAT = new SimpleDateFormat("yyyyMMdd HH:mm:ss")
   private val HISTORICAL_DATA_END = "finished"
-  private val HIS_REQ_PROC_SPEED_THROTTLE = 1000 * 20 // 20 seconds
 
   val tickers = new ArrayList[Ticker]
 
@@ -90,7 +91,7 @@ object IBWrapper extends IBWrapper {
   private var singletonInstance: IBWrapper = this
   private var eclient: EClientSocket = new EClientSocket(this)
 
-  private lazy val hisRequestServer = new HisRequestServer
+  lazy val hisDataScheduler = new HisDataScheduler
 
   private val host = ""
   private val port = 7496
@@ -184,9 +185,16 @@ object IBWrapper extends IBWrapper {
     TWS_DATE_FORMAT
   }
     
+  /**
+   * Queues a historical data request to hisDataScheduler, which sends it as
+   * soon as TWS pacing rules allow.
+   *
+   * @param priority lower value is sent first
+   */
   def reqHistoricalData(requestor: DataServer[Quote], storage: ArrayList[Quote],
                         contract: Contract, endDateTime: String, durationStr: String,
-                        barSizeSetting: Int, whatToShow: String, useRTH: Int, formatDate: Int): Int = {
+                        barSizeSetting: Int, whatToShow: String, useRTH: Int, formatDate: Int,
+                        priority: Int = 0): Int = {
         
     val reqId = askReqId
         
@@ -206,12 +214,25 @@ object IBWrapper extends IBWrapper {
     reqIdToHisDataReq synchronized {
       reqIdToHisDataReq += (reqId -> hisReq)
     }
-        
-    if (!hisRequestServer.isInRunning) {
-      new Thread(hisRequestServer).start
+
+    val key = new StringBuilder(64).append(contract.m_symbol).append('|').append(contract.m_secType).append('|')
+    .append(contract.m_exchange).append('|').append(endDateTime).append('|').append(durationStr).append('|')
+    .append(barSizeSetting).append('|').append(whatToShow).toString
+
+    hisDataScheduler.submit(reqId, key, priority) {
+      eclient.reqHistoricalData(
+        hisReq.reqId,
+        hisReq.contract,
+        hisReq.endDateTime,
+        hisReq.durationStr,
+        hisReq.barSizeSetting,
+        hisReq.whatToShow,
+        hisReq.useRTH,
+        hisReq.formatDate
+      )
     }
         
-    return reqId
+    reqId
   }
     
   def reqMktData(requestor: DataServer[_], contract: Contract, snapTicker: Ticker): Int = {
@@ -233,7 +254,44 @@ object IBWrapper extends IBWrapper {
     reqId
   }
     
+  /**
+   * Subscribes market data for a batch of contracts, the requests are sent to
+   * TWS in one bulk write.
+   *
+   * @return reqIds in the same order of contracts
+   */
+  def reqMktData(requestor: DataServer[_], contracts: Seq[(Contract, Ticker)]): Array[Int] = {
+    val reqIds = new Array[Int](contracts.size)
+    val ibContracts = new java.util.ArrayList[Contract](contracts.size)
+    var i = 0
+    for ((contract, snapTicker) <- contracts) {
+      val reqId = askReqId
+
+      val mktReq = MarketDataRequest(
+        contract,
+        new ArrayList[Ticker](),
+        snapTicker,
+        reqId
+      )
+
+      reqIdToMktDataReq synchronized {
+        reqIdToMktDataReq += (reqId -> mktReq)
+      }
+
+      reqIds(i) = reqId
+      ibContracts.add(contract)
+      i += 1
+    }
+
+    if (reqIds.length > 0) {
+      eclient.reqMktData(reqIds, ibContracts)
+    }
+
+    reqIds
+  }
+    
   def cancelHisDataRequest(reqId: Int) {
+    hisDataScheduler.cancel(reqId)
     eclient.cancelHistoricalData(reqId);
     clearHisDataRequest(reqId);
   }
@@ -293,14 +351,7 @@ object IBWrapper extends IBWrapper {
     storage synchronized {
       try {
         if (date.startsWith(HISTORICAL_DATA_END)) {
-          val requstor = hisDataRequestorOf(reqId)
-          if (requstor != null) {
-            requstor synchronized {
-              requstor.notifyAll
-              System.out.println("requstor nofity all: finished")
-            }
-          }
-          clearHisDataRequest(reqId)
+          hisDataFinished(reqId)
         } else {
           val time = try {
             date.toLong * 1000
@@ -332,6 +383,61 @@ object IBWrapper extends IBWrapper {
     }
   }
     
+  def acceptsBars = true
+
+  /**
+   * A whole historical data response arrived in columns, times are already
+   * parsed to epoch milliseconds by EReader, bars of invalid times are skipped.
+   */
+  def historicalData(reqId: Int, bars: HistoricalBars) {
+    val storage = quoteStorageOf(reqId)
+    if (storage == null) {
+      return
+    }
+
+    storage synchronized {
+      try {
+        val n = bars.m_count
+        var i = 0
+        while (i < n) {
+          val time = bars.m_times(i)
+          if (time != HistoricalBars.INVALID_TIME) {
+            val quote = new Quote
+
+            quote.time   = time
+            quote.open   = bars.m_open(i)
+            quote.high   = bars.m_high(i)
+            quote.low    = bars.m_low(i)
+            quote.close  = bars.m_close(i)
+            quote.volume = bars.m_volume(i)
+
+            quote.vwap = bars.m_WAP(i)
+            quote.hasGaps = bars.m_hasGaps(i)
+
+            storage += quote
+          }
+          i += 1
+        }
+      } catch {case x: Throwable =>
+          /** Catch any Throwable to prevent them back to the eclient (will cause disconnect). */
+      }
+      
+      hisDataFinished(reqId)
+    }
+  }
+
+  private def hisDataFinished(reqId: Int) {
+    val requstor = hisDataRequestorOf(reqId)
+    if (requstor != null) {
+      requstor synchronized {
+        requstor.notifyAll
+        System.out.println("requstor nofity all: finished")
+      }
+    }
+    hisDataScheduler.done(reqId)
+    clearHisDataRequest(reqId)
+  }
+    
   override def tickPrice(tickerId: Int, field: Int, price: Double, canAutoExecute: Int) {
     // received price tick
     val snapshot = snapTickerOf(tickerId)
@@ -419,6 +525,17 @@ object IBWrapper extends IBWrapper {
       (errorCode == 165 && msg.toString.contains("HMDS connection attempt failed")) ||
       (errorCode == 165 && msg.toString.contains("HMDS server disconnect occurred")))
         
+    /**
+     * 162: Historical Market Data Service error message: Historical data request pacing violation
+     * The request is re-queued to be sent after backoff instead of being reset.
+     */
+    if (errorCode == 162 && errorMsg != null && errorMsg.contains("pacing violation")) {
+      hisDataScheduler.pacingViolated
+      if (hisDataScheduler.retry(id)) {
+        return
+      }
+    }
+
     if (shouldResetAllHisReqs) {
       for (reqId <- reqIdToHisDataReq.keySet) {
         resetHisReq(reqId)
@@ -446,48 +563,6 @@ object IBWrapper extends IBWrapper {
   override def connectionClosed {
   }
         
-  private class HisRequestServer extends Runnable {
-        
-    private var inRunning: Boolean = false
-        
-    def isInRunning = {
-      inRunning
-    }
-        
-    def run {
-      inRunning = true
-            
-      var inRoundProcessing = false
-      while (!inRoundProcessing) {
-        try {
-          Thread.sleep(HIS_REQ_PROC_SPEED_THROTTLE)
-        } catch {
-          case ex: InterruptedException =>
-            ex.printStackTrace
-            inRunning = false
-            return
-        }
-                
-        inRoundProcessing = true
-
-        /** just fetch the first one to process */
-        val hisReq = reqIdToHisDataReq(reqIdToHisDataReq.firstKey)
-        eclient.reqHistoricalData(
-          hisReq.reqId,
-          hisReq.contract,
-          hisReq.endDateTime,
-          hisReq.durationStr,
-          hisReq.barSizeSetting,
-          hisReq.whatToShow,
-          hisReq.useRTH,
-          hisReq.formatDate
-        )
-                    
-        inRoundProcessing = false
-      }
-    }
-  }
-
   private case class MarketDataRequest(
     contract: Contract,
     storage: ArrayList[Ticker],
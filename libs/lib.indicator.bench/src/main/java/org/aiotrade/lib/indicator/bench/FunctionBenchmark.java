@@ -0,0 +1,66 @@
+package org.aiotrade.lib.indicator.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.aiotrade.lib.indicator.function.Function;
+import org.aiotrade.lib.securities.QuoteSer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to compute a function of lib.indicator.function over a whole QuoteSer
+ * from scratch, spot by spot (Function.computeSpot per bar) or in batch
+ * (Function.computeBatch). The trial setup checks that both paths compute
+ * identical values before measuring.
+ *
+ * Each invocation gets a new function instance, so the functions it depends on
+ * are created and computed within the measured time, in both modes.
+ *
+ * @author Caoyuan Deng
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FunctionBenchmark {
+
+    @Param({"MA", "EMA", "MACD", "BOLL", "RSI", "STOCHJ", "ADX", "CCI", "SAR", "OBV"})
+    public String function;
+
+    @Param({"1000", "5000"})
+    public int bars;
+
+    @Param({"spot", "batch"})
+    public String mode;
+
+    private QuoteSer ser;
+    private Function f;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        ser = Series.quoteSer(bars);
+        Series.verify(function, ser);
+    }
+
+    @Setup(Level.Invocation)
+    public void newFunction() {
+        f = Series.function(function, ser);
+    }
+
+    @Benchmark
+    public Function compute() {
+        Series.compute(f, ser, mode.equals("batch"));
+        return f;
+    }
+}
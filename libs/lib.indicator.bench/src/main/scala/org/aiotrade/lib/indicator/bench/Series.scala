@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.indicator.bench
+
+import java.util.Random
+import org.aiotrade.lib.indicator.function._
+import org.aiotrade.lib.math.indicator.Factor
+import org.aiotrade.lib.math.timeseries.TFreq
+import org.aiotrade.lib.securities.QuoteSer
+import org.aiotrade.lib.securities.model.Quote
+import org.aiotrade.lib.securities.model.Sec
+
+/**
+ * Inputs of benchmarks: a QuoteSer of daily quotes by random walk with a fixed
+ * seed, and the functions of lib.indicator.function over it by name, with the
+ * usual factors of the indicators that use them.
+ *
+ * @author Caoyuan Deng
+ */
+object Series {
+  private var sessionId = 0L
+
+  def quoteSer(nBars: Int): QuoteSer = {
+    val random = new Random(1)
+    val quotes = new Array[Quote](nBars)
+    var price = 50.0
+    var time = 1293840000000L // 2011-01-01
+    var i = 0
+    while (i < nBars) {
+      val open = price
+      val close = round(open * (1 + random.nextGaussian * 0.02))
+      val quote = new Quote
+      quote.time = time
+      quote.open = open
+      quote.high = round(math.max(open, close) * (1 + random.nextDouble * 0.01))
+      quote.low = round(math.min(open, close) * (1 - random.nextDouble * 0.01))
+      quote.close = close
+      quote.volume = 100 * (1 + random.nextInt(5000))
+      quote.amount = round(quote.volume * (open + close) / 2)
+      quotes(i) = quote
+      price = close
+      time += 24 * 60 * 60 * 1000
+      i += 1
+    }
+
+    val ser = new QuoteSer(new Sec, TFreq.DAILY)
+    ser ++= quotes
+    ser
+  }
+
+  /**
+   * A new instance of function name over ser, not computed yet, the ones it
+   * depends on are released too so that they'll be computed from the beginning.
+   */
+  def function(name: String, ser: QuoteSer): Function = {
+    org.aiotrade.lib.math.indicator.Function.releaseAll
+    name match {
+      case "MA"     => fn(classOf[MAFunction], ser, ser.close, factor(20))
+      case "EMA"    => fn(classOf[EMAFunction], ser, ser.close, factor(20))
+      case "MACD"   => fn(classOf[MACDFunction], ser, ser.close, factor(26), factor(12))
+      case "BOLL"   => fn(classOf[BOLLFunction], ser, ser.close, factor(20), factor(2))
+      case "RSI"    => fn(classOf[RSIFunction], ser, factor(14))
+      case "STOCHJ" => fn(classOf[STOCHJFunction], ser, factor(9), factor(3), factor(3))
+      case "ADX"    => fn(classOf[ADXFunction], ser, factor(14), factor(14))
+      case "CCI"    => fn(classOf[CCIFunction], ser, factor(20), factor(0.015))
+      case "SAR"    => fn(classOf[SARFunction], ser, factor(0.02), factor(0.02), factor(0.2))
+      case "OBV"    => fn(classOf[OBVFunction], ser)
+      case _ => throw new IllegalArgumentException("Unknown function: " + name)
+    }
+  }
+
+  /** computes f for all bars of ser, in batch or spot by spot */
+  def compute(f: Function, ser: QuoteSer, batch: Boolean) {
+    Function.isBatchMode = batch
+    sessionId += 1
+    f.computeTo(sessionId, ser.size - 1)
+  }
+
+  /**
+   * Checks that the batch path computes identical values to the spot path,
+   * Null.Double included, for all vars of function name.
+   */
+  def verify(name: String, ser: QuoteSer) {
+    val spot = function(name, ser)
+    compute(spot, ser, false)
+    val batch = function(name, ser)
+    compute(batch, ser, true)
+
+    for ((x, y) <- spot.vars zip batch.vars) {
+      var i = 0
+      while (i < ser.size) {
+        val a = x.values(i).asInstanceOf[AnyRef]
+        val b = y.values(i).asInstanceOf[AnyRef]
+        /** java equals, which compares doubles by bits, so NaN equals NaN */
+        if (!(if (a eq null) b eq null else a.equals(b))) {
+          throw new IllegalStateException(name + ": var " + x.name + " differs at " + i + ", spot " + a + ", batch " + b)
+        }
+        i += 1
+      }
+    }
+  }
+
+  private def fn[T <: Function](klass: Class[T], ser: QuoteSer, args: Any*): T = {
+    org.aiotrade.lib.math.indicator.Function(klass, ser, args: _*)
+  }
+
+  private def factor(value: Double) = new Factor("", value)
+
+  private def round(v: Double) = math.round(v * 100) / 100.0
+}
@@ -30,12 +30,13 @@
  */
 package org.aiotrade.lib.indicator
 
+import java.util.concurrent.atomic.AtomicLong
 import org.aiotrade.lib.indicator.function._
 import org.aiotrade.lib.math.indicator.Factor
 import org.aiotrade.lib.math.indicator.Function
 import org.aiotrade.lib.math.indicator.IndicatorHelper
 import org.aiotrade.lib.math.signal.Side
-import org.aiotrade.lib.math.timeseries.{DefaultTSer, TVar, BaseTSer}
+import org.aiotrade.lib.math.timeseries.{DefaultTSer, TVar, BaseTSer, TStampsLog}
 import org.aiotrade.lib.securities.QuoteSer
 import org.aiotrade.lib.securities.model._
 
@@ -61,6 +62,13 @@ abstract class Indicator(protected var _baseSer: BaseTSer) extends DefaultTSer
    * by indicatorHelper.addFac(..)
    */
   private var _computedTime = Long.MinValue
+
+  /**
+   * Mark of timestamps log and factor values of last computing, to recompute
+   * only what changed since, @see computeFrom
+   */
+  private var logMark: TStampsLog.Mark = _
+  private var computedFactorValues: Array[Double] = _
   
   /** Always use unadjusted values?, override it to get you want */
   val isUsingUnadjusted = false
@@ -101,6 +109,7 @@ abstract class Indicator(protected var _baseSer: BaseTSer) extends DefaultTSer
    */
   def set(baseSer: BaseTSer) {
     _baseSer = baseSer
+    logMark = null
     if (baseSer != null) {
       super.set(baseSer.freq)
 
@@ -160,6 +169,14 @@ abstract class Indicator(protected var _baseSer: BaseTSer) extends DefaultTSer
    * be no more ser change events fired, so when first create, call computeFrom(0)
    * is a safe maner.
    *
+   * Once computed, a fromTime not later than the first time, which is what such
+   * callers pass, does not mean to recompute all: it's the timestamps log that
+   * tells what changed since, so an appended bar costs recomputing the last
+   * computed one and itself only, and an inserted or a reloaded one the tail
+   * from it. Values rewritten in place other than by ++= and at the last one
+   * should be logged by TStampsLog#logUpdate or logRewrite. Changed factors or
+   * a cleared ser get all recomputed.
+   *
    * @TODO
    * Should this method synchronized?
    * As each seriesProvider has its own indicator instance, and indicator instance
@@ -176,7 +193,7 @@ abstract class Indicator(protected var _baseSer: BaseTSer) extends DefaultTSer
       try {
         timestamps.readLock.lock
 
-        val fromIdx = super.preComputeFrom(fromTime)
+        val fromIdx = logBoundedFromIdx(fromTime, super.preComputeFrom(fromTime))
         /**
          * @Note
          * It's better to pass Size as param to compute(...) instead of keep it as instance field,
@@ -187,6 +204,7 @@ abstract class Indicator(protected var _baseSer: BaseTSer) extends DefaultTSer
 
         compute(fromIdx, size)
         
+        logMark = timestamps.log.mark(size)
         _computedTime = timestamps.lastOccurredTime
         super.postComputeFrom
       
@@ -196,6 +214,27 @@ abstract class Indicator(protected var _baseSer: BaseTSer) extends DefaultTSer
     }
   }
         
+  private def logBoundedFromIdx(fromTime: Long, fromIdx: Int): Int = {
+    val mark = logMark
+    val factorValues = this.factorValues
+    val idx = if (mark == null || mark.size > timestamps.size ||
+                  !java.util.Arrays.equals(factorValues, computedFactorValues)) {
+      fromIdx
+    } else {
+      val changedIdx = math.max(math.min(timestamps.log.firstChangedIdx(mark), mark.size - 1), 0)
+      if (fromTime <= timestamps.firstOccurredTime) changedIdx else math.min(fromIdx, changedIdx)
+    }
+    computedFactorValues = factorValues
+
+    if (idx == 0) fullComputes.incrementAndGet else incrementalComputes.incrementAndGet
+    idx
+  }
+
+  override def clear(fromTime: Long) {
+    logMark = null
+    super.clear(fromTime)
+  }
+
   protected def compute(fromIdx: Int, size: Int)
 
 //  final def isTradingTime(time: Long): Boolean = {
@@ -450,6 +489,10 @@ object Indicator {
   /** a static global session id */
   protected var sessionId: Long = _
 
+  /** counts of computeFrom that computed from the first idx, and from a later one */
+  val fullComputes = new AtomicLong
+  val incrementalComputes = new AtomicLong
+
   protected def setSessionId {
     sessionId += 1
   }
@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.indicator
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.logging.Level
+import java.util.logging.Logger
+import org.aiotrade.lib.math.indicator.{Indicator => TIndicator}
+import org.aiotrade.lib.math.timeseries.Null
+import org.aiotrade.lib.math.timeseries.TFreq
+import org.aiotrade.lib.math.timeseries.TStampsLog
+import org.aiotrade.lib.math.timeseries.TVar
+import org.aiotrade.lib.securities.QuoteSer
+import org.aiotrade.lib.securities.model.Sec
+import scala.concurrent.forkjoin.ForkJoinPool
+import scala.concurrent.forkjoin.ForkJoinTask
+import scala.concurrent.forkjoin.RecursiveAction
+
+/**
+ * Scans secs by an indicator template and a condition, across a fork-join pool.
+ *
+ * For each sec, an instance of template's class with template's factors is set
+ * to the sec's QuoteSer of freq (loaded from persistence if it's empty) and
+ * computed, then condition is tested against it. Matches are passed to onMatch
+ * as soon as they are found, from the pool's threads.
+ *
+ * The indicator, the ser's version (epoch, timestamps log mark and last modify
+ * time) and the result of each sec are kept, so a sec whose ser has not changed
+ * since the last scan by the same template is not computed again and its
+ * previous result is reused, and a changed one is recomputed by its kept
+ * indicator. The kept indicators don't listen to their sers, they are computed
+ * by scans only, and are disposed when replaced or by reset and shutdown.
+ *
+ * Each thread has its own ScanScratch, which is passed to condition to copy
+ * values of vars into without allocating per sec.
+ *
+ * @author Caoyuan Deng
+ */
+class IndicatorScanner(freq: TFreq, nThreads: Int = Runtime.getRuntime.availableProcessors) {
+  import IndicatorScanner._
+
+  private val log = Logger.getLogger(this.getClass.getName)
+
+  /** secs of one leaf task */
+  private val leafSize = 8
+
+  private lazy val pool = new ForkJoinPool(nThreads)
+
+  private val secToEntry = new ConcurrentHashMap[Sec, Entry]
+
+  private val scratches = new ThreadLocal[ScanScratch] {
+    override protected def initialValue = new ScanScratch
+  }
+
+  /**
+   * Scans secs, blocks until all of them are done.
+   *
+   * @param condition tested on computed indicator of sec, with the scratch of current thread
+   * @param onMatch   called for each sec that meets condition, from the pool's threads
+   * @return statistics of this scan
+   */
+  def scan[T <: TIndicator](secs: Seq[Sec], template: T, condition: (Sec, T, ScanScratch) => Boolean)(onMatch: (Sec, T) => Unit): ScanStats = {
+    val templateKey = TemplateKey(template.getClass, template.factorValues.toList)
+    val counter = new Counter
+    val secsArr = secs.toArray
+    val start = System.currentTimeMillis
+
+    class ScanTask(from: Int, until: Int) extends RecursiveAction {
+      protected def compute {
+        if (until - from <= leafSize) {
+          var i = from
+          while (i < until) {
+            scanSec(secsArr(i), template, templateKey, condition, onMatch, counter)
+            i += 1
+          }
+        } else {
+          val mid = (from + until) >>> 1
+          ForkJoinTask.invokeAll(new ScanTask(from, mid), new ScanTask(mid, until))
+        }
+      }
+    }
+
+    pool.invoke(new ScanTask(0, secsArr.length))
+
+    val stats = ScanStats(secsArr.length, counter.computed.get, counter.skipped.get, counter.matched.get, System.currentTimeMillis - start)
+    log.info("Scanned " + stats)
+    stats
+  }
+
+  private def scanSec[T <: TIndicator](sec: Sec, template: T, templateKey: TemplateKey,
+                                       condition: (Sec, T, ScanScratch) => Boolean, onMatch: (Sec, T) => Unit,
+                                       counter: Counter
+  ) {
+    try {
+      val ser = sec.serOf(freq) match {
+        case Some(x) => x
+        case None => return
+      }
+      if (ser.size == 0 && !ser.isInLoading) {
+        sec.loadSerFromPersistence(ser, false)
+      }
+      if (ser.size == 0) return
+
+      val version = versionOf(ser)
+      val entry = secToEntry.get(sec)
+      val ind = if (entry != null && (entry.ser eq ser) && entry.templateKey == templateKey) {
+        if (entry.version == version) {
+          counter.skipped.incrementAndGet
+          if (entry.isMatched) {
+            counter.matched.incrementAndGet
+            onMatch(sec, entry.indicator.asInstanceOf[T])
+          }
+          return
+        }
+        entry.indicator.asInstanceOf[T]
+      } else {
+        val x = template.getClass.newInstance.asInstanceOf[T]
+        x.factors = template.factors
+        x.set(ser)
+        // * computed by scans only, not by events of ser on the publisher's thread
+        x.deafTo(ser)
+        x
+      }
+
+      ind.computeFrom(0)
+      counter.computed.incrementAndGet
+
+      val isMatched = condition(sec, ind, scratches.get)
+      val replaced = secToEntry.put(sec, Entry(ser, templateKey, version, ind, isMatched))
+      if (replaced != null && (replaced.indicator ne ind)) {
+        replaced.indicator.dispose
+      }
+      if (isMatched) {
+        counter.matched.incrementAndGet
+        onMatch(sec, ind)
+      }
+    } catch {
+      case ex => log.log(Level.WARNING, "Failed to scan " + sec.uniSymbol, ex)
+    }
+  }
+
+  /**
+   * Changes of ser are counted by its epoch for structural ones, and its
+   * timestamps log for appended, inserted, reloaded and rewritten values. The
+   * last bar updated in place by ticker is not logged, its lastModify tells.
+   */
+  private def versionOf(ser: QuoteSer): Version = {
+    val epoch = ser.epoch
+    val logMark = ser.timestamps.log.mark(ser.size)
+    val lastIdx = logMark.size - 1
+    Version(epoch, logMark, if (lastIdx >= 0) ser.lastModify(lastIdx) else Null.Long)
+  }
+
+  /** forgets kept indicators and results, so all secs will be computed by next scan */
+  def reset {
+    val entries = secToEntry.values.iterator
+    while (entries.hasNext) {
+      entries.next.indicator.dispose
+      entries.remove
+    }
+  }
+
+  def shutdown {
+    pool.shutdown
+    reset
+  }
+}
+
+object IndicatorScanner {
+  case class ScanStats(nSecs: Int, nComputed: Int, nSkipped: Int, nMatched: Int, elapsed: Long) {
+    def symbolsPerSecond: Double = if (elapsed > 0) nSecs * 1000.0 / elapsed else Double.PositiveInfinity
+
+    override def toString = {
+      nSecs + " secs in " + elapsed + "ms (" + symbolsPerSecond.toInt + " secs/s): computed=" + nComputed +
+      ", skipped=" + nSkipped + ", matched=" + nMatched
+    }
+  }
+
+  /**
+   * Per-thread buffer for conditions, which is reused by all secs scanned on
+   * a thread, so don't keep what it returns beyond the call of condition.
+   */
+  final class ScanScratch {
+    private var buf = new Array[Double](64)
+
+    /**
+     * @return buffer filled with the last n values of var1 at [0, n), the oldest
+     *         first, and Null.Double for bars before the first one
+     */
+    def lastValues(var1: TVar[Double], n: Int): Array[Double] = {
+      if (buf.length < n) {
+        buf = new Array[Double](math.max(n, buf.length * 2))
+      }
+      val size = var1.size
+      var i = 0
+      while (i < n) {
+        val idx = size - n + i
+        buf(i) = if (idx >= 0) var1(idx) else Null.Double
+        i += 1
+      }
+      buf
+    }
+  }
+
+  private case class TemplateKey(clazz: Class[_], factorValues: List[Double])
+  private case class Version(epoch: Long, logMark: TStampsLog.Mark, lastModify: Long)
+  private case class Entry(ser: QuoteSer, templateKey: TemplateKey, version: Version, indicator: TIndicator, isMatched: Boolean)
+
+  private class Counter {
+    val computed = new AtomicInteger
+    val skipped = new AtomicInteger
+    val matched = new AtomicInteger
+  }
+}
@@ -68,6 +68,29 @@ class ADXFunction extends Function {
             
     }
   }
+
+  override protected def computeBatch(fromIdx: Int, toIdx: Int) {
+    val dx_ = dxColumn(fromIdx, toIdx, periodDi)
+
+    val dx = column(_dx)
+    val adx = column(_adx)
+    var i = fromIdx
+    while (i <= toIdx) {
+      dx(i) = dx_(i)
+      adx(i) = Null.Double
+      i += 1
+    }
+
+    val begIdx = firstIdx(firstIdx(fromIdx, periodDi.value - 1), periodAdx.value - 1)
+    if (begIdx > toIdx) return
+
+    val dx_ma = maColumn(begIdx, toIdx, _dx, periodAdx)
+    i = begIdx
+    while (i <= toIdx) {
+      adx(i) = dx_ma(i)
+      i += 1
+    }
+  }
     
   def adx(sessionId: Long, idx: Int): Double = {
     computeTo(sessionId, idx)
@@ -74,6 +74,35 @@ class BOLLFunction extends Function {
             
     }
   }
+
+  override protected def computeBatch(fromIdx: Int, toIdx: Int) {
+    val bollMiddle = column(_bollMiddle)
+    val bollUpper  = column(_bollUpper)
+    val bollLower  = column(_bollLower)
+
+    val begIdx = firstIdx(fromIdx, period.value - 1)
+    var i = fromIdx
+    while (i <= toIdx && i < begIdx) {
+      bollMiddle(i) = Null.Double
+      bollUpper(i)  = Null.Double
+      bollLower(i)  = Null.Double
+      i += 1
+    }
+    if (begIdx > toIdx) return
+
+    val ma = maColumn(begIdx, toIdx, baseVar, period)
+    val stdDev = stdDevColumn(begIdx, toIdx, baseVar, period)
+    val a = alpha.value
+    while (i <= toIdx) {
+      val ma_i = ma(i)
+      val standard_deviation_i = stdDev(i)
+            
+      bollMiddle(i) = ma_i
+      bollUpper(i)  = ma_i + a * standard_deviation_i
+      bollLower(i)  = ma_i - a * standard_deviation_i
+      i += 1
+    }
+  }
     
     
   def bollMiddle(sessionId: Long, idx: Int): Double = {
@@ -74,6 +74,45 @@ class CCIFunction extends Function {
             
     }
   }
+
+  override protected def computeBatch(fromIdx: Int, toIdx: Int) {
+    if (!covers(toIdx, H, L, C)) {
+      super.computeBatch(fromIdx, toIdx)
+      return
+    }
+
+    val h = column(H)
+    val l = column(L)
+    val c = column(C)
+    val tp = column(_tp)
+    val deviation = column(_deviation)
+    val cci = column(_cci)
+    var i = fromIdx
+    while (i <= toIdx) {
+      tp(i) = (h(i) + 2 * c(i) + l(i)) / 4f
+      deviation(i) = Null.Double
+      cci(i) = Null.Double
+      i += 1
+    }
+
+    val begIdx = firstIdx(fromIdx, period.value - 1)
+    if (begIdx > toIdx) return
+
+    val tp_ma = maColumn(begIdx, toIdx, _tp, period)
+    i = begIdx
+    while (i <= toIdx) {
+      deviation(i) = math.abs(tp(i) - tp_ma(i))
+      i += 1
+    }
+
+    val deviation_ma = maColumn(begIdx, toIdx, _deviation, period)
+    val a = alpha.value
+    i = begIdx
+    while (i <= toIdx) {
+      cci(i) = (tp(i) - tp_ma(i)) / (a * deviation_ma(i))
+      i += 1
+    }
+  }
     
   def cci(sessionId: Long, idx: Int): Double = {
     computeTo(sessionId, idx)
@@ -79,6 +79,41 @@ class DIFunction extends Function {
             
     }
   }
+
+  override protected def computeBatch(fromIdx: Int, toIdx: Int) {
+    val dmPlus_  = dmPlusColumn(fromIdx, toIdx)
+    val dmMinus_ = dmMinusColumn(fromIdx, toIdx)
+    val tr_      = trColumn(fromIdx, toIdx)
+
+    val dmPlus  = column(_dmPlus)
+    val dmMinus = column(_dmMinus)
+    val tr      = column(_tr)
+    val diPlus  = column(_diPlus)
+    val diMinus = column(_diMinus)
+    var i = fromIdx
+    while (i <= toIdx) {
+      dmPlus(i)  = dmPlus_(i)
+      dmMinus(i) = dmMinus_(i)
+      tr(i)      = tr_(i)
+      diPlus(i)  = Null.Double
+      diMinus(i) = Null.Double
+      i += 1
+    }
+
+    val begIdx = firstIdx(fromIdx, period.value - 1)
+    if (begIdx > toIdx) return
+
+    val dmPlus_ma  = maColumn(begIdx, toIdx, _dmPlus,  period)
+    val dmMinus_ma = maColumn(begIdx, toIdx, _dmMinus, period)
+    val tr_ma      = maColumn(begIdx, toIdx, _tr,      period)
+    i = begIdx
+    while (i <= toIdx) {
+      val tr_ma_i = tr_ma(i)
+      diPlus(i)  = if (tr_ma_i == 0) 0f else dmPlus_ma(i)  / tr_ma_i * 100f
+      diMinus(i) = if (tr_ma_i == 0) 0f else dmMinus_ma(i) / tr_ma_i * 100f
+      i += 1
+    }
+  }
     
   def diPlus(sessionId: Long, idx: Int): Double = {
     computeTo(sessionId, idx)
@@ -87,6 +87,57 @@ class DMFunction extends Function {
             
     }
   }
+
+  override protected def computeBatch(fromIdx: Int, toIdx: Int) {
+    if (!covers(toIdx, H, L)) {
+      super.computeBatch(fromIdx, toIdx)
+      return
+    }
+
+    val h = column(H)
+    val l = column(L)
+    val dmPlus  = column(_dmPlus)
+    val dmMinus = column(_dmMinus)
+    var i = fromIdx
+    while (i <= toIdx) {
+      if (i == 0) {
+        dmPlus (i) = Null.Double
+        dmMinus(i) = Null.Double
+      } else {
+        if (h(i) > h(i - 1) && l(i) > l(i - 1)) {
+          dmPlus (i) = h(i) - h(i - 1)
+          dmMinus(i) = 0f
+        } else if (h(i) < h(i - 1) && l(i) < l(i - 1)) {
+          dmPlus (i) = 0f
+          dmMinus(i) = l(i - 1) - l(i)
+        } else if (h(i) > h(i - 1) && l(i) < l(i - 1)) {
+          if (h(i) - h(i - 1) > l(i - 1) - l(i)) {
+            dmPlus (i) = h(i) - h(i - 1)
+            dmMinus(i) = 0f
+          } else {
+            dmPlus (i) = 0f
+            dmMinus(i) = l(i - 1) - l(i)
+          }
+        } else if (h(i) < h(i - 1) && l(i) > l(i - 1)) {
+          dmPlus (i) = 0f
+          dmMinus(i) = 0f
+        } else if (h(i) == h(i - 1) && l(i) == l(i - 1)) {
+          dmPlus (i) = 0f
+          dmMinus(i) = 0f
+        } else if (l(i) > h(i - 1)) {
+          dmPlus (i) = h(i) - h(i)
+          dmMinus(i) = 0f
+        } else if (h(i) < l(i - 1)) {
+          dmPlus (i) = 0f
+          dmMinus(i) = l(i - 1) - l(i)
+        } else {
+          dmPlus (i) = 0f
+          dmMinus(i) = 0f
+        }
+      }
+      i += 1
+    }
+  }
     
   def dmPlus(sessionId: Long, idx: Int): Double = {
     computeTo(sessionId, idx)
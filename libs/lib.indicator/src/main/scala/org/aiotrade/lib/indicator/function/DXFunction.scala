@@ -74,6 +74,29 @@ class DXFunction extends Function {
       _dx(i) = dx_i
     }
   }
+
+  override protected def computeBatch(fromIdx: Int, toIdx: Int) {
+    val diPlus_  = diPlusColumn(fromIdx, toIdx, period)
+    val diMinus_ = diMinusColumn(fromIdx, toIdx, period)
+
+    val diPlus  = column(_diPlus)
+    val diMinus = column(_diMinus)
+    val dx = column(_dx)
+    val p = period.value
+    var i = fromIdx
+    while (i <= toIdx) {
+      diPlus (i) = diPlus_ (i)
+      diMinus(i) = diMinus_(i)
+      if (i < p - 1) {
+        dx(i) = Null.Double
+      } else {
+        val diPlus_i  = diPlus (i)
+        val diMinus_i = diMinus(i)
+        dx(i) = if (diPlus_i + diMinus_i == 0) 0f else math.abs(diPlus_i - diMinus_i) / (diPlus_i + diMinus_i) * 100f
+      }
+      i += 1
+    }
+  }
     
   def dx(sessionId: Long, idx: Int): Double = {
     computeTo(sessionId, idx)
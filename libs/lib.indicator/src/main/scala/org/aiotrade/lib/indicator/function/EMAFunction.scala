@@ -67,6 +67,22 @@ class EMAFunction extends Function {
             
     }
   }
+
+  override protected def computeBatch(fromIdx: Int, toIdx: Int) {
+    if (!covers(toIdx, baseVar)) {
+      super.computeBatch(fromIdx, toIdx)
+      return
+    }
+
+    val values = column(baseVar)
+    val p = period.value.toInt
+    val ema = column(_ema)
+    var i = fromIdx
+    while (i <= toIdx) {
+      ema(i) = if (i == 0) values(i) else StatisticFunction.iema(i, values, p, ema(i - 1))
+      i += 1
+    }
+  }
     
   def ema(sessionId: Long, idx: Int): Double = {
     computeTo(sessionId, idx)
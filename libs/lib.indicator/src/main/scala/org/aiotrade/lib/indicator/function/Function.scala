@@ -30,8 +30,10 @@
  */
 package org.aiotrade.lib.indicator.function
 
-import org.aiotrade.lib.math.timeseries.{DefaultTSer, BaseTSer,TVar, Null}
+import java.util.concurrent.atomic.AtomicLong
+import org.aiotrade.lib.math.timeseries.{DefaultTSer, BaseTSer,TVar, Null, TStampsLog, DoubleBufferList}
 import org.aiotrade.lib.math.indicator.Factor
+import org.aiotrade.lib.math.indicator.StatisticFunction
 import org.aiotrade.lib.math.signal.Side
 import org.aiotrade.lib.securities.QuoteSer
 
@@ -40,6 +42,16 @@ import org.aiotrade.lib.securities.QuoteSer
  * @author Caoyuan Deng
  */
 object Function {
+  /**
+   * Compute functions in batch, @see Function#computeBatch. Turn it off to
+   * compute them spot by spot only, to compare both paths for example.
+   */
+  @volatile var isBatchMode = true
+
+  /** counts of computing sessions that computed from the first idx, and from a later one */
+  val fullComputes = new AtomicLong
+  val incrementalComputes = new AtomicLong
+
   /**
    * a helper function for keeping the same functin form as Function, don't be
    * puzzled by the name, it actully will return funcion instance
@@ -64,6 +76,8 @@ abstract class Function extends DefaultTSer
    */
   private var sessionId = Long.MinValue
   protected var computedIdx = Int.MinValue
+  /** mark of timestamps log when last session began, @see computeTo */
+  private var logMark: TStampsLog.Mark = _
 
   /** base series to compute this. */
   protected var baseSer: BaseTSer = _
@@ -110,6 +124,16 @@ abstract class Function extends DefaultTSer
    * @param idx, the idx to be computed to
    */
   def computeTo(sessionId: Long, idx: Int) {
+    computeTo(sessionId, idx, idx)
+  }
+
+  /**
+   * Compute to idx as calling computeTo(sessionId, i) for i from begIdx to idx in
+   * turn does, but at once, so the spots can be computed in batch. This is how a
+   * function gets the functions it depends on computed for a range in its
+   * computeBatch.
+   */
+  def computeTo(sessionId: Long, begIdx: Int, idx: Int) {
     try {
       timestamps.readLock.lock
 
@@ -123,26 +147,40 @@ abstract class Function extends DefaultTSer
         return
       }
         
-      this.sessionId = sessionId
-        
-      // computedIdx itself has been computed, so, compare computedIdx + 1 with idx */
-      var fromIdx = math.min(computedIdx + 1, idx)
+      val isNewSession = this.sessionId != sessionId
+      // computedIdx itself has been computed, so, compare computedIdx + 1 with begIdx */
+      var fromIdx = if (isNewSession) {
+        /**
+         * values computed behind an idx that has been inserted since are shifted,
+         * so compute from it too, even though the caller may begin behind it
+         */
+        val tlog = timestamps.log
+        val changedIdx = if (logMark != null) tlog.firstChangedIdx(logMark) else Int.MaxValue
+        logMark = tlog.mark(timestamps.size)
+        math.min(math.min(computedIdx + 1, begIdx), changedIdx)
+      } else computedIdx + 1
       if (fromIdx < 0) {
         fromIdx = 0
       }
 
+      this.sessionId = sessionId
+
       // fill with clear data from fromIdx
       if (this ne baseSer) {
         validate
       }
 
-      // call computeSpot(i)
       val size = timestamps.size
       val toIdx = math.min(idx, size - 1)
-      var i = fromIdx
-      while (i <= toIdx) {
-        computeSpot(i)
-        i += 1
+      if (fromIdx <= toIdx) {
+        if (isNewSession) {
+          if (fromIdx == 0) fullComputes.incrementAndGet else incrementalComputes.incrementAndGet
+        }
+        if (isBatchMode && !readsBuffers) {
+          computeBatch(fromIdx, toIdx)
+        } else {
+          computeSpots(fromIdx, toIdx)
+        }
       }
         
       computedIdx = toIdx
@@ -171,6 +209,36 @@ abstract class Function extends DefaultTSer
    */
   protected def computeSpot(i: Int)
 
+  protected def computeSpots(fromIdx: Int, toIdx: Int) {
+    var i = fromIdx
+    while (i <= toIdx) {
+      computeSpot(i)
+      i += 1
+    }
+  }
+
+  /**
+   * Compute spots from fromIdx to toIdx in batch. Override it to compute the
+   * range in a tight loop from columns of input vars into columns of own vars,
+   * instead of going through TVar#apply/update per spot, and to get functions
+   * that are depended on computed for the range at once by the xxxColumn
+   * helpers below. The values should be identical to the ones of computeSpot,
+   * which is what it falls back to by default.
+   */
+  protected def computeBatch(fromIdx: Int, toIdx: Int) {
+    computeSpots(fromIdx, toIdx)
+  }
+
+  /**
+   * @return true if vars of baseSer are kept in buffers off heap or mapped,
+   *         @see DefaultTSer#mapColumns. Their columns would be copies of the
+   *         whole buffers, so spots are computed instead, which read only the
+   *         elements of their windows out of the buffers.
+   */
+  private def readsBuffers: Boolean = {
+    baseSer.vars exists (_.values.isInstanceOf[DoubleBufferList])
+  }
+
   /**
    * Define functions
    * --------------------------------------------------------------------
@@ -181,6 +249,33 @@ abstract class Function extends DefaultTSer
    * ----------------------------------------------------------------------
    */
     
+  /**
+   * Column of a var: the backing array of its values without copying, @see
+   * StatisticFunction#arrayOf. Own vars of functions are primitive ones, so what's
+   * written into their columns goes to the vars. Vars of a baseSer that are kept
+   * in buffers are not read by columns, @see readsBuffers.
+   */
+  final protected def column(var1: TVar[_]): Array[Double] = {
+    StatisticFunction.arrayOf(var1.asInstanceOf[TVar[Double]].values)
+  }
+
+  /**
+   * @return true if vars have values to idx, so their columns can be read to idx
+   *         in place of var(i), which is Null.Double beyond the values.
+   */
+  final protected def covers(idx: Int, vars: TVar[_]*): Boolean = {
+    vars forall {x => x != null && x.values.size > idx}
+  }
+
+  /**
+   * @return the first idx from fromIdx on that is not less than minIdx, which is
+   *         where computeSpot(i) with a branch of (i < minIdx) starts to call the
+   *         functions it depends on.
+   */
+  final protected def firstIdx(fromIdx: Int, minIdx: Double): Int = {
+    math.max(fromIdx, math.ceil(minIdx).toInt)
+  }
+
   protected def indexOfLastValidValue(var1: TVar[_]): Int = {
     val values = var1.values
     var i = values.size - 1
@@ -347,6 +442,96 @@ abstract class Function extends DefaultTSer
   final protected def zigzagSide(idx: Int, percent: Factor): Side = {
     Function(classOf[ZIGZAGFunction], baseSer, percent).zigzagSide(sessionId, idx)
   }
+
+  /**
+   * Batch counterparts of functions above: compute the function from fromIdx to
+   * toIdx as calling it for each idx in turn does, and return its column.
+   * ----------------------------------------------------------------------
+   */
+    
+  final protected def sumColumn(fromIdx: Int, toIdx: Int, baseVar: TVar[_], period: Factor): Array[Double] = {
+    val f = Function(classOf[SUMFunction], baseSer, baseVar, period)
+    f.computeTo(sessionId, fromIdx, toIdx)
+    column(f._sum)
+  }
+    
+  final protected def maxColumn(fromIdx: Int, toIdx: Int, baseVar: TVar[_], period: Factor): Array[Double] = {
+    val f = Function(classOf[MAXFunction], baseSer, baseVar, period)
+    f.computeTo(sessionId, fromIdx, toIdx)
+    column(f._max)
+  }
+    
+  final protected def minColumn(fromIdx: Int, toIdx: Int, baseVar: TVar[_], period: Factor): Array[Double] = {
+    val f = Function(classOf[MINFunction], baseSer, baseVar, period)
+    f.computeTo(sessionId, fromIdx, toIdx)
+    column(f._min)
+  }
+    
+  final protected def maColumn(fromIdx: Int, toIdx: Int, baseVar: TVar[_], period: Factor): Array[Double] = {
+    val f = Function(classOf[MAFunction], baseSer, baseVar, period)
+    f.computeTo(sessionId, fromIdx, toIdx)
+    column(f._ma)
+  }
+    
+  final protected def emaColumn(fromIdx: Int, toIdx: Int, baseVar: TVar[_], period: Factor): Array[Double] = {
+    val f = Function(classOf[EMAFunction], baseSer, baseVar, period)
+    f.computeTo(sessionId, fromIdx, toIdx)
+    column(f._ema)
+  }
+    
+  final protected def stdDevColumn(fromIdx: Int, toIdx: Int, baseVar: TVar[_], period: Factor): Array[Double] = {
+    val f = Function(classOf[STDDEVFunction], baseSer, baseVar, period)
+    f.computeTo(sessionId, fromIdx, toIdx)
+    column(f._stdDev)
+  }
+    
+  final protected def trColumn(fromIdx: Int, toIdx: Int): Array[Double] = {
+    val f = Function(classOf[TRFunction], baseSer)
+    f.computeTo(sessionId, fromIdx, toIdx)
+    column(f._tr)
+  }
+    
+  final protected def dmPlusColumn(fromIdx: Int, toIdx: Int): Array[Double] = {
+    val f = Function(classOf[DMFunction], baseSer)
+    f.computeTo(sessionId, fromIdx, toIdx)
+    column(f._dmPlus)
+  }
+    
+  final protected def dmMinusColumn(fromIdx: Int, toIdx: Int): Array[Double] = {
+    val f = Function(classOf[DMFunction], baseSer)
+    f.computeTo(sessionId, fromIdx, toIdx)
+    column(f._dmMinus)
+  }
+    
+  final protected def diPlusColumn(fromIdx: Int, toIdx: Int, period: Factor): Array[Double] = {
+    val f = Function(classOf[DIFunction], baseSer, period)
+    f.computeTo(sessionId, fromIdx, toIdx)
+    column(f._diPlus)
+  }
+    
+  final protected def diMinusColumn(fromIdx: Int, toIdx: Int, period: Factor): Array[Double] = {
+    val f = Function(classOf[DIFunction], baseSer, period)
+    f.computeTo(sessionId, fromIdx, toIdx)
+    column(f._diMinus)
+  }
+    
+  final protected def dxColumn(fromIdx: Int, toIdx: Int, period: Factor): Array[Double] = {
+    val f = Function(classOf[DXFunction], baseSer, period)
+    f.computeTo(sessionId, fromIdx, toIdx)
+    column(f._dx)
+  }
+    
+  final protected def stochKColumn(fromIdx: Int, toIdx: Int, period: Factor, periodK: Factor): Array[Double] = {
+    val f = Function(classOf[STOCHKFunction], baseSer, period, periodK)
+    f.computeTo(sessionId, fromIdx, toIdx)
+    column(f._stochK)
+  }
+    
+  final protected def stochDColumn(fromIdx: Int, toIdx: Int, period: Factor, periodK: Factor, periodD: Factor): Array[Double] = {
+    val f = Function(classOf[STOCHDFunction], baseSer, period, periodK, periodD)
+    f.computeTo(sessionId, fromIdx, toIdx)
+    column(f._stochD)
+  }
     
     
   /**
@@ -62,6 +62,22 @@ class MACDFunction extends Function {
             
     _macd(i) = _emaFast(i) - _emaSlow(i)
   }
+
+  override protected def computeBatch(fromIdx: Int, toIdx: Int) {
+    val emaFast_ = emaColumn(fromIdx, toIdx, baseVar, periodFast)
+    val emaSlow_ = emaColumn(fromIdx, toIdx, baseVar, periodSlow)
+
+    val emaFast = column(_emaFast)
+    val emaSlow = column(_emaSlow)
+    val macd = column(_macd)
+    var i = fromIdx
+    while (i <= toIdx) {
+      emaFast(i) = emaFast_(i)
+      emaSlow(i) = emaSlow_(i)
+      macd(i) = emaFast(i) - emaSlow(i)
+      i += 1
+    }
+  }
     
   def macd(sessionId: Long, idx: Int): Double = {
     computeTo(sessionId, idx)
@@ -30,7 +30,7 @@
  */
 package org.aiotrade.lib.indicator.function
 
-import org.aiotrade.lib.math.indicator.StatisticFunction
+import org.aiotrade.lib.math.indicator.SlidingMean
 import org.aiotrade.lib.math.timeseries.Null
 import org.aiotrade.lib.math.timeseries.BaseTSer
 import org.aiotrade.lib.math.timeseries.TVar
@@ -41,14 +41,16 @@ import org.aiotrade.lib.math.indicator.Factor
  * @author Caoyuan Deng
  */
 class MAFunction extends Function {
-  final protected def ima(idx: Int, baseVar: TVar[Double], period: Double, prev: Double): Double = {
-    return StatisticFunction.ima(idx, baseVar.values, period.toInt, prev)
+  final protected def ima(idx: Int, baseVar: TVar[Double], period: Double): Double = {
+    window(idx, baseVar.values, period.toInt)
   }
     
   var period: Factor = _
   var baseVar: TVar[Double] = _
     
   val _ma = TVar[Double]()
+
+  private val window = new SlidingMean
     
   override def set(baseSer: BaseTSer, args: Any*): Unit = {
     super.set(baseSer)
@@ -66,10 +68,21 @@ class MAFunction extends Function {
             
     } else {
             
-      _ma(i) = ima(i, baseVar, period.value, _ma(i - 1))
+      _ma(i) = ima(i, baseVar, period.value)
             
     }
   }
+
+  override protected def computeBatch(fromIdx: Int, toIdx: Int) {
+    val values = baseVar.values
+    val p = period.value
+    val ma = column(_ma)
+    var i = fromIdx
+    while (i <= toIdx) {
+      ma(i) = if (i < p - 1) Null.Double else window(i, values, p.toInt)
+      i += 1
+    }
+  }
     
   def ma(sessionId: Long, idx: Int): Double = {
     computeTo(sessionId, idx)
@@ -30,7 +30,7 @@
  */
 package org.aiotrade.lib.indicator.function
 
-import org.aiotrade.lib.math.indicator.StatisticFunction
+import org.aiotrade.lib.math.indicator.SlidingMax
 import org.aiotrade.lib.math.timeseries.Null
 import org.aiotrade.lib.math.timeseries.BaseTSer
 import org.aiotrade.lib.math.timeseries.TVar
@@ -41,14 +41,16 @@ import org.aiotrade.lib.math.indicator.Factor
  * @author Caoyuan Deng
  */
 class MAXFunction extends Function {
-  final protected def imax(idx: Int, baseVar: TVar[Double], period: Double, prev: Double): Double = {
-    StatisticFunction.imax(idx, baseVar.values, period.toInt, prev)
+  final protected def imax(idx: Int, baseVar: TVar[Double], period: Double): Double = {
+    window(idx, baseVar.values, period.toInt)
   }
     
   var period: Factor = _
   var baseVar: TVar[Double] = _
     
   val _max = TVar[Double]()
+
+  private val window = new SlidingMax
     
   override def set(baseSer: BaseTSer, args: Any*): Unit = {
     super.set(baseSer)
@@ -64,10 +66,21 @@ class MAXFunction extends Function {
             
     } else {
             
-      _max(i) = imax(i, baseVar, period.value, _max(i - 1))
+      _max(i) = imax(i, baseVar, period.value)
             
     }
   }
+
+  override protected def computeBatch(fromIdx: Int, toIdx: Int) {
+    val values = baseVar.values
+    val p = period.value
+    val max = column(_max)
+    var i = fromIdx
+    while (i <= toIdx) {
+      max(i) = if (i < p - 1) Null.Double else window(i, values, p.toInt)
+      i += 1
+    }
+  }
     
   def max(sessionId: Long, idx: Int): Double = {
     computeTo(sessionId, idx)
@@ -30,7 +30,7 @@
  */
 package org.aiotrade.lib.indicator.function
 
-import org.aiotrade.lib.math.indicator.StatisticFunction
+import org.aiotrade.lib.math.indicator.SlidingMin
 import org.aiotrade.lib.math.timeseries.Null
 import org.aiotrade.lib.math.timeseries.BaseTSer
 import org.aiotrade.lib.math.timeseries.TVar
@@ -41,14 +41,16 @@ import org.aiotrade.lib.math.indicator.Factor
  * @author Caoyuan Deng
  */
 class MINFunction extends Function {
-  final protected def imin(idx: Int, baseVar: TVar[Double], period: Double, prev: Double): Double = {
-    StatisticFunction.imin(idx, baseVar.values, period.toInt, prev)
+  final protected def imin(idx: Int, baseVar: TVar[Double], period: Double): Double = {
+    window(idx, baseVar.values, period.toInt)
   }
     
   var period: Factor = _
   var baseVar: TVar[Double] = _
     
   val _min = TVar[Double]()
+
+  private val window = new SlidingMin
     
   override def set(baseSer: BaseTSer, args: Any*): Unit = {
     super.set(baseSer)
@@ -64,10 +66,21 @@ class MINFunction extends Function {
             
     } else {
             
-      _min(i) = imin(i, baseVar, period.value, _min(i - 1))
+      _min(i) = imin(i, baseVar, period.value)
             
     }
   }
+
+  override protected def computeBatch(fromIdx: Int, toIdx: Int) {
+    val values = baseVar.values
+    val p = period.value
+    val min = column(_min)
+    var i = fromIdx
+    while (i <= toIdx) {
+      min(i) = if (i < p - 1) Null.Double else window(i, values, p.toInt)
+      i += 1
+    }
+  }
     
   def min(sessionId: Long, idx: Int): Double = {
     computeTo(sessionId, idx)
@@ -64,6 +64,28 @@ class MTMFunction extends Function {
             
     }
   }
+
+  override protected def computeBatch(fromIdx: Int, toIdx: Int) {
+    if (!covers(toIdx, baseVar)) {
+      super.computeBatch(fromIdx, toIdx)
+      return
+    }
+
+    val values = column(baseVar)
+    val p = period.value
+    val mtm = column(_mtm)
+    var i = fromIdx
+    while (i <= toIdx) {
+      if (i < p - 1) {
+        mtm(i) = Null.Double
+      } else {
+        val j = i - p.toInt
+        val var_j = if (j >= 0) values(j) else Null.Double
+        mtm(i) = (values(i) / var_j) * 100f
+      }
+      i += 1
+    }
+  }
     
   def mtm(sessionId: Long, idx: Int): Double = {
     computeTo(sessionId, idx)
@@ -62,6 +62,32 @@ class OBVFunction extends Function {
             
     }
   }
+
+  override protected def computeBatch(fromIdx: Int, toIdx: Int) {
+    if (!covers(toIdx, C, V)) {
+      super.computeBatch(fromIdx, toIdx)
+      return
+    }
+
+    val c = column(C)
+    val v = column(V)
+    val obv = column(_obv)
+    var i = fromIdx
+    while (i <= toIdx) {
+      if (i == 0) {
+        obv(i) = 0f
+      } else {
+        if (c(i) > c(i - 1)) {
+          obv(i) = obv(i - 1) + v(i)
+        } else if (c(i) < c(i - 1)) {
+          obv(i) = obv(i - 1) - v(i)
+        } else {
+          obv(i) = obv(i - 1)
+        }
+      }
+      i += 1
+    }
+  }
     
   def obv(sessionId: Long, idx: Int): Double = {
     computeTo(sessionId, idx)
@@ -68,6 +68,28 @@ class ROCFunction extends Function {
             
     }
   }
+
+  override protected def computeBatch(fromIdx: Int, toIdx: Int) {
+    if (!covers(toIdx, baseVar)) {
+      super.computeBatch(fromIdx, toIdx)
+      return
+    }
+
+    val values = column(baseVar)
+    val p = period.value
+    val roc = column(_roc)
+    var i = fromIdx
+    while (i <= toIdx) {
+      if (i < p - 1) {
+        roc(i) = Null.Double
+      } else {
+        val j = i - p.toInt
+        val var_j = if (j >= 0) values(j) else Null.Double
+        roc(i) = if (var_j == 0) 0f else ((values(i) - var_j) / var_j) * 100
+      }
+      i += 1
+    }
+  }
     
   def roc(sessionId: Long, idx: Int): Double = {
     computeTo(sessionId, idx)
@@ -85,6 +85,50 @@ class RSIFunction extends Function {
       }
     }
   }
+
+  override protected def computeBatch(fromIdx: Int, toIdx: Int) {
+    if (!covers(toIdx, C)) {
+      super.computeBatch(fromIdx, toIdx)
+      return
+    }
+
+    val c = column(C)
+    val up = column(_up)
+    val dn = column(_dn)
+    val rsi = column(_rsi)
+    var i = fromIdx
+    while (i <= toIdx) {
+      if (i == 0) {
+        up(i) = Null.Double
+        dn(i) = Null.Double
+      } else {
+        val change = c(i) - c(i - 1)
+        if (change > 0) {
+          up(i) = change
+          dn(i) = 0f
+        } else {
+          up(i) = 0f
+          dn(i) = -change
+        }
+      }
+      rsi(i) = Null.Double
+      i += 1
+    }
+
+    val begIdx = firstIdx(math.max(fromIdx, 1), period.value - 1)
+    if (begIdx > toIdx) return
+
+    val up_sum = sumColumn(begIdx, toIdx, _up, period)
+    val dn_sum = sumColumn(begIdx, toIdx, _dn, period)
+    i = begIdx
+    while (i <= toIdx) {
+      val up_sum_i = up_sum(i)
+      val dn_sum_i = dn_sum(i)
+                
+      rsi(i) = if (up_sum_i + dn_sum_i == 0) 0f else up_sum_i / (up_sum_i + dn_sum_i) * 100f
+      i += 1
+    }
+  }
     
   def rsi(sessionId: Long, idx: Int): Double = {
     computeTo(sessionId, idx)
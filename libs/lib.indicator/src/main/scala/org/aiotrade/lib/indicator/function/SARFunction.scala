@@ -138,6 +138,73 @@ class SARFunction extends Function {
             
     }
   }
+
+  override protected def computeBatch(fromIdx: Int, toIdx: Int) {
+    if (!covers(toIdx, H, L)) {
+      super.computeBatch(fromIdx, toIdx)
+      return
+    }
+
+    val h = column(H)
+    val l = column(L)
+    val ep  = column(_ep)
+    val af  = column(_af)
+    val sar = column(_sar)
+    val initial_ = initial.value
+    val step_ = step.value
+    val maximum_ = maximum.value
+    var prevSide = if (fromIdx > 0) _side(fromIdx - 1) else null
+    var i = fromIdx
+    while (i <= toIdx) {
+      val side = if (i == 0) {
+        sar(i) = l(i)
+        af(i) = initial_
+        ep(i) = h(i)
+        Side.EnterLong
+      } else if (prevSide == Side.EnterLong) {
+        /** in long-term */
+        val currHigh = h(i)
+        if (currHigh > ep(i - 1)) {
+          af(i) = math.min(af(i - 1) + step_, maximum_)
+          ep(i) = currHigh
+        } else {
+          af(i) = af(i - 1)
+          ep(i) = ep(i - 1)
+        }
+        sar(i) = sar(i - 1) + af(i) * (h(i - 1) - sar(i - 1))
+        if (sar(i) >= currHigh) {
+          sar(i) = currHigh
+          af(i) = initial_
+          ep(i) = l(i)
+          Side.ExitLong
+        } else {
+          Side.EnterLong
+        }
+      } else {
+        /** in short-term */
+        val currLow = l(i)
+        if (currLow < ep(i - 1)) {
+          af(i) = math.min(af(i - 1) + step_, maximum_)
+          ep(i) = currLow
+        } else {
+          af(i) = af(i - 1)
+          ep(i) = ep(i - 1)
+        }
+        sar(i) = sar(i - 1) + af(i) * (l(i - 1) - sar(i - 1))
+        if (sar(i) <= currLow) {
+          sar(i) = currLow
+          af(i) = initial_
+          ep(i) = h(i)
+          Side.EnterLong
+        } else {
+          Side.ExitLong
+        }
+      }
+      _side(i) = side
+      prevSide = side
+      i += 1
+    }
+  }
     
   def sar(sessionId: Long, idx: Int): Double = {
     computeTo(sessionId, idx)
@@ -30,7 +30,7 @@
  */
 package org.aiotrade.lib.indicator.function
 
-import org.aiotrade.lib.math.indicator.StatisticFunction
+import org.aiotrade.lib.math.indicator.SlidingStdDev
 import org.aiotrade.lib.math.timeseries.Null
 import org.aiotrade.lib.math.timeseries.BaseTSer
 import org.aiotrade.lib.math.timeseries.TVar
@@ -42,10 +42,7 @@ import org.aiotrade.lib.math.indicator.Factor
  */
 class STDDEVFunction extends Function {
   final protected def stdDev(idx: Int, baseVar: TVar[Double], period: Double): Double = {
-    val begIdx = idx - period.toInt + 1
-    val endIdx = idx
-
-    StatisticFunction.stdDev(baseVar.values, begIdx, endIdx)
+    window(idx, baseVar.values, period.toInt)
   }
 
     
@@ -53,6 +50,8 @@ class STDDEVFunction extends Function {
   var baseVar: TVar[Double] = _
     
   val _stdDev = TVar[Double]()
+
+  private val window = new SlidingStdDev
     
   override def set(baseSer: BaseTSer, args: Any*): Unit = {
     super.set(baseSer)
@@ -72,6 +71,17 @@ class STDDEVFunction extends Function {
             
     }
   }
+
+  override protected def computeBatch(fromIdx: Int, toIdx: Int) {
+    val values = baseVar.values
+    val p = period.value
+    val stdDev = column(_stdDev)
+    var i = fromIdx
+    while (i <= toIdx) {
+      stdDev(i) = if (i < p - 1) Null.Double else window(i, values, p.toInt)
+      i += 1
+    }
+  }
     
   def stdDev(sessionId: Long, idx: Int): Double = {
     computeTo(sessionId, idx)
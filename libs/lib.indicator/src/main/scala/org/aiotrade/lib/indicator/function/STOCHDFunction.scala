@@ -68,6 +68,30 @@ class STOCHDFunction extends Function {
             
     }
   }
+
+  override protected def computeBatch(fromIdx: Int, toIdx: Int) {
+    val stochK_ = stochKColumn(fromIdx, toIdx, period, periodK)
+
+    val stochK = column(_stochK)
+    val stochD = column(_stochD)
+    var i = fromIdx
+    while (i <= toIdx) {
+      stochK(i) = stochK_(i)
+      stochD(i) = Null.Double
+      i += 1
+    }
+
+    val begIdx = firstIdx(fromIdx, periodD.value - 1)
+    if (begIdx > toIdx) return
+
+    /** smooth stochK, periodD */
+    val stochK_ma = maColumn(begIdx, toIdx, _stochK, periodD)
+    i = begIdx
+    while (i <= toIdx) {
+      stochD(i) = stochK_ma(i)
+      i += 1
+    }
+  }
     
   def stochD(sessionId: Long, idx: Int): Double = {
     computeTo(sessionId, idx)
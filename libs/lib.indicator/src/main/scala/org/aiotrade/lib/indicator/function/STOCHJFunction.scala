@@ -60,6 +60,22 @@ class STOCHJFunction extends Function {
         
     _stochJ(i) = _stochD(i) + 2 * (_stochD(i) - _stochK(i))
   }
+
+  override protected def computeBatch(fromIdx: Int, toIdx: Int) {
+    val stochK_ = stochKColumn(fromIdx, toIdx, period, periodK)
+    val stochD_ = stochDColumn(fromIdx, toIdx, period, periodK, periodD)
+
+    val stochK = column(_stochK)
+    val stochD = column(_stochD)
+    val stochJ = column(_stochJ)
+    var i = fromIdx
+    while (i <= toIdx) {
+      stochK(i) = stochK_(i)
+      stochD(i) = stochD_(i)
+      stochJ(i) = stochD(i) + 2 * (stochD(i) - stochK(i))
+      i += 1
+    }
+  }
         
   def stochJ(sessionId: Long, idx: Int): Double = {
     computeTo(sessionId, idx)
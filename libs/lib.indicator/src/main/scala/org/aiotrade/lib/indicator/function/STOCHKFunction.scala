@@ -72,6 +72,43 @@ class STOCHKFunction extends Function {
             
     }
   }
+
+  override protected def computeBatch(fromIdx: Int, toIdx: Int) {
+    if (!covers(toIdx, C)) {
+      super.computeBatch(fromIdx, toIdx)
+      return
+    }
+
+    val c = column(C)
+    val elementK = column(_elementK)
+    val stochK = column(_stochK)
+    val begIdx = firstIdx(fromIdx, period.value - 1)
+    var i = fromIdx
+    while (i <= toIdx) {
+      elementK(i) = Null.Double
+      stochK(i) = Null.Double
+      i += 1
+    }
+    if (begIdx > toIdx) return
+
+    val h_max = maxColumn(begIdx, toIdx, H, period)
+    val l_min = minColumn(begIdx, toIdx, L, period)
+    i = begIdx
+    while (i <= toIdx) {
+      val h_max_i = h_max(i)
+      val l_min_i = l_min(i)
+      elementK(i) = (c(i) - l_min_i) / (h_max_i - l_min_i) * 100f
+      i += 1
+    }
+
+    /** smooth elementK, periodK */
+    val elementK_ma = maColumn(begIdx, toIdx, _elementK, periodK)
+    i = begIdx
+    while (i <= toIdx) {
+      stochK(i) = elementK_ma(i)
+      i += 1
+    }
+  }
     
   def stochK(sessionId: Long, idx: Int): Double = {
     computeTo(sessionId, idx)
@@ -30,7 +30,7 @@
  */
 package org.aiotrade.lib.indicator.function
 
-import org.aiotrade.lib.math.indicator.StatisticFunction
+import org.aiotrade.lib.math.indicator.SlidingSum
 import org.aiotrade.lib.math.timeseries.Null
 import org.aiotrade.lib.math.timeseries.BaseTSer
 import org.aiotrade.lib.math.timeseries.TVar
@@ -41,14 +41,16 @@ import org.aiotrade.lib.math.indicator.Factor
  * @author Caoyuan Deng
  */
 class SUMFunction extends Function {
-  final protected def isum(idx: Int, baseVar: TVar[Double], period: Double, prev: Double): Double = {
-    StatisticFunction.isum(idx, baseVar.values, period.toInt, prev)
+  final protected def isum(idx: Int, baseVar: TVar[Double], period: Double): Double = {
+    window(idx, baseVar.values, period.toInt)
   }
     
   var period: Factor = _
   var baseVar: TVar[Double] = _
     
   val _sum = TVar[Double]()
+
+  private val window = new SlidingSum
     
   override def set(baseSer: BaseTSer, args: Any*): Unit = {
     super.set(baseSer)
@@ -64,10 +66,21 @@ class SUMFunction extends Function {
             
     } else {
             
-      _sum(i) = isum(i, baseVar, period.value, _sum(i - 1))
+      _sum(i) = isum(i, baseVar, period.value)
             
     }
   }
+
+  override protected def computeBatch(fromIdx: Int, toIdx: Int) {
+    val values = baseVar.values
+    val p = period.value
+    val sum = column(_sum)
+    var i = fromIdx
+    while (i <= toIdx) {
+      sum(i) = if (i < p - 1) Null.Double else window(i, values, p.toInt)
+      i += 1
+    }
+  }
     
   def sum(sessionId: Long, idx: Int): Double = {
     computeTo(sessionId, idx)
@@ -57,6 +57,28 @@ class TRFunction extends Function {
             
     }
   }
+
+  override protected def computeBatch(fromIdx: Int, toIdx: Int) {
+    if (!covers(toIdx, H, L, C)) {
+      super.computeBatch(fromIdx, toIdx)
+      return
+    }
+
+    val h = column(H)
+    val l = column(L)
+    val c = column(C)
+    val tr = column(_tr)
+    var i = fromIdx
+    while (i <= toIdx) {
+      if (i == 0) {
+        tr(i) = Null.Double
+      } else {
+        val tr_tmp = math.max(h(i) - l(i), math.abs(h(i) - c(i - 1)))
+        tr(i) = math.max(tr_tmp, math.abs(l(i) - c(i - 1)))
+      }
+      i += 1
+    }
+  }
     
   def tr(sessionId: Long, idx: Int): Double = {
     computeTo(sessionId, idx)
@@ -0,0 +1,126 @@
+package org.aiotrade.lib.indicator
+
+import java.util.Random
+import junit.framework.TestCase
+import junit.framework.Assert._
+import org.aiotrade.lib.indicator.function._
+import org.aiotrade.lib.math.indicator.Factor
+import org.aiotrade.lib.math.timeseries.TFreq
+import org.aiotrade.lib.securities.QuoteSer
+import org.aiotrade.lib.securities.model.Quote
+import org.aiotrade.lib.securities.model.Sec
+
+/**
+ * Computes each function that overrides computeBatch spot by spot, and in batch
+ * at once and in steps (so from a non-zero fromIdx), and checks that the values
+ * of all vars are identical bit for bit.
+ */
+class TestBatchCompute extends TestCase {
+
+  private val DAY = 24 * 60 * 60 * 1000L
+  private val BEG_TIME = 1293840000000L // 2011-01-01
+  private val N_BARS = 150
+
+  /** idxs that a stepped computing computes to before the last one */
+  private val STEPS = List(39, 40, 97)
+
+  private var sessionId = 0L
+  private var ser: QuoteSer = _
+
+  override protected def setUp {
+    ser = new QuoteSer(new Sec, TFreq.DAILY)
+    ser ++= quotes
+  }
+
+  override protected def tearDown {
+    Function.isBatchMode = true
+    org.aiotrade.lib.math.indicator.Function.releaseAll
+  }
+
+  def testBatchEqualsSpots {
+    for ((clazz, args) <- functions) {
+      val spots = compute(clazz, args, false, Nil)
+      assertSameValues(clazz.getSimpleName + " in batch", spots, compute(clazz, args, true, Nil))
+      assertSameValues(clazz.getSimpleName + " in batch by steps", spots, compute(clazz, args, true, STEPS))
+      assertSameValues(clazz.getSimpleName + " by steps", spots, compute(clazz, args, false, STEPS))
+    }
+  }
+
+  private def functions: List[(Class[_ <: Function], List[Any])] = List(
+    (classOf[ADXFunction],    List(new Factor("", 14), new Factor("", 6))),
+    (classOf[BOLLFunction],   List(ser.close, new Factor("", 20), new Factor("", 2))),
+    (classOf[CCIFunction],    List(new Factor("", 14), new Factor("", 0.015))),
+    (classOf[DIFunction],     List(new Factor("", 14))),
+    (classOf[DMFunction],     Nil),
+    (classOf[DXFunction],     List(new Factor("", 14))),
+    (classOf[EMAFunction],    List(ser.close, new Factor("", 12))),
+    (classOf[MACDFunction],   List(ser.close, new Factor("", 26), new Factor("", 12))),
+    (classOf[MAFunction],     List(ser.close, new Factor("", 5))),
+    (classOf[MAXFunction],    List(ser.high, new Factor("", 9))),
+    (classOf[MINFunction],    List(ser.low, new Factor("", 9))),
+    (classOf[MTMFunction],    List(ser.close, new Factor("", 12))),
+    (classOf[OBVFunction],    Nil),
+    (classOf[ROCFunction],    List(ser.close, new Factor("", 12))),
+    (classOf[RSIFunction],    List(new Factor("", 14))),
+    (classOf[SARFunction],    List(new Factor("", 0.02), new Factor("", 0.02), new Factor("", 0.2))),
+    (classOf[STDDEVFunction], List(ser.close, new Factor("", 20))),
+    (classOf[STOCHDFunction], List(new Factor("", 9), new Factor("", 3), new Factor("", 3))),
+    (classOf[STOCHJFunction], List(new Factor("", 9), new Factor("", 3), new Factor("", 3))),
+    (classOf[STOCHKFunction], List(new Factor("", 9), new Factor("", 3))),
+    (classOf[SUMFunction],    List(ser.volume, new Factor("", 10))),
+    (classOf[TRFunction],     Nil)
+  )
+
+  /**
+   * Computes a new instance of clazz, and the functions it depends on, to each
+   * of steps then to the last idx, each in a new session.
+   *
+   * @return values of its vars
+   */
+  private def compute(clazz: Class[_ <: Function], args: List[Any], isBatchMode: Boolean, steps: List[Int]): List[List[AnyRef]] = {
+    Function.isBatchMode = isBatchMode
+    org.aiotrade.lib.math.indicator.Function.releaseAll
+    val f: Function = org.aiotrade.lib.math.indicator.Function(clazz, ser, args: _*)
+    for (idx <- steps ::: List(ser.size - 1)) {
+      sessionId += 1
+      f.computeTo(sessionId, idx)
+    }
+    f.vars.toList map {x => x.values.toList map (_.asInstanceOf[AnyRef])}
+  }
+
+  /** java.lang.Double#equals compares the bits, Null.Double included */
+  private def assertSameValues(msg: String, expected: List[List[AnyRef]], actual: List[List[AnyRef]]) {
+    assertEquals(msg, expected.size, actual.size)
+    for (((xs, ys), j) <- (expected zip actual).zipWithIndex) {
+      assertEquals(msg + ": size of var " + j, xs.size, ys.size)
+      for (((x, y), i) <- (xs zip ys).zipWithIndex) {
+        assertEquals(msg + ": var " + j + " at " + i, x, y)
+      }
+    }
+  }
+
+  /** a random walk, with opens apart from previous closes, and a run of bars that close unchanged */
+  private def quotes: Array[Quote] = {
+    val random = new Random(1)
+    val quotes = new Array[Quote](N_BARS)
+    var close = 20.0
+    var i = 0
+    while (i < N_BARS) {
+      val quote = new Quote
+      quote.time = BEG_TIME + i * DAY
+      if (i < 60 || i > 65) {
+        quote.open = close * (1 + (random.nextDouble - 0.5) * 0.04)
+        close = close * (1 + (random.nextDouble - 0.5) * 0.06)
+      } else {
+        quote.open = close
+      }
+      quote.close = close
+      quote.high = math.max(quote.open, close) * (1 + random.nextDouble * 0.02)
+      quote.low = math.min(quote.open, close) * (1 - random.nextDouble * 0.02)
+      quote.volume = 1000 + random.nextInt(9000)
+      quotes(i) = quote
+      i += 1
+    }
+    quotes
+  }
+}
@@ -0,0 +1,208 @@
+package org.aiotrade.lib.indicator
+
+import junit.framework.TestCase
+import junit.framework.Assert._
+import org.aiotrade.lib.indicator.function.MAFunction
+import org.aiotrade.lib.math.indicator.Factor
+import org.aiotrade.lib.math.timeseries.TFreq
+import org.aiotrade.lib.math.timeseries.TSer
+import org.aiotrade.lib.securities.QuoteSer
+import org.aiotrade.lib.securities.model.Quote
+import org.aiotrade.lib.securities.model.Sec
+import org.aiotrade.lib.securities.model.SecDividend
+
+/**
+ * Reloads quotes that overlap the computed ones, appends, inserts and adjusts
+ * them, and checks that indicators and functions recomputed incrementally have
+ * the same values as computed anew, and that only a rewrite computes them from
+ * the first idx again.
+ */
+class TestIncrementalCompute extends TestCase {
+
+  private val DAY = 24 * 60 * 60 * 1000L
+  private val BEG_TIME = 1293840000000L // 2011-01-01
+
+  private var sessionId = 0L
+
+  def testIndicatorRecomputesReloadedQuotes() {
+    val ser = quoteSer(quotes(0, 100, 1))
+    val ind = indicator(ser)
+    ind.computeFrom(0)
+
+    // reload bars 40 until 60 with other values, and append 5 new bars
+    ser ++= quotes(40, 20, 2) ++ quotes(100, 5, 2)
+    ind.computeFrom(0)
+    assertSameValues(computedIndicator(ser), ind, ser.size)
+
+    // reload the last bar only
+    ser ++= quotes(ser.size - 1, 1, 3)
+    ind.computeFrom(0)
+    assertSameValues(computedIndicator(ser), ind, ser.size)
+  }
+
+  def testFunctionRecomputesReloadedQuotes() {
+    val ser = quoteSer(quotes(0, 100, 1))
+    val ma = maFunction(ser)
+    compute(ma, ser)
+
+    ser ++= quotes(40, 20, 2) ++ quotes(100, 5, 2)
+    compute(ma, ser)
+
+    val expected = maFunction(ser)
+    compute(expected, ser)
+    assertSameValues(expected, ma, ser.size)
+  }
+
+  def testSingleAppendComputesIncrementally() {
+    val ser = quoteSer(quotes(0, 100, 1))
+    val ind = indicator(ser)
+    ind.computeFrom(0)
+
+    ser ++= quotes(100, 1, 1)
+    val counts = new Counts
+    ind.computeFrom(0)
+    counts.assertIncremental
+    assertSameValues(computedIndicator(ser), ind, ser.size)
+  }
+
+  def testMidSeriesInsertComputesIncrementally() {
+    // without the bar of 50
+    val ser = quoteSer(quotes(0, 50, 1) ++ quotes(51, 49, 1))
+    val ind = indicator(ser)
+    ind.computeFrom(0)
+    val ma = maFunction(ser)
+    compute(ma, ser)
+
+    ser ++= quotes(50, 1, 1)
+    assertEquals(100, ser.size)
+    val counts = new Counts
+    ind.computeFrom(0)
+    compute(ma, ser)
+    counts.assertIncremental
+    assertSameValues(computedIndicator(ser), ind, ser.size)
+
+    val expected = maFunction(ser)
+    compute(expected, ser)
+    assertSameValues(expected, ma, ser.size)
+  }
+
+  def testAdjustComputesAll() {
+    // a cash bonus of 1.0 on the bar of 50, so the closes before it are adjusted
+    val div = new SecDividend
+    div.cashBonus = 1.0
+    div.dividendDate = BEG_TIME + 50 * DAY
+    val ser = new QuoteSer(new Sec, TFreq.DAILY) {
+      override protected def dividends = List(div)
+    }
+    ser ++= quotes(0, 100, 1)
+    ser.isLoaded = true
+    val ind = indicator(ser)
+    ind.computeFrom(0)
+    val ma = maFunction(ser)
+    compute(ma, ser)
+
+    ser.adjust()
+    assertTrue(ser.isAdjusted)
+    assertEquals(10.0, ser.close(0), 0.0)
+    val counts = new Counts
+    ind.computeFrom(0)
+    compute(ma, ser)
+    counts.assertFull
+    assertSameValues(computedIndicator(ser), ind, ser.size)
+
+    val expected = maFunction(ser)
+    compute(expected, ser)
+    assertSameValues(expected, ma, ser.size)
+  }
+
+  /**
+   * @param factor of values, so that reloaded quotes differ from the loaded ones
+   */
+  private def quotes(fromIdx: Int, n: Int, factor: Int): Array[Quote] = {
+    val quotes = new Array[Quote](n)
+    var i = 0
+    while (i < n) {
+      val idx = fromIdx + i
+      val quote = new Quote
+      quote.time = BEG_TIME + idx * DAY
+      quote.open = 10 + idx * factor
+      quote.high = 12 + idx * factor
+      quote.low = 9 + idx * factor
+      quote.close = 11 + (idx % 7) * factor
+      quote.volume = 1000 * (1 + idx % 11) * factor
+      quotes(i) = quote
+      i += 1
+    }
+    quotes
+  }
+
+  private def quoteSer(quotes: Array[Quote]): QuoteSer = {
+    val ser = new QuoteSer(new Sec, TFreq.DAILY)
+    ser ++= quotes
+    ser
+  }
+
+  /** an indicator of ser that computes only when asked to */
+  private def indicator(ser: QuoteSer): Indicator = {
+    val ind = new VOLIndicator
+    ind.set(ser)
+    ind.deafTo(ser)
+    ind
+  }
+
+  /** an indicator computed anew, with functions not cached before either */
+  private def computedIndicator(ser: QuoteSer): Indicator = {
+    org.aiotrade.lib.math.indicator.Function.releaseAll
+    val ind = indicator(ser)
+    ind.computeFrom(0)
+    ind
+  }
+
+  /** a new instance that has not been computed, not the cached one */
+  private def maFunction(ser: QuoteSer): MAFunction = {
+    org.aiotrade.lib.math.indicator.Function.releaseAll
+    org.aiotrade.lib.math.indicator.Function(classOf[MAFunction], ser, ser.close, new Factor("", 5))
+  }
+
+  private def compute(f: org.aiotrade.lib.indicator.function.Function, ser: QuoteSer) {
+    sessionId += 1
+    f.computeTo(sessionId, ser.size - 1)
+  }
+
+  /**
+   * Counts of computings since created, which should be taken before computing
+   * anything else, such as the expected values
+   */
+  private class Counts {
+    private val indFull = Indicator.fullComputes.get
+    private val indIncremental = Indicator.incrementalComputes.get
+    private val funFull = org.aiotrade.lib.indicator.function.Function.fullComputes.get
+    private val funIncremental = org.aiotrade.lib.indicator.function.Function.incrementalComputes.get
+
+    /** the indicator computed once, from a later idx, and so did its functions */
+    def assertIncremental {
+      assertEquals(0L, Indicator.fullComputes.get - indFull)
+      assertEquals(1L, Indicator.incrementalComputes.get - indIncremental)
+      assertEquals(0L, org.aiotrade.lib.indicator.function.Function.fullComputes.get - funFull)
+      assertTrue(org.aiotrade.lib.indicator.function.Function.incrementalComputes.get - funIncremental > 0)
+    }
+
+    /** the indicator computed once, from the first idx, and so did its functions */
+    def assertFull {
+      assertEquals(1L, Indicator.fullComputes.get - indFull)
+      assertEquals(0L, Indicator.incrementalComputes.get - indIncremental)
+      assertTrue(org.aiotrade.lib.indicator.function.Function.fullComputes.get - funFull > 0)
+      assertEquals(0L, org.aiotrade.lib.indicator.function.Function.incrementalComputes.get - funIncremental)
+    }
+  }
+
+  private def assertSameValues(expected: TSer, actual: TSer, size: Int) {
+    for ((x, y) <- expected.vars zip actual.vars) {
+      var i = 0
+      while (i < size) {
+        assertEquals(x.name + " at " + i, x.values(i).asInstanceOf[AnyRef], y.values(i).asInstanceOf[AnyRef])
+        i += 1
+      }
+    }
+  }
+}
@@ -0,0 +1,129 @@
+package org.aiotrade.lib.indicator
+
+import java.util.concurrent.ConcurrentHashMap
+import junit.framework.TestCase
+import junit.framework.Assert._
+import org.aiotrade.lib.indicator.IndicatorScanner.ScanScratch
+import org.aiotrade.lib.math.timeseries.TFreq
+import org.aiotrade.lib.securities.model.Quote
+import org.aiotrade.lib.securities.model.Sec
+
+/**
+ * Scans secs of 30, 60 and 90 bars by VOLIndicator, for the ones of which the
+ * volume of last bar is at least 5000, which are the first two ones.
+ */
+class TestIndicatorScanner extends TestCase {
+
+  private val DAY = 24 * 60 * 60 * 1000L
+  private val BEG_TIME = 1293840000000L // 2011-01-01
+
+  private var scanner: IndicatorScanner = _
+  private var secs: List[Sec] = _
+
+  override protected def setUp {
+    scanner = new IndicatorScanner(TFreq.DAILY, 2)
+    secs = List(sec(1, 30), sec(2, 60), sec(3, 90))
+  }
+
+  override protected def tearDown {
+    scanner.shutdown
+  }
+
+  def testMatchesAreDelivered {
+    val matched = new ConcurrentHashMap[Sec, VOLIndicator]
+    val stats = scan(new VOLIndicator, matched)
+
+    assertEquals(3, stats.nSecs)
+    assertEquals(3, stats.nComputed)
+    assertEquals(0, stats.nSkipped)
+    assertEquals(2, stats.nMatched)
+    assertEquals(2, matched.size)
+    assertTrue(matched.containsKey(secs(0)) && matched.containsKey(secs(1)))
+    assertEquals(8000.0, matched.get(secs(0)).vol(29), 0.0)
+  }
+
+  def testUnchangedSerIsSkipped {
+    val matched1 = new ConcurrentHashMap[Sec, VOLIndicator]
+    scan(new VOLIndicator, matched1)
+
+    val matched2 = new ConcurrentHashMap[Sec, VOLIndicator]
+    val stats = scan(new VOLIndicator, matched2)
+    assertEquals(0, stats.nComputed)
+    assertEquals(3, stats.nSkipped)
+    assertEquals(2, stats.nMatched)
+    // * the previous results, by the kept indicators
+    assertSame(matched1.get(secs(0)), matched2.get(secs(0)))
+    assertSame(matched1.get(secs(1)), matched2.get(secs(1)))
+  }
+
+  def testChangedSerIsRecomputed {
+    val matched1 = new ConcurrentHashMap[Sec, VOLIndicator]
+    scan(new VOLIndicator, matched1)
+
+    // append a bar to the first one, and reload the last bar of the third one with a volume of 6000
+    serOf(secs(0)) ++= quotes(30, 1, 1)
+    serOf(secs(2)) ++= quotes(89, 1, 3)
+
+    val matched2 = new ConcurrentHashMap[Sec, VOLIndicator]
+    val stats = scan(new VOLIndicator, matched2)
+    assertEquals(2, stats.nComputed)
+    assertEquals(1, stats.nSkipped)
+    assertEquals(3, stats.nMatched)
+    assertEquals(9000.0, matched2.get(secs(0)).vol(30), 0.0)
+    assertEquals(6000.0, matched2.get(secs(2)).vol(89), 0.0)
+  }
+
+  def testOtherTemplateDoesNotReuseEntry {
+    scan(new VOLIndicator, new ConcurrentHashMap[Sec, VOLIndicator])
+
+    val other = new VOLIndicator
+    other.factorValues = Array(3.0, 7.0)
+    val matched = new ConcurrentHashMap[Sec, VOLIndicator]
+    val stats = scan(other, matched)
+    assertEquals(3, stats.nComputed)
+    assertEquals(0, stats.nSkipped)
+    assertEquals(List(3.0, 7.0), matched.get(secs(0)).factorValues.toList)
+
+    assertEquals(3, scan(other, new ConcurrentHashMap[Sec, VOLIndicator]).nSkipped)
+    // * the entries of first template have been replaced by the ones of other
+    assertEquals(3, scan(new VOLIndicator, new ConcurrentHashMap[Sec, VOLIndicator]).nComputed)
+  }
+
+  private def scan(template: VOLIndicator, matched: ConcurrentHashMap[Sec, VOLIndicator]): IndicatorScanner.ScanStats = {
+    scanner.scan(secs, template, isVolumeHigh) {(sec, ind) => matched.put(sec, ind)}
+  }
+
+  private def isVolumeHigh(sec: Sec, ind: VOLIndicator, scratch: ScanScratch): Boolean = {
+    scratch.lastValues(ind.vol, 1)(0) >= 5000
+  }
+
+  private def sec(id: Long, nBars: Int): Sec = {
+    val sec = new Sec
+    sec.id = id
+    serOf(sec) ++= quotes(0, nBars, 1)
+    sec
+  }
+
+  private def serOf(sec: Sec) = sec.serOf(TFreq.DAILY).get
+
+  /**
+   * @param factor of values, so that reloaded quotes differ from the loaded ones
+   */
+  private def quotes(fromIdx: Int, n: Int, factor: Int): Array[Quote] = {
+    val quotes = new Array[Quote](n)
+    var i = 0
+    while (i < n) {
+      val idx = fromIdx + i
+      val quote = new Quote
+      quote.time = BEG_TIME + idx * DAY
+      quote.open = 10 + idx * factor
+      quote.high = 12 + idx * factor
+      quote.low = 9 + idx * factor
+      quote.close = 11 + (idx % 7) * factor
+      quote.volume = 1000 * (1 + idx % 11) * factor
+      quotes(i) = quote
+      i += 1
+    }
+    quotes
+  }
+}
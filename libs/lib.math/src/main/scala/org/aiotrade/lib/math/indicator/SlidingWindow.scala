@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.math.indicator
+
+import org.aiotrade.lib.collection.ArrayList
+import org.aiotrade.lib.math.timeseries.DoubleBufferList
+import org.aiotrade.lib.math.timeseries.Null
+
+/**
+ * Statistic of the window of last period values that ends at idx, kept
+ * incrementally: when idx is next to the one of previous call on same values and
+ * period, only the value leaving and the value entering the window are applied,
+ * so a function that computes its bars in order does O(1) amortized work per bar
+ * instead of O(period). Other calls (the first one, another period, a recompute
+ * from an earlier bar) rebuild the window from values, and so does every
+ * period'th step, to keep rounding errors of the incremental updates from
+ * accumulating.
+ *
+ * Values are read from the backing array of values, @see StatisticFunction#arrayOf,
+ * or from the buffer of a DoubleBufferList, which is not copied.
+ *
+ * A window is not thread safe, it belongs to the function that computes with it.
+ *
+ * @author Caoyuan Deng
+ */
+abstract class SlidingWindow {
+  private var _values: ArrayList[Double] = _
+  private var _period = 0
+  private var _idx = Int.MinValue
+  private var _steps = 0
+
+  /**
+   * @return statistic of values from (idx - period + 1) to idx, or Null.Double
+   *         when there are not enough values
+   */
+  def apply(idx: Int, values: ArrayList[Double], period: Int): Double = {
+    val lookbackIdx = idx - period + 1
+    if (period <= 0 || lookbackIdx < 0 || idx >= values.size) {
+      _values = null
+      return Null.Double
+    }
+
+    val xs = values match {
+      case _: DoubleBufferList => null
+      case _ => StatisticFunction.arrayOf(values)
+    }
+    if ((values eq _values) && period == _period && idx == _idx + 1 && _steps < period) {
+      leave(if (xs eq null) values(lookbackIdx - 1) else xs(lookbackIdx - 1), lookbackIdx - 1)
+      enter(if (xs eq null) values(idx) else xs(idx), idx)
+      _steps += 1
+    } else {
+      _values = values
+      _period = period
+      _steps = 0
+      reset(period)
+      var i = lookbackIdx
+      while (i <= idx) {
+        enter(if (xs eq null) values(i) else xs(i), i)
+        i += 1
+      }
+    }
+    _idx = idx
+
+    value
+  }
+
+  /** clear the window for a new one of period */
+  protected def reset(period: Int)
+
+  /** add x, which is the value at i, to the window */
+  protected def enter(x: Double, i: Int)
+
+  /** remove x, which is the value at i, from the window, it's always the oldest one in window */
+  protected def leave(x: Double, i: Int)
+
+  protected def value: Double
+}
+
+/**
+ * Sum of window, Null values are skipped as StatisticFunction#sum does
+ */
+class SlidingSum extends SlidingWindow {
+  protected var sum = 0.0
+
+  protected def reset(period: Int) {
+    sum = 0.0
+  }
+
+  protected def enter(x: Double, i: Int) {
+    if (Null.not(x)) sum += x
+  }
+
+  protected def leave(x: Double, i: Int) {
+    if (Null.not(x)) sum -= x
+  }
+
+  protected def value: Double = sum
+}
+
+/**
+ * Mean of window, as StatisticFunction#ma
+ */
+class SlidingMean extends SlidingSum {
+  private var period = 1
+
+  override protected def reset(period: Int) {
+    super.reset(period)
+    this.period = period
+  }
+
+  override protected def value: Double = sum / period
+}
+
+/**
+ * Population standard deviation of window, as StatisticFunction#stdDev. It's
+ * Null.Double when there is any Null value in window.
+ *
+ * The sums are of values shifted by the first value of window when it was
+ * rebuilt, which is near to the mean, so sumSq / n - mean * mean doesn't lose
+ * precision by cancellation.
+ */
+class SlidingStdDev extends SlidingWindow {
+  private var period = 1
+  private var shift = Null.Double
+  private var sum = 0.0
+  private var sumSq = 0.0
+  private var nNulls = 0
+
+  protected def reset(period: Int) {
+    this.period = period
+    shift = Null.Double
+    sum = 0.0
+    sumSq = 0.0
+    nNulls = 0
+  }
+
+  protected def enter(x: Double, i: Int) {
+    if (Null.is(x)) {
+      nNulls += 1
+    } else {
+      if (Null.is(shift)) shift = x
+      val d = x - shift
+      sum += d
+      sumSq += d * d
+    }
+  }
+
+  protected def leave(x: Double, i: Int) {
+    if (Null.is(x)) {
+      nNulls -= 1
+    } else {
+      val d = x - shift
+      sum -= d
+      sumSq -= d * d
+    }
+  }
+
+  protected def value: Double = {
+    if (nNulls > 0) {
+      Null.Double
+    } else {
+      val mean = sum / period
+      val variance = sumSq / period - mean * mean
+      if (variance > 0) math.sqrt(variance) else 0.0
+    }
+  }
+}
+
+/**
+ * Max or min of window by a monotonic deque: the indexes in window that may still
+ * become the extreme one, with their values from the extreme one (at head) on.
+ * Each value enters and leaves the deque at most once. Null values are skipped,
+ * and the value of a window of Null values only is Double.MinValue (for max) or
+ * Double.MaxValue (for min), as StatisticFunction#maxmin.
+ */
+abstract class SlidingExtreme extends SlidingWindow {
+  private var idxs: Array[Int] = new Array[Int](1)
+  private var vals: Array[Double] = new Array[Double](1)
+  private var head = 0
+  private var count = 0
+
+  /** @return true if a is at least as extreme as b, so b can be dropped for a */
+  protected def dominates(a: Double, b: Double): Boolean
+
+  protected def empty: Double
+
+  protected def reset(period: Int) {
+    if (idxs.length < period) {
+      idxs = new Array[Int](period)
+      vals = new Array[Double](period)
+    }
+    head = 0
+    count = 0
+  }
+
+  protected def enter(x: Double, i: Int) {
+    if (Null.not(x)) {
+      val capacity = idxs.length
+      while (count > 0 && dominates(x, vals((head + count - 1) % capacity))) {
+        count -= 1
+      }
+      val tail = (head + count) % capacity
+      idxs(tail) = i
+      vals(tail) = x
+      count += 1
+    }
+  }
+
+  protected def leave(x: Double, i: Int) {
+    if (count > 0 && idxs(head) == i) {
+      head = (head + 1) % idxs.length
+      count -= 1
+    }
+  }
+
+  protected def value: Double = if (count > 0) vals(head) else empty
+}
+
+class SlidingMax extends SlidingExtreme {
+  protected def dominates(a: Double, b: Double) = a >= b
+  protected def empty = Double.MinValue
+}
+
+class SlidingMin extends SlidingExtreme {
+  protected def dominates(a: Double, b: Double) = a <= b
+  protected def empty = Double.MaxValue
+}
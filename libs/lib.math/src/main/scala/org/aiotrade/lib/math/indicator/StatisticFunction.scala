@@ -30,7 +30,9 @@
  */
 package org.aiotrade.lib.math.indicator
 
+import org.aiotrade.lib.math.timeseries.DoubleBufferList
 import org.aiotrade.lib.math.timeseries.Null
+import org.aiotrade.lib.math.timeseries.TStampedMapBasedList
 import org.aiotrade.lib.collection.ArrayList
 
 /**
@@ -44,7 +46,67 @@ object StatisticFunction {
   val VALUE = 0
   val MASS = 1
 
-  def sum(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Double = sum(values.toArray, fromIdx, toIdx)
+  /**
+   * The ArrayList[Double] overloads work on the backing array of values instead
+   * of a copy of it, so a function that calls them once per bar doesn't copy
+   * the whole series per bar. The backing array may be longer than values.size,
+   * these overloads bound the indexes by values.size before passing it on.
+   *
+   * Lists that don't keep elements in a primitive array, such as a
+   * TStampedMapBasedList or a DoubleBufferList, are copied in whole here. The
+   * overloads don't call it for a DoubleBufferList, but copy only the elements
+   * they read out of its buffer, @see window.
+   */
+  def arrayOf(values: ArrayList[Double]): Array[Double] = values match {
+    case _: TStampedMapBasedList[_] | _: DoubleBufferList => values.toArray
+    case _ => (values: ArrayList[_]).underlyingArray match {
+        case xs: Array[Double] => xs
+        case _ => values.toArray
+      }
+  }
+
+  /**
+   * Calls f with the elements of values from fromIdx to toIdx and the idx in
+   * values of the first one of them, which are arrayOf(values) and 0, except for
+   * a DoubleBufferList, of which only these elements are copied out of its
+   * buffer, so a column that is kept off heap or mapped is not copied onto heap
+   * in whole. f should shift the indexes it passes on by the offset.
+   */
+  private def window[T](values: ArrayList[Double], fromIdx: Int, toIdx: Int)(f: (Array[Double], Int) => T): T = values match {
+    case _: DoubleBufferList =>
+      val offset = math.max(fromIdx, 0)
+      f(sliceOf(values, offset, toIdx), offset)
+    case _ => f(arrayOf(values), 0)
+  }
+
+  /** windows of values and weights at the same offset, @see window */
+  private def windows[T](values: ArrayList[Double], weights: ArrayList[Double], fromIdx: Int, toIdx: Int)(f: (Array[Double], Array[Double], Int) => T): T = {
+    if (values.isInstanceOf[DoubleBufferList] || weights.isInstanceOf[DoubleBufferList]) {
+      val offset = math.max(fromIdx, 0)
+      f(sliceOf(values, offset, toIdx), sliceOf(weights, offset, toIdx), offset)
+    } else f(arrayOf(values), arrayOf(weights), 0)
+  }
+
+  private def sliceOf(values: ArrayList[Double], offset: Int, toIdx: Int): Array[Double] = {
+    val n = math.min(toIdx, values.size - 1) - offset + 1
+    if (n <= 0) {
+      new Array[Double](0)
+    } else values match {
+      case x: DoubleBufferList => x.sliceToArray(offset, n)
+      case _ =>
+        val xs = new Array[Double](n)
+        var i = 0
+        while (i < n) {
+          xs(i) = values(offset + i)
+          i += 1
+        }
+        xs
+    }
+  }
+
+  def sum(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Double = {
+    if (toIdx >= values.size) Null.Double else window(values, fromIdx, toIdx) {(xs, offset) => sum(xs, fromIdx - offset, toIdx - offset)}
+  }
   def sum(values: Array[Double], fromIdx: Int, toIdx: Int): Double = {
     if (fromIdx < 0 || toIdx >= values.size) {
       return Null.Double
@@ -63,7 +125,9 @@ object StatisticFunction {
     sum
   }
 
-  def isum(idx: Int, values: ArrayList[Double], period: Int, prev: Double): Double = isum(idx, values.toArray, period, prev)
+  def isum(idx: Int, values: ArrayList[Double], period: Int, prev: Double): Double = {
+    if (idx >= values.size) Null.Double else window(values, lookback(idx, period) - 1, idx) {(xs, offset) => isum(idx - offset, xs, period, prev)}
+  }
   def isum(idx: Int, values: Array[Double], period: Int, prev: Double): Double = {
     val lookbackIdx = lookback(idx, period)
 
@@ -86,7 +150,9 @@ object StatisticFunction {
     }
   }
 
-  def ma(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Double = ma(values.toArray, fromIdx, toIdx)
+  def ma(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Double = {
+    if (toIdx >= values.size) Null.Double else window(values, fromIdx, toIdx) {(xs, offset) => ma(xs, fromIdx - offset, toIdx - offset)}
+  }
   def ma(values: Array[Double], fromIdx: Int, toIdx: Int): Double = {
     if (fromIdx < 0 || toIdx >= values.size) {
       return Null.Double
@@ -99,7 +165,9 @@ object StatisticFunction {
   /**
    * ma(t + 1) = ma(t) + ( x(t) / N - x(t - n) / N )
    */
-  def ima(idx: Int, values: ArrayList[Double], period: Int, prev: Double): Double = ima(idx, values.toArray, period, prev)
+  def ima(idx: Int, values: ArrayList[Double], period: Int, prev: Double): Double = {
+    if (idx >= values.size) Null.Double else window(values, lookback(idx, period) - 1, idx) {(xs, offset) => ima(idx - offset, xs, period, prev)}
+  }
   def ima(idx: Int, values: Array[Double], period: Int, prev: Double): Double = {
     val lookbackIdx = lookback(idx, period)
 
@@ -122,7 +190,9 @@ object StatisticFunction {
     }
   }
 
-  def ema(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Double = ema(values.toArray, fromIdx, toIdx)
+  def ema(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Double = {
+    if (toIdx >= values.size) Null.Double else window(values, fromIdx, toIdx) {(xs, offset) => ema(xs, fromIdx - offset, toIdx - offset)}
+  }
   def ema(values: Array[Double], fromIdx: Int, toIdx: Int): Double = {
     if (fromIdx < 0 || toIdx >= values.size) {
       return Null.Double
@@ -144,8 +214,10 @@ object StatisticFunction {
    *            = (1 - 1/N) * ema(t) + (1/N) * x(t)
    *            = (1 - a) * ema(t) + a * x(t)  // let a = 1/N
    */
-  def iema(idx: Int, values: Array[Double], period: Int, prev: Double): Double = iema(idx, values.toArray, period, prev)
   def iema(idx: Int, values: ArrayList[Double], period: Int, prev: Double): Double = {
+    if (idx >= values.size) Null.Double else window(values, idx, idx) {(xs, offset) => iema(idx - offset, xs, period, prev)}
+  }
+  def iema(idx: Int, values: Array[Double], period: Int, prev: Double): Double = {
     var value = values(idx)
     if (Null.is(value)) value = 0.0
 
@@ -160,12 +232,16 @@ object StatisticFunction {
     //return ((period - 1.0f) / (period + 1.0f)) * prevEma + (2.0f / (period + 1.0f)) * value;
   }
 
-  def max(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Double = max(values.toArray, fromIdx, toIdx)
+  def max(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Double = {
+    window(values, fromIdx, toIdx) {(xs, offset) => max(xs, fromIdx - offset, math.min(toIdx, values.size - 1) - offset)}
+  }
   def max(values: Array[Double], fromIdx: Int, toIdx: Int): Double = {
     maxmin(values, fromIdx, toIdx)(MAX)
   }
 
-  def imax(idx: Int, values: ArrayList[Double], period: Int, prev: Double): Double = imax(idx, values.toArray, period, prev)
+  def imax(idx: Int, values: ArrayList[Double], period: Int, prev: Double): Double = {
+    if (idx >= values.size) Null.Double else window(values, lookback(idx, period) - 1, idx) {(xs, offset) => imax(idx - offset, xs, period, prev)}
+  }
   def imax(idx: Int, values: Array[Double], period: Int, prev: Double): Double = {
     val lookbackIdx = lookback(idx, period)
 
@@ -183,12 +259,16 @@ object StatisticFunction {
     }
   }
 
-  def min(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Double = min(values.toArray, fromIdx, toIdx)
+  def min(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Double = {
+    window(values, fromIdx, toIdx) {(xs, offset) => min(xs, fromIdx - offset, math.min(toIdx, values.size - 1) - offset)}
+  }
   def min(values: Array[Double], fromIdx: Int, toIdx: Int): Double = {
     maxmin(values, fromIdx, toIdx)(MIN)
   }
 
-  def imin(idx: Int, values: ArrayList[Double], period: Int, prev: Double): Double = imin(idx, values.toArray, period, prev)
+  def imin(idx: Int, values: ArrayList[Double], period: Int, prev: Double): Double = {
+    if (idx >= values.size) Null.Double else window(values, lookback(idx, period) - 1, idx) {(xs, offset) => imin(idx - offset, xs, period, prev)}
+  }
   def imin(idx: Int, values: Array[Double], period: Int, prev: Double): Double = {
     val lookbackIdx = lookback(idx, period)
 
@@ -206,7 +286,9 @@ object StatisticFunction {
     }
   }
 
-  def maxmin(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Array[Double] = maxmin(values.toArray, fromIdx, toIdx)
+  def maxmin(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Array[Double] = {
+    window(values, fromIdx, toIdx) {(xs, offset) => maxmin(xs, fromIdx - offset, math.min(toIdx, values.size - 1) - offset)}
+  }
   def maxmin(values: Array[Double], fromIdx: Int, toIdx: Int): Array[Double] = {
     if (fromIdx < 0) {
       return Array(Null.Double, Null.Double)
@@ -231,7 +313,9 @@ object StatisticFunction {
   /**
    * Standard Deviation
    */
-  def stdDev(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Double = stdDev(values.toArray, fromIdx, toIdx)
+  def stdDev(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Double = {
+    if (toIdx >= values.size) Null.Double else window(values, fromIdx, toIdx) {(xs, offset) => stdDev(xs, fromIdx - offset, toIdx - offset)}
+  }
   def stdDev(values: Array[Double], fromIdx: Int, toIdx: Int): Double = {
     if (fromIdx < 0 || toIdx >= values.size) {
       return Null.Double
@@ -254,7 +338,9 @@ object StatisticFunction {
   /**
    * Probability Mass Function
    */
-  def probMass(values: ArrayList[Double], fromIdx: Int, toIdx: Int, nIntervals: Int): Array[Array[Double]] = probMass(values.toArray, fromIdx, toIdx, nIntervals)
+  def probMass(values: ArrayList[Double], fromIdx: Int, toIdx: Int, nIntervals: Int): Array[Array[Double]] = {
+    window(values, fromIdx, toIdx) {(xs, offset) => probMass(xs, fromIdx - offset, math.min(toIdx, values.size - 1) - offset, nIntervals)}
+  }
   def probMass(values: Array[Double], fromIdx: Int, toIdx: Int, nIntervals: Int): Array[Array[Double]] = {
     probMass(values, null.asInstanceOf[Array[Double]], fromIdx, toIdx, nIntervals)
   }
@@ -264,7 +350,10 @@ object StatisticFunction {
    */
   def probMass(values: ArrayList[Double], weights: ArrayList[Double],
                fromIdx: Int, toIdx: Int, nIntervals: Int
-  ): Array[Array[Double]] = probMass(values.toArray, weights.toArray, fromIdx, toIdx, nIntervals)
+  ): Array[Array[Double]] = {
+    val lastIdx = math.min(toIdx, values.size - 1)
+    windows(values, weights, fromIdx, lastIdx) {(xs, ws, offset) => probMass(xs, ws, fromIdx - offset, lastIdx - offset, nIntervals)}
+  }
   def probMass(values: Array[Double], weights: Array[Double],
                fromIdx: Int, toIdx: Int, nIntervals: Int
   ): Array[Array[Double]] = {
@@ -286,7 +375,9 @@ object StatisticFunction {
    */
   def probMass(values: ArrayList[Double],
                fromIdx: Int, toIdx: Int, interval: Double
-  ): Array[Array[Double]] = probMass(values.toArray, fromIdx, toIdx, interval)
+  ): Array[Array[Double]] = {
+    window(values, fromIdx, toIdx) {(xs, offset) => probMass(xs, fromIdx - offset, math.min(toIdx, values.size - 1) - offset, interval)}
+  }
   def probMass(values: Array[Double],
                fromIdx: Int, toIdx: Int, interval: Double
   ): Array[Array[Double]] = {
@@ -299,7 +390,10 @@ object StatisticFunction {
    */
   def probMass(values: ArrayList[Double], weights: ArrayList[Double],
                fromIdx: Int, toIdx: Int, interval: Double
-  ): Array[Array[Double]] = probMass(values.toArray, weights.toArray, fromIdx, toIdx, interval)
+  ): Array[Array[Double]] = {
+    val lastIdx = math.min(toIdx, values.size - 1)
+    windows(values, weights, fromIdx, lastIdx) {(xs, ws, offset) => probMass(xs, ws, fromIdx - offset, lastIdx - offset, interval)}
+  }
   def probMass(values: Array[Double], weights: Array[Double],
                fromIdx: Int, toIdx: Int, interval: Double
   ): Array[Array[Double]] = {
@@ -322,7 +416,10 @@ object StatisticFunction {
    */
   private def probMass(values: ArrayList[Double], weights: ArrayList[Double],
                        fromIdx: Int, toIdx: Int, max: Double, min: Double, nIntervals: Int
-  ): Array[Array[Double]] = probMass(values.toArray, weights.toArray, fromIdx, toIdx, max, min, nIntervals)
+  ): Array[Array[Double]] = {
+    val lastIdx = math.min(toIdx, values.size - 1)
+    windows(values, weights, fromIdx, lastIdx) {(xs, ws, offset) => probMass(xs, ws, fromIdx - offset, lastIdx - offset, max, min, nIntervals)}
+  }
   private def probMass(values: Array[Double], weights: Array[Double],
                        fromIdx: Int, toIdx: Int, max: Double, min: Double, nIntervals: Int
   ): Array[Array[Double]] = {
@@ -368,7 +465,10 @@ object StatisticFunction {
    */
   def probMassWithTimeInfo(values: ArrayList[Double], weights: ArrayList[Double],
                            fromIdx: Int, toIdx: Int, interval: Double
-  ): Array[Array[Double]] = probMassWithTimeInfo(values.toArray, weights.toArray, fromIdx, toIdx, interval)
+  ): Array[Array[Double]] = {
+    val lastIdx = math.min(toIdx, values.size - 1)
+    windows(values, weights, fromIdx, lastIdx) {(xs, ws, offset) => probMassWithTimeInfo(xs, ws, fromIdx - offset, lastIdx - offset, interval)}
+  }
   def probMassWithTimeInfo(values: Array[Double], weights: Array[Double],
                            fromIdx: Int, toIdx: Int, interval: Double
   ): Array[Array[Double]] = {
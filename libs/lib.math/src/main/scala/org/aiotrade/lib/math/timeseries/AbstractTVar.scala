@@ -51,10 +51,8 @@ abstract class AbstractTVar[V: Manifest](var name: String, var plot: Plot) exten
       val frIdx = timestamps.indexOfNearestOccurredTimeBehind(fromTime)
       val toIdx = timestamps.indexOfNearestOccurredTimeBefore(toTime)
       val len = toIdx - frIdx + 1
-      val values1 = new Array[V](len)
 
-      values.copyToArray(values1, frIdx, len)
-      values1
+      values.sliceToArray(frIdx, len)
 
     } finally {
       timestamps.readLock.unlock
@@ -68,12 +66,8 @@ abstract class AbstractTVar[V: Manifest](var name: String, var plot: Plot) exten
       val frIdx = timestamps.indexOfNearestOccurredTimeBehind(fromTime)
       val toIdx = timestamps.indexOfNearestOccurredTimeBefore(toTime)
       val len = toIdx - frIdx + 1
-      val times1 = new Array[Long](len)
-      val values1 = new Array[V](len)
 
-      timestamps.copyToArray(times1, frIdx, len)
-      values.copyToArray(values1, frIdx, len)
-      (times1, values1)
+      (timestamps.sliceToArray(frIdx, len), values.sliceToArray(frIdx, len))
       
     } finally {
       timestamps.readLock.unlock
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.math.timeseries
+
+import java.io.BufferedOutputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.nio.DoubleBuffer
+import java.nio.LongBuffer
+import java.nio.channels.FileChannel
+import org.aiotrade.lib.collection.ArrayList
+
+/**
+ * A file of times and double columns of a ser, which is mapped to get the
+ * columns as they are, without reading and deserializing them, @see
+ * DefaultTSer#mapColumns.
+ *
+ * Layout, big endian:
+ *   magic: Int, version: Int, rows: Int, number of columns: Int, offset of data: Int,
+ *   names of columns: UTF each, padded with 0 to offset of data,
+ *   times: rows of Long,
+ *   columns: rows of Double each, one after another
+ *
+ * @author Caoyuan Deng
+ */
+object ColumnFile {
+  val MAGIC = 0x41494F43 // "AIOC"
+  val VERSION = 1
+
+  /**
+   * Columns of a mapped file, the buffers are mapped read only, so that files
+   * that may not be written can be mapped too, @see DoubleBufferList for how
+   * a mapped column is written to.
+   */
+  final case class Mapped(times: LongBuffer, names: Array[String], columns: Array[DoubleBuffer]) {
+    def rows = times.capacity
+  }
+
+  /**
+   * @param rows number of rows to write from times and each of columns
+   */
+  @throws(classOf[IOException])
+  def write(file: File, times: ArrayList[Long], names: Seq[String], columns: Seq[ArrayList[Double]], rows: Int) {
+    require(names.length == columns.length, "names " + names.length + " vs columns " + columns.length)
+
+    val header = new ByteArrayOutputStream
+    val hout = new DataOutputStream(header)
+    names foreach {x => hout.writeUTF(x)}
+    hout.flush
+    val namesLength = header.size
+    val dataOffset = align(20 + namesLength)
+
+    val out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024))
+    try {
+      out.writeInt(MAGIC)
+      out.writeInt(VERSION)
+      out.writeInt(rows)
+      out.writeInt(columns.length)
+      out.writeInt(dataOffset)
+      header.writeTo(out)
+      var i = 20 + namesLength
+      while (i < dataOffset) {
+        out.writeByte(0)
+        i += 1
+      }
+
+      i = 0
+      while (i < rows) {
+        out.writeLong(times(i))
+        i += 1
+      }
+      columns foreach {column =>
+        var i = 0
+        while (i < rows) {
+          out.writeDouble(column(i))
+          i += 1
+        }
+      }
+    } finally {
+      out.close
+    }
+  }
+
+  @throws(classOf[IOException])
+  def map(file: File): Mapped = {
+    val in = new DataInputStream(new FileInputStream(file))
+    val (rows, names, dataOffset) = try {
+      if (in.readInt != MAGIC) throw new IOException("Not a column file: " + file)
+      val version = in.readInt
+      if (version != VERSION) throw new IOException("Unsupported version " + version + " of column file: " + file)
+      val rows = in.readInt
+      val nColumns = in.readInt
+      val dataOffset = in.readInt
+      val names = new Array[String](nColumns)
+      var i = 0
+      while (i < nColumns) {
+        names(i) = in.readUTF
+        i += 1
+      }
+      (rows, names, dataOffset)
+    } finally {
+      in.close
+    }
+
+    val length = dataOffset + rows * 8L * (1 + names.length)
+    if (file.length < length) throw new IOException("Column file is truncated: " + file)
+
+    val fin = new FileInputStream(file)
+    try {
+      val buf = fin.getChannel.map(FileChannel.MapMode.READ_ONLY, 0, length)
+
+      buf.position(dataOffset)
+      buf.limit(dataOffset + rows * 8)
+      val times = buf.slice.asLongBuffer
+
+      val columns = new Array[DoubleBuffer](names.length)
+      var i = 0
+      while (i < names.length) {
+        val from = dataOffset + rows * 8 * (1 + i)
+        buf.limit(from + rows * 8)
+        buf.position(from)
+        columns(i) = buf.slice.asDoubleBuffer
+        i += 1
+      }
+
+      Mapped(times, names, columns)
+    } finally {
+      // the mapping stays valid after the channel is closed
+      fin.close
+    }
+  }
+
+  private def align(n: Int) = (n + 7) & ~7
+}
@@ -42,7 +42,7 @@ class DefaultBaseTSer(_serProvider: SerProvider, $freq: => TFreq) extends Defaul
 
   private val log = Logger.getLogger(this.getClass.getName)
   
-  private var _isOnCalendarMode = false
+  @volatile private var _isOnCalendarMode = false
     
   attach(TStampsFactory.createInstance(INIT_CAPACITY))
 
@@ -87,6 +87,7 @@ class DefaultBaseTSer(_serProvider: SerProvider, $freq: => TFreq) extends Defaul
       }
       
     } finally {
+      publishChanges
       writeLock.unlock
     }
   }
@@ -107,6 +108,7 @@ class DefaultBaseTSer(_serProvider: SerProvider, $freq: => TFreq) extends Defaul
       }
 
     } finally {
+      publishChanges
       writeLock.unlock
     }
   }
@@ -125,6 +127,7 @@ class DefaultBaseTSer(_serProvider: SerProvider, $freq: => TFreq) extends Defaul
     if (time < lastOccurredTime) {
       val existIdx = timestamps.indexOfOccurredTime(time)
       if (existIdx >= 0) {
+        beginStructuralChange
         vars foreach {x => x.put(time, x.NullVal)}
         // as timestamps includes this time, we just always put in a none-null item
         holders.insert(existIdx, holder)
@@ -136,6 +139,7 @@ class DefaultBaseTSer(_serProvider: SerProvider, $freq: => TFreq) extends Defaul
         // (time at idx) > itemTime, insert this new item at the same idx, so the followed elems will be pushed behind
         try {
           timestamps.writeLock.lock
+          beginStructuralChange
 
           // should add timestamps first
           timestamps.insert(idx, time)
@@ -197,6 +201,7 @@ class DefaultBaseTSer(_serProvider: SerProvider, $freq: => TFreq) extends Defaul
   }
 
   private def clearUntilIdx(idx: Int){
+    beginStructuralChange
     timestamps.remove(0, idx)
     holders.remove(0, idx)
   }
@@ -212,6 +217,8 @@ class DefaultBaseTSer(_serProvider: SerProvider, $freq: => TFreq) extends Defaul
 
       var frTime = Long.MaxValue
       var toTime = Long.MinValue
+      // first idx of values that replace existing ones, they should be logged as updated
+      var updatedIdx = Int.MaxValue
 
       val lenth = values.length
       val shouldReverse = !isAscending(values)
@@ -220,6 +227,12 @@ class DefaultBaseTSer(_serProvider: SerProvider, $freq: => TFreq) extends Defaul
         val value = values(i)
         if (value != null) {
           val time = value.time
+          if (time <= timestamps.lastOccurredTime) {
+            val existIdx = timestamps.indexOfOccurredTime(time)
+            if (existIdx >= 0 && existIdx < holders.size) {
+              updatedIdx = math.min(updatedIdx, existIdx)
+            }
+          }
           createOrClear(time)
           assignValue(value)
 
@@ -238,6 +251,15 @@ class DefaultBaseTSer(_serProvider: SerProvider, $freq: => TFreq) extends Defaul
           i += 1
       }
 
+      if (updatedIdx != Int.MaxValue) {
+        try {
+          timestamps.writeLock.lock
+          timestamps.log.logUpdate(updatedIdx)
+        } finally {
+          timestamps.writeLock.unlock
+        }
+      }
+
       publish(TSerEvent.Updated(this, shortName, frTime, toTime))
 
     } finally {
@@ -266,12 +288,8 @@ class DefaultBaseTSer(_serProvider: SerProvider, $freq: => TFreq) extends Defaul
   override def size: Int = activeTimestamps.sizeOf(freq)
 
   private def activeTimestamps: TStamps = {
-    try {
-      readLock.lock
-
+    snapshotRead {
       if (_isOnCalendarMode) timestamps.asOnCalendar else timestamps
-    } finally {
-      readLock.unlock
     }
   }
 }
@@ -31,6 +31,10 @@
 package org.aiotrade.lib.math.timeseries
 
 import java.awt.Color
+import java.io.File
+import java.io.IOException
+import java.nio.DoubleBuffer
+import java.util.concurrent.atomic.AtomicLong
 import java.util.logging.Level
 import java.util.logging.Logger
 import org.aiotrade.lib.collection.ArrayList
@@ -92,6 +96,27 @@ class DefaultTSer($freq: => TFreq) extends AbstractTSer($freq) {
   private var tsLogCheckedCursor = 0
   private var tsLogCheckedSize = 0
 
+  /**
+   * Snapshot reads: readers don't take readLock, but read against size
+   * published by writers and validate their read by epoch, which is odd while
+   * a structural change (insert or remove of holders and vars values, as in
+   * validate, clear) is going on, and increased again after it. Appending
+   * doesn't change epoch, elements before published size keep their indices.
+   * A read that overlaps a structural change, or that sees arrays being
+   * replaced while growing, is done again under readLock.
+   *
+   * Values updated in place, such as the last bar by ticker, may be read
+   * before or after the update of each var.
+   *
+   * @Note there are no load fences or StampedLock on Java 6, so epoch is an
+   * AtomicLong: the writer opens a change by incrementAndGet, which later
+   * writes can't be reordered before, and a reader validates by
+   * compareAndSet(epoch, epoch), which its reads can't be reordered after.
+   */
+  @volatile var isSnapshotRead = true
+  private val _epoch = new AtomicLong
+  @volatile private var _publishedSize = 0
+
   /**
    * Long description
    */
@@ -120,41 +145,97 @@ class DefaultTSer($freq: => TFreq) extends AbstractTSer($freq) {
    * @todo, holder.size or timestamps.size ?
    */
   def size: Int = {
+    if (isSnapshotRead && !writeLock.isHeldByCurrentThread) {
+      _publishedSize
+    } else {
+      try {
+        readLock.lock
+
+        holders.size
+      } finally {
+        readLock.unlock
+      }
+    }
+  }
+
+  /**
+   * Should be called under writeLock before inserting or removing holders and
+   * values of vars.
+   */
+  protected def beginStructuralChange {
+    if ((_epoch.get & 1) == 0) _epoch.incrementAndGet
+  }
+
+  /**
+   * Should be called under writeLock after holders and vars were changed,
+   * before unlocking.
+   */
+  protected def publishChanges {
+    _publishedSize = holders.size
+    if ((_epoch.get & 1) == 1) _epoch.incrementAndGet
+  }
+
+  /**
+   * Count of structural changes, i.e. holders and values inserted or removed,
+   * which is odd while one is in progress.
+   */
+  def epoch: Long = _epoch.get
+
+  /** size of holders as seen by snapshot reads, or the current one by writer */
+  private def stableSize: Int = {
+    if (writeLock.isHeldByCurrentThread) holders.size else _publishedSize
+  }
+
+  /**
+   * Does read without lock in snapshot read mode, and again under readLock if
+   * a structural change happened meanwhile.
+   * @see isSnapshotRead
+   */
+  protected def snapshotRead[T](read: => T): T = {
+    if (isSnapshotRead && !writeLock.isHeldByCurrentThread) {
+      val epoch = _epoch.get
+      if ((epoch & 1) == 0) {
+        try {
+          val result = read
+          if (_epoch.compareAndSet(epoch, epoch)) {
+            return result
+          }
+        } catch {
+          case _: IndexOutOfBoundsException => // arrays were replaced under us
+        }
+      }
+    }
+
     try {
       readLock.lock
-      
-      holders.size
+      read
     } finally {
       readLock.unlock
     }
   }
 
   def exists(time: Long): Boolean = {
-    try {
-      readLock.lock
-      //timestamps.readLock.lock
-
-      /**
-       * @NOTE:
-       * Should only get index from timestamps which has the proper
-       * position <-> time <-> item mapping
-       */
+    /**
+     * @NOTE:
+     * Should only get index from timestamps which has the proper
+     * position <-> time <-> item mapping
+     */
+    val existed = snapshotRead {
       val idx = timestamps.indexOfOccurredTime(time)
-      if (idx >= 0 && idx < holders.size) {
-        true
-      } else {
-        this match {
-          case x: SpotIndicator =>
+      idx >= 0 && idx < stableSize
+    }
+    existed || (this match {
+        case x: SpotIndicator =>
+          try {
+            readLock.lock
             /** re-get one by computing it */
             x.computeSpot(time)
             true
-          case _ => false
-        }
-      }
-    } finally {
-      readLock.unlock
-      //timestamps.readLock.unlock
-    }
+          } finally {
+            readLock.unlock
+          }
+        case _ => false
+      })
   }
 
 
@@ -214,6 +295,7 @@ class DefaultTSer($freq: => TFreq) extends AbstractTSer($freq) {
                 tlogCurrSize - tsLogCheckedSize
               } else tlogCurrSize
 
+              beginStructuralChange
               val newHolders = new Array[Holder](insertSize)
               var i = 0
               while (i < insertSize) {
@@ -259,6 +341,7 @@ class DefaultTSer($freq: => TFreq) extends AbstractTSer($freq) {
     } catch {
       case ex => log.log(Level.WARNING, "exception", ex)
     } finally {
+      publishChanges
       writeLock.unlock
       //timestamps.readLock.unlock
     }
@@ -275,6 +358,7 @@ class DefaultTSer($freq: => TFreq) extends AbstractTSer($freq) {
         return
       }
 
+      beginStructuralChange
       vars foreach {_.clear(fromIdx)}
 
 //      for (i <- timestamps.size - 1 to fromIdx) {
@@ -284,6 +368,7 @@ class DefaultTSer($freq: => TFreq) extends AbstractTSer($freq) {
       val count = holders.size - fromIdx
       holders.remove(fromIdx, count)
     } finally {
+      publishChanges
       writeLock.unlock
       //timestamps.readLock.unlock
     }
@@ -291,109 +376,237 @@ class DefaultTSer($freq: => TFreq) extends AbstractTSer($freq) {
     publish(TSerEvent.Cleared(this, shortName, fromTime, Long.MaxValue))
   }
 
-  def indexOfOccurredTime(time: Long): Int = {
+  /**
+   * Columnar storage
+   * -----------------------------------------------------------------------
+   * Values of Double vars, which are the columns, can be kept off heap in
+   * direct buffers, or in buffers mapped from a column file that has been
+   * written by writeColumns, @see DoubleBufferList and ColumnFile. The columns
+   * are identified by the order that the vars were created in, and names.
+   * Timestamps, holders and values of other vars are always kept on heap.
+   *
+   * Long, Float and Boolean vars are written to a column file too, as doubles
+   * after the Double ones, and are read back onto heap when mapped. Long values
+   * of magnitude up to 2^53, such as times, and Null.Long convert exactly.
+   */
+
+  private def columnVars: Seq[DoubleTVar] = vars collect {case x: DoubleTVar => x}
+
+  private def heapColumnVars: Seq[InnerTVar[_]] = vars collect {
+    case x: LongTVar => x
+    case x: FloatTVar => x
+    case x: InnerTVar[_] if !x.isInstanceOf[DoubleTVar] && x.values.underlyingArray.isInstanceOf[Array[Boolean]] => x
+  }
+
+  def columnNames: Seq[String] = (columnVars ++ heapColumnVars) map (_.name)
+
+  /**
+   * Moves values of Double vars into direct buffers off heap, where values
+   * added later go too.
+   */
+  def moveColumnsOffHeap {
+    try {
+      writeLock.lock
+      beginStructuralChange
+
+      columnVars foreach {x =>
+        x.values match {
+          case _: DoubleBufferList =>
+          case values => x.useColumn(DoubleBufferList.direct(values))
+        }
+      }
+    } finally {
+      publishChanges
+      writeLock.unlock
+    }
+  }
+
+  @throws(classOf[IOException])
+  def writeColumns(file: File) {
     try {
       readLock.lock
-      //timestamps.readLock.lock
+      timestamps.readLock.lock
 
-      timestamps.indexOfOccurredTime(time)
+      val rows = holders.size
+      val columns = (columnVars map (_.values)) ++ (heapColumnVars map (heapColumnOf(_, rows)))
+      ColumnFile.write(file, timestamps, columnNames, columns, rows)
     } finally {
+      timestamps.readLock.unlock
       readLock.unlock
-      //timestamps.readLock.unlock
     }
   }
 
-  def existsFromHead(time: Long): Boolean = {
+  /**
+   * Fills this empty ser with rows of a column file, of which the Double
+   * columns are used as mapped instead of being read in, the Long, Float and
+   * Boolean ones are read in, other vars get null values.
+   *
+   * @return false if this ser is not empty or the columns of file are not
+   *         the ones of this ser.
+   */
+  @throws(classOf[IOException])
+  def mapColumns(file: File): Boolean = {
+    val mapped = ColumnFile.map(file)
+    val xs = columnVars
+    val ys = heapColumnVars
+    if (mapped.names.toList != columnNames.toList) {
+      log.warning(shortName + ": columns of " + file + " " + mapped.names.mkString(",") +
+                  " are not " + columnNames.mkString(","))
+      return false
+    }
+
     try {
-      readLock.lock
+      writeLock.lock
+      timestamps.writeLock.lock
+
+      if (!holders.isEmpty || !timestamps.isEmpty) {
+        log.warning(shortName + ": can only map columns of " + file + " into an empty ser")
+        return false
+      }
+
+      beginStructuralChange
+      val rows = mapped.rows
+      var i = 0
+      while (i < rows) {
+        val time = mapped.times.get(i)
+        timestamps += time
+        holders += createItem(time)
+        i += 1
+      }
+      timestamps.log.logAppend(rows)
+
+      var j = 0
+      while (j < xs.length) {
+        xs(j).useColumn(DoubleBufferList.wrap(mapped.columns(j), rows))
+        j += 1
+      }
+      j = 0
+      while (j < ys.length) {
+        readHeapColumn(ys(j), mapped.columns(xs.length + j), rows)
+        j += 1
+      }
+      vars foreach {
+        case _: DoubleTVar =>
+        case x if ys exists (_ eq x) =>
+        case x =>
+          var i = 0
+          while (i < rows) {
+            x.put(timestamps(i), x.NullVal)
+            i += 1
+          }
+      }
+      true
+    } finally {
+      publishChanges
+      timestamps.writeLock.unlock
+      writeLock.unlock
+    }
+  }
+
+  private def heapColumnOf(x: InnerTVar[_], rows: Int): ArrayList[Double] = {
+    val column = new ArrayList[Double](rows)
+    var i = 0
+    x.values.underlyingArray match {
+      case xs: Array[Long]    => while (i < rows) {column += xs(i); i += 1}
+      case xs: Array[Float]   => while (i < rows) {column += xs(i); i += 1}
+      case xs: Array[Boolean] => while (i < rows) {column += (if (xs(i)) 1.0 else 0.0); i += 1}
+    }
+    column
+  }
+
+  private def readHeapColumn(x: InnerTVar[_], column: DoubleBuffer, rows: Int) {
+    var i = 0
+    x match {
+      case _: LongTVar =>
+        val values = x.values.asInstanceOf[ArrayList[Long]]
+        while (i < rows) {values += column.get(i).toLong; i += 1}
+      case _: FloatTVar =>
+        val values = x.values.asInstanceOf[ArrayList[Float]]
+        while (i < rows) {values += column.get(i).toFloat; i += 1}
+      case _ =>
+        val values = x.values.asInstanceOf[ArrayList[Boolean]]
+        while (i < rows) {values += (column.get(i) != 0); i += 1}
+    }
+  }
+
+  def indexOfOccurredTime(time: Long): Int = {
+    snapshotRead {
+      timestamps.indexOfOccurredTime(time)
+    }
+  }
+
+  def existsFromHead(time: Long): Boolean = {
+    val existed = snapshotRead {
       val idx = indexOfOccurredTimeFromHead(time)
-      if (idx >= 0 && idx < holders.size) {
-        true
-      } else {
-        this match {
-          case x: SpotIndicator =>
+      idx >= 0 && idx < stableSize
+    }
+    existed || (this match {
+        case x: SpotIndicator =>
+          try {
+            readLock.lock
             /** re-get one by computing it */
             x.computeSpot(time)
             true
-          case _ => false
-        }
-      }
-    } finally {
-      readLock.unlock
-      //timestamps.readLock.unlock
-    }
+          } finally {
+            readLock.unlock
+          }
+        case _ => false
+      })
   }
 
   def indexOfOccurredTimeFromHead(time: Long): Int = {
-    try {
-      readLock.lock
-      var i = -1
-      while({i += 1; i < timestamps.size}){
-        if (timestamps(i) == time) return i
-        else if (timestamps(i) > time) return -1
+    snapshotRead {
+      val n = timestamps.size
+      var idx = -1
+      var i = 0
+      while (idx == -1 && i < n && timestamps(i) <= time) {
+        if (timestamps(i) == time) idx = i
+        i += 1
       }
-      return -1
-    } finally {
-      readLock.unlock
+      idx
     }
   }
 
   def existsFromTail(time: Long): Boolean = {
-    try {
-      readLock.lock
+    val existed = snapshotRead {
       val idx = indexOfOccurredTimeFromTail(time)
-      if (idx >= 0 && idx < holders.size) {
-        true
-      } else {
-        this match {
-          case x: SpotIndicator =>
+      idx >= 0 && idx < stableSize
+    }
+    existed || (this match {
+        case x: SpotIndicator =>
+          try {
+            readLock.lock
             /** re-get one by computing it */
             x.computeSpot(time)
             true
-          case _ => false
-        }
-      }
-    } finally {
-      readLock.unlock
-      //timestamps.readLock.unlock
-    }
+          } finally {
+            readLock.unlock
+          }
+        case _ => false
+      })
   }
 
   def indexOfOccurredTimeFromTail(time: Long): Int = {
-    try {
-      readLock.lock
-      var i = timestamps.size
-      while({i -= 1; i >= 0}){
-        if (timestamps(i) == time) return i
-        else if (timestamps(i) < time) return -1
+    snapshotRead {
+      var idx = -1
+      var i = timestamps.size - 1
+      while (idx == -1 && i >= 0 && timestamps(i) >= time) {
+        if (timestamps(i) == time) idx = i
+        i -= 1
       }
-      return -1
-    } finally {
-      readLock.unlock
+      idx
     }
   }
 
   def firstOccurredTime: Long = {
-    try {
-      readLock.lock
-      //timestamps.readLock.lock
-
+    snapshotRead {
       timestamps.firstOccurredTime
-    } finally {
-      readLock.unlock
-      //timestamps.readLock.unlock
-    }    
+    }
   }
   
   def lastOccurredTime: Long = {
-    try {
-      readLock.lock
-      //timestamps.readLock.lock
-
+    snapshotRead {
       timestamps.lastOccurredTime
-    } finally {
-      readLock.unlock
-      //timestamps.readLock.unlock
     }
   }
 
@@ -438,9 +651,24 @@ class DefaultTSer($freq: => TFreq) extends AbstractTSer($freq) {
   override def hashCode: Int = _hashCode
 
   object TVar {
-    def apply[V: Manifest](): TVar[V] = new InnerTVar[V]("", Plot.None)
-    def apply[V: Manifest](name: String): TVar[V] = new InnerTVar[V](name, Plot.None)
-    def apply[V: Manifest](name: String, plot: Plot): TVar[V] = new InnerTVar[V](name, plot)
+    def apply[V: Manifest](): TVar[V] = apply[V]("", Plot.None)
+    def apply[V: Manifest](name: String): TVar[V] = apply[V](name, Plot.None)
+    /**
+     * Double, Long and Float vars are created as DoubleTVar, LongTVar and FloatTVar
+     */
+    def apply[V: Manifest](name: String, plot: Plot): TVar[V] = {
+      val m = manifest[V]
+      val v = if (m == Manifest.Double) {
+        new DoubleTVar(name, plot)
+      } else if (m == Manifest.Long) {
+        new LongTVar(name, plot)
+      } else if (m == Manifest.Float) {
+        new FloatTVar(name, plot)
+      } else {
+        new InnerTVar[V](name, plot)
+      }
+      v.asInstanceOf[TVar[V]]
+    }
   }
   
   protected class InnerTVar[V: Manifest](name: String, plot: Plot
@@ -478,7 +706,7 @@ class DefaultTSer($freq: => TFreq) extends AbstractTSer($freq) {
       }
     }
 
-    final def apply(time: Long): V = {
+    def apply(time: Long): V = {
       val idx = timestamps.indexOfOccurredTime(time)
       values(idx)
     }
@@ -488,13 +716,13 @@ class DefaultTSer($freq: => TFreq) extends AbstractTSer($freq) {
       values(idx)
     }
 
-    final def update(time: Long, value: V) {
+    def update(time: Long, value: V) {
       val idx = timestamps.indexOfOccurredTime(time)
       values(idx) = value
     }
 
     // @Note, see https://lampsvn.epfl.ch/trac/scala/ticket/2599
-    final override def apply(idx: Int): V = {
+    override def apply(idx: Int): V = {
       super.apply(idx)
     }
 
@@ -505,6 +733,125 @@ class DefaultTSer($freq: => TFreq) extends AbstractTSer($freq) {
  
   }
 
+  /**
+   * Primitive vars: values of ArrayList[Double/Long/Float] are kept in a primitive
+   * array, which these vars read and write directly instead of through the
+   * generic ArrayList methods, so apply, update, double, float and
+   * toDoubleArray don't box, when called on them or by double/float of TVar.
+   * Calls through a TVar[Double] reference still box at the call site.
+   */
+  protected class DoubleTVar(name: String, plot: Plot) extends InnerTVar[Double](name, plot) {
+
+    /** values when they are kept in a column off heap or mapped, @see useColumn */
+    private var column: DoubleBufferList = _
+
+    /**
+     * Keeps values in column instead, should be called under writeLock as a
+     * structural change.
+     */
+    def useColumn(column: DoubleBufferList) {
+      this.column = column
+      values = column
+    }
+
+    override def apply(time: Long): Double = apply(timestamps.indexOfOccurredTime(time))
+
+    override def update(time: Long, value: Double) {
+      update(timestamps.indexOfOccurredTime(time), value)
+    }
+
+    override def apply(idx: Int): Double = {
+      if (idx >= 0 && idx < values.size) {
+        if (column eq null) values.underlyingArray(idx) else column(idx)
+      } else Null.Double
+    }
+
+    override def update(idx: Int, value: Double) {
+      if (idx >= 0 && idx < values.size) {
+        if (column eq null) values.underlyingArray(idx) = value else column(idx) = value
+      } else super.update(idx, value)
+    }
+
+    override def double(time: Long): Double = apply(time)
+    override def double(idx: Int): Double = apply(idx)
+    override def float(time: Long): Float = apply(time).toFloat
+    override def float(idx: Int): Float = apply(idx).toFloat
+
+    override def toDoubleArray: Array[Double] = values.toArray
+  }
+
+  protected class LongTVar(name: String, plot: Plot) extends InnerTVar[Long](name, plot) {
+
+    override def apply(time: Long): Long = apply(timestamps.indexOfOccurredTime(time))
+
+    override def update(time: Long, value: Long) {
+      update(timestamps.indexOfOccurredTime(time), value)
+    }
+
+    override def apply(idx: Int): Long = {
+      if (idx >= 0 && idx < values.size) values.underlyingArray(idx) else Null.Long
+    }
+
+    override def update(idx: Int, value: Long) {
+      if (idx >= 0 && idx < values.size) {
+        values.underlyingArray(idx) = value
+      } else super.update(idx, value)
+    }
+
+    override def double(time: Long): Double = apply(time)
+    override def double(idx: Int): Double = apply(idx)
+    override def float(time: Long): Float = apply(time)
+    override def float(idx: Int): Float = apply(idx)
+
+    override def toDoubleArray: Array[Double] = {
+      val n = values.size
+      val longs = values.underlyingArray
+      val result = new Array[Double](n)
+      var i = 0
+      while (i < n) {
+        result(i) = longs(i)
+        i += 1
+      }
+      result
+    }
+  }
+
+  protected class FloatTVar(name: String, plot: Plot) extends InnerTVar[Float](name, plot) {
+
+    override def apply(time: Long): Float = apply(timestamps.indexOfOccurredTime(time))
+
+    override def update(time: Long, value: Float) {
+      update(timestamps.indexOfOccurredTime(time), value)
+    }
+
+    override def apply(idx: Int): Float = {
+      if (idx >= 0 && idx < values.size) values.underlyingArray(idx) else Null.Float
+    }
+
+    override def update(idx: Int, value: Float) {
+      if (idx >= 0 && idx < values.size) {
+        values.underlyingArray(idx) = value
+      } else super.update(idx, value)
+    }
+
+    override def double(time: Long): Double = apply(time)
+    override def double(idx: Int): Double = apply(idx)
+    override def float(time: Long): Float = apply(time)
+    override def float(idx: Int): Float = apply(idx)
+
+    override def toDoubleArray: Array[Double] = {
+      val n = values.size
+      val floats = values.underlyingArray
+      val result = new Array[Double](n)
+      var i = 0
+      while (i < n) {
+        result(i) = floats(i)
+        i += 1
+      }
+      result
+    }
+  }
+
   protected class SparseTVar[V: Manifest](name: String, plot: Plot
   ) extends AbstractInnerTVar[V](name, plot) {
 
@@ -595,6 +942,29 @@ class DefaultTSer($freq: => TFreq) extends AbstractTSer($freq) {
       }
     }
 
+    /**
+     * Reads range in snapshot, limited to the published size of ser.
+     */
+    override def toArray(fromTime: Long, toTime: Long): Array[V] = {
+      snapshotRead {
+        val (frIdx, len) = rangeOf(fromTime, toTime)
+        values.sliceToArray(frIdx, len)
+      }
+    }
+
+    override def toArrayWithTime(fromTime: Long, toTime: Long): (Array[Long], Array[V]) = {
+      snapshotRead {
+        val (frIdx, len) = rangeOf(fromTime, toTime)
+        (timestamps.sliceToArray(frIdx, len), values.sliceToArray(frIdx, len))
+      }
+    }
+
+    private def rangeOf(fromTime: Long, toTime: Long): (Int, Int) = {
+      val frIdx = math.max(timestamps.indexOfNearestOccurredTimeBehind(fromTime), 0)
+      val toIdx = math.min(timestamps.indexOfNearestOccurredTimeBefore(toTime), math.min(stableSize, values.size) - 1)
+      (frIdx, math.max(toIdx - frIdx + 1, 0))
+    }
+
     def getColor(idx: Int) = colors(idx)
     def setColor(idx: Int, color: Color) {
       colors(idx) = color
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.math.timeseries
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.DoubleBuffer
+import org.aiotrade.lib.collection.ArrayList
+
+/**
+ * A column of doubles kept in a DoubleBuffer instead of in an array on heap,
+ * which is a direct one off heap, or one mapped from a column file, @see
+ * ColumnFile. It's an ArrayList[Double] so as to be values of DoubleTVar, with
+ * all methods that access elements overridden to go to the buffer, the array
+ * of ArrayList is left empty.
+ *
+ * The first size elements of buffer are valid. When the buffer is full, a
+ * direct one of double capacity is allocated and elements are copied into it.
+ * A read only buffer, such as a mapped one, is copied into a direct one of same
+ * capacity on the first write, so a mapped column keeps the mapping until it's
+ * written to, and what's written never goes to the file.
+ *
+ * @Note underlyingArray is a copy of elements on heap here, made per call and
+ * not kept, so elements written into it don't go to the buffer. Computing reads
+ * the buffer directly, or copies only the window it needs, @see
+ * StatisticFunction#arrayOf.
+ *
+ * @author Caoyuan Deng
+ */
+class DoubleBufferList private (private var buf: DoubleBuffer, private var _size: Int) extends ArrayList[Double](0) {
+
+  def buffer: DoubleBuffer = buf
+  def capacity: Int = buf.capacity
+
+  override def length: Int = _size
+  override def size: Int = _size
+
+  override def apply(idx: Int): Double = {
+    if (idx >= _size) throw new IndexOutOfBoundsException(idx.toString)
+    buf.get(idx)
+  }
+
+  override def update(idx: Int, elem: Double) {
+    if (idx >= _size) throw new IndexOutOfBoundsException(idx.toString)
+    ensureCapacity(_size)
+    buf.put(idx, elem)
+  }
+
+  override def +(elem: Double): this.type = {
+    ensureCapacity(_size + 1)
+    buf.put(_size, elem)
+    _size += 1
+    this
+  }
+
+  override def ++(xs: TraversableOnce[Double]): this.type = {
+    xs foreach {x => this + x}
+    this
+  }
+
+  override def +:(elem: Double): this.type = {
+    insertAll(0, List(elem))
+    this
+  }
+
+  override def insertAll(n: Int, seq: Traversable[Double]) {
+    if (n < 0 || n > _size) throw new IndexOutOfBoundsException(n.toString)
+    val xs = seq.toArray
+    val len = xs.length
+    ensureCapacity(_size + len)
+    var i = _size - 1
+    while (i >= n) {
+      buf.put(i + len, buf.get(i))
+      i -= 1
+    }
+    i = 0
+    while (i < len) {
+      buf.put(n + i, xs(i))
+      i += 1
+    }
+    _size += len
+  }
+
+  override def remove(n: Int, count: Int) {
+    require(count >= 0, "removing negative number of elements")
+    if (n < 0 || n > _size - count) throw new IndexOutOfBoundsException(n.toString)
+    ensureCapacity(_size)
+    var i = n + count
+    while (i < _size) {
+      buf.put(i - count, buf.get(i))
+      i += 1
+    }
+    _size -= count
+  }
+
+  override def reduceToSize(sz: Int) {
+    require(sz <= _size)
+    _size = sz
+  }
+
+  override def sizeHint(len: Int) {
+    ensureCapacity(len)
+  }
+
+  override def foreach[U](f: Double => U) {
+    var i = 0
+    while (i < _size) {
+      f(buf.get(i))
+      i += 1
+    }
+  }
+
+  override def toArray: Array[Double] = sliceToArray(0, _size)
+
+  override def copyToArray[B >: Double](xs: Array[B], start: Int, len: Int) {
+    val len1 = len min (xs.length - start) min _size
+    var i = 0
+    while (i < len1) {
+      xs(start + i) = buf.get(i)
+      i += 1
+    }
+  }
+
+  override def sliceToArray(start: Int, len: Int): Array[Double] = {
+    val xs = new Array[Double](len)
+    val src = buf.duplicate
+    src.position(start)
+    src.get(xs, 0, len)
+    xs
+  }
+
+  override def sliceToArrayList(start: Int, len: Int): ArrayList[Double] = {
+    new ArrayList[Double](len) ++= sliceToArray(start, len)
+  }
+
+  override def underlyingArray: Array[Double] = toArray
+
+  /**
+   * Makes buf a writable one of at least n capacity
+   */
+  private def ensureCapacity(n: Int) {
+    if (n > buf.capacity || buf.isReadOnly) {
+      var newCapacity = if (n > buf.capacity) math.max(buf.capacity, 1) * 2 else math.max(buf.capacity, 1)
+      while (n > newCapacity) {
+        newCapacity *= 2
+      }
+      val newBuf = DoubleBufferList.allocateDirect(newCapacity)
+      val src = buf.duplicate
+      src.position(0)
+      src.limit(_size)
+      newBuf.put(src)
+      newBuf.clear
+      buf = newBuf
+    }
+  }
+}
+
+object DoubleBufferList {
+
+  def allocateDirect(capacity: Int): DoubleBuffer = {
+    ByteBuffer.allocateDirect(capacity * 8).order(ByteOrder.nativeOrder).asDoubleBuffer
+  }
+
+  /** an empty list in a direct buffer */
+  def direct(capacity: Int): DoubleBufferList = {
+    new DoubleBufferList(allocateDirect(math.max(capacity, 1)), 0)
+  }
+
+  /** a list of elements of values copied into a direct buffer */
+  def direct(values: ArrayList[Double]): DoubleBufferList = {
+    val n = values.size
+    val buf = allocateDirect(math.max(n, 1))
+    var i = 0
+    while (i < n) {
+      buf.put(i, values(i))
+      i += 1
+    }
+    new DoubleBufferList(buf, n)
+  }
+
+  /**
+   * A list over buffer, which is used as it is instead of being copied, the
+   * elements from index 0 to size of it are the valid ones.
+   */
+  def wrap(buffer: DoubleBuffer, size: Int): DoubleBufferList = {
+    require(size <= buffer.capacity, "size " + size + " > capacity " + buffer.capacity)
+    val buf = buffer.duplicate
+    buf.clear
+    new DoubleBufferList(buf, size)
+  }
+}
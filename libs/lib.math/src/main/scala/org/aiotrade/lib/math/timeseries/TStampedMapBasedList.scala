@@ -151,7 +151,17 @@ class TStampedMapBasedList[A: Manifest](timestamps: TStamps) extends ArrayList[A
         
     xs
   }
-    
+
+  override def sliceToArray(start: Int, len: Int): Array[A] = {
+    val xs = new Array[A](len)
+    var i = 0
+    while (i < len) {
+      xs(i) = apply(start + i)
+      i += 1
+    }
+    xs
+  }
+
   def add(time: Long, elem:A): Boolean = {
     if (elem == null) {
       /** null value needs not to be put in map, this will spare the memory usage */
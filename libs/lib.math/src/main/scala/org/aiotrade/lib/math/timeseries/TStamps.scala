@@ -53,9 +53,15 @@ class TStampsLog(initialSize: Int) extends ArrayList[Short](initialSize) {
 
   private var _logCursor = -1
   private var _logTime = System.currentTimeMillis
+  @volatile private var _rewriteCount = 0L
+  /** first idx of each update, kept apart so that validating the log sees appends and inserts only */
+  private val updateIdxs = new ArrayList[Int]()
+  @volatile private var _updateCount = 0
 
   def logCursor = _logCursor
   def logTime = _logTime
+  def rewriteCount = _rewriteCount
+  def updateCount = _updateCount
 
   def checkKind(logFlag: Short): Int = {
     logFlag & KIND
@@ -130,6 +136,67 @@ class TStampsLog(initialSize: Int) extends ArrayList[Short](initialSize) {
     _logTime = System.currentTimeMillis
   }
 
+  /**
+   * Log that values at existing stamps were rewritten in place, such as by
+   * adjusting, which is not an append or insert, so that consumers of the log
+   * will recompute all of them.
+   */
+  def logRewrite {
+    _rewriteCount += 1
+    _logTime = System.currentTimeMillis
+  }
+
+  /**
+   * Log that values at existing stamps from idx on were updated in place, such
+   * as by reloading quotes that overlap the loaded ones.
+   */
+  def logUpdate(idx: Int) {
+    updateIdxs += idx
+    _updateCount += 1
+    _logTime = System.currentTimeMillis
+  }
+
+  /**
+   * @param size of timestamps that the consumer has computed
+   * @return mark of current position of log, @see firstChangedIdx
+   */
+  def mark(size: Int): Mark = {
+    val cursorSize = if (_logCursor >= 0) checkSize(apply(_logCursor)) else 0
+    Mark(_logCursor, cursorSize, _rewriteCount, _updateCount, size)
+  }
+
+  /**
+   * Scans the logs after mark for the first idx that has been appended, inserted
+   * or updated since. It's mark.size if there are appends only or nothing at all,
+   * and 0 if values were rewritten since.
+   *
+   * @Note values updated in place at the last stamp, such as by tickers, are not
+   * logged, so a consumer should recompute from mark.size - 1 at most.
+   */
+  def firstChangedIdx(mark: Mark): Int = {
+    if (mark.rewriteCount != _rewriteCount || mark.cursor > _logCursor || mark.updateCount > _updateCount) return 0
+
+    var idx = mark.size
+    var i = mark.updateCount
+    val n = _updateCount
+    while (i < n) {
+      idx = math.min(idx, updateIdxs(i))
+      i += 1
+    }
+
+    var cursor = if (mark.cursor >= 0) mark.cursor else 0
+    while (_logCursor >= 0 && cursor <= _logCursor) {
+      val flag = apply(cursor)
+      // * the size of log at mark has been checked, only what merged into it since is new
+      val checkedSize = if (cursor == mark.cursor) mark.cursorSize else 0
+      if (checkKind(flag) == INSERT && checkSize(flag) > checkedSize) {
+        idx = math.min(idx, insertIndexOfLog(cursor) + checkedSize)
+      }
+      cursor = nextCursor(cursor)
+    }
+    idx
+  }
+
   def insertIndexOfLog(cursor: Int): Int = {
     shortsToInt(apply(cursor + 1), apply(cursor + 2))
   }
@@ -182,6 +249,15 @@ object TStampsLog {
   val INSERT = 0x4000 // 0100 0000 0000 0000
   val REMOVE = 0x8000 // 1000 0000 0000 0000
   val NUMBER = 0xC000 // 1100 0000 0000 0000
+
+  /**
+   * @param cursor of log when marked
+   * @param cursorSize size of the log at cursor when marked
+   * @param rewriteCount count of rewrites when marked
+   * @param updateCount count of updates when marked
+   * @param size of timestamps that has been computed
+   */
+  final case class Mark(cursor: Int, cursorSize: Int, rewriteCount: Long, updateCount: Int, size: Int)
 }
 
 import java.util.{Calendar,GregorianCalendar,TimeZone}
@@ -0,0 +1,180 @@
+package org.aiotrade.lib.math.timeseries
+
+import java.io.File
+import junit.framework.TestCase
+import junit.framework.Assert._
+import org.aiotrade.lib.collection.ArrayList
+import org.aiotrade.lib.math.indicator.SlidingMax
+import org.aiotrade.lib.math.indicator.SlidingMean
+import org.aiotrade.lib.math.indicator.StatisticFunction
+
+/**
+ * Writes columns to a column file, maps them back, and appends to, inserts into
+ * and updates the mapped columns, checking them against ArrayLists of same
+ * elements.
+ */
+class TestColumnFile extends TestCase {
+
+  private val ROWS = 100
+
+  private var file: File = _
+
+  override protected def setUp {
+    file = File.createTempFile("columns", ".col")
+    file.deleteOnExit
+  }
+
+  override protected def tearDown {
+    file.setWritable(true)
+    file.delete
+  }
+
+  def testWriteAndMap {
+    ColumnFile.write(file, times, List("a", "b"), List(column(1), column(2)), ROWS)
+
+    val mapped = ColumnFile.map(file)
+    assertEquals(ROWS, mapped.rows)
+    assertEquals(List("a", "b"), mapped.names.toList)
+    val (a, b) = (column(1), column(2))
+    var i = 0
+    while (i < ROWS) {
+      assertEquals(times(i), mapped.times.get(i))
+      assertSameValue(a(i), mapped.columns(0).get(i))
+      assertSameValue(b(i), mapped.columns(1).get(i))
+      i += 1
+    }
+  }
+
+  def testWriteFewerRows {
+    ColumnFile.write(file, times, List("a"), List(column(1)), ROWS / 2)
+
+    val mapped = ColumnFile.map(file)
+    assertEquals(ROWS / 2, mapped.rows)
+    assertSameValue(column(1)(ROWS / 2 - 1), mapped.columns(0).get(ROWS / 2 - 1))
+  }
+
+  def testAppendAndInsertIntoMapped {
+    ColumnFile.write(file, times, List("a"), List(column(1)), ROWS)
+    val list = DoubleBufferList.wrap(ColumnFile.map(file).columns(0), ROWS)
+    val expected = column(1)
+    assertSameElements(expected, list)
+
+    // grows out of the mapping into a direct buffer
+    var i = 0
+    while (i < ROWS * 3 / 2) {
+      list += -i
+      expected += -i
+      i += 1
+    }
+    assertTrue(list.capacity >= list.size)
+    assertSameElements(expected, list)
+
+    list.insertAll(10, List(0.1, 0.2, 0.3))
+    expected.insertAll(10, List(0.1, 0.2, 0.3))
+    list.insertAll(list.size, List(0.4))
+    expected.insertAll(expected.size, List(0.4))
+    0.5 +: list
+    0.5 +: expected
+    assertSameElements(expected, list)
+
+    list.remove(5, 3)
+    expected.remove(5, 3)
+    list(0) = 0.6
+    expected(0) = 0.6
+    assertSameElements(expected, list)
+
+    // writes to a mapped column don't go to the file
+    assertSameValue(column(1)(0), ColumnFile.map(file).columns(0).get(0))
+  }
+
+  def testWriteToMappedReadOnlyFile {
+    ColumnFile.write(file, times, List("a"), List(column(1)), ROWS)
+    assertTrue(file.setReadOnly)
+    val list = DoubleBufferList.wrap(ColumnFile.map(file).columns(0), ROWS)
+    assertTrue(list.buffer.isReadOnly)
+    val expected = column(1)
+
+    // is copied on the first write, with the capacity kept
+    list(ROWS - 1) = 0.6
+    expected(ROWS - 1) = 0.6
+    assertFalse(list.buffer.isReadOnly)
+    assertEquals(ROWS, list.capacity)
+    assertSameElements(expected, list)
+
+    list.remove(0, 2)
+    expected.remove(0, 2)
+    assertSameElements(expected, list)
+    assertSameValue(column(1)(ROWS - 1), ColumnFile.map(file).columns(0).get(ROWS - 1))
+  }
+
+  def testStatisticsOfBuffer {
+    val expected = column(1)
+    expected(7) = Null.Double
+    val list = DoubleBufferList.direct(expected)
+    assertSameElements(expected, list)
+
+    assertSameValue(StatisticFunction.sum(expected, 3, 20), StatisticFunction.sum(list, 3, 20))
+    assertSameValue(StatisticFunction.stdDev(expected, 10, 30), StatisticFunction.stdDev(list, 10, 30))
+    assertSameValue(StatisticFunction.max(expected, -1, ROWS + 5), StatisticFunction.max(list, -1, ROWS + 5))
+    assertSameValue(StatisticFunction.min(expected, 0, ROWS - 1), StatisticFunction.min(list, 0, ROWS - 1))
+    assertSameValue(StatisticFunction.ma(expected, 0, ROWS), StatisticFunction.ma(list, 0, ROWS))
+
+    val expectedMean = new SlidingMean
+    val mean = new SlidingMean
+    val expectedMax = new SlidingMax
+    val max = new SlidingMax
+    var prevSum = Null.Double
+    var prevMax = Null.Double
+    var i = 0
+    while (i < ROWS) {
+      assertSameValue(expectedMean(i, expected, 5), mean(i, list, 5))
+      assertSameValue(expectedMax(i, expected, 5), max(i, list, 5))
+
+      val sum = StatisticFunction.isum(i, list, 5, prevSum)
+      assertSameValue(StatisticFunction.isum(i, expected, 5, prevSum), sum)
+      prevSum = sum
+      val max1 = StatisticFunction.imax(i, list, 5, prevMax)
+      assertSameValue(StatisticFunction.imax(i, expected, 5, prevMax), max1)
+      prevMax = max1
+      i += 1
+    }
+  }
+
+  private val times: ArrayList[Long] = {
+    val xs = new ArrayList[Long](ROWS)
+    var i = 0
+    while (i < ROWS) {
+      xs += 1293840000000L + i * 60000L
+      i += 1
+    }
+    xs
+  }
+
+  private def column(factor: Int): ArrayList[Double] = {
+    val xs = new ArrayList[Double](ROWS)
+    var i = 0
+    while (i < ROWS) {
+      xs += (i % 13) * factor + 0.25
+      i += 1
+    }
+    xs
+  }
+
+  private def assertSameElements(expected: ArrayList[Double], actual: DoubleBufferList) {
+    assertEquals(expected.size, actual.size)
+    val xs = actual.toArray
+    val slice = actual.sliceToArray(3, 10)
+    var i = 0
+    while (i < expected.size) {
+      assertSameValue(expected(i), actual(i))
+      assertSameValue(expected(i), xs(i))
+      if (i >= 3 && i < 13) assertSameValue(expected(i), slice(i - 3))
+      i += 1
+    }
+  }
+
+  /** Null.Double included */
+  private def assertSameValue(expected: Double, actual: Double) {
+    assertEquals(expected.asInstanceOf[AnyRef], actual.asInstanceOf[AnyRef])
+  }
+}
@@ -30,12 +30,15 @@
  */
 package org.aiotrade.lib.securities
 
+import java.io.File
+import java.io.IOException
 import java.util.logging.Logger
 import org.aiotrade.lib.math.indicator.Plot
 import org.aiotrade.lib.math.timeseries.{TFreq, TSerEvent, TVal}
 import org.aiotrade.lib.securities.model.Exchanges
 import org.aiotrade.lib.securities.model.Quote
 import org.aiotrade.lib.securities.model.Sec
+import org.aiotrade.lib.securities.model.SecDividend
 import org.aiotrade.lib.util.reactors.Reactions
 import scala.collection.mutable
 
@@ -106,6 +109,20 @@ class QuoteSer(_sec: Sec, _freq: TFreq) extends FreeFloatSer(_sec, _freq) {
 
   }
 
+  /**
+   * Maps columns of file, which is written by writeColumns of a QuoteSer, as
+   * loaded quotes, @see DefaultTSer#mapColumns
+   */
+  @throws(classOf[IOException])
+  override def mapColumns(file: File): Boolean = {
+    val mapped = super.mapColumns(file)
+    if (mapped) {
+      isLoaded = true
+      publish(TSerEvent.Loaded(this, serProvider.uniSymbol, firstOccurredTime, lastOccurredTime))
+    }
+    mapped
+  }
+
   def valueOf(time: Long): Option[Quote] = {
     if (exists(time)) {
       val quote = new Quote
@@ -141,6 +158,11 @@ class QuoteSer(_sec: Sec, _freq: TFreq) extends FreeFloatSer(_sec, _freq) {
     publish(TSerEvent.Updated(this, "", time, time))
   }
 
+  /**
+   * Dividends that prices are adjusted by, sorted by dividendDate
+   */
+  protected def dividends: Seq[SecDividend] = Exchanges.dividendsOf(serProvider)
+
   def adjust  (force: Boolean = false) {doAdjust(true,  force)}
   def unadjust(force: Boolean = false) {doAdjust(false, force)}
   
@@ -171,7 +193,7 @@ class QuoteSer(_sec: Sec, _freq: TFreq) extends FreeFloatSer(_sec, _freq) {
   private def doAdjusting(b: Boolean, force: Boolean) {
     if (!force && (isAdjusted && b || !isAdjusted && !b)) return
     
-    val divs = Exchanges.dividendsOf(serProvider)
+    val divs = dividends
     if (divs.isEmpty) {
       isAdjusted = b
       return
@@ -209,6 +231,8 @@ class QuoteSer(_sec: Sec, _freq: TFreq) extends FreeFloatSer(_sec, _freq) {
     }
 
     isAdjusted = b
+    // * values of all stamps were rewritten, let indicators know it's not incremental
+    timestamps.log.logRewrite
     
     log.info(serProvider + (if (isAdjusted) " adjusted." else " unadjusted."))
 
@@ -242,7 +266,7 @@ class QuoteSer(_sec: Sec, _freq: TFreq) extends FreeFloatSer(_sec, _freq) {
   private def calPreClose {
     if (prevClose(0) == 0) prevClose(0) = open(0)
     
-    val divs = Exchanges.dividendsOf(serProvider)
+    val divs = dividends
     if (divs.isEmpty) {
       var i = 0
       while ({i += 1; i < size}){
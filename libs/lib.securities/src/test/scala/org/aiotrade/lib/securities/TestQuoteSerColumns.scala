@@ -0,0 +1,142 @@
+package org.aiotrade.lib.securities
+
+import java.io.File
+import junit.framework.TestCase
+import junit.framework.Assert._
+import org.aiotrade.lib.math.timeseries.DoubleBufferList
+import org.aiotrade.lib.math.timeseries.TFreq
+import org.aiotrade.lib.securities.model.Quote
+import org.aiotrade.lib.securities.model.Sec
+
+/**
+ * Writes columns of a QuoteSer, maps them into a new one, and keeps updating and
+ * appending to mapped and off heap columns, checking them against a QuoteSer of
+ * same quotes on heap.
+ */
+class TestQuoteSerColumns extends TestCase {
+
+  private val DAY = 24 * 60 * 60 * 1000L
+  private val BEG_TIME = 1293840000000L // 2011-01-01
+  private val N_BARS = 50
+
+  private var file: File = _
+
+  override protected def setUp {
+    file = File.createTempFile("quotes", ".col")
+    file.deleteOnExit
+  }
+
+  override protected def tearDown {
+    file.setWritable(true)
+    file.delete
+  }
+
+  def testMapWrittenColumns {
+    val expected = quoteSer(quotes(0, N_BARS, 1))
+    expected.writeColumns(file)
+
+    val ser = mappedSer(file)
+    assertTrue(ser.isLoaded)
+    assertTrue(ser.close.values.isInstanceOf[DoubleBufferList])
+    assertSameQuotes(expected, ser)
+  }
+
+  def testMapReadOnlyFile {
+    quoteSer(quotes(0, N_BARS, 1)).writeColumns(file)
+    assertTrue(file.setReadOnly)
+
+    val ser = mappedSer(file)
+    assertSameQuotes(quoteSer(quotes(0, N_BARS, 1)), ser)
+
+    // what's written goes to a copy of mapped columns
+    val updated = quote(N_BARS - 2, 2)
+    ser.updateFrom(updated)
+    assertEquals(updated.close, ser.close(N_BARS - 2), 0.0)
+    assertTrue(updated.close != quote(N_BARS - 2, 1).close)
+    assertSameQuotes(quoteSer(quotes(0, N_BARS, 1)), mappedSer(file))
+  }
+
+  def testUpdateAndAppendToMappedColumns {
+    val expected = quoteSer(quotes(0, N_BARS, 1))
+    expected.writeColumns(file)
+    val ser = mappedSer(file)
+
+    updateAndAppend(expected)
+    updateAndAppend(ser)
+    assertSameQuotes(expected, ser)
+  }
+
+  def testUpdateAndAppendToColumnsOffHeap {
+    val expected = quoteSer(quotes(0, N_BARS, 1))
+    val ser = quoteSer(quotes(0, N_BARS, 1))
+    ser.moveColumnsOffHeap
+    assertTrue(ser.close.values.isInstanceOf[DoubleBufferList])
+    assertSameQuotes(expected, ser)
+
+    updateAndAppend(expected)
+    updateAndAppend(ser)
+    assertSameQuotes(expected, ser)
+  }
+
+  /** updates the last bar and a middle one, and appends N_BARS bars, so that columns grow */
+  private def updateAndAppend(ser: QuoteSer) {
+    ser.updateFrom(quote(N_BARS - 1, 2))
+    ser.updateFrom(quote(N_BARS / 2, 3))
+    ser ++= quotes(N_BARS, N_BARS, 1)
+  }
+
+  private def quoteSer(quotes: Array[Quote]): QuoteSer = {
+    val ser = new QuoteSer(new Sec, TFreq.DAILY)
+    ser ++= quotes
+    ser
+  }
+
+  private def mappedSer(file: File): QuoteSer = {
+    val ser = new QuoteSer(new Sec, TFreq.DAILY)
+    assertTrue(ser.mapColumns(file))
+    ser
+  }
+
+  private def quotes(fromIdx: Int, n: Int, factor: Int): Array[Quote] = {
+    val quotes = new Array[Quote](n)
+    var i = 0
+    while (i < n) {
+      quotes(i) = quote(fromIdx + i, factor)
+      i += 1
+    }
+    quotes
+  }
+
+  /**
+   * @param factor of values, so that updated quotes differ from the loaded ones
+   */
+  private def quote(idx: Int, factor: Int): Quote = {
+    val quote = new Quote
+    quote.time = BEG_TIME + idx * DAY
+    quote.open = 10 + idx * factor
+    quote.high = 12 + idx * factor
+    quote.low = 9 + idx * factor
+    quote.close = 11 + (idx % 7) * factor
+    quote.volume = 1000 * (1 + idx % 11) * factor
+    quote.lastModify = quote.time + idx * factor
+    if (idx % 3 == 0) quote.unclosed_! else quote.closed_!
+    quote
+  }
+
+  /** Null.Double included, and the Long and Boolean vars that are not Double columns */
+  private def assertSameQuotes(expected: QuoteSer, actual: QuoteSer) {
+    assertEquals(expected.size, actual.size)
+    var i = 0
+    while (i < expected.size) {
+      val time = expected.timestamps(i)
+      assertEquals(time, actual.timestamps(i))
+      for ((x, y) <- expected.vars zip actual.vars) {
+        assertEquals(x.name + " at " + i, x(i).asInstanceOf[AnyRef], y(i).asInstanceOf[AnyRef])
+      }
+      assertEquals(expected.close(time).asInstanceOf[AnyRef], actual.close(time).asInstanceOf[AnyRef])
+      assertEquals(expected.lastModify(time), actual.lastModify(time))
+      assertEquals(expected.isClosed(time), actual.isClosed(time))
+      i += 1
+    }
+  }
+}
@@ -0,0 +1,45 @@
+package org.aiotrade.lib.sevenzip.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the usual jmh command line, plus the gc profiler
+ * so that the allocation rate (gc.alloc.rate.norm, bytes per op) is always
+ * reported next to throughput.
+ *
+ * @author Caoyuan Deng
+ */
+public class BenchMain {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+
+    static int matchFinderIndex(String name) {
+        if ("bt2".equals(name)) {
+            return SevenZip.Compression.LZMA.Encoder.EMatchFinderTypeBT2;
+        } else if ("bt4".equals(name)) {
+            return SevenZip.Compression.LZMA.Encoder.EMatchFinderTypeBT4;
+        }
+        throw new IllegalArgumentException("Unknown match finder: " + name);
+    }
+
+    /**
+     * Compression ratio is a property of params rather than a rate, so it's
+     * printed once per trial into the jmh log.
+     */
+    static void reportRatio(String direction, String corpus, long rawSize, long packedSize) {
+        System.out.println(String.format("%n%s %s: %d -> %d bytes, ratio %.3f",
+                direction, corpus, rawSize, packedSize, (double) rawSize / Math.max(packedSize, 1)));
+    }
+}
@@ -0,0 +1,95 @@
+package org.aiotrade.lib.sevenzip.bench;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Unsynchronized streams over arrays, so that benchmarks measure the coders
+ * instead of the locks of ByteArrayInputStream/ByteArrayOutputStream.
+ *
+ * @author Caoyuan Deng
+ */
+final class BenchStreams {
+
+    private BenchStreams() {
+    }
+
+    static final class In extends InputStream {
+
+        private final byte[] buf;
+        private final int length;
+        private int pos;
+
+        In(byte[] buf, int length) {
+            this.buf = buf;
+            this.length = length;
+        }
+
+        void reset0() {
+            pos = 0;
+        }
+
+        @Override
+        public int read() {
+            return pos < length ? buf[pos++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            int n = Math.min(len, length - pos);
+            if (n <= 0) {
+                return len == 0 ? 0 : -1;
+            }
+            System.arraycopy(buf, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+    }
+
+    static final class Out extends OutputStream {
+
+        private byte[] buf;
+        private int count;
+
+        Out(int capacity) {
+            buf = new byte[capacity];
+        }
+
+        void reset0() {
+            count = 0;
+        }
+
+        int size() {
+            return count;
+        }
+
+        byte[] toByteArray() {
+            byte[] bytes = new byte[count];
+            System.arraycopy(buf, 0, bytes, 0, count);
+            return bytes;
+        }
+
+        @Override
+        public void write(int b) {
+            if (count == buf.length) {
+                grow(1);
+            }
+            buf[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (count + len > buf.length) {
+                grow(len);
+            }
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
+
+        private void grow(int extra) {
+            byte[] newBuf = new byte[Math.max(count + extra, buf.length * 2)];
+            System.arraycopy(buf, 0, newBuf, 0, count);
+            buf = newBuf;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package org.aiotrade.lib.sevenzip.bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Bytes processed, which jmh reports as rates (bytes/s) next to ops/s,
+ * i.e. MB/s = rate / 1e6.
+ *
+ * @author Caoyuan Deng
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class ByteCounters {
+
+    /** uncompressed bytes */
+    public long rawBytes;
+    /** compressed bytes */
+    public long packedBytes;
+
+    @Setup(Level.Iteration)
+    public void clean() {
+        rawBytes = 0;
+        packedBytes = 0;
+    }
+}
@@ -0,0 +1,80 @@
+package org.aiotrade.lib.sevenzip.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * SevenZip.Compression.LZMA.Decoder over a corpus compressed by bt4 with 128
+ * fast bytes, by dictionary size. The decoder is reused as in LzmaCodec.
+ *
+ * @author Caoyuan Deng
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LzmaDecodeBenchmark {
+
+    @Param({"synthetic", "quotes", "tickers"})
+    public String corpus;
+
+    @Param({"1048576"})
+    public int size;
+
+    @Param({"16", "20", "23"})
+    public int dictionaryLog;
+
+    private SevenZip.Compression.LZMA.Decoder decoder;
+    private BenchStreams.In in;
+    private BenchStreams.Out out;
+    private int packedSize;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        byte[] input = Corpus.apply(corpus, size);
+
+        SevenZip.Compression.LZMA.Encoder encoder = new SevenZip.Compression.LZMA.Encoder();
+        encoder.SetDictionarySize(1 << dictionaryLog);
+        encoder.SetEndMarkerMode(true);
+        BenchStreams.Out props = new BenchStreams.Out(16);
+        encoder.WriteCoderProperties(props);
+        BenchStreams.Out packed = new BenchStreams.Out(input.length / 2 + 1024);
+        encoder.Code(new BenchStreams.In(input, input.length), packed, -1, -1, null);
+        packedSize = packed.size();
+
+        decoder = new SevenZip.Compression.LZMA.Decoder();
+        if (!decoder.SetDecoderProperties(props.toByteArray())) {
+            throw new IllegalArgumentException("Incorrect decoder params");
+        }
+        in = new BenchStreams.In(packed.toByteArray(), packedSize);
+        out = new BenchStreams.Out(input.length);
+
+        BenchMain.reportRatio("decode", corpus, input.length, packedSize);
+    }
+
+    @Benchmark
+    public int decode(ByteCounters counters) throws IOException {
+        in.reset0();
+        out.reset0();
+        if (!decoder.Code(in, out, -1)) {
+            throw new IOException("Error in data stream");
+        }
+        counters.rawBytes += out.size();
+        counters.packedBytes += packedSize;
+        return out.size();
+    }
+}
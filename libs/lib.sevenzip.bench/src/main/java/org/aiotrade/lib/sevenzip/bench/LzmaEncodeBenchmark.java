@@ -0,0 +1,83 @@
+package org.aiotrade.lib.sevenzip.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * SevenZip.Compression.LZMA.Encoder over a corpus, by dictionary size, match
+ * finder and number of fast bytes. The encoder is reused as in LzmaCodec.
+ *
+ * @author Caoyuan Deng
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LzmaEncodeBenchmark {
+
+    @Param({"synthetic", "quotes", "tickers"})
+    public String corpus;
+
+    @Param({"1048576"})
+    public int size;
+
+    @Param({"16", "20", "23"})
+    public int dictionaryLog;
+
+    @Param({"bt2", "bt4"})
+    public String matchFinder;
+
+    @Param({"32", "128", "273"})
+    public int fastBytes;
+
+    private SevenZip.Compression.LZMA.Encoder encoder;
+    private BenchStreams.In in;
+    private BenchStreams.Out out;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        byte[] input = Corpus.apply(corpus, size);
+        in = new BenchStreams.In(input, input.length);
+        out = new BenchStreams.Out(input.length / 2 + 1024);
+
+        encoder = new SevenZip.Compression.LZMA.Encoder();
+        if (!encoder.SetDictionarySize(1 << dictionaryLog)
+                || !encoder.SetMatchFinder(BenchMain.matchFinderIndex(matchFinder))
+                || !encoder.SetNumFastBytes(fastBytes)) {
+            throw new IllegalArgumentException("Incorrect encoder params");
+        }
+        encoder.SetEndMarkerMode(true);
+
+        encode();
+        BenchMain.reportRatio("encode", corpus, input.length, out.size());
+    }
+
+    @Benchmark
+    public int encode(ByteCounters counters) throws IOException {
+        int packed = encode();
+        counters.rawBytes += size;
+        counters.packedBytes += packed;
+        return packed;
+    }
+
+    private int encode() throws IOException {
+        in.reset0();
+        out.reset0();
+        encoder.Code(in, out, -1, -1, null);
+        return out.size();
+    }
+}
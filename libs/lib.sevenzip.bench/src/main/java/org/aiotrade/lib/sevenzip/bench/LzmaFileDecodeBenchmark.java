@@ -0,0 +1,136 @@
+package org.aiotrade.lib.sevenzip.bench;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decodes a .lzma file of the corpus, as written by LzmaAlone, by path:
+ *   stream: through buffered file streams, as LzmaAlone does by default,
+ *   mapped: from a mapped input into a mapped output file, as LzmaAlone -mmap,
+ *   buffer: from a mapped input into a direct ByteBuffer.
+ *
+ * @author Caoyuan Deng
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LzmaFileDecodeBenchmark {
+
+    @Param({"synthetic", "quotes", "tickers"})
+    public String corpus;
+
+    @Param({"1048576"})
+    public int size;
+
+    @Param({"16", "23"})
+    public int dictionaryLog;
+
+    @Param({"stream", "mapped", "buffer"})
+    public String path;
+
+    private File inFile;
+    private File outFile;
+    private long packedSize;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        byte[] input = Corpus.apply(corpus, size);
+
+        inFile = File.createTempFile("bench", ".lzma");
+        outFile = File.createTempFile("bench", ".out");
+
+        SevenZip.Compression.LZMA.Encoder encoder = new SevenZip.Compression.LZMA.Encoder();
+        encoder.SetDictionarySize(1 << dictionaryLog);
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(inFile));
+        try {
+            encoder.WriteCoderProperties(out);
+            for (int i = 0; i < 8; i++) {
+                out.write((int) ((long) input.length >>> (8 * i)) & 0xFF);
+            }
+            encoder.Code(new BenchStreams.In(input, input.length), out, -1, -1, null);
+        } finally {
+            out.close();
+        }
+        packedSize = inFile.length();
+
+        BenchMain.reportRatio("decode " + path, corpus, input.length, packedSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        inFile.delete();
+        outFile.delete();
+    }
+
+    @Benchmark
+    public long decode(ByteCounters counters) throws IOException {
+        long rawSize;
+        if ("stream".equals(path)) {
+            rawSize = decodeStream();
+        } else if ("mapped".equals(path)) {
+            rawSize = SevenZip.LzmaFileDecoder.Decode(inFile, outFile);
+        } else if ("buffer".equals(path)) {
+            ByteBuffer out = SevenZip.LzmaFileDecoder.Decode(inFile);
+            rawSize = out.limit();
+        } else {
+            throw new IllegalArgumentException("Unknown path: " + path);
+        }
+        counters.rawBytes += rawSize;
+        counters.packedBytes += packedSize;
+        return rawSize;
+    }
+
+    private long decodeStream() throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(inFile));
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(outFile));
+        try {
+            byte[] properties = new byte[5];
+            if (in.read(properties, 0, 5) != 5) {
+                throw new IOException("input .lzma file is too short");
+            }
+            SevenZip.Compression.LZMA.Decoder decoder = new SevenZip.Compression.LZMA.Decoder();
+            if (!decoder.SetDecoderProperties(properties)) {
+                throw new IOException("Incorrect stream properties");
+            }
+            long outSize = 0;
+            for (int i = 0; i < 8; i++) {
+                int v = in.read();
+                if (v < 0) {
+                    throw new IOException("Can't read stream size");
+                }
+                outSize |= ((long) v) << (8 * i);
+            }
+            if (!decoder.Code(in, out, outSize)) {
+                throw new IOException("Error in data stream");
+            }
+            return outSize;
+        } finally {
+            out.close();
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.aiotrade.lib.sevenzip.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of SevenZip.LzmaCodec per message by encoder preset, over message
+ * sizes of AMQP ticker batches, with the ratio reported per preset. "auto" is
+ * the preset of Preset.ForSize, as Serializer.lzma uses.
+ *
+ * @author Caoyuan Deng
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LzmaPresetBenchmark {
+
+    @Param({"quotes", "tickers"})
+    public String corpus;
+
+    @Param({"1024", "8192", "51200", "262144"})
+    public int size;
+
+    @Param({"fastest", "balanced", "max", "auto"})
+    public String preset;
+
+    private byte[] input;
+    private SevenZip.Compression.LZMA.Encoder.Preset encoderPreset;
+    private SevenZip.LzmaCodec codec;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        input = Corpus.apply(corpus, size);
+        encoderPreset = preset.equals("auto")
+                ? SevenZip.Compression.LZMA.Encoder.Preset.ForSize(size)
+                : SevenZip.Compression.LZMA.Encoder.Preset.ForName(preset);
+        if (encoderPreset == null) {
+            throw new IllegalArgumentException("Unknown preset: " + preset);
+        }
+        codec = new SevenZip.LzmaCodec();
+
+        BenchMain.reportRatio("encode " + encoderPreset, corpus, input.length, compress().length);
+    }
+
+    @Benchmark
+    public byte[] compress(ByteCounters counters) throws IOException {
+        byte[] packed = compress();
+        counters.rawBytes += size;
+        counters.packedBytes += packed.length;
+        return packed;
+    }
+
+    private byte[] compress() throws IOException {
+        return codec.Compress(input, 0, input.length, encoderPreset);
+    }
+}
@@ -0,0 +1,84 @@
+package org.aiotrade.lib.sevenzip.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * SevenZip.Compression.LZ.BinTree alone, GetMatches at every position of a
+ * corpus, i.e. the match finding part of the encoder without the range coder
+ * and the optimum parsing.
+ *
+ * @author Caoyuan Deng
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MatchFinderBenchmark {
+
+    /** see Encoder.kNumOpts and Base.kMatchMaxLen */
+    private static final int NUM_OPTS = 1 << 12;
+    private static final int MATCH_MAX_LEN = 273;
+
+    @Param({"synthetic", "quotes", "tickers"})
+    public String corpus;
+
+    @Param({"1048576"})
+    public int size;
+
+    @Param({"16", "20", "23"})
+    public int dictionaryLog;
+
+    @Param({"bt2", "bt4"})
+    public String matchFinder;
+
+    @Param({"32", "128", "273"})
+    public int fastBytes;
+
+    private SevenZip.Compression.LZ.BinTree binTree;
+    private BenchStreams.In in;
+    private final int[] distances = new int[MATCH_MAX_LEN * 2 + 2];
+
+    @Setup(Level.Trial)
+    public void setup() {
+        byte[] input = Corpus.apply(corpus, size);
+        in = new BenchStreams.In(input, input.length);
+
+        binTree = new SevenZip.Compression.LZ.BinTree();
+        binTree.SetType(BenchMain.matchFinderIndex(matchFinder) == 0 ? 2 : 4);
+        if (!binTree.Create(1 << dictionaryLog, NUM_OPTS, fastBytes, MATCH_MAX_LEN + 1)) {
+            throw new IllegalArgumentException("Incorrect match finder params");
+        }
+    }
+
+    /**
+     * @return number of match pairs found, as blackhole
+     */
+    @Benchmark
+    public long getMatches(ByteCounters counters) throws IOException {
+        in.reset0();
+        binTree.SetStream(in);
+        binTree.Init();
+        long pairs = 0;
+        while (binTree.GetNumAvailableBytes() > 0) {
+            pairs += binTree.GetMatches(distances);
+        }
+        binTree.ReleaseStream();
+        counters.rawBytes += size;
+        return pairs;
+    }
+}
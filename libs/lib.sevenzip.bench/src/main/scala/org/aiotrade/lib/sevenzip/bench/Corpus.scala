@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.sevenzip.bench
+
+import java.io.ByteArrayOutputStream
+import java.util.Random
+import org.aiotrade.lib.amqp.Serializer
+import org.aiotrade.lib.securities.model.Quote
+import org.aiotrade.lib.securities.model.Ticker
+
+/**
+ * Inputs of benchmarks:
+ *   synthetic - the LZ-friendly random data of LzmaBench
+ *   quotes    - java serialized batches of 1 minute quotes, as published by amqp
+ *   tickers   - java serialized batches of tickers with 5 levels market depth
+ *
+ * Data are generated with fixed seeds so that each run compresses the same bytes.
+ *
+ * @author Caoyuan Deng
+ */
+object Corpus {
+  val Synthetic = "synthetic"
+  val Quotes    = "quotes"
+  val Tickers   = "tickers"
+
+  private val BatchSize = 100
+  private val Symbols = Array("IBM", "MSFT", "AAPL", "GOOG", "ORCL", "INTC", "CSCO", "AMZN")
+
+  def apply(name: String, size: Int): Array[Byte] = name match {
+    case Synthetic => synthetic(size)
+    case Quotes => fill(size, quoteBatches)
+    case Tickers => fill(size, tickerBatches)
+    case _ => throw new IllegalArgumentException("Unknown corpus: " + name)
+  }
+
+  def synthetic(size: Int): Array[Byte] = {
+    val rg = new SevenZip.LzmaBench.CBenchRandomGenerator
+    rg.Set(size)
+    rg.Generate
+    rg.Buffer
+  }
+
+  /** concatenates batches until size */
+  private def fill(size: Int, batches: Iterator[Array[Byte]]): Array[Byte] = {
+    val out = new ByteArrayOutputStream(size)
+    while (out.size < size) {
+      val batch = batches.next
+      out.write(batch, 0, math.min(batch.length, size - out.size))
+    }
+    out.toByteArray
+  }
+
+  private def quoteBatches: Iterator[Array[Byte]] = {
+    val random = new Random(1)
+    val prices = Array.fill(Symbols.length)(20 + random.nextInt(200).toDouble)
+    var time = 1293840000000L // 2011-01-01
+    Iterator.continually {
+      val batch = new Array[Quote](BatchSize)
+      var i = 0
+      while (i < BatchSize) {
+        val idx = i % Symbols.length
+        val open = prices(idx)
+        val close = round(open * (1 + random.nextGaussian * 0.002))
+        val quote = new Quote
+        quote.time = time
+        quote.open = open
+        quote.high = round(math.max(open, close) * (1 + random.nextDouble * 0.001))
+        quote.low = round(math.min(open, close) * (1 - random.nextDouble * 0.001))
+        quote.close = close
+        quote.volume = 100 * (1 + random.nextInt(500))
+        quote.amount = round(quote.volume * (open + close) / 2)
+        batch(i) = quote
+        prices(idx) = close
+        if (idx == Symbols.length - 1) time += 60000
+        i += 1
+      }
+      Serializer.encodeJava(batch)
+    }
+  }
+
+  private def tickerBatches: Iterator[Array[Byte]] = {
+    val random = new Random(2)
+    val prices = Array.fill(Symbols.length)(20 + random.nextInt(200).toDouble)
+    val volumes = new Array[Double](Symbols.length)
+    var time = 1293872400000L
+    Iterator.continually {
+      val batch = new Array[Ticker](BatchSize)
+      var i = 0
+      while (i < BatchSize) {
+        val idx = random.nextInt(Symbols.length)
+        val last = round(prices(idx) + (random.nextInt(5) - 2) * 0.01)
+        volumes(idx) += 100 * (1 + random.nextInt(20))
+        val ticker = new Ticker
+        ticker.time = time
+        ticker.lastPrice = last
+        ticker.dayVolume = volumes(idx)
+        ticker.dayAmount = round(volumes(idx) * last)
+        val depth = ticker.marketDepth
+        var level = 0
+        while (level < depth.depth) {
+          depth.setBidPrice(level, round(last - 0.01 * (level + 1)))
+          depth.setBidSize (level, 100 * (1 + random.nextInt(50)))
+          depth.setAskPrice(level, round(last + 0.01 * (level + 1)))
+          depth.setAskSize (level, 100 * (1 + random.nextInt(50)))
+          level += 1
+        }
+        batch(i) = ticker
+        prices(idx) = last
+        time += random.nextInt(200)
+        i += 1
+      }
+      Serializer.encodeJava(batch)
+    }
+  }
+
+  private def round(v: Double) = math.round(v * 100) / 100.0
+}
@@ -6,6 +6,13 @@ public class CRC
 {
 	static public int[] Table = new int[256];
 	
+	/**
+	 * Slicing-by-8 tables, 8 * 256 entries: entry k * 256 + i is the crc of
+	 * byte i followed by k zero bytes, so that 8 bytes are done by 8 lookups
+	 * that don't depend on each other.
+	 */
+	static final int[] Table8 = new int[8 * 256];
+	
 	static
 	{
 		for (int i = 0; i < 256; i++)
@@ -18,9 +25,28 @@ public class CRC
 					r >>>= 1;
 			Table[i] = r;
 		}
+		System.arraycopy(Table, 0, Table8, 0, 256);
+		for (int k = 1; k < 8; k++)
+			for (int i = 0; i < 256; i++)
+			{
+				int r = Table8[(k - 1) * 256 + i];
+				Table8[k * 256 + i] = (r >>> 8) ^ Table[r & 0xFF];
+			}
 	}
 	
+	/**
+	 * Bulk updates of at least this many bytes go through java.util.zip.CRC32,
+	 * which is native or intrinsic and much faster than any table lookup in
+	 * Java, and is then combined into the running value.
+	 */
+	static final int kZipThreshold = 1 << 13;
+	static final int kScratchSize = 1 << 16;
+	
 	int _value = -1;
+	java.util.zip.CRC32 _zip;
+	byte[] _scratch;
+	final int[] _even = new int[32];
+	final int[] _odd = new int[32];
 	
 	public void Init()
 	{
@@ -29,15 +55,152 @@ public class CRC
 	
 	public void Update(byte[] data, int offset, int size)
 	{
-		for (int i = 0; i < size; i++)
-			_value = Table[(_value ^ data[offset + i]) & 0xFF] ^ (_value >>> 8);
+		if (size >= kZipThreshold)
+		{
+			if (_zip == null)
+				_zip = new java.util.zip.CRC32();
+			_zip.reset();
+			_zip.update(data, offset, size);
+			_value = Combine(_value ^ -1, (int)_zip.getValue(), size) ^ -1;
+			return;
+		}
+		
+		int value = _value;
+		int[] t = Table8;
+		int i = offset;
+		int end = offset + size;
+		for (; i + 8 <= end; i += 8)
+		{
+			int one = ((data[i] & 0xFF) | (data[i + 1] & 0xFF) << 8 |
+					(data[i + 2] & 0xFF) << 16 | data[i + 3] << 24) ^ value;
+			int two = (data[i + 4] & 0xFF) | (data[i + 5] & 0xFF) << 8 |
+					(data[i + 6] & 0xFF) << 16 | data[i + 7] << 24;
+			value = Sliced(t, one, two);
+		}
+		for (; i < end; i++)
+			value = Table[(value ^ data[i]) & 0xFF] ^ (value >>> 8);
+		_value = value;
 	}
 	
 	public void Update(byte[] data)
 	{
-		int size = data.length;
-		for (int i = 0; i < size; i++)
-			_value = Table[(_value ^ data[i]) & 0xFF] ^ (_value >>> 8);
+		Update(data, 0, data.length);
+	}
+	
+	/**
+	 * Updates with the remaining bytes of buffer, and advances its position
+	 * to limit.
+	 */
+	public void Update(java.nio.ByteBuffer buffer)
+	{
+		if (buffer.hasArray())
+		{
+			Update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+			buffer.position(buffer.limit());
+			return;
+		}
+		
+		if (buffer.remaining() >= kZipThreshold)
+		{
+			// through a scratch array to take the java.util.zip.CRC32 path
+			if (_scratch == null)
+				_scratch = new byte[kScratchSize];
+			while (buffer.hasRemaining())
+			{
+				int n = Math.min(buffer.remaining(), kScratchSize);
+				buffer.get(_scratch, 0, n);
+				Update(_scratch, 0, n);
+			}
+			return;
+		}
+		
+		int value = _value;
+		int[] t = Table8;
+		int i = buffer.position();
+		int end = buffer.limit();
+		boolean bigEndian = buffer.order() == java.nio.ByteOrder.BIG_ENDIAN;
+		for (; i + 8 <= end; i += 8)
+		{
+			int one = buffer.getInt(i);
+			int two = buffer.getInt(i + 4);
+			if (bigEndian)
+			{
+				one = Integer.reverseBytes(one);
+				two = Integer.reverseBytes(two);
+			}
+			value = Sliced(t, one ^ value, two);
+		}
+		for (; i < end; i++)
+			value = Table[(value ^ buffer.get(i)) & 0xFF] ^ (value >>> 8);
+		_value = value;
+		buffer.position(end);
+	}
+	
+	static int Sliced(int[] t, int one, int two)
+	{
+		return t[7 * 256 + (one & 0xFF)] ^
+				t[6 * 256 + ((one >>> 8) & 0xFF)] ^
+				t[5 * 256 + ((one >>> 16) & 0xFF)] ^
+				t[4 * 256 + (one >>> 24)] ^
+				t[3 * 256 + (two & 0xFF)] ^
+				t[2 * 256 + ((two >>> 8) & 0xFF)] ^
+				t[1 * 256 + ((two >>> 16) & 0xFF)] ^
+				t[(two >>> 24)];
+	}
+	
+	/**
+	 * crc of A followed by B, from crc1 of A, crc2 of B and length of B, see
+	 * crc32_combine() of zlib.
+	 */
+	int Combine(int crc1, int crc2, long len2)
+	{
+		if (len2 <= 0)
+			return crc1;
+		int[] even = _even;
+		int[] odd = _odd;
+		
+		// operator for one zero bit
+		odd[0] = 0xEDB88320;
+		int row = 1;
+		for (int n = 1; n < 32; n++)
+		{
+			odd[n] = row;
+			row <<= 1;
+		}
+		Gf2MatrixSquare(even, odd); // two zero bits
+		Gf2MatrixSquare(odd, even); // four zero bits
+		
+		// apply len2 zero bytes to crc1
+		do
+		{
+			Gf2MatrixSquare(even, odd);
+			if ((len2 & 1) != 0)
+				crc1 = Gf2MatrixTimes(even, crc1);
+			len2 >>>= 1;
+			if (len2 == 0)
+				break;
+			Gf2MatrixSquare(odd, even);
+			if ((len2 & 1) != 0)
+				crc1 = Gf2MatrixTimes(odd, crc1);
+			len2 >>>= 1;
+		}
+		while (len2 != 0);
+		return crc1 ^ crc2;
+	}
+	
+	static int Gf2MatrixTimes(int[] mat, int vec)
+	{
+		int sum = 0;
+		for (int i = 0; vec != 0; i++, vec >>>= 1)
+			if ((vec & 1) != 0)
+				sum ^= mat[i];
+		return sum;
+	}
+	
+	static void Gf2MatrixSquare(int[] square, int[] mat)
+	{
+		for (int n = 0; n < 32; n++)
+			square[n] = Gf2MatrixTimes(mat, mat[n]);
 	}
 	
 	public void UpdateByte(int b)
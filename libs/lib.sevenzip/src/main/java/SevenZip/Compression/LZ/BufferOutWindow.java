@@ -0,0 +1,121 @@
+// LZ.BufferOutWindow
+
+package SevenZip.Compression.LZ;
+
+import java.io.IOException;
+
+/**
+ * An OutWindow that is the output itself: decoded bytes are put right into a
+ * ByteBuffer, and matches are copied from what was decoded before in it, so
+ * there's neither the window buffer nor the stream copies of OutWindow.
+ *
+ * With a FileChannel, the output is mapped by regions of regionSize, the
+ * previous region is kept for matches that reach back into it, so regionSize
+ * must not be less than the dictionary size. Mapping beyond the end of file
+ * grows it, see GetProcessedSize() for truncating it afterwards.
+ */
+public class BufferOutWindow extends OutWindow
+{
+	java.nio.channels.FileChannel _channel;
+	long _startPosition;
+	long _regionSize;
+
+	java.nio.ByteBuffer _buffer0;
+	java.nio.ByteBuffer _cur;
+	java.nio.ByteBuffer _prev;
+	long _regionStart; // offset of _cur from the start of output
+	int _curPos;
+	int _curLimit;
+
+	/** Output into buffer from its position up to its limit */
+	public BufferOutWindow(java.nio.ByteBuffer buffer)
+	{
+		_buffer0 = buffer;
+	}
+
+	/** Output into channel from position on */
+	public BufferOutWindow(java.nio.channels.FileChannel channel, long position, long regionSize)
+	{
+		if (regionSize <= 0 || regionSize > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Incorrect region size");
+		_channel = channel;
+		_startPosition = position;
+		_regionSize = regionSize;
+	}
+
+	public void Init(boolean solid)
+	{
+		if (solid)
+			return;
+		_prev = null;
+		_regionStart = 0;
+		_curPos = 0;
+		if (_channel == null)
+		{
+			_cur = _buffer0.slice();
+			_curLimit = _cur.limit();
+		}
+		else
+		{
+			// mapped on first PutByte
+			_cur = null;
+			_curLimit = 0;
+		}
+	}
+
+	/** Number of bytes put since Init */
+	public long GetProcessedSize()
+	{
+		return _regionStart + _curPos;
+	}
+
+	void NextRegion() throws IOException
+	{
+		if (_channel == null)
+			throw new java.nio.BufferOverflowException();
+		if (_cur != null)
+		{
+			_regionStart += _curLimit;
+			_prev = _cur;
+		}
+		_cur = _channel.map(java.nio.channels.FileChannel.MapMode.READ_WRITE, _startPosition + _regionStart, _regionSize);
+		_curPos = 0;
+		_curLimit = (int)_regionSize;
+	}
+
+	public void Flush()
+	{
+		// bytes are already in place
+	}
+
+	public void PutByte(byte b) throws IOException
+	{
+		if (_curPos == _curLimit)
+			NextRegion();
+		_cur.put(_curPos++, b);
+	}
+
+	public byte GetByte(int distance)
+	{
+		int pos = _curPos - distance - 1;
+		if (pos >= 0)
+			return _cur.get(pos);
+		return _prev.get(_prev.limit() + pos);
+	}
+
+	public void CopyBlock(int distance, int len) throws IOException
+	{
+		int pos = _curPos - distance - 1;
+		if (pos >= 0 && _curPos + len <= _curLimit)
+		{
+			java.nio.ByteBuffer cur = _cur;
+			int dst = _curPos;
+			for (; len != 0; len--)
+				cur.put(dst++, cur.get(pos++));
+			_curPos = dst;
+			return;
+		}
+		for (; len != 0; len--)
+			PutByte(GetByte(distance));
+	}
+}
@@ -178,8 +178,6 @@ public class Decoder
 	
 	void Init() throws IOException
 	{
-		m_OutWindow.Init(false);
-		
 		SevenZip.Compression.RangeCoder.Decoder.InitBitModels(m_IsMatchDecoders);
 		SevenZip.Compression.RangeCoder.Decoder.InitBitModels(m_IsRep0LongDecoders);
 		SevenZip.Compression.RangeCoder.Decoder.InitBitModels(m_IsRepDecoders);
@@ -201,8 +199,19 @@ public class Decoder
 	public boolean Code(java.io.InputStream inStream, java.io.OutputStream outStream,
 			long outSize) throws IOException
 	{
-		m_RangeDecoder.SetStream(inStream);
 		m_OutWindow.SetStream(outStream);
+		return Code(inStream, m_OutWindow, outSize);
+	}
+	
+	/**
+	 * Decodes into the given window instead of the stream backed one, e.g. a
+	 * BufferOutWindow that is the output buffer itself.
+	 */
+	public boolean Code(java.io.InputStream inStream, OutWindow outWindow,
+			long outSize) throws IOException
+	{
+		m_RangeDecoder.SetStream(inStream);
+		outWindow.Init(false);
 		Init();
 		
 		int state = Base.StateInit();
@@ -217,10 +226,10 @@ public class Decoder
 			{
 				LiteralDecoder.Decoder2 decoder2 = m_LiteralDecoder.GetDecoder((int)nowPos64, prevByte);
 				if (!Base.StateIsCharState(state))
-					prevByte = decoder2.DecodeWithMatchByte(m_RangeDecoder, m_OutWindow.GetByte(rep0));
+					prevByte = decoder2.DecodeWithMatchByte(m_RangeDecoder, outWindow.GetByte(rep0));
 				else
 					prevByte = decoder2.DecodeNormal(m_RangeDecoder);
-				m_OutWindow.PutByte(prevByte);
+				outWindow.PutByte(prevByte);
 				state = Base.StateUpdateChar(state);
 				nowPos64++;
 			}
@@ -296,16 +305,16 @@ public class Decoder
 				}
 				if (rep0 >= nowPos64 || rep0 >= m_DictionarySizeCheck)
 				{
-					// m_OutWindow.Flush();
+					// outWindow.Flush();
 					return false;
 				}
-				m_OutWindow.CopyBlock(rep0, len);
+				outWindow.CopyBlock(rep0, len);
 				nowPos64 += len;
-				prevByte = m_OutWindow.GetByte(0);
+				prevByte = outWindow.GetByte(0);
 			}
 		}
-		m_OutWindow.Flush();
-		m_OutWindow.ReleaseStream();
+		outWindow.Flush();
+		outWindow.ReleaseStream();
 		m_RangeDecoder.ReleaseStream();
 		return true;
 	}
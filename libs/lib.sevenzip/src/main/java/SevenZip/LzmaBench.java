@@ -53,7 +53,7 @@ public class LzmaBench
 		}
 	};
 	
-	static class CBenchRandomGenerator
+	public static class CBenchRandomGenerator
 	{
 		CBitRandomGenerator RG = new CBitRandomGenerator();
 		int Pos;
@@ -233,6 +233,12 @@ public class LzmaBench
 		return value * freq / elTime;
 	}
 	
+	/** bytes per second */
+	static long GetNanoSpeed(long size, long elapsedNanos)
+	{
+		return (long)(size * 1e9 / Math.max(elapsedNanos, 1));
+	}
+	
 	static long GetCompressRating(int dictionarySize, long elapsedTime, long size)
 	{
 		long t = GetLogSize(dictionarySize) - (18 << kSubBits);
@@ -289,6 +295,50 @@ public class LzmaBench
 		PrintRating(rating);
 	}
 	
+	/**
+	 * Measures CRC throughput on buffer apart from compression, by the
+	 * byte-by-byte way, CRC.Update and java.util.zip.CRC32 for reference.
+	 */
+	static void CrcBenchmark(byte[] buffer) throws Exception
+	{
+		CRC crc = new CRC();
+		java.util.zip.CRC32 crc32 = new java.util.zip.CRC32();
+		int digest = 0;
+		long byteTime = Long.MAX_VALUE;
+		long slicedTime = Long.MAX_VALUE;
+		long zipTime = Long.MAX_VALUE;
+		for (int i = 0; i < 10; i++)
+		{
+			long startTime = System.nanoTime();
+			crc.Init();
+			for (int j = 0; j < buffer.length; j++)
+				crc.UpdateByte(buffer[j]);
+			byteTime = Math.min(byteTime, System.nanoTime() - startTime);
+			digest = crc.GetDigest();
+			
+			startTime = System.nanoTime();
+			crc.Init();
+			crc.Update(buffer, 0, buffer.length);
+			slicedTime = Math.min(slicedTime, System.nanoTime() - startTime);
+			if (crc.GetDigest() != digest)
+				throw (new Exception("CRC Error"));
+			
+			startTime = System.nanoTime();
+			crc32.reset();
+			crc32.update(buffer, 0, buffer.length);
+			zipTime = Math.min(zipTime, System.nanoTime() - startTime);
+			if ((int)crc32.getValue() != digest)
+				throw (new Exception("CRC Error"));
+		}
+		System.out.print("\nCRC:  ");
+		PrintValue(GetNanoSpeed(buffer.length, byteTime) / 1024);
+		System.out.print(" KB/s byte-by-byte  ");
+		PrintValue(GetNanoSpeed(buffer.length, slicedTime) / 1024);
+		System.out.print(" KB/s CRC.Update  ");
+		PrintValue(GetNanoSpeed(buffer.length, zipTime) / 1024);
+		System.out.println(" KB/s java.util.zip.CRC32");
+	}
+	
 	static public int LzmaBenchmark(int numIterations, int dictionarySize) throws Exception
 	{
 		if (numIterations <= 0)
@@ -387,6 +437,77 @@ public class LzmaBench
 		PrintResults(dictionarySize, totalDecodeTime,
 				kBufferSize * (long)numIterations, true, totalCompressedSize);
 		System.out.println("    Average");
+		CrcBenchmark(rg.Buffer);
+		return 0;
+	}
+	
+	/**
+	 * Measures how block parallel mode scales, by 1, 2, 4 ... numThreads
+	 * threads, the best of numIterations each.
+	 */
+	static public int LzmaBlockBenchmark(int numIterations, int dictionarySize, int numThreads, int blockSize) throws Exception
+	{
+		if (numIterations <= 0)
+			return 0;
+		
+		int kBufferSize = Math.max(blockSize * numThreads, dictionarySize + kAdditionalSize);
+		CBenchRandomGenerator rg = new CBenchRandomGenerator();
+		rg.Set(kBufferSize);
+		rg.Generate();
+		CRC crc = new CRC();
+		crc.Init();
+		crc.Update(rg.Buffer, 0, rg.BufferSize);
+		
+		System.out.print("\nBlock size: " + (blockSize >> 10) + " KB, data size: " + (kBufferSize >> 10) + " KB\n");
+		System.out.print("\nThreads    Compressing      Decompressing    Speedup\n\n");
+		
+		long baseEncodeTime = 0;
+		for (int threads = 1; ; threads = Math.min(threads * 2, numThreads))
+		{
+			LzmaBlockEncoder encoder = new LzmaBlockEncoder();
+			LzmaBlockDecoder decoder = new LzmaBlockDecoder();
+			if (!encoder.SetDictionarySize(dictionarySize))
+				throw new Exception("Incorrect dictionary size");
+			if (!encoder.SetBlockSize(blockSize))
+				throw new Exception("Incorrect block size");
+			encoder.SetNumThreads(threads);
+			decoder.SetNumThreads(threads);
+			
+			ByteArrayOutputStream compressedStream = new ByteArrayOutputStream(kBufferSize / 2);
+			CrcOutStream crcOutStream = new CrcOutStream();
+			long encodeTime = Long.MAX_VALUE;
+			long decodeTime = Long.MAX_VALUE;
+			for (int i = 0; i < numIterations; i++)
+			{
+				compressedStream.reset();
+				long startTime = System.currentTimeMillis();
+				encoder.Code(new MyInputStream(rg.Buffer, rg.BufferSize), compressedStream, null);
+				encodeTime = Math.min(encodeTime, System.currentTimeMillis() - startTime);
+				
+				byte[] compressed = compressedStream.toByteArray();
+				crcOutStream.Init();
+				startTime = System.currentTimeMillis();
+				decoder.Code(new ByteArrayInputStream(compressed), crcOutStream, null);
+				decodeTime = Math.min(decodeTime, System.currentTimeMillis() - startTime);
+				if (crcOutStream.GetDigest() != crc.GetDigest())
+					throw (new Exception("CRC Error"));
+			}
+			if (threads == 1)
+				baseEncodeTime = encodeTime;
+			
+			PrintValue(threads);
+			System.out.print("  ");
+			PrintValue(MyMultDiv64(kBufferSize, encodeTime) / 1024);
+			System.out.print(" KB/s  ");
+			PrintValue(MyMultDiv64(kBufferSize, decodeTime) / 1024);
+			System.out.print(" KB/s  ");
+			System.out.print(" x" + (double)Math.round(baseEncodeTime * 100.0 / Math.max(encodeTime, 1)) / 100);
+			System.out.println();
+			
+			if (threads == numThreads)
+				break;
+		}
+		CrcBenchmark(rg.Buffer);
 		return 0;
 	}
 }
@@ -0,0 +1,281 @@
+package SevenZip;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Decoder of the block container written by LzmaBlockEncoder.
+ *
+ * Code() reads the blocks in order from a stream and decodes up to numThreads
+ * of them in parallel. Open() reads the index of a container file, so that
+ * single blocks can be decoded at random, e.g. to read from some position.
+ */
+public class LzmaBlockDecoder
+{
+	int _numThreads = Runtime.getRuntime().availableProcessors();
+
+	byte[] _properties;
+	int _blockSize;
+
+	// idle decoders, each one is used by one block at a time
+	final ConcurrentLinkedQueue<SevenZip.Compression.LZMA.Decoder> _decoders =
+			new ConcurrentLinkedQueue<SevenZip.Compression.LZMA.Decoder>();
+
+	// index, after Open()
+	java.io.RandomAccessFile _file;
+	long[] _offsets;
+	long[] _unpackOffsets;
+	int _numBlocks;
+
+	public boolean SetNumThreads(int numThreads)
+	{
+		if (numThreads < 1)
+			return false;
+		_numThreads = numThreads;
+		return true;
+	}
+
+	public int GetBlockSize() { return _blockSize; }
+
+	void ReadHeader(java.io.DataInput input) throws IOException
+	{
+		byte[] signature = new byte[LzmaBlockEncoder.kSignature.length];
+		input.readFully(signature);
+		if (!java.util.Arrays.equals(signature, LzmaBlockEncoder.kSignature))
+			throw new IOException("Not a LZMA block container");
+		byte[] properties = new byte[SevenZip.Compression.LZMA.Encoder.kPropSize];
+		input.readFully(properties);
+		if (!new SevenZip.Compression.LZMA.Decoder().SetDecoderProperties(properties))
+			throw new IOException("Incorrect stream properties");
+		_properties = properties;
+		_blockSize = ReadInt(input);
+		_decoders.clear();
+	}
+
+	SevenZip.Compression.LZMA.Decoder AcquireDecoder()
+	{
+		SevenZip.Compression.LZMA.Decoder decoder = _decoders.poll();
+		if (decoder == null)
+		{
+			decoder = new SevenZip.Compression.LZMA.Decoder();
+			decoder.SetDecoderProperties(_properties);
+		}
+		return decoder;
+	}
+
+	byte[] DecodeBlock(byte[] packed, int unpackSize) throws IOException
+	{
+		LzmaCodec.In in = new LzmaCodec.In();
+		in.Set(packed, 0, packed.length);
+		byte[] block = new byte[unpackSize];
+		LzmaCodec.Out out = new LzmaCodec.Out();
+		out.Set(java.nio.ByteBuffer.wrap(block));
+		SevenZip.Compression.LZMA.Decoder decoder = AcquireDecoder();
+		try
+		{
+			if (!decoder.Code(in, out, unpackSize))
+				throw new IOException("Error in data stream");
+		}
+		finally
+		{
+			_decoders.offer(decoder);
+		}
+		return block;
+	}
+
+	/**
+	 * Decodes a whole container from inStream into outStream.
+	 */
+	public void Code(java.io.InputStream inStream, java.io.OutputStream outStream,
+			ICodeProgress progress) throws IOException
+	{
+		java.io.DataInputStream input = new java.io.DataInputStream(inStream);
+		ReadHeader(input);
+
+		ExecutorService executor = NewExecutor();
+		long inPos = LzmaBlockEncoder.kSignature.length + _properties.length + 4;
+		long outPos = 0;
+		try
+		{
+			LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+			boolean end = false;
+			while (!end || !pending.isEmpty())
+			{
+				while (!end && pending.size() < _numThreads * 2)
+				{
+					final int unpackSize = ReadInt(input);
+					int packSize = ReadInt(input);
+					if (unpackSize == 0 && packSize == 0)
+					{
+						end = true;
+						break;
+					}
+					if (unpackSize < 0 || packSize < 0)
+						throw new IOException("Error in data stream");
+					final byte[] packed = new byte[packSize];
+					input.readFully(packed);
+					inPos += 8 + packSize;
+					pending.add(executor.submit(new Callable<byte[]>()
+					{
+						public byte[] call() throws IOException
+						{
+							return DecodeBlock(packed, unpackSize);
+						}
+					}));
+				}
+				if (pending.isEmpty())
+					break;
+
+				byte[] block = LzmaBlockEncoder.Get(pending.removeFirst());
+				outStream.write(block);
+				outPos += block.length;
+				if (progress != null)
+					progress.SetProgress(inPos, outPos);
+			}
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+		outStream.flush();
+	}
+
+	/**
+	 * Reads header and index of a container file for random access by
+	 * GetBlock()/Read().
+	 */
+	public void Open(java.io.RandomAccessFile file) throws IOException
+	{
+		file.seek(0);
+		ReadHeader(file);
+
+		long length = file.length();
+		if (length < LzmaBlockEncoder.kTrailerSize)
+			throw new IOException("Not a LZMA block container");
+		file.seek(length - LzmaBlockEncoder.kTrailerSize);
+		long indexOffset = ReadLong(file);
+		byte[] signature = new byte[LzmaBlockEncoder.kIndexSignature.length];
+		file.readFully(signature);
+		if (!java.util.Arrays.equals(signature, LzmaBlockEncoder.kIndexSignature))
+			throw new IOException("LZMA block container has no index");
+
+		file.seek(indexOffset);
+		int numBlocks = ReadInt(file);
+		_offsets = new long[numBlocks];
+		_unpackOffsets = new long[numBlocks + 1];
+		for (int i = 0; i < numBlocks; i++)
+		{
+			_offsets[i] = ReadLong(file);
+			_unpackOffsets[i + 1] = _unpackOffsets[i] + ReadInt(file);
+		}
+		_numBlocks = numBlocks;
+		_file = file;
+	}
+
+	public int GetNumBlocks() { return _numBlocks; }
+
+	/** Total decompressed size, after Open() */
+	public long GetUnpackSize() { return _unpackOffsets[_numBlocks]; }
+
+	/** Decompressed position the block starts at, after Open() */
+	public long GetBlockOffset(int blockIndex) { return _unpackOffsets[blockIndex]; }
+
+	/**
+	 * Index of the block that holds decompressed position pos, or -1 if pos is
+	 * out of range, after Open().
+	 */
+	public int GetBlockIndex(long pos)
+	{
+		if (pos < 0 || pos >= GetUnpackSize())
+			return -1;
+		int lo = 0;
+		int hi = _numBlocks - 1;
+		while (lo < hi)
+		{
+			int mid = (lo + hi + 1) >>> 1;
+			if (_unpackOffsets[mid] <= pos)
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+		return lo;
+	}
+
+	/**
+	 * Decodes one block of the opened file.
+	 */
+	public byte[] GetBlock(int blockIndex) throws IOException
+	{
+		byte[] packed;
+		int unpackSize;
+		synchronized (this)
+		{
+			_file.seek(_offsets[blockIndex]);
+			unpackSize = ReadInt(_file);
+			int packSize = ReadInt(_file);
+			if (unpackSize != _unpackOffsets[blockIndex + 1] - _unpackOffsets[blockIndex] || packSize < 0)
+				throw new IOException("Error in data stream");
+			packed = new byte[packSize];
+			_file.readFully(packed);
+		}
+		return DecodeBlock(packed, unpackSize);
+	}
+
+	/**
+	 * Reads up to len decompressed bytes at pos of the opened file, decoding
+	 * only the blocks involved.
+	 * @return number of bytes read, -1 at end
+	 */
+	public int Read(long pos, byte[] b, int off, int len) throws IOException
+	{
+		int blockIndex = GetBlockIndex(pos);
+		if (blockIndex < 0)
+			return -1;
+		int n = 0;
+		while (n < len && blockIndex < _numBlocks)
+		{
+			byte[] block = GetBlock(blockIndex);
+			int from = (int)(pos + n - _unpackOffsets[blockIndex]);
+			int count = Math.min(len - n, block.length - from);
+			System.arraycopy(block, from, b, off + n, count);
+			n += count;
+			blockIndex++;
+		}
+		return n;
+	}
+
+	ExecutorService NewExecutor()
+	{
+		return Executors.newFixedThreadPool(_numThreads, new ThreadFactory()
+		{
+			public Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, "LzmaBlockDecoder");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	static int ReadInt(java.io.DataInput input) throws IOException
+	{
+		int v = 0;
+		for (int i = 0; i < 4; i++)
+			v |= (input.readUnsignedByte()) << (8 * i);
+		return v;
+	}
+
+	static long ReadLong(java.io.DataInput input) throws IOException
+	{
+		long v = 0;
+		for (int i = 0; i < 8; i++)
+			v |= ((long)input.readUnsignedByte()) << (8 * i);
+		return v;
+	}
+}
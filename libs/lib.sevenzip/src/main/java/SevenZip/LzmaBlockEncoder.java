@@ -0,0 +1,307 @@
+package SevenZip;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Block parallel LZMA encoder.
+ *
+ * The input is split into blocks of blockSize, each one is compressed
+ * independently on a thread pool and written in order into an indexed
+ * container, which LzmaBlockDecoder decompresses in parallel too, or seeks in:
+ *
+ *   header:  "LZB1", 5 bytes coder properties, int blockSize
+ *   blocks:  int unpackSize, int packSize, packSize bytes of raw LZMA data
+ *            (without end marker), ended by a block of 0, 0
+ *   index:   int numBlocks, then per block long offset of block, int unpackSize
+ *   trailer: long offset of index, "LZBI"
+ *
+ * Numbers are little endian as in .lzma header. At most 2 * numThreads blocks
+ * are read ahead, which bounds the memory used besides the encoders.
+ */
+public class LzmaBlockEncoder
+{
+	public static final int kDefaultBlockSize = 1 << 22;
+	public static final byte[] kSignature = { 'L', 'Z', 'B', '1' };
+	public static final byte[] kIndexSignature = { 'L', 'Z', 'B', 'I' };
+	public static final int kTrailerSize = 8 + 4;
+
+	int _blockSize = kDefaultBlockSize;
+	int _numThreads = Runtime.getRuntime().availableProcessors();
+
+	int _dictionarySize = 1 << 23;
+	int _numFastBytes = 128;
+	int _matchFinder = SevenZip.Compression.LZMA.Encoder.EMatchFinderTypeBT4;
+	int _lc = 3;
+	int _lp = 0;
+	int _pb = 2;
+
+	// idle encoders, each one is used by one block at a time
+	final ConcurrentLinkedQueue<SevenZip.Compression.LZMA.Encoder> _encoders =
+			new ConcurrentLinkedQueue<SevenZip.Compression.LZMA.Encoder>();
+
+	public boolean SetBlockSize(int blockSize)
+	{
+		if (blockSize < (1 << 12))
+			return false;
+		_blockSize = blockSize;
+		_encoders.clear();
+		return true;
+	}
+
+	public boolean SetNumThreads(int numThreads)
+	{
+		if (numThreads < 1)
+			return false;
+		_numThreads = numThreads;
+		return true;
+	}
+
+	public boolean SetDictionarySize(int dictionarySize)
+	{
+		if (!new SevenZip.Compression.LZMA.Encoder().SetDictionarySize(dictionarySize))
+			return false;
+		_dictionarySize = dictionarySize;
+		_encoders.clear();
+		return true;
+	}
+
+	public boolean SetNumFastBytes(int numFastBytes)
+	{
+		if (!new SevenZip.Compression.LZMA.Encoder().SetNumFastBytes(numFastBytes))
+			return false;
+		_numFastBytes = numFastBytes;
+		_encoders.clear();
+		return true;
+	}
+
+	public boolean SetMatchFinder(int matchFinderIndex)
+	{
+		if (!new SevenZip.Compression.LZMA.Encoder().SetMatchFinder(matchFinderIndex))
+			return false;
+		_matchFinder = matchFinderIndex;
+		_encoders.clear();
+		return true;
+	}
+
+	public boolean SetLcLpPb(int lc, int lp, int pb)
+	{
+		if (!new SevenZip.Compression.LZMA.Encoder().SetLcLpPb(lc, lp, pb))
+			return false;
+		_lc = lc;
+		_lp = lp;
+		_pb = pb;
+		_encoders.clear();
+		return true;
+	}
+
+	/** A block never needs a dictionary larger than itself */
+	int BlockDictionarySize()
+	{
+		int size = 1 << 12;
+		while (size < _dictionarySize && size < _blockSize)
+			size <<= 1;
+		return Math.min(size, _dictionarySize);
+	}
+
+	SevenZip.Compression.LZMA.Encoder AcquireEncoder()
+	{
+		SevenZip.Compression.LZMA.Encoder encoder = _encoders.poll();
+		if (encoder == null)
+		{
+			encoder = new SevenZip.Compression.LZMA.Encoder();
+			encoder.SetDictionarySize(BlockDictionarySize());
+			encoder.SetNumFastBytes(_numFastBytes);
+			encoder.SetMatchFinder(_matchFinder);
+			encoder.SetLcLpPb(_lc, _lp, _pb);
+			encoder.SetEndMarkerMode(false);
+		}
+		return encoder;
+	}
+
+	byte[] EncodeBlock(byte[] block, int size) throws IOException
+	{
+		LzmaCodec.In in = new LzmaCodec.In();
+		LzmaCodec.Out out = new LzmaCodec.Out();
+		in.Set(block, 0, size);
+		SevenZip.Compression.LZMA.Encoder encoder = AcquireEncoder();
+		try
+		{
+			encoder.Code(in, out, -1, -1, null);
+		}
+		finally
+		{
+			_encoders.offer(encoder);
+		}
+		return out.ToByteArray();
+	}
+
+	public void WriteCoderProperties(java.io.OutputStream outStream) throws IOException
+	{
+		SevenZip.Compression.LZMA.Encoder encoder = AcquireEncoder();
+		encoder.WriteCoderProperties(outStream);
+		_encoders.offer(encoder);
+	}
+
+	public void Code(final java.io.InputStream inStream, java.io.OutputStream outStream,
+			ICodeProgress progress) throws IOException
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(_numThreads, new ThreadFactory()
+		{
+			public Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, "LzmaBlockEncoder");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		long[] offsets = new long[64];
+		int[] unpackSizes = new int[64];
+		int numBlocks = 0;
+		long inPos = 0;
+		long outPos = 0;
+		try
+		{
+			outStream.write(kSignature);
+			WriteCoderProperties(outStream);
+			WriteInt(outStream, _blockSize);
+			outPos = kSignature.length + SevenZip.Compression.LZMA.Encoder.kPropSize + 4;
+
+			LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+			LinkedList<Integer> pendingSizes = new LinkedList<Integer>();
+			boolean eof = false;
+			while (!eof || !pending.isEmpty())
+			{
+				while (!eof && pending.size() < _numThreads * 2)
+				{
+					final byte[] block = new byte[_blockSize];
+					final int size = ReadFully(inStream, block);
+					if (size <= 0)
+					{
+						eof = true;
+						break;
+					}
+					pending.add(executor.submit(new Callable<byte[]>()
+					{
+						public byte[] call() throws IOException
+						{
+							return EncodeBlock(block, size);
+						}
+					}));
+					pendingSizes.add(size);
+					if (size < _blockSize)
+						eof = true;
+				}
+				if (pending.isEmpty())
+					break;
+
+				byte[] packed = Get(pending.removeFirst());
+				int unpackSize = pendingSizes.removeFirst();
+				if (numBlocks == offsets.length)
+				{
+					offsets = CopyOf(offsets, numBlocks * 2);
+					unpackSizes = CopyOf(unpackSizes, numBlocks * 2);
+				}
+				offsets[numBlocks] = outPos;
+				unpackSizes[numBlocks] = unpackSize;
+				numBlocks++;
+
+				WriteInt(outStream, unpackSize);
+				WriteInt(outStream, packed.length);
+				outStream.write(packed);
+				inPos += unpackSize;
+				outPos += 8 + packed.length;
+				if (progress != null)
+					progress.SetProgress(inPos, outPos);
+			}
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+
+		// end of blocks
+		WriteInt(outStream, 0);
+		WriteInt(outStream, 0);
+		outPos += 8;
+
+		long indexOffset = outPos;
+		WriteInt(outStream, numBlocks);
+		for (int i = 0; i < numBlocks; i++)
+		{
+			WriteLong(outStream, offsets[i]);
+			WriteInt(outStream, unpackSizes[i]);
+		}
+		WriteLong(outStream, indexOffset);
+		outStream.write(kIndexSignature);
+		outStream.flush();
+	}
+
+	static byte[] Get(Future<byte[]> future) throws IOException
+	{
+		try
+		{
+			return future.get();
+		}
+		catch (InterruptedException e)
+		{
+			throw new java.io.InterruptedIOException();
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException)cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			throw new IOException(cause.toString());
+		}
+	}
+
+	static int ReadFully(java.io.InputStream stream, byte[] buf) throws IOException
+	{
+		int size = 0;
+		while (size < buf.length)
+		{
+			int n = stream.read(buf, size, buf.length - size);
+			if (n < 0)
+				break;
+			size += n;
+		}
+		return size;
+	}
+
+	static void WriteInt(java.io.OutputStream stream, int v) throws IOException
+	{
+		for (int i = 0; i < 4; i++)
+			stream.write((v >>> (8 * i)) & 0xFF);
+	}
+
+	static void WriteLong(java.io.OutputStream stream, long v) throws IOException
+	{
+		for (int i = 0; i < 8; i++)
+			stream.write((int)(v >>> (8 * i)) & 0xFF);
+	}
+
+	static long[] CopyOf(long[] src, int n)
+	{
+		long[] dst = new long[n];
+		System.arraycopy(src, 0, dst, 0, Math.min(src.length, n));
+		return dst;
+	}
+
+	static int[] CopyOf(int[] src, int n)
+	{
+		int[] dst = new int[n];
+		System.arraycopy(src, 0, dst, 0, Math.min(src.length, n));
+		return dst;
+	}
+}
@@ -0,0 +1,332 @@
+package SevenZip;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A reusable LZMA codec for many small payloads.
+ *
+ * The Encoder/Decoder instances, and with them the match finder tables and the
+ * windows, are kept across calls and only re-initialized, so that coding a
+ * small payload doesn't allocate megabytes any more. The encoder settings come
+ * from an Encoder.Preset, by default the one of Preset.ForSize(), and the
+ * dictionary is sized to the payload (a power of 2 between
+ * kMinDictionaryLogSize and the dictionary size of the preset, at most the max
+ * one), with one encoder cached per preset and size, which keeps the tables
+ * that Init() clears small for small payloads. Any dictionary not larger than
+ * the max one is decodable by the decoder, presets have to keep lc/lp/pb of
+ * DecoderProperties().
+ *
+ * Data is coded raw with end marker and without properties header, the same
+ * as Encoder.Code(in, out, -1, -1, null) with SetEndMarkerMode(true) and
+ * Decoder.Code(in, out, -1), through unsynchronized in/out streams over
+ * byte[] or ByteBuffer.
+ *
+ * An instance is not thread safe, use Get() for the one of current thread.
+ */
+public class LzmaCodec
+{
+	public static final int kDefaultDictionaryLogSize = 20;
+	public static final int kMinDictionaryLogSize = 12;
+
+	static final ThreadLocal<LzmaCodec> threadCodec = new ThreadLocal<LzmaCodec>()
+	{
+		protected LzmaCodec initialValue() { return new LzmaCodec(); }
+	};
+
+	/** The codec of current thread, with default dictionary size */
+	public static LzmaCodec Get() { return threadCodec.get(); }
+
+	final int _maxDictionaryLogSize;
+	// per preset, by dictionary log size
+	final java.util.HashMap<SevenZip.Compression.LZMA.Encoder.Preset, SevenZip.Compression.LZMA.Encoder[]> _encoders =
+			new java.util.HashMap<SevenZip.Compression.LZMA.Encoder.Preset, SevenZip.Compression.LZMA.Encoder[]>();
+	SevenZip.Compression.LZMA.Decoder _decoder;
+
+	final In _in = new In();
+	final Out _out = new Out();
+
+	public LzmaCodec()
+	{
+		this(kDefaultDictionaryLogSize);
+	}
+
+	public LzmaCodec(int maxDictionaryLogSize)
+	{
+		if (maxDictionaryLogSize < kMinDictionaryLogSize || maxDictionaryLogSize > 29)
+			throw new IllegalArgumentException("Incorrect dictionary size");
+		_maxDictionaryLogSize = maxDictionaryLogSize;
+	}
+
+	/** The properties that the decoder side uses, 5 bytes */
+	public byte[] DecoderProperties()
+	{
+		byte[] props = new byte[SevenZip.Compression.LZMA.Encoder.kPropSize];
+		props[0] = (byte)((2 * 5 + 0) * 9 + 3); // pb = 2, lp = 0, lc = 3
+		for (int i = 0; i < 4; i++)
+			props[1 + i] = (byte)((1 << _maxDictionaryLogSize) >> (8 * i));
+		return props;
+	}
+
+	SevenZip.Compression.LZMA.Encoder EncoderFor(int inSize, SevenZip.Compression.LZMA.Encoder.Preset preset)
+	{
+		SevenZip.Compression.LZMA.Encoder[] encoders = _encoders.get(preset);
+		if (encoders == null)
+		{
+			if (preset.Lc != 3 || preset.Lp != 0 || preset.Pb != 2)
+				throw new IllegalArgumentException("Preset " + preset + " differs from decoder properties in lc/lp/pb");
+			encoders = new SevenZip.Compression.LZMA.Encoder[_maxDictionaryLogSize + 1];
+			_encoders.put(preset, encoders);
+		}
+		int dicLogSize = kMinDictionaryLogSize;
+		while (dicLogSize < _maxDictionaryLogSize && (1 << dicLogSize) < inSize && (1 << dicLogSize) < preset.DictionarySize)
+			dicLogSize++;
+		SevenZip.Compression.LZMA.Encoder encoder = encoders[dicLogSize];
+		if (encoder == null)
+		{
+			encoder = new SevenZip.Compression.LZMA.Encoder();
+			if (!encoder.SetPreset(preset))
+				throw new IllegalArgumentException("Incorrect preset " + preset);
+			encoder.SetEndMarkerMode(true);
+			encoder.SetDictionarySize(1 << dicLogSize);
+			encoders[dicLogSize] = encoder;
+		}
+		return encoder;
+	}
+
+	SevenZip.Compression.LZMA.Decoder Decoder()
+	{
+		if (_decoder == null)
+		{
+			_decoder = new SevenZip.Compression.LZMA.Decoder();
+			_decoder.SetDecoderProperties(DecoderProperties());
+		}
+		return _decoder;
+	}
+
+	public byte[] Compress(byte[] data) throws IOException
+	{
+		return Compress(data, 0, data.length);
+	}
+
+	public byte[] Compress(byte[] data, int offset, int length) throws IOException
+	{
+		return Compress(data, offset, length, SevenZip.Compression.LZMA.Encoder.Preset.ForSize(length));
+	}
+
+	public byte[] Compress(byte[] data, int offset, int length, SevenZip.Compression.LZMA.Encoder.Preset preset) throws IOException
+	{
+		_in.Set(data, offset, length);
+		_out.Set(null);
+		try
+		{
+			EncoderFor(length, preset).Code(_in, _out, -1, -1, null);
+			return _out.ToByteArray();
+		}
+		finally
+		{
+			_in.Clear();
+			_out.Clear();
+		}
+	}
+
+	/**
+	 * Compresses the remaining bytes of src into dst, advancing both.
+	 * @return number of bytes written to dst
+	 * @throws java.nio.BufferOverflowException if dst is too small
+	 */
+	public int Compress(ByteBuffer src, ByteBuffer dst) throws IOException
+	{
+		return Compress(src, dst, SevenZip.Compression.LZMA.Encoder.Preset.ForSize(src.remaining()));
+	}
+
+	public int Compress(ByteBuffer src, ByteBuffer dst, SevenZip.Compression.LZMA.Encoder.Preset preset) throws IOException
+	{
+		int start = dst.position();
+		_in.Set(src);
+		_out.Set(dst);
+		try
+		{
+			EncoderFor(src.remaining(), preset).Code(_in, _out, -1, -1, null);
+			return dst.position() - start;
+		}
+		finally
+		{
+			_in.Clear();
+			_out.Clear();
+		}
+	}
+
+	public byte[] Decompress(byte[] data) throws IOException
+	{
+		return Decompress(data, 0, data.length);
+	}
+
+	public byte[] Decompress(byte[] data, int offset, int length) throws IOException
+	{
+		_in.Set(data, offset, length);
+		_out.Set(null);
+		try
+		{
+			if (!Decoder().Code(_in, _out, -1))
+				throw new IOException("Error in data stream");
+			return _out.ToByteArray();
+		}
+		finally
+		{
+			_in.Clear();
+			_out.Clear();
+		}
+	}
+
+	/**
+	 * Decompresses src into dst, advancing both.
+	 * @return number of bytes written to dst
+	 * @throws java.nio.BufferOverflowException if dst is too small
+	 */
+	public int Decompress(ByteBuffer src, ByteBuffer dst) throws IOException
+	{
+		int start = dst.position();
+		_in.Set(src);
+		_out.Set(dst);
+		try
+		{
+			if (!Decoder().Code(_in, _out, -1))
+				throw new IOException("Error in data stream");
+			return dst.position() - start;
+		}
+		finally
+		{
+			_in.Clear();
+			_out.Clear();
+		}
+	}
+
+	/**
+	 * Unsynchronized input over a byte[] range or a ByteBuffer.
+	 */
+	static final class In extends java.io.InputStream
+	{
+		byte[] _buf;
+		int _pos;
+		int _limit;
+		ByteBuffer _buffer;
+
+		void Set(byte[] buf, int offset, int length)
+		{
+			_buf = buf;
+			_pos = offset;
+			_limit = offset + length;
+			_buffer = null;
+		}
+
+		void Set(ByteBuffer buffer)
+		{
+			_buf = null;
+			_buffer = buffer;
+		}
+
+		void Clear()
+		{
+			_buf = null;
+			_buffer = null;
+		}
+
+		public int read()
+		{
+			if (_buffer != null)
+				return _buffer.hasRemaining() ? _buffer.get() & 0xFF : -1;
+			return _pos < _limit ? _buf[_pos++] & 0xFF : -1;
+		}
+
+		public int read(byte[] b, int off, int len)
+		{
+			if (len == 0)
+				return 0;
+			if (_buffer != null)
+			{
+				int n = Math.min(len, _buffer.remaining());
+				if (n == 0)
+					return -1;
+				_buffer.get(b, off, n);
+				return n;
+			}
+			int n = Math.min(len, _limit - _pos);
+			if (n <= 0)
+				return -1;
+			System.arraycopy(_buf, _pos, b, off, n);
+			_pos += n;
+			return n;
+		}
+	}
+
+	/**
+	 * Unsynchronized output into a growable byte[] kept across calls, or into
+	 * a ByteBuffer.
+	 */
+	static final class Out extends java.io.OutputStream
+	{
+		static final int kMaxRetainedSize = 1 << 20;
+
+		byte[] _buf = new byte[256];
+		int _count;
+		ByteBuffer _buffer;
+
+		void Set(ByteBuffer buffer)
+		{
+			_buffer = buffer;
+			_count = 0;
+		}
+
+		void Clear()
+		{
+			_buffer = null;
+			_count = 0;
+			// don't hold on to what an exceptionally large payload needed
+			if (_buf.length > kMaxRetainedSize)
+				_buf = new byte[256];
+		}
+
+		void EnsureCapacity(int extra)
+		{
+			int required = _count + extra;
+			if (required > _buf.length)
+			{
+				byte[] newBuf = new byte[Math.max(required, _buf.length * 2)];
+				System.arraycopy(_buf, 0, newBuf, 0, _count);
+				_buf = newBuf;
+			}
+		}
+
+		public void write(int b)
+		{
+			if (_buffer != null)
+			{
+				_buffer.put((byte)b);
+				return;
+			}
+			if (_count == _buf.length)
+				EnsureCapacity(1);
+			_buf[_count++] = (byte)b;
+		}
+
+		public void write(byte[] b, int off, int len)
+		{
+			if (_buffer != null)
+			{
+				_buffer.put(b, off, len);
+				return;
+			}
+			EnsureCapacity(len);
+			System.arraycopy(b, off, _buf, _count, len);
+			_count += len;
+		}
+
+		byte[] ToByteArray()
+		{
+			byte[] bytes = new byte[_count];
+			System.arraycopy(_buf, 0, bytes, 0, _count);
+			return bytes;
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package SevenZip;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Decodes .lzma files (5 bytes properties, 8 bytes size, data, as written by
+ * LzmaAlone) from a memory mapped input into a mapped output file or a direct
+ * ByteBuffer, through BufferOutWindow, without stream copies.
+ *
+ * Regions are unmapped by gc only, as Java has no explicit unmapping.
+ */
+public class LzmaFileDecoder
+{
+	public static final long kRegionSize = 1L << 28;
+	static final int kHeaderSize = 5 + 8;
+
+	/**
+	 * Sequential input over a file channel, mapped by regions.
+	 */
+	static final class MappedIn extends java.io.InputStream
+	{
+		final FileChannel _channel;
+		final long _size;
+		long _regionStart;
+		ByteBuffer _region;
+
+		MappedIn(FileChannel channel, long position) throws IOException
+		{
+			_channel = channel;
+			_size = channel.size();
+			_regionStart = position;
+			_region = ByteBuffer.allocate(0);
+		}
+
+		boolean NextRegion() throws IOException
+		{
+			_regionStart += _region.limit();
+			long n = Math.min(kRegionSize, _size - _regionStart);
+			if (n <= 0)
+				return false;
+			_region = _channel.map(FileChannel.MapMode.READ_ONLY, _regionStart, n);
+			return true;
+		}
+
+		public int read() throws IOException
+		{
+			if (!_region.hasRemaining() && !NextRegion())
+				return -1;
+			return _region.get() & 0xFF;
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			if (len == 0)
+				return 0;
+			if (!_region.hasRemaining() && !NextRegion())
+				return -1;
+			int n = Math.min(len, _region.remaining());
+			_region.get(b, off, n);
+			return n;
+		}
+	}
+
+	static SevenZip.Compression.LZMA.Decoder NewDecoder(ByteBuffer header) throws IOException
+	{
+		byte[] properties = new byte[5];
+		header.get(properties);
+		SevenZip.Compression.LZMA.Decoder decoder = new SevenZip.Compression.LZMA.Decoder();
+		if (!decoder.SetDecoderProperties(properties))
+			throw new IOException("Incorrect stream properties");
+		return decoder;
+	}
+
+	static ByteBuffer ReadHeader(FileChannel channel) throws IOException
+	{
+		if (channel.size() < kHeaderSize)
+			throw new IOException("input .lzma file is too short");
+		ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, kHeaderSize);
+		header.order(java.nio.ByteOrder.LITTLE_ENDIAN);
+		return header;
+	}
+
+	/**
+	 * Decodes inFile into outFile.
+	 * @return decoded size
+	 */
+	public static long Decode(java.io.File inFile, java.io.File outFile) throws IOException
+	{
+		java.io.RandomAccessFile in = new java.io.RandomAccessFile(inFile, "r");
+		java.io.RandomAccessFile out = new java.io.RandomAccessFile(outFile, "rw");
+		try
+		{
+			FileChannel inChannel = in.getChannel();
+			FileChannel outChannel = out.getChannel();
+			ByteBuffer header = ReadHeader(inChannel);
+			SevenZip.Compression.LZMA.Decoder decoder = NewDecoder(header);
+			long outSize = header.getLong(); // -1 if unknown, then ended by end marker
+
+			// any match reaches back at most a dictionary size, see Decoder
+			long dictionarySize = (header.getInt(1) & 0xFFFFFFFFL);
+			long regionSize = Math.max(kRegionSize, dictionarySize);
+			if (outSize >= 0)
+				regionSize = Math.max(1, Math.min(regionSize, outSize));
+			if (regionSize > Integer.MAX_VALUE)
+				throw new IOException("Dictionary is too large to map");
+
+			SevenZip.Compression.LZ.BufferOutWindow window =
+				new SevenZip.Compression.LZ.BufferOutWindow(outChannel, 0, regionSize);
+			if (!decoder.Code(new MappedIn(inChannel, kHeaderSize), window, outSize))
+				throw new IOException("Error in data stream");
+			long size = window.GetProcessedSize();
+			// the last mapped region may reach beyond
+			outChannel.truncate(size);
+			return size;
+		}
+		finally
+		{
+			out.close();
+			in.close();
+		}
+	}
+
+	/**
+	 * Decodes inFile into a new direct ByteBuffer, which is flipped.
+	 */
+	public static ByteBuffer Decode(java.io.File inFile) throws IOException
+	{
+		java.io.RandomAccessFile in = new java.io.RandomAccessFile(inFile, "r");
+		try
+		{
+			FileChannel inChannel = in.getChannel();
+			ByteBuffer header = ReadHeader(inChannel);
+			SevenZip.Compression.LZMA.Decoder decoder = NewDecoder(header);
+			long outSize = header.getLong();
+			if (outSize < 0 || outSize > Integer.MAX_VALUE)
+				throw new IOException("Decoded size is unknown or too large for a ByteBuffer");
+
+			ByteBuffer out = ByteBuffer.allocateDirect((int)outSize);
+			Decode(new MappedIn(inChannel, kHeaderSize), decoder, out, outSize);
+			return out;
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * Decodes raw LZMA data from in into out from its position, then flips out,
+	 * so it's ready to be read from 0 to the end of the decoded data.
+	 */
+	public static void Decode(java.io.InputStream in, SevenZip.Compression.LZMA.Decoder decoder,
+			ByteBuffer out, long outSize) throws IOException
+	{
+		SevenZip.Compression.LZ.BufferOutWindow window = new SevenZip.Compression.LZ.BufferOutWindow(out);
+		if (!decoder.Code(in, window, outSize))
+			throw new IOException("Error in data stream");
+		out.position(out.position() + (int)window.GetProcessedSize());
+		out.flip();
+	}
+}
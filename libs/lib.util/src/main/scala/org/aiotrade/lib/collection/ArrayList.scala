@@ -270,6 +270,14 @@ class ArrayList[A](override protected val initialSize: Int, protected val elemen
     res
   }
 
+  /**
+   * The backing array, which is a primitive array if A is a primitive type, so
+   * elements can be read and written without boxing when A is known.
+   * @Note only elements before size are valid, and it is replaced by a new one
+   * when this buffer grows, so don't keep it across modifications.
+   */
+  def underlyingArray: Array[A] = array
+
   def sliceToArrayList(start: Int, len: Int): ArrayList[A] = {
     val res = new ArrayList(len)
     Array.copy(array, start, res.array, 0, len)
@@ -39,8 +39,10 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.ResourceBundle;
 import javax.swing.DefaultComboBoxModel;
 import javax.swing.ImageIcon;
@@ -175,6 +177,60 @@ public class ImportSymbolDialog extends javax.swing.JPanel {
         quoteContract.datePattern_$eq(Option.apply(propDateFormatString(str)));
     }
 
+    /**
+     * Symbols to import after showDialog: when path is a directory, the symbols
+     * of data files in it (per file name without extension, converted by
+     * selected server), otherwise the ones listed in symbols field, separated
+     * by ',' or white spaces.
+     *
+     * More than one symbol is imported in bulk mode, see BulkImportPane
+     */
+    public List<String> symbols() {
+        List<String> symbols = new ArrayList<String>();
+        Map<String, File> symbolFiles = symbolFiles();
+        if (!symbolFiles.isEmpty()) {
+            symbols.addAll(symbolFiles.keySet());
+        } else {
+            for (String symbol : quoteContract.srcSymbol().split("[,\\s]+")) {
+                if (symbol.length() > 0) {
+                    symbols.add(symbol);
+                }
+            }
+        }
+        return symbols;
+    }
+
+    /**
+     * Data files after showDialog when path is a directory, keyed by symbol
+     * converted by selected server, empty otherwise.
+     */
+    public Map<String, File> symbolFiles() {
+        Map<String, File> symbolFiles = new LinkedHashMap<String, File>();
+        String path = quoteContract.urlString();
+        File dir = path.toUpperCase().startsWith("FILE:") ? new File(path.substring(5)) : null;
+        if (dir != null && dir.isDirectory()) {
+            QuoteServer selectedServer = (QuoteServer) dataSourceComboBox.getSelectedItem();
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (file.isFile() && !file.getName().startsWith(".")) {
+                        symbolFiles.put(selectedServer.toUniSymbol(srcSymbolOf(file)), file);
+                    }
+                }
+            }
+        }
+        return symbolFiles;
+    }
+
+    /**
+     * @return symbol in source of a data file, which is its name without extension
+     */
+    public static String srcSymbolOf(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return (dot > 0 ? name.substring(0, dot) : name).toUpperCase();
+    }
+
     private String propDateFormatString(String str) {
         str = str.trim();
         str = str.replace('Y', 'y');
@@ -31,16 +31,22 @@
 package org.aiotrade.modules.ui.dialog;
 
 import java.awt.Color;
+import java.awt.EventQueue;
 import java.awt.Frame;
 import java.io.File;
 import java.text.DateFormat;
+import java.text.MessageFormat;
 import java.util.Calendar;
 import java.util.ResourceBundle;
+import java.util.concurrent.CancellationException;
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
 import javax.swing.filechooser.FileFilter;
+import org.aiotrade.lib.charting.view.ChartImageExporter;
 import org.aiotrade.lib.charting.view.ChartViewContainer;
+import org.aiotrade.lib.charting.view.ImageExportListener;
 import org.aiotrade.lib.math.timeseries.BaseTSer;
+import org.openide.util.RequestProcessor;
 
 /**
  *
@@ -55,6 +61,8 @@ public class SaveToImageDialog extends javax.swing.JDialog {
     private File file;
     
     private int value = JOptionPane.CANCEL_OPTION;
+    private ChartImageExporter exporter;
+    private Exception exportError;
     
     private Calendar calendar = Calendar.getInstance();
     private DateFormat dateFormat = DateFormat.getInstance();
@@ -140,7 +148,8 @@ public class SaveToImageDialog extends javax.swing.JDialog {
         int endPosition = baseSer.rowOfTime(toTime);
         imageWidth = (int)((endPosition - begPosition + 1) * viewContainer.controller().wBar());
         widthLable.setText(String.valueOf(imageWidth));
-        if (imageWidth * imageHeight > 1024 * 768 * 20) {
+        /** image is exported in bands, memory is bounded by its width only */
+        if (imageWidth > ChartImageExporter.MaxBandPixels()) {
             warningLable.setForeground(Color.RED);
 //            warningLable.setText("Too big time scope that may exceed memory!");
             warningLable.setText(bundle.getString("Too_Big_Time_Scope"));
@@ -202,6 +211,60 @@ public class SaveToImageDialog extends javax.swing.JDialog {
         return value;
     }
     
+    /**
+     * @return the exception that failed export, or null
+     */
+    public Exception getExportError() {
+        return exportError;
+    }
+    
+    /**
+     * Exports image on a worker thread, with progress in warningLable, and
+     * closes this dialog when done. Cancel stops exporting.
+     */
+    private void startExport() {
+        setDefaultCloseOperation(DO_NOTHING_ON_CLOSE);
+        warningLable.setForeground(Color.BLACK);
+        warningLable.setText(MessageFormat.format(bundle.getString("Exporting_Image"), 0));
+        
+        final ChartImageExporter theExporter = new ChartImageExporter(viewContainer, fromTime, toTime, imageHeight);
+        final File theFile = file;
+        exporter = theExporter;
+        RequestProcessor.getDefault().post(new Runnable() {
+            public void run() {
+                Exception error = null;
+                try {
+                    theExporter.export(theFile, "png", new ImageExportListener() {
+                        public void progress(final int nBandsDone, final int nBands) {
+                            EventQueue.invokeLater(new Runnable() {
+                                public void run() {
+                                    warningLable.setText(MessageFormat.format(bundle.getString("Exporting_Image"), nBandsDone * 100 / nBands));
+                                }
+                            });
+                        }
+                    });
+                } catch (CancellationException ex) {
+                } catch (Exception ex) {
+                    error = ex;
+                }
+                
+                final Exception theError = error;
+                EventQueue.invokeLater(new Runnable() {
+                    public void run() {
+                        exportFinished(theError);
+                    }
+                });
+            }
+        });
+    }
+    
+    private void exportFinished(Exception error) {
+        value = error == null && !exporter.isCancelled() ? JOptionPane.OK_OPTION : JOptionPane.CANCEL_OPTION;
+        exportError = error;
+        exporter = null;
+        setVisible(false);
+    }
+    
     /** This method is called from within the constructor to
      * initialize the form.
      * WARNING: Do NOT modify this code. The content of this method is
@@ -373,13 +436,16 @@ public class SaveToImageDialog extends javax.swing.JDialog {
     
     private void fileChooserActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_fileChooserActionPerformed
         if (evt.getActionCommand().equals(JFileChooser.APPROVE_SELECTION)) {
-            if (applyChanges()) {
-                value = JOptionPane.OK_OPTION;
-                setVisible(false);
+            if (exporter == null && applyChanges()) {
+                startExport();
             }
         } else if (evt.getActionCommand().equals(JFileChooser.CANCEL_SELECTION)) {
-            value = JOptionPane.CANCEL_OPTION;
-            setVisible(false);        
+            if (exporter != null) {
+                exporter.cancel();
+            } else {
+                value = JOptionPane.CANCEL_OPTION;
+                setVisible(false);
+            }
         }        
     }//GEN-LAST:event_fileChooserActionPerformed
     
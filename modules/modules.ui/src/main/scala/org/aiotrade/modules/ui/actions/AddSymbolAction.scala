@@ -36,6 +36,7 @@ import org.aiotrade.lib.securities.dataserver.QuoteContract
 import org.aiotrade.modules.ui.nodes.SymbolNodes
 import org.aiotrade.modules.ui.windows.ExplorerTopComponent
 import org.aiotrade.modules.ui.dialog.ImportSymbolDialog
+import org.aiotrade.modules.ui.dialogs.BulkImportPane
 import org.openide.loaders.DataFolder
 import org.openide.util.HelpCtx
 import org.openide.util.NbBundle
@@ -81,19 +82,24 @@ class AddSymbolAction extends CallableSystemAction {
             return
           }
                 
-          /** quoteContract may bring in more than one symbol, should process it here */
-          for (symbol <- quoteContract.srcSymbol.split(",")) {
-            val symbol1 = symbol.trim
-                    
-            /** dataSourceDescriptor may has been set to more than one symbols, process it here */
-            quoteContract.srcSymbol = symbol1
-                    
-            SymbolNodes.createSymbolXmlFile(currentFolder, symbol1) foreach {
-              // set attr to "open" to give a hint to SecurityNode.SymbolFolderChildren.creatNodes(Node)
-              // so as to to open it automatically
-              _.setAttribute("open", true)
-            }
-            
+          val symbols = pane.symbols
+          if (symbols.size > 1) {
+            /** import in bulk, off the EDT, without opening each symbol */
+            val bulkPane = new BulkImportPane(currentFolder, symbols.toArray(new Array[String](symbols.size)), quoteContract, pane.symbolFiles)
+            bulkPane.showDialog(WindowManager.getDefault.getMainWindow)
+            return
+          }
+
+          if (symbols.isEmpty) {
+            return
+          }
+          
+          val symbol = symbols.get(0)
+          quoteContract.srcSymbol = symbol
+          SymbolNodes.createSymbolXmlFile(currentFolder, symbol) foreach {
+            // set attr to "open" to give a hint to SecurityNode.SymbolFolderChildren.creatNodes(Node)
+            // so as to to open it automatically
+            _.setAttribute("open", true)
           }
         }
       })
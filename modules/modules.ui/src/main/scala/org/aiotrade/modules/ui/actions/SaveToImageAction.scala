@@ -31,7 +31,6 @@
 package org.aiotrade.modules.ui.actions;
 import java.io.File;
 import java.util.Calendar;
-import javax.swing.JOptionPane;
 import org.aiotrade.modules.ui.dialog.SaveToImageDialog;
 import org.aiotrade.modules.ui.windows.AnalysisChartTopComponent;
 import org.openide.ErrorManager;
@@ -100,22 +99,15 @@ class SaveToImageAction extends CallableSystemAction {
               WindowManager.getDefault.getMainWindow,
               analysisTc.viewContainer
             );
+            /** the dialog exports image off the EDT with progress before it's closed */
             dialog.setVisible(true);
                     
-            if (!(dialog.getValue() == JOptionPane.OK_OPTION)) {
-              return;
-            }
-                    
-            val begTime = dialog.getFromTime();
-            val endTime = dialog.getToTime();
-            val height = dialog.getImageHeight();
-            val file = dialog.getFile();
-                    
+            val error = dialog.getExportError
             dialog.dispose();
                     
-            try {
-              analysisTc.viewContainer.saveToCustomSizeImage(file, "png", begTime, endTime, height)
-            } catch {case ex: Exception => ErrorManager.getDefault().notify(ex)}
+            if (error != null) {
+              ErrorManager.getDefault().notify(error)
+            }
           }
         });
     } catch {case ex: Exception =>}
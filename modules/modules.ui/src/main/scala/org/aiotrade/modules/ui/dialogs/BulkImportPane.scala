@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES LOSS OF USE, DATA, OR PROFITS 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.modules.ui.dialogs
+
+import java.awt.BorderLayout
+import java.awt.Dimension
+import java.awt.EventQueue
+import java.awt.Frame
+import java.awt.event.ActionEvent
+import java.awt.event.ActionListener
+import java.io.File
+import java.text.MessageFormat
+import java.util.ResourceBundle
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.Semaphore
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.logging.Level
+import java.util.logging.Logger
+import javax.swing.BorderFactory
+import javax.swing.JButton
+import javax.swing.JDialog
+import javax.swing.JLabel
+import javax.swing.JPanel
+import javax.swing.JProgressBar
+import javax.swing.Timer
+import org.aiotrade.lib.math.timeseries.TFreq
+import org.aiotrade.lib.math.timeseries.TSerEvent
+import org.aiotrade.lib.securities.QuoteSer
+import org.aiotrade.lib.securities.dataserver.QuoteContract
+import org.aiotrade.lib.securities.model.Exchange
+import org.aiotrade.lib.securities.model.Exchanges
+import org.aiotrade.lib.util.actors.Reactor
+import org.aiotrade.modules.ui.dialog.ImportSymbolDialog
+import org.aiotrade.modules.ui.nodes.SymbolNodes
+import org.openide.filesystems.FileSystem
+import org.openide.loaders.DataFolder
+import org.openide.util.RequestProcessor
+import scala.concurrent.SyncVar
+
+/**
+ * Imports many symbols at once, in batches of BatchSize: the symbol files of a
+ * batch are created under folder in one atomic action of the file system, so
+ * the explorer refreshes once per batch instead of once per symbol, and the
+ * missing secs of a batch are created and committed at once. Then the quotes of
+ * symbols are loaded on a pool of nThreads workers, with at most 2 * nThreads
+ * loads in flight. Each load waits for TSerEvent.Loaded of the ser, the quote
+ * server has saved the quotes to db then, and releases the sers of sec
+ * afterwards, as LoadAllQuotesFromRemoteAction does.
+ *
+ * Quotes are loaded through the quote server of quoteContract, with a copy of
+ * quoteContract per symbol. A symbol that has a data file in symbolFiles, i.e.
+ * imported from a directory, is loaded from its file.
+ *
+ * @Note the quote server saves and commits the quotes of each symbol on its own
+ * thread, @see QuoteServer#processData, so they are not committed per batch.
+ *
+ * Progress and throughput are shown in the pane while importing, which runs
+ * off the EDT and can be cancelled.
+ *
+ * @author Caoyuan Deng
+ */
+class BulkImportPane(folder: DataFolder, symbols: Seq[String], quoteContract: QuoteContract,
+                     symbolFiles: java.util.Map[String, File] = java.util.Collections.emptyMap[String, File],
+                     nThreads: Int = BulkImportPane.DefaultThreads
+) extends JPanel {
+  import BulkImportPane._
+
+  private val freq: TFreq = quoteContract.freq
+
+  private val progressBar = new JProgressBar(0, math.max(symbols.size, 1))
+  private val statusLabel = new JLabel(" ")
+  private val cancelButton = new JButton(BUNDLE.getString("Bulk_Import_Cancel"))
+
+  private val nDone = new AtomicInteger
+  private val nFailed = new AtomicInteger
+  private val nQuotes = new AtomicLong
+  private var startTime: Long = _
+  @volatile private var cancelled = false
+  @volatile private var finished = false
+
+  private var dialog: JDialog = _
+
+  /** refreshes progress on EDT every RefreshInterval ms while importing */
+  private val refreshTimer = new Timer(RefreshInterval, new ActionListener {
+      def actionPerformed(e: ActionEvent) {
+        refreshStatus
+      }
+    })
+
+  setLayout(new BorderLayout(0, 6))
+  setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10))
+  progressBar.setStringPainted(true)
+  statusLabel.setPreferredSize(new Dimension(420, statusLabel.getPreferredSize.height))
+  add(progressBar, BorderLayout.NORTH)
+  add(statusLabel, BorderLayout.CENTER)
+  private val buttonPane = new JPanel
+  buttonPane.add(cancelButton)
+  add(buttonPane, BorderLayout.SOUTH)
+
+  cancelButton.addActionListener(new ActionListener {
+      def actionPerformed(e: ActionEvent) {
+        if (finished) {
+          if (dialog != null) dialog.dispose
+        } else {
+          cancel
+        }
+      }
+    })
+
+  /**
+   * Shows pane in a non-modal dialog and starts importing, should be called on EDT.
+   */
+  def showDialog(owner: Frame) {
+    dialog = new JDialog(owner, BUNDLE.getString("Bulk_Import"), false)
+    dialog.add(this)
+    dialog.pack
+    dialog.setLocationRelativeTo(owner)
+    dialog.setVisible(true)
+    start
+  }
+
+  /**
+   * Starts importing on RequestProcessor, should be called on EDT.
+   */
+  def start {
+    startTime = System.currentTimeMillis
+    refreshTimer.start
+    RequestProcessor.getDefault.post(new Runnable {
+        def run {
+          try {
+            importAll
+          } catch {
+            case ex => log.log(Level.WARNING, ex.getMessage, ex)
+          } finally {
+            finished = true
+            EventQueue.invokeLater(new Runnable {
+                def run {
+                  refreshTimer.stop
+                  refreshStatus
+                  cancelButton.setText(BUNDLE.getString("Bulk_Import_Close"))
+                }
+              })
+          }
+        }
+      })
+  }
+
+  def cancel {
+    cancelled = true
+  }
+
+  def isCancelled = cancelled
+
+  private def importAll {
+    val executor = Executors.newFixedThreadPool(nThreads, new ThreadFactory {
+        def newThread(r: Runnable) = {
+          val t = new Thread(r, "BulkImport")
+          t.setDaemon(true)
+          t
+        }
+      })
+    val maxInFlight = nThreads * 2
+    val inFlight = new Semaphore(maxInFlight)
+    try {
+      val batches = symbols.grouped(BatchSize)
+      while (batches.hasNext && !cancelled) {
+        val batch = batches.next
+        createSymbolFiles(batch)
+        createSecs(batch)
+
+        for (symbol <- batch if !cancelled) {
+          inFlight.acquire
+          executor.submit(new Callable[Unit] {
+              def call {
+                try {
+                  if (!cancelled) {
+                    val nLoaded = load(symbol)
+                    if (nLoaded >= 0) nQuotes.addAndGet(nLoaded) else nFailed.incrementAndGet
+                    nDone.incrementAndGet
+                  }
+                } catch {
+                  case ex => nFailed.incrementAndGet; nDone.incrementAndGet; log.log(Level.WARNING, "Failed to import " + symbol, ex)
+                } finally {
+                  inFlight.release
+                }
+              }
+            })
+        }
+      }
+      // wait for loads in flight
+      inFlight.acquire(maxInFlight)
+    } finally {
+      executor.shutdownNow
+    }
+  }
+
+  /** creates symbol files of batch in one atomic action */
+  private def createSymbolFiles(batch: Seq[String]) {
+    folder.getPrimaryFile.getFileSystem.runAtomicAction(new FileSystem.AtomicAction {
+        def run {
+          for (symbol <- batch) {
+            SymbolNodes.createSymbolXmlFile(folder, symbol)
+          }
+        }
+      })
+  }
+
+  /** creates the missing secs of batch, and commits them at once */
+  private def createSecs(batch: Seq[String]) {
+    val missing = batch filter (Exchange.secOf(_).isEmpty) map {x => (x.toUpperCase, x)}
+    if (missing.isEmpty) {
+      return
+    }
+
+    log.info("Create secs for: " + missing.map(_._1).mkString(","))
+    for (sec <- Exchanges.createSimpleSecs(missing.toArray, true)) {
+      Exchange.secAdded(sec.uniSymbol)
+    }
+  }
+
+  /**
+   * Loads the quotes of symbol through the quote server of quoteContract, with
+   * a copy of quoteContract for symbol, which points to its file if it has one.
+   *
+   * @return number of quotes loaded, or -1 if failed
+   */
+  private def load(symbol: String): Int = {
+    val sec = Exchange.secOf(symbol) match {
+      case Some(x) => x
+      case None => log.warning("No sec for: " + symbol); return -1
+    }
+    val ser = sec.serOf(freq) match {
+      case Some(x) => x
+      case None => log.warning("No ser of " + freq + " for: " + symbol); return -1
+    }
+    if (ser.isLoaded) {
+      return ser.size
+    }
+
+    val quoteServer = quoteContract.serviceInstance() match {
+      case Some(x) => x
+      case None => log.warning("No quote server of " + quoteContract.serviceClassName + " for: " + symbol); return -1
+    }
+
+    val contract = quoteContract.clone.asInstanceOf[QuoteContract]
+    contract.isRefreshable = false
+    symbolFiles.get(symbol) match {
+      case null => contract.srcSymbol = quoteServer.toSrcSymbol(sec.uniSymbol)
+      case file =>
+        contract.srcSymbol = ImportSymbolDialog.srcSymbolOf(file)
+        contract.urlString = "file:" + file.getPath
+    }
+
+    if (awaitLoaded(ser)(quoteServer.loadData(List(contract)))) {
+      val size = ser.size
+      sec.resetSers // release for memory
+      size
+    } else -1
+  }
+
+  private def awaitLoaded(ser: QuoteSer)(load: => Unit): Boolean = {
+    val loaded = new SyncVar[Boolean]
+    val reactor = new Reactor {
+      reactions += {
+        case TSerEvent.Loaded(serx, _, _, _, _, _) if serx eq ser => loaded.set(true)
+      }
+    }
+    // listen before loading, the event may come before loadSer returns
+    reactor.listenTo(ser)
+    try {
+      load
+      var waited = 0L
+      while (!ser.isLoaded && !loaded.isSet && waited < LoadTimeout && !cancelled) {
+        loaded.get(PollInterval)
+        waited += PollInterval
+      }
+      ser.isLoaded || loaded.isSet
+    } finally {
+      reactor.deafTo(ser)
+      reactor.stop
+    }
+  }
+
+  private def refreshStatus {
+    val done = nDone.get
+    val seconds = math.max(System.currentTimeMillis - startTime, 1) / 1000.0
+    progressBar.setValue(done)
+    val key = if (!finished) "Bulk_Importing" else if (cancelled) "Bulk_Import_Cancelled" else "Bulk_Import_Done"
+    statusLabel.setText(MessageFormat.format(BUNDLE.getString(key),
+                                             done.asInstanceOf[AnyRef], symbols.size.asInstanceOf[AnyRef],
+                                             nFailed.get.asInstanceOf[AnyRef],
+                                             (done / seconds).toInt.asInstanceOf[AnyRef],
+                                             (nQuotes.get / seconds).toLong.asInstanceOf[AnyRef],
+                                             seconds.toInt.asInstanceOf[AnyRef]))
+  }
+}
+
+object BulkImportPane {
+  private val log = Logger.getLogger(this.getClass.getName)
+  private val BUNDLE = ResourceBundle.getBundle("org.aiotrade.modules.ui.dialog.Bundle")
+
+  val DefaultThreads = math.min(Runtime.getRuntime.availableProcessors * 2, 8)
+  /** number of symbol files created in one atomic action, and of secs created in one commit */
+  val BatchSize = 100
+
+  private val RefreshInterval = 500
+  private val PollInterval = 500L
+  private val LoadTimeout = 5 * 60 * 1000L
+}